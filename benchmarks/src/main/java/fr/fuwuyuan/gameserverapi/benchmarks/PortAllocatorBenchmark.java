@@ -0,0 +1,116 @@
+package fr.fuwuyuan.gameserverapi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.fuwuyuan.gameserverapi.cache.PortAllocator;
+
+/**
+ * Benchmarks the port allocation of a room creation, which replaced the json
+ * array manipulations of {@code JsonUtils}, at realistic port range sizes.
+ * Half of the ports are used, spread over the range.</br>
+ * The {@code 'ports'} table is stood in by a store which only keeps the
+ * length of the range lists and never conflicts: nothing goes through the
+ * network.
+ * @author julien-beguier
+ * @see {@link PortAllocator}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PortAllocatorBenchmark {
+
+	private final static int	FIRST_PORT = 50000;
+
+	@Param({ "100", "1000", "10000" })
+	public int					ports;
+
+	private String				usedJson;
+	private String				availableJson;
+	private PortAllocator		allocator;
+	private int					written;
+	private final PortAllocator.Store store = new PortAllocator.Store() {
+		@Override
+		public int write(String used, String available, long version) {
+			PortAllocatorBenchmark.this.written = used.length() + available.length();
+			return 0;
+		}
+
+		@Override
+		public PortAllocator.Row read() {
+			return null;
+		}
+	};
+
+	@Setup
+	public void setup() {
+		StringBuilder used = new StringBuilder("[");
+		StringBuilder available = new StringBuilder("[");
+		for (int port = FIRST_PORT; port < FIRST_PORT + this.ports; port++) {
+			StringBuilder sb = port % 2 == 0 ? used : available;
+			if (sb.length() > 1)
+				sb.append(',');
+			sb.append(port);
+		}
+		this.usedJson = used.append(']').toString();
+		this.availableJson = available.append(']').toString();
+		this.allocator = new PortAllocator(this.usedJson, this.availableJson);
+	}
+
+	/**
+	 * Loading the ports of an ip from the {@code 'ports'} table, in the
+	 * former plain array format.
+	 */
+	@Benchmark
+	public PortAllocator load() {
+		return new PortAllocator(this.usedJson, this.availableJson);
+	}
+
+	/**
+	 * Claiming a port for a room, then releasing it on shutdown.
+	 */
+	@Benchmark
+	public int claimAndRelease() {
+		int port = this.allocator.claim();
+		this.allocator.release(port);
+		return port;
+	}
+
+	/**
+	 * Same as {@link #claimAndRelease()} from concurrent requests.
+	 */
+	@Benchmark
+	@Threads(4)
+	public int claimAndReleaseContended() {
+		int port = this.allocator.claim();
+		this.allocator.release(port);
+		return port;
+	}
+
+	/**
+	 * Claiming a port and persisting the ports of the ip, the worst case of
+	 * the background write of {@code PortService}, one write per change.
+	 */
+	@Benchmark
+	public int claimAndPersist() {
+		int port = this.allocator.claim();
+		this.allocator.persist(this.store);
+		this.allocator.release(port);
+		return port;
+	}
+}
@@ -0,0 +1,90 @@
+package fr.fuwuyuan.gameserverapi.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.bind.JsonbBuilder;
+import javax.ws.rs.core.Response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.responses.ErrorResponse;
+import fr.fuwuyuan.gameserverapi.responses.GameServerListResponse;
+
+/**
+ * Benchmarks the logging of a response by {@link ResponseHandler#outgoing},
+ * with the settings of {@code application.properties}: a room list already
+ * serialized (the cached {@code GET /room}), a room list to serialize and an
+ * error. The console is replaced by a stream discarding everything, only
+ * the cost paid by the request thread is measured.
+ * @author julien-beguier
+ * @see {@link ResponseHandler}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseHandlerBenchmark {
+
+	private final static String	CALLER_IP = "127.0.0.1";
+
+	private ResponseHandler		rh;
+	private Response			cachedList;
+	private Response			list;
+	private Response			error;
+	private PrintStream			out;
+	private PrintStream			err;
+
+	@Setup
+	public void setup() throws Exception {
+		this.out = System.out;
+		this.err = System.err;
+		PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+		System.setOut(discard);
+		System.setErr(discard);
+
+		this.rh = new ResponseHandler();
+		GameServerListResponse rooms = new GameServerListResponse(Rooms.slims(100));
+		byte[] json = JsonbBuilder.create().toJson(rooms).getBytes(StandardCharsets.UTF_8);
+		this.cachedList = Response.ok(json).build();
+		this.list = Response.ok(rooms).build();
+		this.error = Response.status(Response.Status.NOT_FOUND)
+				.entity(new ErrorResponse(Response.Status.NOT_FOUND, "No game server with given id found")).build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(this.out);
+		System.setErr(this.err);
+	}
+
+	@Benchmark
+	public Response cachedRoomList() {
+		return this.rh.outgoing(CALLER_IP, "getGameServers", this.cachedList);
+	}
+
+	@Benchmark
+	public Response roomList() {
+		return this.rh.outgoing(CALLER_IP, "getGameServerByGameNameAndGameVersion", this.list);
+	}
+
+	@Benchmark
+	public Response error() {
+		return this.rh.outgoing(CALLER_IP, "getGameServerById", this.error);
+	}
+}
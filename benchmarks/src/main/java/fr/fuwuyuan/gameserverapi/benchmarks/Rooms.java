@@ -0,0 +1,38 @@
+package fr.fuwuyuan.gameserverapi.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
+import fr.fuwuyuan.gameserverapi.database.dto.GameServerDTO;
+
+/**
+ * This utility class builds realistic rooms for the benchmarks, instead of
+ * reading them from the database.
+ * @author julien-beguier
+ */
+public class Rooms {
+
+	/**
+	 * @param id as an int value, the {@code server_id} of the room
+	 * @return a full room, as read from the {@code 'servers'} table
+	 */
+	public static GameServerDTO dto(int id) {
+		GameServerDTO gs = new GameServerDTO(String.valueOf(id), "123.12.3.123", 50000 + id % 1000,
+				"Join my Pong game #" + id + "!", "A friendly game, everyone is welcome", "Pong", "1.0",
+				8, "2021-05-01 12:00:00", false);
+		gs.setNPlayers(id % 9);
+		return gs;
+	}
+
+	/**
+	 * @param n as an int value
+	 * @return {@code n} rooms as returned by {@code GET /room}
+	 */
+	public static List<GameServerSlim> slims(int n) {
+		List<GameServerSlim> rooms = new ArrayList<GameServerSlim>(n);
+		for (int id = 1; id <= n; id++)
+			rooms.add(new GameServerSlim(dto(id)));
+		return rooms;
+	}
+}
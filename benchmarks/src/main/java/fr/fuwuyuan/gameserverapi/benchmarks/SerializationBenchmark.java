@@ -0,0 +1,66 @@
+package fr.fuwuyuan.gameserverapi.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
+import fr.fuwuyuan.gameserverapi.database.dto.GameServerDTO;
+import fr.fuwuyuan.gameserverapi.responses.GameServerListResponse;
+
+/**
+ * Benchmarks the JSON-B serialization of a room as returned to the clients
+ * ({@link GameServerSlim}) against the full room ({@link GameServerDTO}), and
+ * of a room list as returned by {@code GET /room}.
+ * @author julien-beguier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+	private Jsonb					jsonb;
+	private GameServerDTO			dto;
+	private GameServerSlim			slim;
+	private GameServerListResponse	list;
+
+	@Setup
+	public void setup() {
+		this.jsonb = JsonbBuilder.create();
+		this.dto = Rooms.dto(42);
+		this.slim = new GameServerSlim(this.dto);
+		List<GameServerSlim> rooms = Rooms.slims(100);
+		this.list = new GameServerListResponse(rooms);
+	}
+
+	@Benchmark
+	public String gameServerSlim() {
+		return this.jsonb.toJson(this.slim);
+	}
+
+	@Benchmark
+	public String gameServerDTO() {
+		return this.jsonb.toJson(this.dto);
+	}
+
+	@Benchmark
+	public String roomListOf100() {
+		return this.jsonb.toJson(this.list);
+	}
+}
@@ -0,0 +1,70 @@
+package fr.fuwuyuan.gameserverapi.services;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the validation of the input of {@code POST /room}, done before
+ * anything else by {@link GameServerService#createGameServer}. In the
+ * package of the service to reach its package-private checks.
+ * @author julien-beguier
+ * @see {@link GameServerService}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationBenchmark {
+
+	private GameServerService	service;
+	private JsonObject			valid;
+	private JsonObject			missingProperty;
+	private JsonObject			blankProperty;
+
+	@Setup
+	public void setup() {
+		this.service = new GameServerService();
+		this.valid = Json.createObjectBuilder()
+				.add("name", "Join my Pong game!")
+				.add("description", "A friendly game, everyone is welcome")
+				.add("game", "Pong")
+				.add("game_version", "1.0")
+				.add("n_max_players", 8)
+				.build();
+		this.missingProperty = Json.createObjectBuilder(this.valid).remove("n_max_players").build();
+		this.blankProperty = Json.createObjectBuilder(this.valid).add("game", " ").build();
+	}
+
+	@Benchmark
+	public void validInput(Blackhole bh) {
+		bh.consume(this.service.isCGSIIntegrityOK(this.valid));
+		bh.consume(this.service.hasCGSIAnyMandatoryPropertyInvalid(this.valid));
+	}
+
+	@Benchmark
+	public void missingProperty(Blackhole bh) {
+		bh.consume(this.service.isCGSIIntegrityOK(this.missingProperty));
+	}
+
+	@Benchmark
+	public void blankProperty(Blackhole bh) {
+		bh.consume(this.service.isCGSIIntegrityOK(this.blankProperty));
+		bh.consume(this.service.hasCGSIAnyMandatoryPropertyInvalid(this.blankProperty));
+	}
+}
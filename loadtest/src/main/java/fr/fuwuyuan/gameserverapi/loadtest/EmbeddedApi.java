@@ -0,0 +1,124 @@
+package fr.fuwuyuan.gameserverapi.loadtest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.webapp.WebAppContext;
+
+import fr.fuwuyuan.gameserverapi.ip.PublicIpResolver;
+
+/**
+ * This class boots the api in an embedded Jetty, from its own
+ * {@code WEB-INF/web.xml}, as it is deployed.
+ * <p>
+ * The classes of the api come from the class path, its
+ * {@code application.properties} is written in a temporary directory added
+ * to the class path of the web application, ahead of the packaged one.
+ * The {@link PublicIpResolver} is given a stub source, the api then never
+ * looks for the public ip of the host.
+ * </p>
+ * @author julien-beguier
+ * @see {@link LoadTest}
+ */
+public class EmbeddedApi {
+
+	public final static String	CONTEXT_PATH = "/gameserver-api";
+
+	private final Server		server;
+	private final Path			configDirectory;
+	private final URI			baseUri;
+
+	/**
+	 * Starts the api on a free port.
+	 * @param webappDirectory as a {@link Path}, {@code src/main/webapp}
+	 * @param properties as a {@link Properties}, the
+	 * {@code application.properties} of the api
+	 * @param publicIp as a String, returned by the stub ip source
+	 * @throws Exception if the server cannot be started
+	 */
+	public EmbeddedApi(Path webappDirectory, Properties properties, String publicIp) throws Exception {
+		this.configDirectory = Files.createTempDirectory("gameserver-api-loadtest");
+		try (Writer writer = Files.newBufferedWriter(this.configDirectory.resolve("application.properties"),
+				StandardCharsets.ISO_8859_1)) {
+			properties.store(writer, "Written by the load test");
+		}
+
+		WebAppContext webapp = new WebAppContext();
+		webapp.setContextPath(CONTEXT_PATH);
+		webapp.setDescriptor(webappDirectory.resolve("WEB-INF/web.xml").toString());
+		webapp.setResourceBase(webappDirectory.toString());
+		webapp.setExtraClasspath(this.configDirectory.toString());
+		webapp.setParentLoaderPriority(false);
+		webapp.setThrowUnavailableOnStartupException(true);
+
+		this.server = new Server(0);
+		this.server.setHandler(webapp);
+		this.server.start();
+		int port = ((ServerConnector) this.server.getConnectors()[0]).getLocalPort();
+		this.baseUri = URI.create("http://localhost:" + port + CONTEXT_PATH + "/v1");
+
+		// The singletons read application.properties from the context class
+		// loader of the first thread using them
+		Thread current = Thread.currentThread();
+		ClassLoader previous = current.getContextClassLoader();
+		current.setContextClassLoader(webapp.getClassLoader());
+		try {
+			PublicIpResolver.getInstance().setSource(() -> publicIp);
+		} finally {
+			current.setContextClassLoader(previous);
+		}
+	}
+
+	/**
+	 * @param overrides as a {@link Map}, the properties replacing the
+	 * defaults of the load test
+	 * @param database as a {@link EmbeddedDatabase}
+	 * @param publicIp as a String
+	 * @return the {@code application.properties} of the api
+	 */
+	public static Properties properties(Map<String, String> overrides, EmbeddedDatabase database, String publicIp) {
+		Properties properties = new Properties();
+		properties.setProperty("SQL_ADDR", "127.0.0.1");
+		properties.setProperty("SQL_PORT", String.valueOf(database.getPort()));
+		properties.setProperty("SQL_DATABASE", EmbeddedDatabase.DATABASE);
+		properties.setProperty("SQL_USER", EmbeddedDatabase.USER);
+		properties.setProperty("SQL_PASSWORD", EmbeddedDatabase.PASSWORD);
+		// Never reached: the source is replaced by a stub once started
+		properties.setProperty("PUBLIC_IP_SOURCE_URL", "http://127.0.0.1:9/");
+		properties.setProperty("PUBLIC_IP_HTTP_TIMEOUT", "100");
+		properties.setProperty("PUBLIC_IP_FALLBACK", publicIp);
+		// The console of the load test is for its report
+		properties.setProperty("LOG_LEVEL", "ERROR");
+		properties.putAll(overrides);
+		return properties;
+	}
+
+	/**
+	 * @return the uri of the api, ending with its version
+	 */
+	public URI getBaseUri() {
+		return this.baseUri;
+	}
+
+	/**
+	 * This method stops the server and deletes its configuration.
+	 * @throws Exception if the server cannot be stopped
+	 */
+	public void stop() throws Exception {
+		this.server.stop();
+		try {
+			Files.deleteIfExists(this.configDirectory.resolve("application.properties"));
+			Files.deleteIfExists(this.configDirectory);
+		} catch (IOException e) {
+			// Left in the temporary directory
+		}
+	}
+}
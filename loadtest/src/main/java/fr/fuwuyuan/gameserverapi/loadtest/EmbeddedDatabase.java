@@ -0,0 +1,90 @@
+package fr.fuwuyuan.gameserverapi.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import ch.vorburger.exec.ManagedProcessException;
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+
+/**
+ * This class runs a throwaway MariaDB server, unpacked from the class path
+ * by MariaDB4j, loaded with {@code sql/mysql_gameserver_structure.sql} and
+ * the few rows the api needs: its {@code auth_key} and the ports of the
+ * stubbed public ip.
+ * @author julien-beguier
+ * @see {@link LoadTest}
+ */
+public class EmbeddedDatabase {
+
+	/**
+	 * The database created by {@code mysql_gameserver_structure.sql}.
+	 */
+	public final static String	DATABASE = "testgameserver";
+	/**
+	 * Any user is accepted, the grant tables are disabled.
+	 */
+	public final static String	USER = "root";
+	public final static String	PASSWORD = "";
+
+	private final DB			db;
+
+	/**
+	 * Starts the server on a free port and loads it.
+	 * @param structureFile as a {@link Path}, the SQL script creating the
+	 * tables
+	 * @param authKey as a String, stored in the {@code 'settings'} table
+	 * @param publicIp as a String, the ip the api allocates ports for
+	 * @param firstPort as an int value, the first port of {@code publicIp}
+	 * @param lastPort as an int value, the last port of {@code publicIp}
+	 * @throws ManagedProcessException if the server cannot be started or
+	 * loaded
+	 * @throws IOException if {@code structureFile} cannot be read
+	 */
+	public EmbeddedDatabase(Path structureFile, String authKey, String publicIp, int firstPort, int lastPort)
+			throws ManagedProcessException, IOException {
+		DBConfigurationBuilder config = DBConfigurationBuilder.newBuilder();
+		config.setPort(0); // A free port is picked
+		// The server refuses to run as root unless told to, in a container for instance
+		if ("root".equals(System.getProperty("user.name")))
+			config.addArg("--user=root");
+		this.db = DB.newEmbeddedDB(config.build());
+		this.db.start();
+
+		try (InputStream is = Files.newInputStream(structureFile)) {
+			this.db.source(is, USER, PASSWORD, null);
+		}
+		this.db.run("INSERT INTO `settings` (`setting_key`, `setting_value`) VALUES ('header_auth_key', '"
+				+ authKey + "');", USER, PASSWORD, DATABASE);
+		registerHost(publicIp, firstPort, lastPort);
+	}
+
+	/**
+	 * This method registers the ports of another host, to place rooms on.
+	 * @param publicIp as a String
+	 * @param firstPort as an int value, the first port of {@code publicIp}
+	 * @param lastPort as an int value, the last port of {@code publicIp}
+	 * @throws ManagedProcessException if the ports cannot be inserted
+	 */
+	public void registerHost(String publicIp, int firstPort, int lastPort) throws ManagedProcessException {
+		this.db.run("INSERT INTO `ports` (`public_ip`, `used`, `available`) VALUES ('" + publicIp + "', '[]', '[["
+				+ firstPort + ", " + lastPort + "]]');", USER, PASSWORD, DATABASE);
+	}
+
+	/**
+	 * @return the port the server listens to, on {@code localhost}
+	 */
+	public int getPort() {
+		return this.db.getConfiguration().getPort();
+	}
+
+	/**
+	 * This method stops the server, its files are deleted.
+	 * @throws ManagedProcessException if the server cannot be stopped
+	 */
+	public void stop() throws ManagedProcessException {
+		this.db.stop();
+	}
+}
@@ -0,0 +1,113 @@
+package fr.fuwuyuan.gameserverapi.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.fuwuyuan.gameserverapi.metrics.LatencyHistogram;
+
+/**
+ * This utility class prints the result of a load test: per operation, the
+ * throughput, the latency percentiles and the error rates. It can also save
+ * them to a properties file, read back by a {@link ThreadModeComparison}.
+ * @author julien-beguier
+ * @see {@link OpenLoadGenerator}
+ */
+public class LoadReport {
+
+	private final static double[]	PERCENTILES = { 0.5, 0.9, 0.95, 0.99, 0.999 };
+	private final static double		NANOS_PER_MILLI = 1e6;
+
+	/**
+	 * @param out as a {@link PrintStream}
+	 * @param generator as an {@link OpenLoadGenerator}, after its run
+	 * @param rate as a double value, the target rate in requests per second
+	 * @param duration as a {@link Duration}, the measured part of the run
+	 */
+	public static void print(PrintStream out, OpenLoadGenerator generator, double rate, Duration duration) {
+		double seconds = duration.toNanos() / 1e9;
+		out.printf("%nTarget rate %.1f req/s over %.1f s, max send lag %.2f ms, %d rooms created, %d unanswered%n",
+				rate, seconds, generator.getMaxSendLagNanos() / NANOS_PER_MILLI, generator.getCreatedRooms(),
+				generator.getUnanswered());
+		out.printf("%n%-26s %9s %9s %8s %8s", "operation", "sent", "req/s", "errors", "failed");
+		for (double percentile : PERCENTILES)
+			out.printf(" %9s", "p" + trim(percentile * 100));
+		out.printf(" %9s   statuses%n", "max");
+
+		long totalSent = 0, totalErrors = 0, totalFailures = 0;
+		for (Map.Entry<Operation, OperationStats> e : generator.getStats().entrySet()) {
+			OperationStats stats = e.getValue();
+			if (stats.getSent() == 0)
+				continue;
+			totalSent += stats.getSent();
+			totalErrors += stats.getErrors();
+			totalFailures += stats.getFailures();
+
+			LatencyHistogram.Snapshot snapshot = stats.getLatency().snapshot();
+			out.printf("%-26s %9d %9.1f %7.2f%% %7.2f%%", e.getKey().getRoute(), stats.getSent(),
+					snapshot.getCount() / seconds, percent(stats.getErrors(), stats.getSent()),
+					percent(stats.getFailures(), stats.getSent()));
+			for (double percentile : PERCENTILES)
+				out.printf(" %7.2fms", snapshot.getValueAtQuantile(percentile) / NANOS_PER_MILLI);
+			out.printf(" %7.2fms  ", snapshot.getMaxNanos() / NANOS_PER_MILLI);
+			for (Map.Entry<Integer, LongAdder> status : stats.getStatuses().entrySet())
+				out.print(" " + status.getKey() + "x" + status.getValue().sum());
+			out.println();
+		}
+		out.printf("%-26s %9d %9.1f %7.2f%% %7.2f%%%n", "total", totalSent, totalSent / seconds,
+				percent(totalErrors, totalSent), percent(totalFailures, totalSent));
+		out.println("\nLatencies are measured from the time each request was due, errors are non 2XX responses,"
+				+ " failures are requests without response.");
+	}
+
+	/**
+	 * This method saves, per operation, the throughput, the error rate and
+	 * the latency percentiles as {@code <operation>.<name>} properties, for
+	 * instance {@code list.p99=12.5} in milliseconds.
+	 * @param file as a {@link Path}
+	 * @param generator as an {@link OpenLoadGenerator}, after its run
+	 * @param duration as a {@link Duration}, the measured part of the run
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void save(Path file, OpenLoadGenerator generator, Duration duration) throws IOException {
+		double seconds = duration.toNanos() / 1e9;
+		Properties result = new Properties();
+		for (Map.Entry<Operation, OperationStats> e : generator.getStats().entrySet()) {
+			OperationStats stats = e.getValue();
+			if (stats.getSent() == 0)
+				continue;
+			String key = e.getKey().getKey();
+			LatencyHistogram.Snapshot snapshot = stats.getLatency().snapshot();
+			result.setProperty(key + ".sent", String.valueOf(stats.getSent()));
+			result.setProperty(key + ".rps", format(snapshot.getCount() / seconds));
+			result.setProperty(key + ".errors", format(percent(stats.getErrors() + stats.getFailures(), stats.getSent())));
+			for (double percentile : PERCENTILES)
+				result.setProperty(key + ".p" + trim(percentile * 100),
+						format(snapshot.getValueAtQuantile(percentile) / NANOS_PER_MILLI));
+		}
+		try (OutputStream out = Files.newOutputStream(file)) {
+			result.store(out, "Load test result");
+		}
+	}
+
+	// ##########################################################################
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.2f", value);
+	}
+
+	private static double percent(long part, long total) {
+		return total == 0 ? 0 : 100.0 * part / total;
+	}
+
+	private static String trim(double value) {
+		return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+	}
+}
@@ -0,0 +1,113 @@
+package fr.fuwuyuan.gameserverapi.loadtest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import fr.fuwuyuan.gameserverapi.placement.Host;
+import fr.fuwuyuan.gameserverapi.placement.PlacementScheduler;
+
+/**
+ * This class runs an end-to-end load test of the api: an embedded MariaDB
+ * loaded with {@code sql/mysql_gameserver_structure.sql}, the api booted from
+ * its {@code web.xml} in an embedded Jetty with a stub public ip, then a mix
+ * of requests sent at a fixed rate by an {@link OpenLoadGenerator}.
+ * <p>
+ * The settings are system properties, with their default:
+ * <ul>
+ * <li>{@code loadtest.rate=200}: requests per second</li>
+ * <li>{@code loadtest.warmup=10}: seconds not measured</li>
+ * <li>{@code loadtest.duration=30}: seconds measured</li>
+ * <li>{@code loadtest.mix=create=1,list=6,get=2,delete=1}: the weight of each
+ * {@link Operation}</li>
+ * <li>{@code loadtest.timeout=10}: seconds after which a request fails</li>
+ * <li>{@code loadtest.threads=8}: threads handling the responses</li>
+ * <li>{@code loadtest.project=.}: the directory of the api project, holding
+ * {@code sql/} and {@code src/main/webapp/}</li>
+ * <li>{@code loadtest.stub=false}: launches a {@link StubGameServer} process
+ * per room, from pools started ahead</li>
+ * <li>{@code loadtest.hosts=1}: hosts registered in the {@code 'ports'}
+ * table, to be used with {@code -Dloadtest.app.PLACEMENT_STRATEGY}</li>
+ * <li>{@code loadtest.result}: a properties file the result is saved to,
+ * see {@link LoadReport#save}</li>
+ * <li>{@code loadtest.app.<KEY>}: sets {@code KEY} in the
+ * {@code application.properties} of the api, for instance
+ * {@code -Dloadtest.app.SQL_POOL_MAX_SIZE=20}</li>
+ * </ul>
+ * </p>
+ * @author julien-beguier
+ * @see {@link LoadReport}
+ */
+public class LoadTest {
+
+	final static String		APP_PROPERTY_PREFIX = "loadtest.app.";
+	final static String		AUTH_KEY = "loadtest-auth-key";
+	/**
+	 * Returned by the stub ip source, from a range reserved for documentation.
+	 */
+	private final static String	PUBLIC_IP_PREFIX = "203.0.113.";
+	private final static int	PUBLIC_IP_LAST_BYTE = 10;
+	final static String		PUBLIC_IP = PUBLIC_IP_PREFIX + PUBLIC_IP_LAST_BYTE;
+	final static int		FIRST_PORT = 20000;
+	final static int		LAST_PORT = 59999;
+
+	public static void main(String[] args) throws Exception {
+		// Jetty and MariaDB4j only report their warnings
+		if (System.getProperty("org.slf4j.simpleLogger.defaultLogLevel") == null)
+			System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+		double rate = Double.parseDouble(System.getProperty("loadtest.rate", "200"));
+		Duration warmup = Duration.ofSeconds(Long.getLong("loadtest.warmup", 10));
+		Duration duration = Duration.ofSeconds(Long.getLong("loadtest.duration", 30));
+		Map<Operation, Integer> mix = Operation.parseMix(
+				System.getProperty("loadtest.mix", "create=1,list=6,get=2,delete=1"));
+		Duration timeout = Duration.ofSeconds(Long.getLong("loadtest.timeout", 10));
+		int threads = Integer.getInteger("loadtest.threads", 8);
+		int hosts = Math.max(1, Integer.getInteger("loadtest.hosts", 1));
+		Path project = Paths.get(System.getProperty("loadtest.project", ".")).toAbsolutePath().normalize();
+		Map<String, String> overrides = new HashMap<String, String>();
+		if (Boolean.getBoolean("loadtest.stub")) {
+			String classPath = Paths.get(LoadTest.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+					.toString();
+			overrides.put("LAUNCHER_COMMAND", Paths.get(System.getProperty("java.home"), "bin", "java")
+					+ " -Xmx16m -XX:TieredStopAtLevel=1 -cp " + classPath + " " + StubGameServer.class.getName() + " {port}");
+			overrides.put("LAUNCHER_POOL_GAMES", "Pong:1.0");
+		}
+		for (String name : System.getProperties().stringPropertyNames())
+			if (name.startsWith(APP_PROPERTY_PREFIX))
+				overrides.put(name.substring(APP_PROPERTY_PREFIX.length()), System.getProperty(name));
+
+		System.out.println("Starting the database...");
+		EmbeddedDatabase database = new EmbeddedDatabase(project.resolve("sql/mysql_gameserver_structure.sql"),
+				AUTH_KEY, PUBLIC_IP, FIRST_PORT, LAST_PORT);
+		EmbeddedApi api = null;
+		try {
+			// The next ips of the documentation range, without any game server
+			for (int i = 1; i < hosts; i++)
+				database.registerHost(PUBLIC_IP_PREFIX + (PUBLIC_IP_LAST_BYTE + i), FIRST_PORT, LAST_PORT);
+			System.out.println("Starting the api...");
+			api = new EmbeddedApi(project.resolve("src/main/webapp"),
+					EmbeddedApi.properties(overrides, database, PUBLIC_IP), PUBLIC_IP);
+			System.out.printf("Sending %.1f req/s to %s, %d s of warmup then %d s measured, mix %s%n", rate,
+					api.getBaseUri(), warmup.getSeconds(), duration.getSeconds(), mix);
+
+			OpenLoadGenerator generator = new OpenLoadGenerator(api.getBaseUri(), AUTH_KEY, mix, timeout, threads);
+			generator.run(rate, warmup, duration);
+			LoadReport.print(System.out, generator, rate, duration);
+			if (System.getProperty("loadtest.result") != null)
+				LoadReport.save(Paths.get(System.getProperty("loadtest.result")), generator, duration);
+			if (PlacementScheduler.getInstance().isEnabled())
+				for (Host host : PlacementScheduler.getInstance().getHosts())
+					System.out.println("Host " + host);
+		} finally {
+			// Stops the background threads of the api: the idle game servers
+			// give their ports back while the database runs
+			if (api != null)
+				api.stop();
+			database.stop();
+		}
+		// Without waiting for the idle threads of the clients and requests
+		System.exit(0);
+	}
+}
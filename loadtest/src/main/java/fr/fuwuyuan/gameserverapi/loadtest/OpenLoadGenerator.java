@@ -0,0 +1,234 @@
+package fr.fuwuyuan.gameserverapi.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
+
+/**
+ * This class sends requests to the api at a fixed arrival rate, whatever the
+ * time the api takes to answer them: an open model, as clients arriving on
+ * their own.
+ * <p>
+ * The {@code i}-th request is due at {@code start + i / rate}. It is sent
+ * asynchronously as soon as it is due, and its latency is measured from the
+ * time it was due, not from the time it was actually sent: when the api or
+ * the generator falls behind, the wait is part of the latency instead of
+ * being hidden (no coordinated omission). The largest gap between due and
+ * sent times is reported, a large one means the generator itself was short
+ * of resources.
+ * </p>
+ * <p>
+ * The operation of each request is drawn from the weighted mix. Created
+ * rooms are kept in a pool: {@code GET /room/{id}} reads the most recent one
+ * and {@code DELETE /room/{id}} deletes the oldest one, so that both rarely
+ * race on the same room. The heartbeats are sent by each room in turn. While
+ * the pool is empty they create a room instead. The rooms created by a
+ * quick join are added to the pool.
+ * </p>
+ * @author julien-beguier
+ * @see {@link LoadTest}
+ */
+public class OpenLoadGenerator {
+
+	private final static Pattern	SERVER_ID = Pattern.compile("\"server_id\"\\s*:\\s*\"?(\\w+)");
+
+	private final URI				baseUri;
+	private final String			authKey;
+	private final Duration			timeout;
+	private final Operation[]		operations;
+	private final int[]				cumulativeWeights;
+	private final ExecutorService	responseExecutor;
+	private final HttpClient		client;
+	private final ConcurrentLinkedDeque<String>	rooms = new ConcurrentLinkedDeque<String>();
+	private final EnumMap<Operation, OperationStats>	stats = new EnumMap<Operation, OperationStats>(Operation.class);
+	private final LongAdder			inFlight = new LongAdder();
+	private final AtomicLong		createdRooms = new AtomicLong();
+	private long					maxSendLagNanos = 0;
+
+	/**
+	 * @param baseUri as a {@link URI}, the api up to its version
+	 * @param authKey as a String, sent in the {@code auth_key} header
+	 * @param mix as a {@link Map}, the weight of each operation
+	 * @param timeout as a {@link Duration}, after which a request fails
+	 * @param threads as an int value, the threads handling the responses
+	 */
+	public OpenLoadGenerator(URI baseUri, String authKey, Map<Operation, Integer> mix, Duration timeout, int threads) {
+		this.baseUri = baseUri;
+		this.authKey = authKey;
+		this.timeout = timeout;
+		this.operations = mix.keySet().toArray(new Operation[0]);
+		this.cumulativeWeights = new int[this.operations.length];
+		int total = 0;
+		for (int i = 0; i < this.operations.length; i++)
+			this.cumulativeWeights[i] = total += mix.get(this.operations[i]);
+		for (Operation operation : Operation.values())
+			this.stats.put(operation, new OperationStats());
+
+		this.responseExecutor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("loadtest-client"));
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(timeout)
+				.executor(this.responseExecutor)
+				.build();
+	}
+
+	/**
+	 * This method sends requests at {@code rate} per second for
+	 * {@code warmup} then {@code duration}, and waits for the last ones to
+	 * be answered. Only the requests due after the warmup are measured.
+	 * @param rate as a double value, in requests per second
+	 * @param warmup as a {@link Duration}
+	 * @param duration as a {@link Duration}, measured
+	 */
+	public void run(double rate, Duration warmup, Duration duration) {
+		double periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		long start = System.nanoTime();
+		long measuredFrom = start + warmup.toNanos();
+		long end = measuredFrom + duration.toNanos();
+
+		for (long i = 0;; i++) {
+			long due = start + (long) (i * periodNanos);
+			if (due - end >= 0)
+				break;
+			long wait;
+			while ((wait = due - System.nanoTime()) > 0)
+				LockSupport.parkNanos(wait);
+			boolean measured = due - measuredFrom >= 0;
+			if (measured)
+				this.maxSendLagNanos = Math.max(this.maxSendLagNanos, System.nanoTime() - due);
+			send(pick(), due, measured);
+		}
+
+		// The requests still running are given their timeout to complete
+		long deadline = System.nanoTime() + this.timeout.toNanos() + TimeUnit.SECONDS.toNanos(1);
+		while (this.inFlight.sum() > 0 && deadline - System.nanoTime() > 0)
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		this.responseExecutor.shutdownNow();
+	}
+
+	/**
+	 * @return the measures of each operation
+	 */
+	public Map<Operation, OperationStats> getStats() {
+		return this.stats;
+	}
+
+	/**
+	 * @return the largest delay between the time a measured request was due
+	 * and the time it was sent, in nanoseconds
+	 */
+	public long getMaxSendLagNanos() {
+		return this.maxSendLagNanos;
+	}
+
+	/**
+	 * @return the number of rooms created, warmup included
+	 */
+	public long getCreatedRooms() {
+		return this.createdRooms.get();
+	}
+
+	/**
+	 * @return the number of requests without response once the run is over
+	 */
+	public long getUnanswered() {
+		return this.inFlight.sum();
+	}
+
+	// ##########################################################################
+
+	private Operation pick() {
+		int draw = ThreadLocalRandom.current().nextInt(this.cumulativeWeights[this.cumulativeWeights.length - 1]);
+		for (int i = 0; i < this.cumulativeWeights.length; i++)
+			if (draw < this.cumulativeWeights[i])
+				return this.operations[i];
+		return this.operations[this.operations.length - 1];
+	}
+
+	private void send(Operation operation, long due, boolean measured) {
+		String roomId = null;
+		if (operation == Operation.GET)
+			roomId = this.rooms.peekLast();
+		else if (operation == Operation.DELETE)
+			roomId = this.rooms.pollFirst();
+		else if (operation == Operation.HEARTBEAT && (roomId = this.rooms.pollFirst()) != null)
+			this.rooms.addLast(roomId);
+		if (operation != Operation.CREATE && operation != Operation.LIST && operation != Operation.QUICKJOIN
+				&& roomId == null)
+			operation = Operation.CREATE;
+
+		HttpRequest request = request(operation, roomId, due);
+		OperationStats operationStats = this.stats.get(operation);
+		Operation sentOperation = operation;
+		if (measured)
+			operationStats.sent();
+		this.inFlight.increment();
+
+		CompletableFuture<HttpResponse<String>> future = this.client.sendAsync(request,
+				HttpResponse.BodyHandlers.ofString());
+		future.whenComplete((response, error) -> {
+			long latency = System.nanoTime() - due;
+			// A quick join may create a room too
+			if (error == null && response.statusCode() == 201
+					&& (sentOperation == Operation.CREATE || sentOperation == Operation.QUICKJOIN)) {
+				Matcher matcher = SERVER_ID.matcher(response.body());
+				if (matcher.find()) {
+					this.rooms.addLast(matcher.group(1));
+					this.createdRooms.incrementAndGet();
+				}
+			}
+			if (measured) {
+				if (error == null)
+					operationStats.responded(latency, response.statusCode());
+				else
+					operationStats.failed(latency);
+			}
+			this.inFlight.decrement();
+		});
+	}
+
+	private HttpRequest request(Operation operation, String roomId, long due) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder().timeout(this.timeout).header("auth_key", this.authKey);
+		switch (operation) {
+		case CREATE:
+			String body = "{\"name\":\"Load test room " + due + "\",\"description\":\"Created by the load test\","
+					+ "\"game\":\"Pong\",\"game_version\":\"1.0\",\"n_max_players\":8}";
+			return builder.uri(this.baseUri.resolve(this.baseUri.getPath() + "/room"))
+					.header("Content-Type", "application/json")
+					.POST(HttpRequest.BodyPublishers.ofString(body)).build();
+		case LIST:
+			return builder.uri(this.baseUri.resolve(this.baseUri.getPath() + "/room")).GET().build();
+		case GET:
+			return builder.uri(this.baseUri.resolve(this.baseUri.getPath() + "/room/" + roomId)).GET().build();
+		case HEARTBEAT:
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			String beat = "{\"n_players\":" + random.nextInt(9) + ",\"load\":" + random.nextInt(100) / 100.0 + "}";
+			return builder.uri(this.baseUri.resolve(this.baseUri.getPath() + "/room/" + roomId + "/heartbeat"))
+					.header("Content-Type", "application/json")
+					.POST(HttpRequest.BodyPublishers.ofString(beat)).build();
+		case QUICKJOIN:
+			return builder.uri(this.baseUri.resolve(this.baseUri.getPath() + "/room/quickjoin"))
+					.header("Content-Type", "application/json")
+					.POST(HttpRequest.BodyPublishers.ofString("{\"game\":\"Pong\",\"game_version\":\"1.0\"}")).build();
+		default:
+			return builder.uri(this.baseUri.resolve(this.baseUri.getPath() + "/room/" + roomId)).DELETE().build();
+		}
+	}
+}
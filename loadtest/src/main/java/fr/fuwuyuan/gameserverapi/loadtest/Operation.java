@@ -0,0 +1,70 @@
+package fr.fuwuyuan.gameserverapi.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The requests sent by the load test, each one a route of the api.
+ * @author julien-beguier
+ * @see {@link OpenLoadGenerator}
+ */
+public enum Operation {
+	CREATE("create", "POST /room"),
+	LIST("list", "GET /room"),
+	GET("get", "GET /room/{id}"),
+	DELETE("delete", "DELETE /room/{id}"),
+	HEARTBEAT("heartbeat", "POST /room/{id}/heartbeat"),
+	QUICKJOIN("quickjoin", "POST /room/quickjoin");
+
+	private String key;
+	private String route;
+
+	Operation(String key, String route) {
+		this.key = key;
+		this.route = route;
+	}
+
+	/**
+	 * @return the name of the operation in the {@code loadtest.mix} setting
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	public String getRoute() {
+		return this.route;
+	}
+
+	/**
+	 * This method reads a mix of operations, for instance
+	 * {@code create=1,list=6,get=2,delete=1}. An operation left out is not
+	 * sent.
+	 * @param mix as a String, comma separated {@code operation=weight}
+	 * @return the weight of each operation
+	 * @throws IllegalArgumentException if the mix is not valid or its weights
+	 * are all 0
+	 */
+	public static Map<Operation, Integer> parseMix(String mix) {
+		Map<Operation, Integer> weights = new EnumMap<Operation, Integer>(Operation.class);
+		int total = 0;
+		for (String entry : mix.trim().split("\\s*,\\s*")) {
+			String[] keyValue = entry.split("\\s*=\\s*");
+			if (keyValue.length != 2)
+				throw new IllegalArgumentException("Invalid mix entry '" + entry + "', expected operation=weight");
+			Operation operation = null;
+			for (Operation o : values())
+				if (o.key.equals(keyValue[0]))
+					operation = o;
+			if (operation == null)
+				throw new IllegalArgumentException("Unknown operation '" + keyValue[0] + "' in the mix");
+			int weight = Integer.parseInt(keyValue[1]);
+			if (weight < 0)
+				throw new IllegalArgumentException("Negative weight for '" + keyValue[0] + "' in the mix");
+			weights.put(operation, weight);
+			total += weight;
+		}
+		if (total == 0)
+			throw new IllegalArgumentException("The mix '" + mix + "' sends nothing");
+		return weights;
+	}
+}
@@ -0,0 +1,69 @@
+package fr.fuwuyuan.gameserverapi.loadtest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.fuwuyuan.gameserverapi.metrics.LatencyHistogram;
+
+/**
+ * The measures of one {@link Operation}, over the measured part of the load
+ * test. A response is an error if its status is not 2XX, a request without
+ * response (refused connection, timeout) is a failure.
+ * @author julien-beguier
+ * @see {@link OpenLoadGenerator}
+ */
+public class OperationStats {
+
+	private final LatencyHistogram	latency = new LatencyHistogram();
+	private final LongAdder			sent = new LongAdder();
+	private final LongAdder			errors = new LongAdder();
+	private final LongAdder			failures = new LongAdder();
+	private final ConcurrentSkipListMap<Integer, LongAdder>	statuses = new ConcurrentSkipListMap<Integer, LongAdder>();
+
+	void sent() {
+		this.sent.increment();
+	}
+
+	/**
+	 * @param latencyNanos as a long value, since the request was due
+	 * @param status as an int value, the http status code of the response
+	 */
+	void responded(long latencyNanos, int status) {
+		this.latency.record(latencyNanos);
+		this.statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+		if (status / 100 != 2)
+			this.errors.increment();
+	}
+
+	/**
+	 * @param latencyNanos as a long value, since the request was due
+	 */
+	void failed(long latencyNanos) {
+		this.latency.record(latencyNanos);
+		this.failures.increment();
+	}
+
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public long getSent() {
+		return sent.sum();
+	}
+
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * @return the number of responses per http status code
+	 */
+	public Map<Integer, LongAdder> getStatuses() {
+		return statuses;
+	}
+}
@@ -0,0 +1,282 @@
+package fr.fuwuyuan.gameserverapi.loadtest;
+
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
+
+/**
+ * This class checks that the singleton controller and its shared services
+ * keep no state across requests: many threads create, read and delete
+ * rooms at once against the api booted as in the {@link LoadTest}, and
+ * every answer is checked.
+ * <p>
+ * Each room is created with a name and a number of players unique to its
+ * thread and iteration, so that a response showing the room of another
+ * request is detected. The checks are:
+ * <ul>
+ * <li>a {@code server_id} is never given twice</li>
+ * <li>a port is never given to two rooms alive at the same time</li>
+ * <li>{@code POST /room} and {@code GET /room/{id}} answer the room of the
+ * request, with its own name and number of players</li>
+ * <li>a room deleted answers {@code 404 Not Found}</li>
+ * <li>{@code GET /room} lists exactly the rooms kept once all the threads
+ * are done</li>
+ * </ul>
+ * A {@code 503 Service Unavailable}, the request queue of the api being
+ * full, is retried. The exit code is {@code 1} if any check failed.
+ * </p>
+ * <p>
+ * The settings are system properties, with their default:
+ * <ul>
+ * <li>{@code stress.threads=32}: threads sending requests</li>
+ * <li>{@code stress.iterations=50}: rooms created by each thread</li>
+ * <li>{@code stress.keep=5}: every {@code keep}-th room is kept, the others
+ * are deleted</li>
+ * <li>{@code loadtest.project} and {@code loadtest.app.<KEY>}: as for the
+ * {@link LoadTest}</li>
+ * </ul>
+ * </p>
+ * @author julien-beguier
+ * @see {@link LoadTest}
+ */
+public class StressTest {
+
+	private final static int		MAX_RETRIES = 50;
+	private final static long		RETRY_PAUSE_MILLIS = 20;
+	private final static int		MAX_REPORTED_FAILURES = 20;
+
+	private final URI				baseUri;
+	private final HttpClient		client;
+	private final Set<String>		serverIds = ConcurrentHashMap.newKeySet();
+	/**
+	 * The rooms alive by port.
+	 */
+	private final ConcurrentHashMap<Integer, String>	livePorts = new ConcurrentHashMap<Integer, String>();
+	private final Set<String>		kept = ConcurrentHashMap.newKeySet();
+	private final ConcurrentLinkedQueue<String>			failures = new ConcurrentLinkedQueue<String>();
+	private final LongAdder			requests = new LongAdder();
+	private final LongAdder			retries = new LongAdder();
+
+	public static void main(String[] args) throws Exception {
+		if (System.getProperty("org.slf4j.simpleLogger.defaultLogLevel") == null)
+			System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+		int threads = Integer.getInteger("stress.threads", 32);
+		int iterations = Integer.getInteger("stress.iterations", 50);
+		int keep = Math.max(1, Integer.getInteger("stress.keep", 5));
+		Path project = Paths.get(System.getProperty("loadtest.project", ".")).toAbsolutePath().normalize();
+		Map<String, String> overrides = new HashMap<String, String>();
+		for (String name : System.getProperties().stringPropertyNames())
+			if (name.startsWith(LoadTest.APP_PROPERTY_PREFIX))
+				overrides.put(name.substring(LoadTest.APP_PROPERTY_PREFIX.length()), System.getProperty(name));
+
+		System.out.println("Starting the database...");
+		EmbeddedDatabase database = new EmbeddedDatabase(project.resolve("sql/mysql_gameserver_structure.sql"),
+				LoadTest.AUTH_KEY, LoadTest.PUBLIC_IP, LoadTest.FIRST_PORT, LoadTest.LAST_PORT);
+		EmbeddedApi api = null;
+		boolean passed = false;
+		try {
+			System.out.println("Starting the api...");
+			api = new EmbeddedApi(project.resolve("src/main/webapp"),
+					EmbeddedApi.properties(overrides, database, LoadTest.PUBLIC_IP), LoadTest.PUBLIC_IP);
+			System.out.printf("%d threads creating %d rooms each on %s%n", threads, iterations, api.getBaseUri());
+			passed = new StressTest(api.getBaseUri()).run(threads, iterations, keep);
+		} finally {
+			if (api != null)
+				api.stop();
+			database.stop();
+		}
+		System.exit(passed ? 0 : 1);
+	}
+
+	public StressTest(URI baseUri) {
+		this.baseUri = baseUri;
+		this.client = HttpClient.newBuilder()
+				.executor(Executors.newCachedThreadPool(new NamedThreadFactory("stress-http")))
+				.connectTimeout(Duration.ofSeconds(5))
+				.build();
+	}
+
+	/**
+	 * This method runs the threads, then checks the rooms listed.
+	 * @param threads as an int value
+	 * @param iterations as an int value, the rooms created by each thread
+	 * @param keep as an int value, every {@code keep}-th room is not deleted
+	 * @return {@code true} if no check failed
+	 * @throws InterruptedException if interrupted while waiting for the
+	 * threads
+	 */
+	public boolean run(int threads, int iterations, int keep) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new NamedThreadFactory("stress"));
+		CountDownLatch start = new CountDownLatch(1);
+		long startNanos = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			int thread = t;
+			pool.execute(() -> {
+				try {
+					start.await();
+					for (int i = 0; i < iterations; i++)
+						iteration(thread, i, i % keep == keep - 1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (RuntimeException e) {
+					fail("Thread " + thread + " stopped: " + e);
+				}
+			});
+		}
+		start.countDown();
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.HOURS);
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		checkList();
+
+		System.out.printf("%n%d requests in %.1f s (%.0f req/s), %d retried after a 503, %d room(s) created, %d kept%n",
+				this.requests.sum(), seconds, this.requests.sum() / seconds, this.retries.sum(),
+				this.serverIds.size(), this.kept.size());
+		int reported = 0;
+		for (String failure : this.failures)
+			if (reported++ < MAX_REPORTED_FAILURES)
+				System.out.println("FAILED " + failure);
+		System.out.println(this.failures.isEmpty() ? "PASSED" : this.failures.size() + " check(s) FAILED");
+		return this.failures.isEmpty();
+	}
+
+	// ##########################################################################
+
+	/**
+	 * Creates a room, reads it back and deletes it unless kept.
+	 */
+	private void iteration(int thread, int i, boolean keep) throws InterruptedException {
+		String name = "Stress " + thread + "-" + i;
+		// Unique per request along with the name, within the limits of the api
+		int nMaxPlayers = thread * 1000 + i + 1;
+		String body = Json.createObjectBuilder()
+				.add("name", name)
+				.add("description", "Created by thread " + thread)
+				.add("game", "Stress")
+				.add("game_version", String.valueOf(thread % 4))
+				.add("n_max_players", nMaxPlayers)
+				.build().toString();
+
+		HttpResponse<String> created = send(request("/room").header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(body)).build());
+		if (created.statusCode() != 201) {
+			fail(name + ": POST /room answered " + created.statusCode() + " " + created.body());
+			return;
+		}
+		JsonObject room = data(created);
+		String serverId = room.getString("server_id");
+		int port = room.getInt("port");
+		checkRoom("POST /room", room, name, nMaxPlayers);
+		if (!this.serverIds.add(serverId))
+			fail(name + ": server_id " + serverId + " given twice");
+		String holder = this.livePorts.putIfAbsent(port, serverId);
+		if (holder != null)
+			fail(name + ": port " + port + " of room " + serverId + " is used by room " + holder);
+
+		HttpResponse<String> read = send(request("/room/" + serverId).GET().build());
+		if (read.statusCode() != 200)
+			fail(name + ": GET /room/" + serverId + " answered " + read.statusCode());
+		else
+			checkRoom("GET /room/" + serverId, data(read), name, nMaxPlayers);
+
+		if (keep) {
+			this.kept.add(serverId);
+			return;
+		}
+		// Given back before the api frees it, another room may then get it
+		this.livePorts.remove(port, serverId);
+		HttpResponse<String> deleted = send(request("/room/" + serverId).DELETE().build());
+		if (deleted.statusCode() != 200) {
+			fail(name + ": DELETE /room/" + serverId + " answered " + deleted.statusCode() + " " + deleted.body());
+			return;
+		}
+		HttpResponse<String> gone = send(request("/room/" + serverId).GET().build());
+		if (gone.statusCode() != 404)
+			fail(name + ": GET /room/" + serverId + " answered " + gone.statusCode() + " once deleted");
+	}
+
+	private void checkRoom(String route, JsonObject room, String name, int nMaxPlayers) {
+		if (!name.equals(room.getString("name", null)) || room.getInt("n_max_players", -1) != nMaxPlayers)
+			fail(name + ": " + route + " answered another room " + room);
+	}
+
+	/**
+	 * Checks that the room list holds the rooms kept, and only them.
+	 */
+	private void checkList() throws InterruptedException {
+		HttpResponse<String> list = send(request("/room").GET().build());
+		if (list.statusCode() != 200) {
+			fail("GET /room answered " + list.statusCode());
+			return;
+		}
+		List<String> listed = new ArrayList<String>();
+		for (JsonValue value : read(list.body()).getJsonArray("data"))
+			listed.add(value.asJsonObject().getString("server_id"));
+		if (listed.size() != this.kept.size() || !this.kept.containsAll(listed))
+			fail("GET /room listed " + listed.size() + " room(s) instead of the " + this.kept.size() + " kept");
+	}
+
+	private HttpRequest.Builder request(String path) {
+		return HttpRequest.newBuilder()
+				.uri(this.baseUri.resolve(this.baseUri.getPath() + path))
+				.timeout(Duration.ofSeconds(30))
+				.header("auth_key", LoadTest.AUTH_KEY);
+	}
+
+	/**
+	 * Sends {@code request}, again while the api answers 503.
+	 */
+	private HttpResponse<String> send(HttpRequest request) throws InterruptedException {
+		for (int attempt = 0;; attempt++) {
+			HttpResponse<String> response;
+			try {
+				response = this.client.send(request, HttpResponse.BodyHandlers.ofString());
+			} catch (java.io.IOException e) {
+				throw new IllegalStateException(request.method() + " " + request.uri().getPath() + " failed: " + e, e);
+			}
+			this.requests.increment();
+			if (response.statusCode() != 503 || attempt == MAX_RETRIES)
+				return response;
+			this.retries.increment();
+			Thread.sleep(RETRY_PAUSE_MILLIS);
+		}
+	}
+
+	private void fail(String failure) {
+		this.failures.add(failure);
+	}
+
+	private static JsonObject data(HttpResponse<String> response) {
+		return read(response.body()).getJsonObject("data");
+	}
+
+	private static JsonObject read(String json) {
+		try (JsonReader reader = Json.createReader(new StringReader(json))) {
+			return reader.readObject();
+		}
+	}
+}
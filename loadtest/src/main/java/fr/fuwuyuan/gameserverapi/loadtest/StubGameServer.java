@@ -0,0 +1,60 @@
+package fr.fuwuyuan.gameserverapi.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A stand-in for a game server binary, to run the launcher of the api
+ * locally: it echoes back what its clients send on its TCP port, and prints
+ * the room it is given on its standard input.</br>
+ * Usage, as a {@code LAUNCHER_COMMAND}:
+ * <pre>java -cp loadtest.jar fr.fuwuyuan.gameserverapi.loadtest.StubGameServer {port}</pre>
+ * It exits when its input is closed, the api being gone: unlike a real game
+ * server, it does not outlive a load test.
+ * @author julien-beguier
+ * @see {@link LoadTest}
+ */
+public class StubGameServer {
+
+	public static void main(String[] args) throws IOException {
+		int port = Integer.parseInt(args[0]);
+		ServerSocket serverSocket = new ServerSocket(port);
+
+		Thread input = new Thread(() -> {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null)
+					System.out.println("Running room " + line + " on port " + port);
+			} catch (IOException e) {
+				// Input closed
+			}
+			System.exit(0);
+		}, "input");
+		input.setDaemon(true);
+		input.start();
+
+		while (true) {
+			Socket socket = serverSocket.accept();
+			Thread client = new Thread(() -> echo(socket), "client");
+			client.setDaemon(true);
+			client.start();
+		}
+	}
+
+	private static void echo(Socket socket) {
+		try (Socket s = socket; InputStream is = s.getInputStream(); OutputStream os = s.getOutputStream()) {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = is.read(buffer)) >= 0)
+				os.write(buffer, 0, n);
+		} catch (IOException e) {
+			// Client gone
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package fr.fuwuyuan.gameserverapi.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * This class compares the requests run on platform threads and on virtual
+ * threads ({@code REQUEST_VIRTUAL_THREADS}) under many concurrent lobby
+ * polls: the same {@link LoadTest} is run twice, each time in its own JVM
+ * since the api is made of singletons, then the throughput, the error rate
+ * and the p50 and p99 latencies of each operation are printed side by side.
+ * <p>
+ * The {@code loadtest.*} system properties are given to both runs, with
+ * these defaults instead: {@code loadtest.rate=200} and
+ * {@code loadtest.mix=list=18,create=1,delete=1}. The runs use the
+ * {@code java} of this JVM: virtual threads need Java 21 or later, on an
+ * older one the second run falls back to platform threads and a warning is
+ * printed.
+ * </p>
+ * @author julien-beguier
+ * @see {@link LoadReport#save}
+ */
+public class ThreadModeComparison {
+
+	private final static String[]	MODES = { "platform", "virtual" };
+
+	public static void main(String[] args) throws Exception {
+		if (Runtime.version().feature() < 21)
+			System.out.println("WARNING: Java " + Runtime.version().feature()
+					+ " has no virtual threads, both runs use platform threads");
+
+		Properties[] results = new Properties[MODES.length];
+		for (int i = 0; i < MODES.length; i++) {
+			System.out.println("\n########## Requests on " + MODES[i] + " threads\n");
+			results[i] = run(MODES[i].equals("virtual"));
+			if (results[i] == null) {
+				System.out.println("The run on " + MODES[i] + " threads failed");
+				System.exit(1);
+			}
+		}
+
+		System.out.printf("%n%-10s %-10s %10s %9s %11s %11s%n", "operation", "threads", "req/s", "errors", "p50",
+				"p99");
+		for (Operation operation : Operation.values()) {
+			String key = operation.getKey();
+			for (int i = 0; i < MODES.length; i++) {
+				if (results[i].getProperty(key + ".sent") == null)
+					continue;
+				Properties result = results[i];
+				System.out.printf("%-10s %-10s %10s %8s%% %9sms %9sms%n", i == 0 ? key : "", MODES[i],
+						result.getProperty(key + ".rps"), result.getProperty(key + ".errors"),
+						result.getProperty(key + ".p50"), result.getProperty(key + ".p99"));
+			}
+		}
+		System.exit(0);
+	}
+
+	// ##########################################################################
+
+	/**
+	 * Runs a {@link LoadTest} in a new JVM.
+	 * @return its result or {@code null} if it failed
+	 */
+	private static Properties run(boolean virtualThreads) throws IOException, InterruptedException {
+		Path resultFile = Files.createTempFile("loadtest-", ".properties");
+		try {
+			String classPath = Paths.get(ThreadModeComparison.class.getProtectionDomain().getCodeSource()
+					.getLocation().toURI()).toString();
+			List<String> command = new ArrayList<String>();
+			command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+			command.add("-Dloadtest.rate=" + System.getProperty("loadtest.rate", "200"));
+			command.add("-Dloadtest.mix=" + System.getProperty("loadtest.mix", "list=18,create=1,delete=1"));
+			for (String name : System.getProperties().stringPropertyNames())
+				if ((name.startsWith("loadtest.") && !name.equals("loadtest.rate") && !name.equals("loadtest.mix"))
+						|| name.startsWith("org.slf4j."))
+					command.add("-D" + name + "=" + System.getProperty(name));
+			command.add("-Dloadtest.app.REQUEST_VIRTUAL_THREADS=" + virtualThreads);
+			command.add("-Dloadtest.result=" + resultFile);
+			command.add("-cp");
+			command.add(classPath);
+			command.add(LoadTest.class.getName());
+
+			Process process = new ProcessBuilder(command).inheritIO().start();
+			if (process.waitFor() != 0 || Files.size(resultFile) == 0)
+				return null;
+			Properties result = new Properties();
+			try (InputStream in = Files.newInputStream(resultFile)) {
+				result.load(in);
+			}
+			return result;
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		} finally {
+			Files.deleteIfExists(resultFile);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+-- Upgrades a database created by an earlier mariadb_gameserver_structure.sql
+-- without dropping it: the missing columns and keys are added, the others are
+-- left untouched. It can be run more than once.
+
+SET SQL_MODE = "NO_AUTO_VALUE_ON_ZERO";
+SET time_zone = "+00:00";
+
+USE `gameserver`;
+
+-- ----------------------------------------------------------------------------------------------------------------
+-- Table `servers`
+--
+ALTER TABLE `servers`
+  ADD COLUMN IF NOT EXISTS `n_players` smallint UNSIGNED NOT NULL DEFAULT '0' AFTER `n_max_players`,
+  ADD COLUMN IF NOT EXISTS `load` float NOT NULL DEFAULT '0' AFTER `ready_for_shutdown`,
+  ADD COLUMN IF NOT EXISTS `last_heartbeat` datetime DEFAULT NULL AFTER `load`,
+  ADD COLUMN IF NOT EXISTS `dead` tinyint(1) NOT NULL DEFAULT '0' AFTER `last_heartbeat`,
+  ADD COLUMN IF NOT EXISTS `idle_since` datetime DEFAULT CURRENT_TIMESTAMP AFTER `dead`,
+  ADD KEY IF NOT EXISTS `game_game_version` (`game`, `game_version`, `server_id`);
+
+-- Two hosts can use the same port: the port is unique per ip, the key is
+-- added before the former one is dropped
+ALTER TABLE `servers`
+  ADD UNIQUE KEY IF NOT EXISTS `ip_port` (`ip`, `port`);
+ALTER TABLE `servers`
+  DROP INDEX IF EXISTS `port`;
+
+-- ----------------------------------------------------------------------------------------------------------------
+-- Table `ports`
+--
+ALTER TABLE `ports`
+  ADD COLUMN IF NOT EXISTS `enabled` tinyint(1) NOT NULL DEFAULT '1' AFTER `available`,
+  ADD COLUMN IF NOT EXISTS `version` bigint UNSIGNED NOT NULL DEFAULT '0' AFTER `enabled`;
+
+-- ----------------------------------------------------------------------------------------------------------------
+-- Table `sequences`
+--
+CREATE TABLE IF NOT EXISTS `sequences` (
+  `name` varchar(30) CHARACTER SET latin1 COLLATE latin1_general_cs NOT NULL,
+  `next_value` int UNSIGNED NOT NULL,
+  PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=latin1 COLLATE=latin1_general_cs;
+
+-- The server ids are reserved by blocks from this sequence, it starts after the existing game servers
+INSERT IGNORE INTO `sequences` (`name`, `next_value`)
+  SELECT 'server_id', COALESCE(MAX(`server_id`), 0) + 1 FROM `servers`;
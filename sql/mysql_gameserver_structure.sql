@@ -26,6 +26,8 @@ CREATE TABLE IF NOT EXISTS `ports` (
   `public_ip` varchar(45) COLLATE latin1_general_cs NOT NULL,
   `used` json NOT NULL,
   `available` json NOT NULL,
+  `enabled` tinyint(1) NOT NULL DEFAULT '1',
+  `version` bigint UNSIGNED NOT NULL DEFAULT '0',
   PRIMARY KEY (`public_ip`)
 ) ENGINE=InnoDB DEFAULT CHARSET=latin1 COLLATE=latin1_general_cs;
 
@@ -41,12 +43,31 @@ CREATE TABLE IF NOT EXISTS `servers` (
   `game` varchar(30) CHARACTER SET latin1 COLLATE latin1_general_cs NOT NULL,
   `game_version` varchar(10) COLLATE latin1_general_cs NOT NULL,
   `n_max_players` smallint UNSIGNED NOT NULL,
+  `n_players` smallint UNSIGNED NOT NULL DEFAULT '0',
   `opened_on` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
   `ready_for_shutdown` tinyint(1) NOT NULL DEFAULT '0',
+  `load` float NOT NULL DEFAULT '0',
+  `last_heartbeat` datetime DEFAULT NULL,
+  `dead` tinyint(1) NOT NULL DEFAULT '0',
+  `idle_since` datetime DEFAULT CURRENT_TIMESTAMP,
   PRIMARY KEY (`server_id`),
-  UNIQUE KEY `port` (`port`)
+  UNIQUE KEY `ip_port` (`ip`, `port`),
+  KEY `game_game_version` (`game`, `game_version`, `server_id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=latin1 COLLATE=latin1_general_cs;
 
+-- ----------------------------------------------------------------------------------------------------------------
+-- Table structure for table `sequences`
+--
+CREATE TABLE IF NOT EXISTS `sequences` (
+  `name` varchar(30) CHARACTER SET latin1 COLLATE latin1_general_cs NOT NULL,
+  `next_value` int UNSIGNED NOT NULL,
+  PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=latin1 COLLATE=latin1_general_cs;
+
+-- The server ids are reserved by blocks from this sequence, it starts after the existing game servers
+INSERT IGNORE INTO `sequences` (`name`, `next_value`)
+  SELECT 'server_id', COALESCE(MAX(`server_id`), 0) + 1 FROM `servers`;
+
 -- ----------------------------------------------------------------------------------------------------------------
 -- Table structure for table `settings`
 --
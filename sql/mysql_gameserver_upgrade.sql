@@ -0,0 +1,121 @@
+-- Upgrades a database created by an earlier mysql_gameserver_structure.sql
+-- without dropping it: the missing columns and keys are added, the others are
+-- left untouched. It can be run more than once.
+
+SET SQL_MODE = "NO_AUTO_VALUE_ON_ZERO";
+SET time_zone = "+00:00";
+
+USE `testgameserver`;
+
+-- ----------------------------------------------------------------------------------------------------------------
+-- Table `servers`
+--
+-- Each change is only run when the column or the key is missing
+SET @stmt = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE `servers` ADD COLUMN `n_players` smallint UNSIGNED NOT NULL DEFAULT ''0'' AFTER `n_max_players`',
+    'DO 0')
+  FROM information_schema.COLUMNS
+  WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'servers' AND COLUMN_NAME = 'n_players');
+PREPARE stmt FROM @stmt;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @stmt = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE `servers` ADD KEY `game_game_version` (`game`, `game_version`, `server_id`)',
+    'DO 0')
+  FROM information_schema.STATISTICS
+  WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'servers' AND INDEX_NAME = 'game_game_version');
+PREPARE stmt FROM @stmt;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @stmt = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE `servers` ADD COLUMN `load` float NOT NULL DEFAULT ''0'' AFTER `ready_for_shutdown`',
+    'DO 0')
+  FROM information_schema.COLUMNS
+  WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'servers' AND COLUMN_NAME = 'load');
+PREPARE stmt FROM @stmt;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @stmt = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE `servers` ADD COLUMN `last_heartbeat` datetime DEFAULT NULL AFTER `load`',
+    'DO 0')
+  FROM information_schema.COLUMNS
+  WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'servers' AND COLUMN_NAME = 'last_heartbeat');
+PREPARE stmt FROM @stmt;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @stmt = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE `servers` ADD COLUMN `dead` tinyint(1) NOT NULL DEFAULT ''0'' AFTER `last_heartbeat`',
+    'DO 0')
+  FROM information_schema.COLUMNS
+  WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'servers' AND COLUMN_NAME = 'dead');
+PREPARE stmt FROM @stmt;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @stmt = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE `servers` ADD COLUMN `idle_since` datetime DEFAULT CURRENT_TIMESTAMP AFTER `dead`',
+    'DO 0')
+  FROM information_schema.COLUMNS
+  WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'servers' AND COLUMN_NAME = 'idle_since');
+PREPARE stmt FROM @stmt;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- Two hosts can use the same port: the port is unique per ip, the key is
+-- added before the former one is dropped
+SET @stmt = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE `servers` ADD UNIQUE KEY `ip_port` (`ip`, `port`)',
+    'DO 0')
+  FROM information_schema.STATISTICS
+  WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'servers' AND INDEX_NAME = 'ip_port');
+PREPARE stmt FROM @stmt;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @stmt = (SELECT IF(COUNT(*) = 0,
+    'DO 0',
+    'ALTER TABLE `servers` DROP INDEX `port`')
+  FROM information_schema.STATISTICS
+  WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'servers' AND INDEX_NAME = 'port');
+PREPARE stmt FROM @stmt;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- ----------------------------------------------------------------------------------------------------------------
+-- Table `ports`
+--
+SET @stmt = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE `ports` ADD COLUMN `enabled` tinyint(1) NOT NULL DEFAULT ''1'' AFTER `available`',
+    'DO 0')
+  FROM information_schema.COLUMNS
+  WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'ports' AND COLUMN_NAME = 'enabled');
+PREPARE stmt FROM @stmt;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- Written by compare-and-set, so that several api nodes can share the ports of an ip
+SET @stmt = (SELECT IF(COUNT(*) = 0,
+    'ALTER TABLE `ports` ADD COLUMN `version` bigint UNSIGNED NOT NULL DEFAULT ''0'' AFTER `enabled`',
+    'DO 0')
+  FROM information_schema.COLUMNS
+  WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'ports' AND COLUMN_NAME = 'version');
+PREPARE stmt FROM @stmt;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- ----------------------------------------------------------------------------------------------------------------
+-- Table `sequences`
+--
+CREATE TABLE IF NOT EXISTS `sequences` (
+  `name` varchar(30) CHARACTER SET latin1 COLLATE latin1_general_cs NOT NULL,
+  `next_value` int UNSIGNED NOT NULL,
+  PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=latin1 COLLATE=latin1_general_cs;
+
+-- The server ids are reserved by blocks from this sequence, it starts after the existing game servers
+INSERT IGNORE INTO `sequences` (`name`, `next_value`)
+  SELECT 'server_id', COALESCE(MAX(`server_id`), 0) + 1 FROM `servers`;
@@ -0,0 +1,292 @@
+package fr.fuwuyuan.gameserverapi.cache;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
+
+/**
+ * This class indexes, in memory, the rooms a player can still join by game
+ * and game version, the fullest first, and reserves their slots.
+ * <p>
+ * It is kept up to date by the {@link RoomDirectory}, along with its other
+ * indexes. The free slots of a room are its {@code n_max_players} minus its
+ * players, as reported by its heartbeats, minus the slots reserved in it. A
+ * reservation holds its slot for {@code QUICKJOIN_RESERVATION_TTL}, the time
+ * for the player to join and for the game server to report it.
+ * </p>
+ * <p>
+ * A slot is reserved atomically with the lock of its game and game version
+ * only: two players never get the last slot of a room, and a room full of
+ * reservations leaves the index until they expire, so that the next players
+ * are sent to the next room instead of all to the same one. Filling the
+ * fullest rooms first leaves the others empty, to be reaped. The rooms
+ * without any limit of players come last.
+ * </p>
+ * @author julien-beguier
+ * @see {@link RoomDirectory#getFreeSlots}
+ */
+public class FreeSlotIndex {
+
+	/**
+	 * The fullest rooms first, then the rooms without limit, by
+	 * {@code server_id}.
+	 */
+	private final static Comparator<Room>	BY_FILL_LEVEL = (a, b) -> {
+		int maxA = a.gss.getNMaxPlayers();
+		int maxB = b.gss.getNMaxPlayers();
+		if (maxA == 0 || maxB == 0) {
+			if (maxA != maxB)
+				return maxA == 0 ? 1 : -1;
+		} else {
+			// a fuller than b: a.occupied / maxA > b.occupied / maxB
+			int c = Long.compare((long) b.occupied() * maxA, (long) a.occupied() * maxB);
+			if (c != 0)
+				return c;
+		}
+		return Integer.compare(a.serverId, b.serverId);
+	};
+
+	private final long				reservationTtlMillis;
+	/**
+	 * The rooms by game and game version, see {@link RoomDirectory#indexKey}.
+	 */
+	private final ConcurrentHashMap<Map.Entry<String, String>, Bucket>	buckets =
+			new ConcurrentHashMap<Map.Entry<String, String>, Bucket>();
+	private final AtomicInteger		activeReservations = new AtomicInteger();
+	private final LongAdder			reservations = new LongAdder();
+	private final LongAdder			misses = new LongAdder();
+
+	/**
+	 * A room of the index. Its position in {@link Bucket#free} depends on
+	 * its fields, which are only changed while it is out of it.
+	 */
+	private static class Room {
+		private final int		serverId;
+		private GameServerSlim	gss;
+		private int				reserved = 0;
+
+		private Room(int serverId, GameServerSlim gss) {
+			this.serverId = serverId;
+			this.gss = gss;
+		}
+
+		private int occupied() {
+			return this.gss.getNPlayers() + this.reserved;
+		}
+
+		private boolean hasFreeSlot() {
+			return this.gss.getNMaxPlayers() == 0 || occupied() < this.gss.getNMaxPlayers();
+		}
+	}
+
+	private static class Reservation {
+		private final long		expiresAt;
+		private final int		serverId;
+
+		private Reservation(long expiresAt, int serverId) {
+			this.expiresAt = expiresAt;
+			this.serverId = serverId;
+		}
+	}
+
+	/**
+	 * The rooms of a game and game version, guarded by its own lock.
+	 */
+	private static class Bucket {
+		private final HashMap<Integer, Room>	rooms = new HashMap<Integer, Room>();
+		private final TreeSet<Room>				free = new TreeSet<Room>(BY_FILL_LEVEL);
+		/**
+		 * By expiration time, all the reservations lasting as long.
+		 */
+		private final ArrayDeque<Reservation>	reservations = new ArrayDeque<Reservation>();
+	}
+
+	FreeSlotIndex(long reservationTtlMillis) {
+		this.reservationTtlMillis = reservationTtlMillis;
+	}
+
+	/**
+	 * This method reserves a slot in the fullest room of the version
+	 * {@code gameVersion} of the game {@code gameName} with a free slot.
+	 * @param gameName as a String, case sensitive
+	 * @param gameVersion as a String
+	 * @param joinable as a {@link Predicate}, the rooms it rejects are skipped
+	 * @return the {@link GameServerSlim} of the room or {@code null} if no
+	 * room has a free slot
+	 */
+	public GameServerSlim reserve(String gameName, String gameVersion, Predicate<GameServerSlim> joinable) {
+		Bucket bucket = this.buckets.get(RoomDirectory.indexKey(gameName, gameVersion));
+		if (bucket != null) {
+			synchronized (bucket) {
+				long now = System.currentTimeMillis();
+				expire(bucket, now);
+				Iterator<Room> it = bucket.free.iterator();
+				while (it.hasNext()) {
+					Room room = it.next();
+					if (!joinable.test(room.gss))
+						continue;
+					it.remove();
+					reserve(bucket, room, now);
+					return room.gss;
+				}
+			}
+		}
+		this.misses.increment();
+		return null;
+	}
+
+	/**
+	 * This method reserves a slot in the given room, even if it has none
+	 * left, for instance for the player who created it.
+	 * @param gss as a {@link GameServerSlim}
+	 */
+	public void reserve(GameServerSlim gss) {
+		Bucket bucket = this.buckets.get(RoomDirectory.indexKey(gss.getGame(), gss.getGameVersion()));
+		if (bucket == null)
+			return;
+		synchronized (bucket) {
+			long now = System.currentTimeMillis();
+			expire(bucket, now);
+			Room room = bucket.rooms.get(Integer.valueOf(gss.getServerId()));
+			if (room == null)
+				return;
+			bucket.free.remove(room);
+			reserve(bucket, room, now);
+		}
+	}
+
+	/**
+	 * @return the number of slots reserved
+	 */
+	public long getReservations() {
+		return this.reservations.sum();
+	}
+
+	/**
+	 * @return the number of reservations not expired yet
+	 */
+	public int getActiveReservations() {
+		return this.activeReservations.get();
+	}
+
+	/**
+	 * @return the number of searches without any room with a free slot
+	 */
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * Adds or replaces a room in the index, keeping its reservations.
+	 * @param key as the index key of its game and game version
+	 * @param gss as a {@link GameServerSlim}
+	 */
+	void put(Map.Entry<String, String> key, GameServerSlim gss) {
+		Integer serverId = Integer.valueOf(gss.getServerId());
+		this.buckets.compute(key, (k, bucket) -> {
+			if (bucket == null)
+				bucket = new Bucket();
+			synchronized (bucket) {
+				Room room = bucket.rooms.get(serverId);
+				if (room == null) {
+					room = new Room(serverId, gss);
+					bucket.rooms.put(serverId, room);
+				} else {
+					bucket.free.remove(room);
+					room.gss = gss;
+				}
+				if (room.hasFreeSlot())
+					bucket.free.add(room);
+			}
+			return bucket;
+		});
+	}
+
+	/**
+	 * Replaces a room of the index, keeping its reservations, unless it was
+	 * removed meanwhile.
+	 * @param key as the index key of its game and game version
+	 * @param gss as a {@link GameServerSlim}
+	 */
+	void replace(Map.Entry<String, String> key, GameServerSlim gss) {
+		Integer serverId = Integer.valueOf(gss.getServerId());
+		Bucket bucket = this.buckets.get(key);
+		if (bucket == null)
+			return;
+		synchronized (bucket) {
+			Room room = bucket.rooms.get(serverId);
+			if (room == null)
+				return;
+			bucket.free.remove(room);
+			room.gss = gss;
+			if (room.hasFreeSlot())
+				bucket.free.add(room);
+		}
+	}
+
+	/**
+	 * Removes a room from the index, and the index of its game and game
+	 * version once empty.
+	 * @param key as the index key of its game and game version
+	 * @param serverId as an Integer
+	 */
+	void remove(Map.Entry<String, String> key, Integer serverId) {
+		this.buckets.computeIfPresent(key, (k, bucket) -> {
+			synchronized (bucket) {
+				Room room = bucket.rooms.remove(serverId);
+				if (room != null)
+					bucket.free.remove(room);
+				if (!bucket.rooms.isEmpty())
+					return bucket;
+				// Its reservations are dropped along with it
+				this.activeReservations.addAndGet(-bucket.reservations.size());
+				bucket.reservations.clear();
+				return null;
+			}
+		});
+	}
+
+	// ##########################################################################
+
+	/**
+	 * Reserves a slot in {@code room}, out of {@link Bucket#free}, and puts
+	 * it back if it still has a free slot. The lock of the bucket is held.
+	 */
+	private void reserve(Bucket bucket, Room room, long now) {
+		room.reserved++;
+		bucket.reservations.addLast(new Reservation(now + this.reservationTtlMillis, room.serverId));
+		if (room.hasFreeSlot())
+			bucket.free.add(room);
+		this.reservations.increment();
+		this.activeReservations.incrementAndGet();
+	}
+
+	/**
+	 * Gives back the slots of the expired reservations. The lock of the
+	 * bucket is held.
+	 */
+	private void expire(Bucket bucket, long now) {
+		Reservation reservation;
+		while ((reservation = bucket.reservations.peekFirst()) != null && reservation.expiresAt <= now) {
+			bucket.reservations.pollFirst();
+			this.activeReservations.decrementAndGet();
+			Room room = bucket.rooms.get(Integer.valueOf(reservation.serverId));
+			// Not if the room was removed, then added again
+			if (room == null || room.reserved == 0)
+				continue;
+			bucket.free.remove(room);
+			room.reserved--;
+			if (room.hasFreeSlot())
+				bucket.free.add(room);
+		}
+	}
+}
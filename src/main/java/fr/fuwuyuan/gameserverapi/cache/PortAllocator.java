@@ -0,0 +1,634 @@
+package fr.fuwuyuan.gameserverapi.cache;
+
+import java.io.StringReader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+
+/**
+ * This class holds, in memory, the ports of one public ip of the
+ * {@code 'ports'} table and allocates them.
+ * <p>
+ * The free ports are the set bits of a bitset, one bit per port between the
+ * lowest and the highest port of the ip. A port is claimed or released by a
+ * compare-and-set of its 64 bits word, without any lock: two concurrent
+ * claims never get the same port. Claims start from the last word a port
+ * was found in, so that a claim is O(1) amortized.
+ * </p>
+ * <p>
+ * The {@code used} and {@code available} columns are persisted as range
+ * lists: a json array of ports and of {@code [first, last]} inclusive
+ * ranges, for instance {@code [50000, [50002, 50099]]}. A plain json array
+ * of ports, the former format, is read as is.</br>
+ * Every change increments the {@code modCount}. Persisting is serialized per
+ * ip and skipped when a concurrent call already persisted the change. The
+ * requests do not persist themselves, see {@link #persistLater}: a claim or
+ * a release stays a compare-and-set, and a burst of changes costs a single
+ * write in the background.
+ * </p>
+ * <p>
+ * Several api nodes can allocate the ports of the same ip. The row is
+ * written only if its {@code version} is still the one this allocator last
+ * read or wrote, see {@link Store#write}. Otherwise another node wrote it
+ * meanwhile: the row is read again, the ports this allocator claimed or
+ * released since its last write are applied over it, and the result is
+ * written. Those changes are tracked by two more bitsets, under the read
+ * lock of a {@link StampedLock}: the claims and releases only exclude a
+ * write or a merge, never each other. The changes of the other nodes are
+ * also read periodically, see {@link #refresh}.
+ * </p>
+ * @author julien-beguier
+ * @see {@link fr.fuwuyuan.gameserverapi.services.PortService PortService}
+ */
+public class PortAllocator {
+
+	/**
+	 * Returned by {@link Store#write} when the row has been written by
+	 * another api node since its {@code version}.
+	 */
+	public final static int			CONFLICT = 1;
+	/**
+	 * Writes attempted by {@link #persist} before giving up on conflicts.
+	 */
+	private final static int		MAX_PERSIST_ATTEMPTS = 3;
+
+	private final int				basePort;
+	/**
+	 * The ports of the ip, used or available. Never modified.
+	 */
+	private final long[]			managed;
+	/**
+	 * The available ports.
+	 */
+	private final AtomicLongArray	free;
+	private final int				managedCount;
+	/**
+	 * The number of set bits of {@code free}, kept along with them.
+	 */
+	private final AtomicInteger		freeCount;
+	private final AtomicInteger		hint = new AtomicInteger();
+	private final AtomicLong		modCount = new AtomicLong();
+	/**
+	 * The {@code modCount} of the last persisted state, guarded by
+	 * {@code persistLock}.
+	 */
+	private volatile long			persistedModCount = 0;
+	/**
+	 * Held while the writer runs its UPDATE, so a lock rather than a monitor
+	 * that would pin a virtual thread to its carrier meanwhile.
+	 */
+	private final ReentrantLock		persistLock = new ReentrantLock();
+	/**
+	 * {@code true} while a background write is queued, not started yet.
+	 */
+	private final AtomicBoolean		persistQueued = new AtomicBoolean();
+	/**
+	 * The ports claimed and released by this allocator since its last write.
+	 * A port is set in one of them at most, the last change wins.
+	 */
+	private final AtomicLongArray	claimedSinceWrite;
+	private final AtomicLongArray	releasedSinceWrite;
+	/**
+	 * Read locked by the claims and releases, write locked to take or merge
+	 * the changes.
+	 */
+	private final StampedLock		changesLock = new StampedLock();
+	/**
+	 * The {@code version} of the row last read or written, guarded by
+	 * {@code persistLock}.
+	 */
+	private long					version;
+
+	/**
+	 * Builds the allocator of an ip from its {@code used} and
+	 * {@code available} columns, at version {@code 0}.
+	 * @param used as a json range list String
+	 * @param available as a json range list String
+	 * @throws javax.json.JsonException if a column is not a json array
+	 * @throws IllegalArgumentException if a port is out of range
+	 */
+	public PortAllocator(String used, String available) {
+		this(used, available, 0);
+	}
+
+	/**
+	 * Builds the allocator of an ip from its {@code used},
+	 * {@code available} and {@code version} columns.
+	 * @param used as a json range list String
+	 * @param available as a json range list String
+	 * @param version as a long value
+	 * @throws javax.json.JsonException if a column is not a json array
+	 * @throws IllegalArgumentException if a port is out of range
+	 */
+	public PortAllocator(String used, String available, long version) {
+		JsonArray usedArray = readArray(used);
+		JsonArray availableArray = readArray(available);
+
+		int[] bounds = { Integer.MAX_VALUE, Integer.MIN_VALUE };
+		bounds(usedArray, bounds);
+		bounds(availableArray, bounds);
+		if (bounds[0] > bounds[1]) {
+			bounds[0] = 0;
+			bounds[1] = -1;
+		}
+
+		this.basePort = bounds[0];
+		int words = ((bounds[1] - bounds[0] + 1) + 63) >>> 6;
+		this.managed = new long[words];
+		long[] available0 = new long[words];
+		set(usedArray, this.managed);
+		set(availableArray, this.managed);
+		set(availableArray, available0);
+		// A port listed in both columns is used
+		long[] used0 = new long[words];
+		set(usedArray, used0);
+		int managedCount = 0;
+		int freeCount = 0;
+		for (int i = 0; i < words; i++) {
+			available0[i] &= ~used0[i];
+			managedCount += Long.bitCount(this.managed[i]);
+			freeCount += Long.bitCount(available0[i]);
+		}
+		this.free = new AtomicLongArray(available0);
+		this.managedCount = managedCount;
+		this.freeCount = new AtomicInteger(freeCount);
+		this.claimedSinceWrite = new AtomicLongArray(words);
+		this.releasedSinceWrite = new AtomicLongArray(words);
+		this.version = version;
+		// The api nodes sharing the ip start from different ports
+		if (words > 0)
+			this.hint.set(ThreadLocalRandom.current().nextInt(words));
+	}
+
+	/**
+	 * This method claims an available port.
+	 * @return the port claimed, or {@code -1} if no port is available
+	 */
+	public int claim() {
+		long stamp = this.changesLock.readLock();
+		try {
+			int words = this.free.length();
+			int start = words == 0 ? 0 : this.hint.get();
+			for (int n = 0; n < words; n++) {
+				int i = (start + n) % words;
+				long word = this.free.get(i);
+				while (word != 0) {
+					long bit = Long.lowestOneBit(word);
+					if (this.free.compareAndSet(i, word, word & ~bit)) {
+						this.hint.set(i);
+						this.freeCount.decrementAndGet();
+						changed(this.claimedSinceWrite, this.releasedSinceWrite, i, bit);
+						this.modCount.incrementAndGet();
+						return this.basePort + (i << 6) + Long.numberOfTrailingZeros(bit);
+					}
+					word = this.free.get(i);
+				}
+			}
+			return -1;
+		} finally {
+			this.changesLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * This method claims {@code port} if it is available.
+	 * @param port as an int value
+	 * @return {@code true} if the port is now used, even if it already was,
+	 * {@code false} if it is not a port of this ip
+	 */
+	public boolean claim(int port) {
+		if (!isManaged(port))
+			return false;
+		int i = (port - this.basePort) >>> 6;
+		long bit = 1L << ((port - this.basePort) & 63);
+		long stamp = this.changesLock.readLock();
+		try {
+			long word;
+			do {
+				word = this.free.get(i);
+				if ((word & bit) == 0)
+					return true;
+			} while (!this.free.compareAndSet(i, word, word & ~bit));
+			this.freeCount.decrementAndGet();
+			changed(this.claimedSinceWrite, this.releasedSinceWrite, i, bit);
+			this.modCount.incrementAndGet();
+			return true;
+		} finally {
+			this.changesLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * This method releases {@code port}, it becomes available.
+	 * @param port as an int value
+	 * @return {@code true} if the port is now available, even if it already
+	 * was, {@code false} if it is not a port of this ip
+	 */
+	public boolean release(int port) {
+		if (!isManaged(port))
+			return false;
+		int i = (port - this.basePort) >>> 6;
+		long bit = 1L << ((port - this.basePort) & 63);
+		long stamp = this.changesLock.readLock();
+		try {
+			long word;
+			do {
+				word = this.free.get(i);
+				if ((word & bit) != 0)
+					return true;
+			} while (!this.free.compareAndSet(i, word, word | bit));
+			this.freeCount.incrementAndGet();
+			changed(this.releasedSinceWrite, this.claimedSinceWrite, i, bit);
+			this.modCount.incrementAndGet();
+			return true;
+		} finally {
+			this.changesLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * This method marks {@code port} as used by a room of another api node.
+	 * It is not claimed again, but this allocator does not write it as used
+	 * either: it becomes available when the row read next says so.
+	 * @param port as an int value
+	 * @return {@code false} if it is not a port of this ip
+	 */
+	public boolean markTaken(int port) {
+		if (!isManaged(port))
+			return false;
+		int i = (port - this.basePort) >>> 6;
+		long bit = 1L << ((port - this.basePort) & 63);
+		long stamp = this.changesLock.readLock();
+		try {
+			long word = this.free.get(i);
+			while ((word & bit) != 0 && !this.free.compareAndSet(i, word, word & ~bit))
+				word = this.free.get(i);
+			if ((word & bit) != 0)
+				this.freeCount.decrementAndGet();
+			clear(this.claimedSinceWrite, i, bit);
+			clear(this.releasedSinceWrite, i, bit);
+			return true;
+		} finally {
+			this.changesLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @return the number of available ports, without any lock, it may be
+	 * outdated by a concurrent claim or release
+	 */
+	public int getFreeCount() {
+		return this.freeCount.get();
+	}
+
+	/**
+	 * @return the number of used ports, without any lock, it may be outdated
+	 * by a concurrent claim or release
+	 */
+	public int getUsedCount() {
+		return this.managedCount - this.freeCount.get();
+	}
+
+	/**
+	 * @return {@code true} if the current state of the ports is persisted,
+	 * without any lock
+	 */
+	public boolean isPersisted() {
+		return this.modCount.get() == this.persistedModCount;
+	}
+
+	/**
+	 * This method persists the current state of the ports in the background,
+	 * on {@code executor}, without waiting for it. The changes made while a
+	 * write is queued are written by it, and those made while it runs by the
+	 * next one. A write which fails is not retried until the next call.
+	 * @param executor as an {@link Executor}
+	 * @param store as a {@link Store} of the row of the ip
+	 */
+	public void persistLater(Executor executor, Store store) {
+		if (!this.persistQueued.compareAndSet(false, true))
+			return;
+		try {
+			executor.execute(() -> {
+				// Reset first: a change made from now on queues the next write
+				this.persistQueued.set(false);
+				persist(store);
+			});
+		} catch (RejectedExecutionException e) {
+			this.persistQueued.set(false);
+		}
+	}
+
+	/**
+	 * This method persists the current state of the ports if it has changed
+	 * since the last time it was persisted. Calls are serialized. When the
+	 * row has been written by another api node meanwhile, it is read again
+	 * and the changes of this allocator are applied over it, then written.
+	 * @param store as a {@link Store} of the row of the ip
+	 * @return the value returned by {@link Store#write}, or {@code 0} if there
+	 * was nothing to persist
+	 */
+	public int persist(Store store) {
+		this.persistLock.lock();
+		try {
+			int ret = 0;
+			for (int attempt = 0; attempt < MAX_PERSIST_ATTEMPTS; attempt++) {
+				// The state written and the changes it holds are taken at once
+				long currentModCount;
+				long[] free = new long[this.managed.length];
+				long[] claimed = new long[free.length];
+				long[] released = new long[free.length];
+				long stamp = this.changesLock.writeLock();
+				try {
+					currentModCount = this.modCount.get();
+					if (currentModCount == this.persistedModCount)
+						return 0;
+					for (int i = 0; i < free.length; i++) {
+						free[i] = this.free.get(i);
+						claimed[i] = this.claimedSinceWrite.getAndSet(i, 0);
+						released[i] = this.releasedSinceWrite.getAndSet(i, 0);
+					}
+				} finally {
+					this.changesLock.unlockWrite(stamp);
+				}
+
+				ret = store.write(toRangeList(free, false), toRangeList(free, true), this.version);
+				if (ret == 0) {
+					this.version++;
+					this.persistedModCount = currentModCount;
+					return 0;
+				}
+				// Not written: the changes taken are still to be written
+				restoreChanges(claimed, released);
+				if (ret != CONFLICT)
+					return ret;
+				Row row = store.read();
+				if (row == null)
+					return ret;
+				merge(row);
+			}
+			return ret;
+		} finally {
+			this.persistLock.unlock();
+		}
+	}
+
+	/**
+	 * This method reads the row of the ip again, and applies the changes of
+	 * the other api nodes if it was written since. When this allocator has
+	 * changes not persisted yet, they are persisted instead, which reads the
+	 * row on a conflict.
+	 * @param store as a {@link Store} of the row of the ip
+	 */
+	public void refresh(Store store) {
+		this.persistLock.lock();
+		try {
+			if (!isPersisted()) {
+				persist(store);
+				return;
+			}
+			Row row = store.read();
+			if (row != null && row.version != this.version)
+				merge(row);
+		} finally {
+			this.persistLock.unlock();
+		}
+	}
+
+	/**
+	 * Saves the range lists of the {@code used} and {@code available}
+	 * columns, and reads them back.
+	 * @author julien-beguier
+	 */
+	public interface Store {
+		/**
+		 * Writes the row only if it is still at {@code version}, incrementing
+		 * it.
+		 * @return {@code 0} if successful, {@link PortAllocator#CONFLICT} if
+		 * the row is not at {@code version}, an error code otherwise
+		 */
+		int write(String used, String available, long version);
+
+		/**
+		 * @return the row, or {@code null} if it cannot be read
+		 */
+		Row read();
+	}
+
+	/**
+	 * The {@code used}, {@code available} and {@code version} columns of the
+	 * row of an ip.
+	 * @author julien-beguier
+	 */
+	public static class Row {
+		private final String	used;
+		private final String	available;
+		private final long		version;
+
+		public Row(String used, String available, long version) {
+			this.used = used;
+			this.available = available;
+			this.version = version;
+		}
+	}
+
+	// ##########################################################################
+
+	/**
+	 * Records a change of the ports of {@code bit} in the word {@code i}:
+	 * set in {@code changes}, cleared from {@code opposite}. Called with the
+	 * read lock of {@code changesLock}.
+	 */
+	private static void changed(AtomicLongArray changes, AtomicLongArray opposite, int i, long bit) {
+		clear(opposite, i, bit);
+		long word;
+		do {
+			word = changes.get(i);
+		} while ((word & bit) == 0 && !changes.compareAndSet(i, word, word | bit));
+	}
+
+	private static void clear(AtomicLongArray changes, int i, long bit) {
+		long word;
+		do {
+			word = changes.get(i);
+		} while ((word & bit) != 0 && !changes.compareAndSet(i, word, word & ~bit));
+	}
+
+	/**
+	 * Gives back the changes taken by a write which failed, unless the port
+	 * changed again since.
+	 */
+	private void restoreChanges(long[] claimed, long[] released) {
+		long stamp = this.changesLock.writeLock();
+		try {
+			for (int i = 0; i < claimed.length; i++) {
+				long since = this.claimedSinceWrite.get(i) | this.releasedSinceWrite.get(i);
+				this.claimedSinceWrite.set(i, this.claimedSinceWrite.get(i) | (claimed[i] & ~since));
+				this.releasedSinceWrite.set(i, this.releasedSinceWrite.get(i) | (released[i] & ~since));
+			}
+		} finally {
+			this.changesLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Replaces the state of the ports with {@code row}, written by another
+	 * api node, then applies the changes of this allocator not written yet.
+	 * The ports the row does not know are left as they are. Called with
+	 * {@code persistLock}.
+	 */
+	private void merge(Row row) {
+		long[] rowFree = new long[this.managed.length];
+		long[] rowKnown = new long[this.managed.length];
+		try {
+			JsonArray used = readArray(row.used);
+			JsonArray available = readArray(row.available);
+			setManaged(available, rowFree);
+			setManaged(used, rowKnown);
+			setManaged(available, rowKnown);
+			long[] rowUsed = new long[this.managed.length];
+			setManaged(used, rowUsed);
+			for (int i = 0; i < rowFree.length; i++)
+				rowFree[i] &= ~rowUsed[i];
+		} catch (RuntimeException e) {
+			// Kept as it is, the next write reads it again
+			return;
+		}
+
+		long stamp = this.changesLock.writeLock();
+		try {
+			int freeCount = 0;
+			for (int i = 0; i < rowFree.length; i++) {
+				long word = (this.free.get(i) & ~rowKnown[i]) | rowFree[i];
+				word = (word & ~this.claimedSinceWrite.get(i)) | this.releasedSinceWrite.get(i);
+				this.free.set(i, word);
+				freeCount += Long.bitCount(word);
+			}
+			this.freeCount.set(freeCount);
+			this.version = row.version;
+			// The row is the state of the ports, unless changes are to be
+			// written over it
+			if (hasChanges())
+				this.modCount.incrementAndGet();
+		} finally {
+			this.changesLock.unlockWrite(stamp);
+		}
+	}
+
+	private boolean hasChanges() {
+		for (int i = 0; i < this.claimedSinceWrite.length(); i++)
+			if ((this.claimedSinceWrite.get(i) | this.releasedSinceWrite.get(i)) != 0)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return the range list of the ports of {@code free} which are
+	 * available if {@code available} is {@code true}, used otherwise
+	 */
+	private String toRangeList(long[] free, boolean available) {
+		JsonArrayBuilder ranges = Json.createArrayBuilder();
+		int ports = this.managed.length << 6;
+		int p = 0;
+		while (p < ports) {
+			if (!isSet(this.managed, p) || isSet(free, p) != available) {
+				p++;
+				continue;
+			}
+			int first = p;
+			while (p + 1 < ports && isSet(this.managed, p + 1) && isSet(free, p + 1) == available)
+				p++;
+			addRange(ranges, this.basePort + first, this.basePort + p);
+			p++;
+		}
+		return ranges.build().toString();
+	}
+
+	private boolean isManaged(int port) {
+		int offset = port - this.basePort;
+		return offset >= 0 && offset < (this.managed.length << 6) && isSet(this.managed, offset);
+	}
+
+	private static boolean isSet(long[] bits, int offset) {
+		return (bits[offset >>> 6] & (1L << (offset & 63))) != 0;
+	}
+
+	private static JsonArray readArray(String json) {
+		if (json == null || json.isBlank())
+			return JsonValue.EMPTY_JSON_ARRAY;
+		try (JsonReader jsonReader = Json.createReader(new StringReader(json))) {
+			return jsonReader.readArray();
+		}
+	}
+
+	private static void addRange(JsonArrayBuilder builder, int first, int last) {
+		if (first == last)
+			builder.add(first);
+		else
+			builder.add(Json.createArrayBuilder().add(first).add(last));
+	}
+
+	/**
+	 * Updates {@code bounds} with the lowest and highest ports of
+	 * {@code ranges}.
+	 */
+	private static void bounds(JsonArray ranges, int[] bounds) {
+		for (JsonValue value : ranges) {
+			int first = first(value);
+			int last = last(value);
+			if (first < 0 || last > 65535 || first > last)
+				throw new IllegalArgumentException("Invalid port range " + value);
+			bounds[0] = Math.min(bounds[0], first);
+			bounds[1] = Math.max(bounds[1], last);
+		}
+	}
+
+	/**
+	 * Same as {@link #set} for the ports of {@code ranges} managed by this
+	 * allocator only.
+	 */
+	private void setManaged(JsonArray ranges, long[] bits) {
+		for (JsonValue value : ranges) {
+			for (int port = first(value); port <= last(value); port++) {
+				if (isManaged(port)) {
+					int offset = port - this.basePort;
+					bits[offset >>> 6] |= 1L << (offset & 63);
+				}
+			}
+		}
+	}
+
+	private void set(JsonArray ranges, long[] bits) {
+		for (JsonValue value : ranges) {
+			for (int port = first(value); port <= last(value); port++) {
+				int offset = port - this.basePort;
+				bits[offset >>> 6] |= 1L << (offset & 63);
+			}
+		}
+	}
+
+	private static int first(JsonValue value) {
+		if (value.getValueType() == JsonValue.ValueType.ARRAY)
+			return value.asJsonArray().getInt(0);
+		return ((JsonNumber) value).intValue();
+	}
+
+	private static int last(JsonValue value) {
+		if (value.getValueType() == JsonValue.ValueType.ARRAY)
+			return value.asJsonArray().getInt(1);
+		return ((JsonNumber) value).intValue();
+	}
+}
@@ -0,0 +1,525 @@
+package fr.fuwuyuan.gameserverapi.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import javax.ws.rs.core.EntityTag;
+
+import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
+import fr.fuwuyuan.gameserverapi.database.DatabaseSession;
+import fr.fuwuyuan.gameserverapi.database.PooledConnection;
+import fr.fuwuyuan.gameserverapi.database.SQLRequest;
+import fr.fuwuyuan.gameserverapi.events.RoomEventFeed;
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.responses.GameServerListResponse;
+import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
+import fr.fuwuyuan.gameserverapi.utils.ResultSetUtils;
+
+/**
+ * This is a singleton class holding, in memory, the {@link GameServerSlim} of
+ * every room saved in the {@code 'servers'} table, ordered by
+ * {@code server_id}.
+ * <p>
+ * The directory is updated write-through by the game server service when a
+ * room is created or shutdown. A background task periodically reconciles it
+ * against the {@code 'servers'} table to correct any drift, for instance
+ * rows changed by another api node or by hand. Until the first reconciliation
+ * is done, the directory is not loaded and reads are misses that must be
+ * served from the database.
+ * </p>
+ * <p>
+ * Rooms are also indexed by game and game version, so that a filtered page
+ * of rooms costs the same whatever the number of rooms of other games. The
+ * rooms a player can still join are also indexed by fill level in a
+ * {@link FreeSlotIndex}.
+ * </p>
+ * <p>
+ * Each change increments the {@code version} of the directory. The list of
+ * all rooms is also kept serialized as a {@link RoomListSnapshot}, rebuilt
+ * lazily the first time it is requested after a change.
+ * </p>
+ * <p>
+ * The version is also used to build the strong {@link EntityTag} of the room
+ * lists. It is prefixed with an id unique to this directory, so that two api
+ * nodes or two deployments never share the same tag for different content.
+ * </p>
+ * @author julien-beguier
+ * @see {@link RoomListSnapshot}
+ * @see {@link RoomDirectoryMetrics}
+ * @see {@link FreeSlotIndex}
+ */
+public class RoomDirectory {
+
+	private final static String						ROOM_DIRECTORY_RECONCILE_INTERVAL = "ROOM_DIRECTORY_RECONCILE_INTERVAL";
+	private final static String						QUICKJOIN_RESERVATION_TTL = "QUICKJOIN_RESERVATION_TTL";
+
+	/**
+	 * Value of {@code lastWrites} while a write is in progress.
+	 */
+	private final static long						WRITE_IN_PROGRESS = Long.MAX_VALUE;
+
+	/**
+	 * Jsonb instances are thread safe and expensive to create.
+	 */
+	private final static Jsonb						JSONB = JsonbBuilder.create();
+
+	private final String							instanceId = Long.toHexString(UUID.randomUUID().getMostSignificantBits());
+	private final ConcurrentSkipListMap<Integer, GameServerSlim>	rooms =
+			new ConcurrentSkipListMap<Integer, GameServerSlim>();
+	/**
+	 * The rooms by game and game version, see {@link RoomDirectory#indexKey}.
+	 */
+	private final ConcurrentHashMap<Map.Entry<String, String>, ConcurrentSkipListMap<Integer, GameServerSlim>>	byGameAndVersion =
+			new ConcurrentHashMap<Map.Entry<String, String>, ConcurrentSkipListMap<Integer, GameServerSlim>>();
+	private final FreeSlotIndex						freeSlots;
+	/**
+	 * The version at which each room was last written through, so that a
+	 * reconciliation does not override a write more recent than its SELECT.
+	 */
+	private final ConcurrentHashMap<Integer, Long>	lastWrites = new ConcurrentHashMap<Integer, Long>();
+	private final AtomicLong						version = new AtomicLong();
+	private final LongAdder							hits = new LongAdder();
+	private final LongAdder							misses = new LongAdder();
+	private final LongAdder							driftCorrections = new LongAdder();
+	private final LongAdder							snapshotRebuilds = new LongAdder();
+	private final Object							snapshotLock = new Object();
+	private volatile RoomListSnapshot				snapshot = null;
+	private final ScheduledExecutorService			reconciler;
+	private volatile boolean						loaded = false;
+	private volatile long							lastReconcileMillis = 0;
+
+	private static volatile boolean	initialized = false;
+
+	/**
+	 * Lazy and thread safe holder of the singleton.
+	 */
+	private static class InstanceHolder {
+		private static final RoomDirectory INSTANCE = new RoomDirectory();
+
+		static {
+			initialized = true;
+		}
+	}
+
+	public static RoomDirectory getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Unlike {@link #getInstance()}, does not start loading the directory.
+	 * @return {@code true} once the singleton is created
+	 */
+	public static boolean isInitialized() {
+		return initialized;
+	}
+
+	private RoomDirectory() {
+		Properties properties = null;
+		try {
+			properties = ApplicationPropertiesUtils.readPropertiesFile();
+		} catch (IOException e) {
+			ResponseHandler.error("application.properties file cannot be closed: " + e.getMessage(), true);
+		}
+		long reconcileIntervalMillis = ApplicationPropertiesUtils.getLongProperty(properties,
+				ROOM_DIRECTORY_RECONCILE_INTERVAL, 60000);
+		long reservationTtlMillis = ApplicationPropertiesUtils.getLongProperty(properties,
+				QUICKJOIN_RESERVATION_TTL, 10000);
+
+		this.freeSlots = new FreeSlotIndex(reservationTtlMillis);
+		this.reconciler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("room-directory"));
+		this.reconciler.scheduleWithFixedDelay(this::reconcile, 0, reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * This method returns all the rooms of the directory.
+	 * @return a new list of {@link GameServerSlim} ordered by {@code server_id}
+	 * or {@code null} if the directory is not loaded yet
+	 */
+	public List<GameServerSlim> list() {
+		if (!this.loaded) {
+			this.misses.increment();
+			return null;
+		}
+		this.hits.increment();
+		return new ArrayList<GameServerSlim>(this.rooms.values());
+	}
+
+	/**
+	 * This method returns all the rooms of the directory, already serialized
+	 * as a {@link GameServerListResponse}. The same snapshot is returned until
+	 * the directory changes.
+	 * @return the {@link RoomListSnapshot} of the current version or
+	 * {@code null} if the directory is not loaded yet
+	 */
+	public RoomListSnapshot getSnapshot() {
+		if (!this.loaded) {
+			this.misses.increment();
+			return null;
+		}
+		this.hits.increment();
+
+		RoomListSnapshot current = this.snapshot;
+		if (current != null && current.getVersion() == this.version.get())
+			return current;
+
+		// Only one thread rebuilds it, the others wait and share the result
+		synchronized (this.snapshotLock) {
+			current = this.snapshot;
+			// The version is read before the rooms: the snapshot can only be
+			// newer than its version, never older
+			long currentVersion = this.version.get();
+			if (current == null || current.getVersion() != currentVersion) {
+				ByteArrayOutputStream json = new ByteArrayOutputStream();
+				JSONB.toJson(new GameServerListResponse(new ArrayList<GameServerSlim>(this.rooms.values())), json);
+				current = new RoomListSnapshot(currentVersion, json.toByteArray());
+				this.snapshot = current;
+				this.snapshotRebuilds.increment();
+			}
+			return current;
+		}
+	}
+
+	/**
+	 * This method returns the rooms of the directory running the version
+	 * {@code gameVersion} of the game {@code gameName}.
+	 * @param gameName as a String, case sensitive
+	 * @param gameVersion as a String
+	 * @return a new list of {@link GameServerSlim} ordered by {@code server_id}
+	 * or {@code null} if the directory is not loaded yet
+	 */
+	public List<GameServerSlim> listByGameAndGameVersion(String gameName, String gameVersion) {
+		if (!this.loaded) {
+			this.misses.increment();
+			return null;
+		}
+		this.hits.increment();
+		Map<Integer, GameServerSlim> index = this.byGameAndVersion.get(indexKey(gameName, gameVersion));
+		if (index == null)
+			return new ArrayList<GameServerSlim>();
+		return new ArrayList<GameServerSlim>(index.values());
+	}
+
+	/**
+	 * This method returns at most {@code limit} rooms of the directory with a
+	 * {@code server_id} strictly greater than {@code after}, ordered by
+	 * {@code server_id}.</br>
+	 * When {@code gameName} (and {@code gameVersion}) are given, only the rooms
+	 * of that game (and version) are returned, read from the index.
+	 * @param after as an int value, the last {@code server_id} of the previous
+	 * page or {@code -1} for the first page
+	 * @param limit as an int value
+	 * @param gameName as a String, case sensitive, can be null
+	 * @param gameVersion as a String, can be null, ignored without gameName
+	 * @param freeSlotsOnly {@code true} to only return the rooms a player can
+	 * still join
+	 * @return a new list of {@link GameServerSlim} ordered by {@code server_id}
+	 * or {@code null} if the directory is not loaded yet
+	 * @see {@link GameServerSlim#hasFreeSlot}
+	 */
+	public List<GameServerSlim> page(int after, int limit, String gameName, String gameVersion,
+			boolean freeSlotsOnly) {
+		if (!this.loaded) {
+			this.misses.increment();
+			return null;
+		}
+		this.hits.increment();
+
+		NavigableMap<Integer, GameServerSlim> source = this.rooms;
+		boolean filterGame = false;
+		if (gameName != null && gameVersion != null) {
+			source = this.byGameAndVersion.get(indexKey(gameName, gameVersion));
+			if (source == null)
+				return new ArrayList<GameServerSlim>();
+		} else if (gameName != null) {
+			filterGame = true;
+		}
+
+		List<GameServerSlim> servers = new ArrayList<GameServerSlim>(Math.min(limit, 64));
+		for (GameServerSlim gss : source.tailMap(after, false).values()) {
+			if (servers.size() >= limit)
+				break;
+			if (filterGame && !gss.getGame().equals(gameName))
+				continue;
+			if (freeSlotsOnly && !gss.hasFreeSlot())
+				continue;
+			servers.add(gss);
+		}
+		return servers;
+	}
+
+	/**
+	 * This method adds or replaces a room in the directory. It must be called
+	 * once the room is saved in the {@code 'servers'} table.
+	 * @param gss as a {@link GameServerSlim}
+	 */
+	public void put(GameServerSlim gss) {
+		Integer serverId = Integer.valueOf(gss.getServerId());
+		this.lastWrites.put(serverId, WRITE_IN_PROGRESS);
+		store(serverId, gss);
+		this.lastWrites.put(serverId, this.version.incrementAndGet());
+	}
+
+	/**
+	 * This method returns a room of the directory.
+	 * @param serverId as an int value
+	 * @return the {@link GameServerSlim} or {@code null} if it is not in the
+	 * directory or if the directory is not loaded yet
+	 */
+	public GameServerSlim get(int serverId) {
+		return this.rooms.get(Integer.valueOf(serverId));
+	}
+
+	/**
+	 * @return the {@link FreeSlotIndex} of the rooms of the directory, empty
+	 * until the directory is loaded
+	 */
+	public FreeSlotIndex getFreeSlots() {
+		return this.freeSlots;
+	}
+
+	/**
+	 * This method sets the number of players of a room of the directory. It
+	 * must be called once the number is saved in the {@code 'servers'} table.
+	 * The room is replaced by a copy: the previous one may be read
+	 * concurrently.
+	 * @param serverId as an int value
+	 * @param nPlayers as an int value
+	 * @return the updated {@link GameServerSlim} or {@code null} if the room
+	 * is not in the directory or already had {@code nPlayers}
+	 */
+	public GameServerSlim updatePlayers(int serverId, int nPlayers) {
+		Integer id = Integer.valueOf(serverId);
+		GameServerSlim current = this.rooms.get(id);
+		if (current == null || current.getNPlayers() == nPlayers)
+			return null;
+
+		GameServerSlim updated = new GameServerSlim(current.getServerId(), current.getIp(), current.getPort(),
+				current.getName(), current.getDescription(), current.getGame(), current.getGameVersion(),
+				current.getNMaxPlayers());
+		updated.setNPlayers(nPlayers);
+		this.lastWrites.put(id, WRITE_IN_PROGRESS);
+		// Only if the room was not removed or replaced meanwhile
+		boolean replaced = this.rooms.replace(id, current, updated);
+		if (replaced) {
+			Map.Entry<String, String> key = indexKey(current.getGame(), current.getGameVersion());
+			this.byGameAndVersion.computeIfPresent(key, (k, index) -> {
+				index.replace(id, current, updated);
+				return index;
+			});
+			this.freeSlots.replace(key, updated);
+		}
+		this.lastWrites.put(id, this.version.incrementAndGet());
+		return replaced ? updated : null;
+	}
+
+	/**
+	 * This method removes a room from the directory. It must be called once
+	 * the room is deleted from the {@code 'servers'} table.
+	 * @param serverId as a String
+	 */
+	public void remove(String serverId) {
+		Integer id;
+		try {
+			id = Integer.valueOf(serverId);
+		} catch (NumberFormatException e) {
+			return;
+		}
+		this.lastWrites.put(id, WRITE_IN_PROGRESS);
+		evict(id);
+		this.lastWrites.put(id, this.version.incrementAndGet());
+	}
+
+	/**
+	 * @return the version of the directory, incremented on each change
+	 */
+	public long getVersion() {
+		return this.version.get();
+	}
+
+	/**
+	 * This method builds the strong entity tag of the room lists for the
+	 * given {@code version} of the directory.
+	 * @param version as a long value
+	 * @return an {@link EntityTag}
+	 */
+	public EntityTag getEntityTag(long version) {
+		return new EntityTag(this.instanceId + "-" + version);
+	}
+
+	/**
+	 * @return {@code true} once the directory has been loaded from the
+	 * database, {@code false} otherwise
+	 */
+	public boolean isLoaded() {
+		return this.loaded;
+	}
+
+	/**
+	 * This method stops the reconciliation with the database. Called when the
+	 * api is undeployed.
+	 */
+	public void shutdown() {
+		this.reconciler.shutdownNow();
+	}
+
+	/**
+	 * Returns a snapshot of the directory usage.
+	 * @return a {@link RoomDirectoryMetrics}
+	 */
+	public RoomDirectoryMetrics getMetrics() {
+		long stalenessMillis = this.loaded ? System.currentTimeMillis() - this.lastReconcileMillis : -1;
+		return new RoomDirectoryMetrics(this.rooms.size(), this.version.get(), this.hits.sum(),
+				this.misses.sum(), this.driftCorrections.sum(), this.snapshotRebuilds.sum(), stalenessMillis);
+	}
+
+	// ##########################################################################
+
+	/**
+	 * Background task aligning the directory with the {@code 'servers'}
+	 * table. Rooms written through since the SELECT started are left as is,
+	 * the next reconciliation will check them. Once loaded, each correction
+	 * is published to the {@link RoomEventFeed}.
+	 */
+	private void reconcile() {
+		long versionAtStart = this.version.get();
+		Map<Integer, GameServerSlim> fromDb = fetchAll();
+		if (fromDb == null)
+			return;
+
+		int corrections = 0;
+		for (Map.Entry<Integer, GameServerSlim> entry : fromDb.entrySet()) {
+			if (isWrittenSince(entry.getKey(), versionAtStart))
+				continue;
+			GameServerSlim current = this.rooms.get(entry.getKey());
+			if (!entry.getValue().equals(current)) {
+				store(entry.getKey(), entry.getValue());
+				corrections++;
+				if (this.loaded) {
+					if (current == null)
+						RoomEventFeed.getInstance().publishCreated(entry.getValue());
+					else
+						RoomEventFeed.getInstance().publishUpdated(entry.getValue());
+				}
+			}
+		}
+		for (Integer serverId : this.rooms.keySet()) {
+			if (!fromDb.containsKey(serverId) && !isWrittenSince(serverId, versionAtStart)) {
+				evict(serverId);
+				corrections++;
+				if (this.loaded)
+					RoomEventFeed.getInstance().publishShutdown(String.valueOf(serverId));
+			}
+		}
+		this.lastWrites.values().removeIf(v -> v <= versionAtStart);
+
+		if (corrections > 0) {
+			this.version.incrementAndGet();
+			if (this.loaded) {
+				this.driftCorrections.add(corrections);
+				ResponseHandler.info("Room directory reconciled, " + corrections + " room(s) corrected", true);
+			}
+		}
+		this.lastReconcileMillis = System.currentTimeMillis();
+		this.loaded = true;
+	}
+
+	/**
+	 * Adds or replaces a room in the directory and in its index.
+	 */
+	private void store(Integer serverId, GameServerSlim gss) {
+		GameServerSlim previous = this.rooms.put(serverId, gss);
+		Map.Entry<String, String> key = indexKey(gss.getGame(), gss.getGameVersion());
+		if (previous != null) {
+			Map.Entry<String, String> previousKey = indexKey(previous.getGame(), previous.getGameVersion());
+			if (!previousKey.equals(key))
+				unindex(previousKey, serverId);
+		}
+		this.byGameAndVersion.compute(key, (k, index) -> {
+			if (index == null)
+				index = new ConcurrentSkipListMap<Integer, GameServerSlim>();
+			index.put(serverId, gss);
+			return index;
+		});
+		this.freeSlots.put(key, gss);
+	}
+
+	/**
+	 * Removes a room from the directory and from its index.
+	 */
+	private void evict(Integer serverId) {
+		GameServerSlim previous = this.rooms.remove(serverId);
+		if (previous != null)
+			unindex(indexKey(previous.getGame(), previous.getGameVersion()), serverId);
+	}
+
+	/**
+	 * Removes a room from the indexes {@code key}, and the indexes themselves
+	 * once empty so that games no longer played do not stay in memory.
+	 */
+	private void unindex(Map.Entry<String, String> key, Integer serverId) {
+		this.byGameAndVersion.computeIfPresent(key, (k, index) -> {
+			index.remove(serverId);
+			return index.isEmpty() ? null : index;
+		});
+		this.freeSlots.remove(key, serverId);
+	}
+
+	/**
+	 * The key of the index of the rooms running the version
+	 * {@code gameVersion} of the game {@code gameName}.
+	 */
+	static Map.Entry<String, String> indexKey(String gameName, String gameVersion) {
+		return Map.entry(gameName, gameVersion);
+	}
+
+	private boolean isWrittenSince(Integer serverId, long version) {
+		Long lastWrite = this.lastWrites.get(serverId);
+		return lastWrite != null && lastWrite > version;
+	}
+
+	/**
+	 * @return all the rooms of the {@code 'servers'} table by
+	 * {@code server_id} or {@code null} if it fails
+	 */
+	private Map<Integer, GameServerSlim> fetchAll() {
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			if (conn == null)
+				return null;
+
+			ResultSet resultSet = conn.query(SQLRequest.SELECT_SERVERS_SLIM);
+			Map<Integer, GameServerSlim> servers = new HashMap<Integer, GameServerSlim>();
+			while (resultSet.next()) {
+				GameServerSlim gss = ResultSetUtils.toGameServerSlim(resultSet);
+				servers.put(Integer.valueOf(gss.getServerId()), gss);
+			}
+			resultSet.close();
+			return servers;
+		} catch (SQLException e) {
+			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
+			ResponseHandler.error(errorMessage, true);
+			return null;
+		} catch (RuntimeException e) {
+			ResponseHandler.error("Room directory reconciliation failed: " + e.getMessage(), true);
+			return null;
+		}
+	}
+}
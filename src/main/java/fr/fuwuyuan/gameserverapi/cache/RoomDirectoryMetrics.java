@@ -0,0 +1,92 @@
+package fr.fuwuyuan.gameserverapi.cache;
+
+/**
+ * An immutable snapshot of the usage of the {@link RoomDirectory}.
+ * @author julien-beguier
+ * @see {@link RoomDirectory#getMetrics}
+ */
+public class RoomDirectoryMetrics {
+
+	private final int	size;
+	private final long	version;
+	private final long	hits;
+	private final long	misses;
+	private final long	driftCorrections;
+	private final long	snapshotRebuilds;
+	private final long	stalenessMillis;
+
+	public RoomDirectoryMetrics(int size, long version, long hits, long misses,
+			long driftCorrections, long snapshotRebuilds, long stalenessMillis) {
+		this.size = size;
+		this.version = version;
+		this.hits = hits;
+		this.misses = misses;
+		this.driftCorrections = driftCorrections;
+		this.snapshotRebuilds = snapshotRebuilds;
+		this.stalenessMillis = stalenessMillis;
+	}
+
+	/**
+	 * The number of rooms in the directory.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * The version of the directory, incremented on each change.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * The number of reads served from the directory.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * The number of reads that had to be served from the database because the
+	 * directory was not loaded.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * The number of rooms corrected by the reconciliations.
+	 */
+	public long getDriftCorrections() {
+		return driftCorrections;
+	}
+
+	/**
+	 * The number of times the serialized list of all rooms was rebuilt.
+	 */
+	public long getSnapshotRebuilds() {
+		return snapshotRebuilds;
+	}
+
+	/**
+	 * The time since the last successful reconciliation, in milliseconds, or
+	 * {@code -1} if the directory is not loaded yet.
+	 */
+	public long getStalenessMillis() {
+		return stalenessMillis;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("size=").append(this.size);
+		sb.append(", version=").append(this.version);
+		sb.append(", hits=").append(this.hits);
+		sb.append(", misses=").append(this.misses);
+		sb.append(", driftCorrections=").append(this.driftCorrections);
+		sb.append(", snapshotRebuilds=").append(this.snapshotRebuilds);
+		sb.append(", staleness=").append(this.stalenessMillis).append("ms");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,41 @@
+package fr.fuwuyuan.gameserverapi.cache;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An immutable, already serialized, {@link fr.fuwuyuan.gameserverapi.responses.GameServerListResponse GameServerListResponse}
+ * of all the rooms of the {@link RoomDirectory} at a given version.</br>
+ * The json bytes are shared by all the responses sent until the directory
+ * changes, they must never be modified.
+ * @author julien-beguier
+ * @see {@link RoomDirectory#getSnapshot}
+ */
+public class RoomListSnapshot {
+
+	private final long		version;
+	private final byte[]	json;
+
+	public RoomListSnapshot(long version, byte[] json) {
+		this.version = version;
+		this.json = json;
+	}
+
+	/**
+	 * The version of the {@link RoomDirectory} this snapshot was built from.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * The UTF-8 encoded json of the response.
+	 */
+	public byte[] getJson() {
+		return json;
+	}
+
+	@Override
+	public String toString() {
+		return new String(this.json, StandardCharsets.UTF_8);
+	}
+}
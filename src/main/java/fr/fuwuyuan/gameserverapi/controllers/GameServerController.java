@@ -1,5 +1,6 @@
 package fr.fuwuyuan.gameserverapi.controllers;
 
+import javax.inject.Singleton;
 import javax.json.JsonObject;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
@@ -10,74 +11,167 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
 
+import fr.fuwuyuan.gameserverapi.logs.LogWriter;
 import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.metrics.Metrics;
 import fr.fuwuyuan.gameserverapi.services.GameServerService;
 import fr.fuwuyuan.gameserverapi.services.GameServerServiceInterface;
 
 /**
- * This is the controller to manipulate game server rooms.
+ * This is the controller to manipulate game server rooms.</br>
+ * It is a singleton: the controller and its services are created once and
+ * used concurrently by all the requests, none of them holds request state.
+ * <p>
+ * The requests are suspended and their work is run by the
+ * {@link RequestExecutor}, so that the container threads are not held while
+ * waiting for the database. Only the heartbeats, buffered in memory, are
+ * answered on the container threads.
+ * </p>
  * @author julien-beguier
  */
+@Singleton
 @Path("/room")
 @Consumes("application/json")
 @Produces("application/json")
 public class GameServerController {
 
-	private GameServerServiceInterface service = new GameServerService();
-	private ResponseHandler rh = new ResponseHandler();
+	private final GameServerServiceInterface service = new GameServerService();
+	private final ResponseHandler rh = new ResponseHandler();
+	private final RequestExecutor executor = RequestExecutor.getInstance();
 
 	@POST
-	public Response createGameServer(@Context final HttpServletRequest requestContext,
+	public void createGameServer(@Suspended final AsyncResponse asyncResponse,
+			@Context final HttpServletRequest requestContext,
 			@HeaderParam("auth_key") final String authKey, final JsonObject postInput) {
 		String callerIp = requestContext.getRemoteAddr();
 
-		rh.incoming(callerIp, "POST createGameServer : " + (postInput == null ? "<input null>" : postInput.toString()));
-		return rh.outgoing(callerIp, this.service.createGameServer(authKey, postInput));
+		rh.incoming(callerIp, "POST createGameServer", "createGameServer", postInput == null ? "<input null>" : postInput);
+		executor.execute(asyncResponse, callerIp, "createGameServer", () -> this.service.createGameServer(authKey, postInput));
 	}
 
 	@GET
-	public Response getGameServers(@Context final HttpServletRequest requestContext,
-			@HeaderParam("auth_key") final String authKey) {
+	public void getGameServers(@Suspended final AsyncResponse asyncResponse,
+			@Context final HttpServletRequest requestContext,
+			@Context final Request request,
+			@HeaderParam("auth_key") final String authKey,
+			@QueryParam("after") final String after,
+			@QueryParam("limit") final String limit,
+			@QueryParam("game") final String gameName,
+			@QueryParam("game_version") final String gameVersion,
+			@QueryParam("free_slots") final boolean freeSlotsOnly) {
+		String callerIp = requestContext.getRemoteAddr();
+
+		// Without any query parameter, all the game servers are returned at once
+		if (after == null && limit == null && gameName == null && gameVersion == null && !freeSlotsOnly) {
+			rh.incoming(callerIp, "GET getGameServers");
+			executor.execute(asyncResponse, callerIp, "getGameServers", () -> this.service.getGameServers(authKey, request));
+			return;
+		}
+
+		// The messages with a parameter are only built if logged
+		if (ResponseHandler.isEnabled(LogWriter.Level.INFO))
+			rh.incoming(callerIp, "GET getGameServersPage : " + requestContext.getQueryString());
+		executor.execute(asyncResponse, callerIp, "getGameServersPage", () -> this.service.getGameServersPage(authKey, request, after, limit,
+				gameName, gameVersion, freeSlotsOnly));
+	}
+
+	@POST
+	@Path("/quickjoin")
+	public void quickJoin(@Suspended final AsyncResponse asyncResponse,
+			@Context final HttpServletRequest requestContext,
+			@HeaderParam("auth_key") final String authKey, final JsonObject postInput) {
+		String callerIp = requestContext.getRemoteAddr();
+
+		rh.incoming(callerIp, "POST quickJoin", "quickJoin", postInput == null ? "<input null>" : postInput);
+		executor.execute(asyncResponse, callerIp, "quickJoin", () -> this.service.quickJoin(authKey, postInput));
+	}
+
+	@GET
+	@Path("/events")
+	@Produces(MediaType.SERVER_SENT_EVENTS)
+	public void subscribeToRoomEvents(@Context final HttpServletRequest requestContext,
+			@Context final Sse sse,
+			@Context final SseEventSink sink,
+			@HeaderParam("auth_key") final String authKey,
+			@HeaderParam(HttpHeaders.LAST_EVENT_ID_HEADER) final String lastEventId) {
 		String callerIp = requestContext.getRemoteAddr();
 
-		rh.incoming(callerIp, "GET getGameServers");
-		return rh.outgoing(callerIp, this.service.getGameServers(authKey));
+		if (ResponseHandler.isEnabled(LogWriter.Level.INFO))
+			rh.incoming(callerIp, "GET subscribeToRoomEvents : " + (lastEventId == null ? "<new>" : lastEventId));
+		Response error = this.service.subscribeToRoomEvents(authKey, sse, sink, lastEventId);
+		// The events are sent once subscribed, only an error is answered here
+		if (error != null)
+			throw new WebApplicationException(rh.outgoing(callerIp, "subscribeToRoomEvents", error));
 	}
 
 	@GET
 	@Path("/{server-id}")
-	public Response getGameServerById(@Context final HttpServletRequest requestContext,
+	public void getGameServerById(@Suspended final AsyncResponse asyncResponse,
+			@Context final HttpServletRequest requestContext,
 			@HeaderParam("auth_key") final String authKey,
 			@PathParam("server-id") final String serverId) {
 		String callerIp = requestContext.getRemoteAddr();
 
-		rh.incoming(callerIp, "GET getGameServerById : " + serverId);
-		return rh.outgoing(callerIp, this.service.getGameServerById(authKey, serverId));
+		if (ResponseHandler.isEnabled(LogWriter.Level.INFO))
+			rh.incoming(callerIp, "GET getGameServerById : " + serverId);
+		executor.execute(asyncResponse, callerIp, "getGameServerById", () -> this.service.getGameServerById(authKey, serverId));
 	}
 
 	@GET
 	@Path("/{game-name}/{game-version}")
-	public Response getGameServerByGameNameAndGameVersion(@Context final HttpServletRequest requestContext,
+	public void getGameServerByGameNameAndGameVersion(@Suspended final AsyncResponse asyncResponse,
+			@Context final HttpServletRequest requestContext,
+			@Context final Request request,
 			@HeaderParam("auth_key") final String authKey,
 			@PathParam("game-name") final String gameName,
 			@PathParam("game-version") final String gameVersion) {
 		String callerIp = requestContext.getRemoteAddr();
 
-		rh.incoming(callerIp, "GET getGameServerByGameNameAndGameVersion : " + gameName + ":" + gameVersion);
-		return rh.outgoing(callerIp, this.service.getGameServerByGameNameAndGameVersion(authKey, gameName, gameVersion));
+		if (ResponseHandler.isEnabled(LogWriter.Level.INFO))
+			rh.incoming(callerIp, "GET getGameServerByGameNameAndGameVersion : " + gameName + ":" + gameVersion);
+		executor.execute(asyncResponse, callerIp, "getGameServerByGameNameAndGameVersion",
+				() -> this.service.getGameServerByGameNameAndGameVersion(authKey, request, gameName, gameVersion));
 	}
 
 	@DELETE
 	@Path("/{server-id}")
-	public Response shutdownGameServer(@Context final HttpServletRequest requestContext,
+	public void shutdownGameServer(@Suspended final AsyncResponse asyncResponse,
+			@Context final HttpServletRequest requestContext,
 			@HeaderParam("auth_key") final String authKey,
 			@PathParam("server-id") final String serverId) {
 		String callerIp = requestContext.getRemoteAddr();
 
-		rh.incoming(callerIp, "DELETE shutdownGameServer : " + serverId);
-		return rh.outgoing(callerIp, this.service.shutdownGameServer(authKey, serverId));
+		if (ResponseHandler.isEnabled(LogWriter.Level.INFO))
+			rh.incoming(callerIp, "DELETE shutdownGameServer : " + serverId);
+		executor.execute(asyncResponse, callerIp, "shutdownGameServer", () -> this.service.shutdownGameServer(authKey, serverId));
+	}
+
+	@POST
+	@Path("/{server-id}/heartbeat")
+	public Response heartbeat(@Context final HttpServletRequest requestContext,
+			@HeaderParam("auth_key") final String authKey,
+			@PathParam("server-id") final String serverId, final JsonObject postInput) {
+		String callerIp = requestContext.getRemoteAddr();
+
+		if (ResponseHandler.isEnabled(LogWriter.Level.INFO))
+			rh.incoming(callerIp, "POST heartbeat : " + serverId, "heartbeat", postInput == null ? "<input null>" : postInput);
+		// Only buffered in memory: answered on the container thread, a
+		// heartbeat never waits behind the requests queued for the database
+		long startNanos = Metrics.getInstance().requestStarted("heartbeat");
+		Response response = this.service.heartbeat(authKey, serverId, postInput);
+		Metrics.getInstance().requestEnded("heartbeat", startNanos, response.getStatus());
+		return rh.outgoing(callerIp, "heartbeat", response);
 	}
 }
@@ -0,0 +1,36 @@
+package fr.fuwuyuan.gameserverapi.controllers;
+
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.metrics.PrometheusExporter;
+
+/**
+ * This is the controller exposing the metrics of the api in the Prometheus
+ * text format, to be scraped.</br>
+ * It only reads in-memory counters: it is answered on the container thread.
+ * @author julien-beguier
+ * @see {@link PrometheusExporter}
+ */
+@Singleton
+@Path("/metrics")
+public class MetricsController {
+
+	private final ResponseHandler rh = new ResponseHandler();
+
+	@GET
+	@Produces(PrometheusExporter.CONTENT_TYPE)
+	public Response getMetrics(@Context final HttpServletRequest requestContext) {
+		String callerIp = requestContext.getRemoteAddr();
+
+		rh.incoming(callerIp, "GET getMetrics");
+		Response response = Response.ok(PrometheusExporter.export(), PrometheusExporter.CONTENT_TYPE).build();
+		return rh.outgoing(callerIp, "getMetrics", response);
+	}
+}
@@ -0,0 +1,238 @@
+package fr.fuwuyuan.gameserverapi.controllers;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.metrics.Metrics;
+import fr.fuwuyuan.gameserverapi.responses.ErrorResponse;
+import fr.fuwuyuan.gameserverapi.responses.GameServerListStream;
+import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
+
+/**
+ * This is a singleton class running the blocking work of the requests (JDBC
+ * and external calls) out of the container threads, which are released as
+ * soon as the request is suspended.
+ * <p>
+ * The work runs on a bounded pool of {@code SQL_POOL_MAX_SIZE} threads, as
+ * many as the database connections: more threads would only wait for a
+ * connection. At most {@code REQUEST_QUEUE_SIZE} requests wait for a
+ * thread, the next ones are answered {@code 503 Service Unavailable} right
+ * away. A request not answered within {@code REQUEST_TIMEOUT} is answered
+ * {@code 504 Gateway Timeout}, and its work is skipped if it has not started
+ * yet. Work already started can stop early by checking {@link #isAnswered()}
+ * before its side effects. A response coming too late is dropped, its entity
+ * being closed first if it holds resources ({@link AutoCloseable}).
+ * </p>
+ * <p>
+ * With {@code REQUEST_VIRTUAL_THREADS=true}, on a JDK providing them (21+),
+ * each request runs on its own virtual thread instead. The database
+ * concurrency is then only limited by the permits of the
+ * {@link fr.fuwuyuan.gameserverapi.database.ConnectionPool ConnectionPool}
+ * of the {@code DatabaseSession}, a waiting virtual thread does not hold a
+ * platform thread. At most {@code SQL_POOL_MAX_SIZE + REQUEST_QUEUE_SIZE}
+ * requests are run at once, the next ones are answered
+ * {@code 503 Service Unavailable}. On an older JDK, the platform threads are
+ * used.</br>
+ * A virtual thread blocked inside a {@code synchronized} block pins its
+ * carrier thread (up to Java 23). The locks held across a database call or a
+ * room creation (server id block, port persistence, quick join creation)
+ * are {@link java.util.concurrent.locks.ReentrantLock ReentrantLock}s for
+ * this reason; the monitors left only guard short updates in memory.
+ * </p>
+ * <p>
+ * The latency of each route, queueing included, its requests in flight and
+ * its responses per status are recorded in the {@link Metrics}.
+ * </p>
+ * @author julien-beguier
+ * @see {@link AsyncResponse}
+ */
+public class RequestExecutor {
+
+	private final static String		SQL_POOL_MAX_SIZE = "SQL_POOL_MAX_SIZE";
+	private final static String		REQUEST_QUEUE_SIZE = "REQUEST_QUEUE_SIZE";
+	private final static String		REQUEST_TIMEOUT = "REQUEST_TIMEOUT";
+	private final static String		REQUEST_VIRTUAL_THREADS = "REQUEST_VIRTUAL_THREADS";
+
+	/**
+	 * In seconds, sent with a {@code 503 Service Unavailable}.
+	 */
+	private final static String		RETRY_AFTER = "1";
+
+	private final ExecutorService	executor;
+	/**
+	 * Limits the requests run at once on virtual threads, {@code null} with
+	 * platform threads since the pool is already bounded.
+	 */
+	private final Semaphore			admissions;
+	private final long				timeoutMillis;
+	private final ResponseHandler	rh = new ResponseHandler();
+	/**
+	 * The request run by the current thread, set while its work runs.
+	 */
+	private final static ThreadLocal<AsyncResponse>	CURRENT = new ThreadLocal<AsyncResponse>();
+
+	/**
+	 * Lazy and thread safe holder of the singleton.
+	 */
+	private static class InstanceHolder {
+		private static final RequestExecutor INSTANCE = new RequestExecutor();
+	}
+
+	public static RequestExecutor getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	private RequestExecutor() {
+		Properties properties = null;
+		try {
+			properties = ApplicationPropertiesUtils.readPropertiesFile();
+		} catch (IOException e) {
+			ResponseHandler.error("application.properties file cannot be closed: " + e.getMessage(), true);
+		}
+		int threads = Math.max(1, ApplicationPropertiesUtils.getIntProperty(properties, SQL_POOL_MAX_SIZE, 10));
+		int queueSize = Math.max(1, ApplicationPropertiesUtils.getIntProperty(properties, REQUEST_QUEUE_SIZE, 100));
+
+		boolean virtualThreads = properties != null
+				&& Boolean.parseBoolean(properties.getProperty(REQUEST_VIRTUAL_THREADS, "false").trim());
+
+		this.timeoutMillis = ApplicationPropertiesUtils.getLongProperty(properties, REQUEST_TIMEOUT, 10000);
+		ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+		if (virtualExecutor != null) {
+			this.executor = virtualExecutor;
+			this.admissions = new Semaphore(threads + queueSize);
+			ResponseHandler.info("Requests run on virtual threads", true);
+		} else {
+			if (virtualThreads)
+				ResponseHandler.error("Virtual threads are not available on Java "
+						+ Runtime.version().feature() + ", requests run on platform threads", true);
+			ThreadPoolExecutor platformExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(queueSize), new NamedThreadFactory("request"));
+			platformExecutor.allowCoreThreadTimeOut(true);
+			this.executor = platformExecutor;
+			this.admissions = null;
+		}
+	}
+
+	/**
+	 * This method runs {@code task} on the pool and resumes
+	 * {@code asyncResponse} with the {@link Response} it returns. The
+	 * response is logged as an outgoing message of {@code route} to
+	 * {@code callerIp}.
+	 * @param asyncResponse as the {@link AsyncResponse} of the suspended request
+	 * @param callerIp as a String
+	 * @param route as a String, the name of the route
+	 * @param task as a {@link Supplier} of the {@link Response}, may block
+	 */
+	public void execute(final AsyncResponse asyncResponse, final String callerIp, final String route,
+			final Supplier<Response> task) {
+		long startNanos = Metrics.getInstance().requestStarted(route);
+		asyncResponse.setTimeoutHandler(ar -> resume(ar, callerIp, route, startNanos, errorResponse(
+				Response.Status.GATEWAY_TIMEOUT, "The request has not been answered in time")));
+		asyncResponse.setTimeout(this.timeoutMillis, TimeUnit.MILLISECONDS);
+
+		if (this.admissions != null && !this.admissions.tryAcquire()) {
+			reject(asyncResponse, callerIp, route, startNanos);
+			return;
+		}
+		try {
+			this.executor.execute(() -> {
+				try {
+					// Already answered by the timeout handler while waiting
+					if (asyncResponse.isDone())
+						return;
+					CURRENT.set(asyncResponse);
+					resume(asyncResponse, callerIp, route, startNanos, task.get());
+				} catch (RuntimeException e) {
+					ResponseHandler.error("[" + callerIp + "] Unexpected error: " + e, true);
+					if (asyncResponse.resume(e))
+						Metrics.getInstance().requestEnded(route, startNanos,
+								Response.Status.INTERNAL_SERVER_ERROR.getStatusCode());
+				} finally {
+					CURRENT.remove();
+					if (this.admissions != null)
+						this.admissions.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			if (this.admissions != null)
+				this.admissions.release();
+			reject(asyncResponse, callerIp, route, startNanos);
+		}
+	}
+
+	/**
+	 * This method tells the work of a request whether it is still awaited. It
+	 * is checked before a side effect, like claiming a port or saving a room,
+	 * that nobody would be told about.
+	 * @return {@code true} if the request run by the current thread has
+	 * already been answered (timed out), {@code false} otherwise or out of a
+	 * request
+	 */
+	public static boolean isAnswered() {
+		AsyncResponse asyncResponse = CURRENT.get();
+		return asyncResponse != null && asyncResponse.isDone();
+	}
+
+	// ##########################################################################
+
+	/**
+	 * Resumes the request with {@code response}, and records it unless it has
+	 * already been answered. The entity of a response dropped is closed if it
+	 * holds resources, like the connection of a {@link GameServerListStream}.
+	 */
+	private void resume(AsyncResponse asyncResponse, String callerIp, String route, long startNanos,
+			Response response) {
+		if (asyncResponse.resume(rh.outgoing(callerIp, route, response))) {
+			Metrics.getInstance().requestEnded(route, startNanos, response.getStatus());
+			return;
+		}
+		if (response.getEntity() instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) response.getEntity()).close();
+			} catch (Exception e) {
+				ResponseHandler.error("[" + callerIp + "] The response of " + route + " cannot be closed: " + e, true);
+			}
+		}
+	}
+
+	private void reject(AsyncResponse asyncResponse, String callerIp, String route, long startNanos) {
+		Response response = Response.fromResponse(errorResponse(Response.Status.SERVICE_UNAVAILABLE,
+				"Too many requests are waiting, try again later"))
+				.header(HttpHeaders.RETRY_AFTER, RETRY_AFTER).build();
+		resume(asyncResponse, callerIp, route, startNanos, response);
+	}
+
+	/**
+	 * Looked up by reflection: the api is built for Java 16.
+	 * @return {@code Executors.newVirtualThreadPerTaskExecutor()} or
+	 * {@code null} if the JDK does not provide it
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static Response errorResponse(Response.Status status, String errorMessage) {
+		ErrorResponse er = new ErrorResponse(status, errorMessage);
+		return Response.status(status).entity(er).build();
+	}
+}
@@ -0,0 +1,61 @@
+package fr.fuwuyuan.gameserverapi.controllers;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import fr.fuwuyuan.gameserverapi.cache.RoomDirectory;
+import fr.fuwuyuan.gameserverapi.database.DatabaseSession;
+import fr.fuwuyuan.gameserverapi.events.RoomEventFeed;
+import fr.fuwuyuan.gameserverapi.heartbeat.HeartbeatSupervisor;
+import fr.fuwuyuan.gameserverapi.ip.PublicIpResolver;
+import fr.fuwuyuan.gameserverapi.launcher.GameServerLauncher;
+import fr.fuwuyuan.gameserverapi.logs.LogWriter;
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.placement.PlacementScheduler;
+import fr.fuwuyuan.gameserverapi.reaper.RoomReaper;
+import fr.fuwuyuan.gameserverapi.services.PortService;
+
+/**
+ * Implements {@link ServletContextListener}
+ * <p>
+ * This class stops the background threads of the api when it is undeployed,
+ * registered in the {@code web.xml}. Without it, each redeploy would leave
+ * the threads of the previous one running, along with its classes, and its
+ * idle game servers.</br></br>
+ * Only the singletons already created are stopped, none is created here. The
+ * ones creating or shutting down rooms are stopped first, then the feeds
+ * they write to, the ports, the database and the logs last. The rooms
+ * running are left running, they are still in the database.
+ * </p>
+ * @author julien-beguier
+ * @see {@link GameServerLauncher#shutdown}
+ */
+public class ShutdownListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent sce) {
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent sce) {
+		ResponseHandler.info("The api is undeployed, stopping its background threads", true);
+		if (PlacementScheduler.isInitialized())
+			PlacementScheduler.getInstance().shutdown();
+		if (RoomReaper.isInitialized())
+			RoomReaper.getInstance().shutdown();
+		if (GameServerLauncher.isInitialized())
+			GameServerLauncher.getInstance().shutdown();
+		if (HeartbeatSupervisor.isInitialized())
+			HeartbeatSupervisor.getInstance().shutdown();
+		if (RoomEventFeed.isInitialized())
+			RoomEventFeed.getInstance().shutdown();
+		if (RoomDirectory.isInitialized())
+			RoomDirectory.getInstance().shutdown();
+		if (PublicIpResolver.isInitialized())
+			PublicIpResolver.getInstance().shutdown();
+		PortService.shutdown();
+		if (DatabaseSession.isInitialized())
+			DatabaseSession.getInstance().close();
+		LogWriter.getInstance().shutdown();
+	}
+}
@@ -51,6 +51,11 @@ public class GameServerSlim {
 	 */
 	private int nMaxPlayers;
 
+	/**
+	 * The number of players currently on the game server.
+	 */
+	private int nPlayers;
+
 	public GameServerSlim() {
 		this.serverId = null;
 		this.ip = null;
@@ -60,6 +65,7 @@ public class GameServerSlim {
 		this.game = null;
 		this.gameVersion = null;
 		this.nMaxPlayers = 0;
+		this.nPlayers = 0;
 	}
 
 	public GameServerSlim(String serverId, String ip, int port, String serverName, String serverDesc,
@@ -72,6 +78,7 @@ public class GameServerSlim {
 		this.game = gameName;
 		this.gameVersion = gameVersion;
 		this.nMaxPlayers = nMaxPlayers;
+		this.nPlayers = 0;
 	}
 
 	public GameServerSlim(GameServerDTO gs) {
@@ -83,7 +90,8 @@ public class GameServerSlim {
 		this.game = gs.getGame();
 		this.gameVersion = gs.getGameVersion();
 		this.nMaxPlayers = gs.getNMaxPlayers();
-}
+		this.nPlayers = gs.getNPlayers();
+	}
 
 	// GETTERS & SETTERS
 
@@ -207,6 +215,31 @@ public class GameServerSlim {
 		this.nMaxPlayers = nMaxPlayers;
 	}
 
+	/**
+	 * Show whether or not a player can still join the game server. A game
+	 * server with {@code n_max_players} set to 0 has no limit.
+	 * @return {@code true} if the game server is not full, {@code false}
+	 * otherwise
+	 */
+	public boolean hasFreeSlot() {
+		return this.nMaxPlayers == 0 || this.nPlayers < this.nMaxPlayers;
+	}
+
+	/**
+	 * The number of players currently on the game server.
+	 */
+	@JsonbProperty("n_players")
+	public int getNPlayers() {
+		return nPlayers;
+	}
+
+	/**
+	 * The number of players currently on the game server.
+	 */
+	public void setNPlayers(int nPlayers) {
+		this.nPlayers = nPlayers;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -230,6 +263,9 @@ public class GameServerSlim {
 		sb.append(", ");
 		sb.append("nMaxPlayers=");
 		sb.append(((this.nMaxPlayers == 0) ? "0=unlimited" : this.nMaxPlayers));
+		sb.append(", ");
+		sb.append("nPlayers=");
+		sb.append(this.nPlayers);
 		sb.append(']');
 
 		return sb.toString();
@@ -246,6 +282,7 @@ public class GameServerSlim {
 		result = ((result * 31) + ((this.game == null) ? 0 : this.game.hashCode()));
 		result = ((result * 31) + ((this.gameVersion == null) ? 0 : this.gameVersion.hashCode()));
 		result = (result * 17) + this.nMaxPlayers;
+		result = (result * 17) + this.nPlayers;
 		return result;
 	}
 
@@ -264,6 +301,7 @@ public class GameServerSlim {
 				&& ((this.description == s.description) || ((this.description != null) && this.description.equals(s.description)))
 				&& ((this.game == s.game) || ((this.game != null) && this.game.equals(s.game)))
 				&& ((this.gameVersion == s.gameVersion) || ((this.gameVersion != null) && this.gameVersion.equals(s.gameVersion)))
-				&& (this.nMaxPlayers == s.nMaxPlayers);
+				&& (this.nMaxPlayers == s.nMaxPlayers)
+				&& (this.nPlayers == s.nPlayers);
 	}
 }
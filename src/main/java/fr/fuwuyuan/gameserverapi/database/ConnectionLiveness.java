@@ -0,0 +1,84 @@
+package fr.fuwuyuan.gameserverapi.database;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps track of the liveness of the database for a
+ * {@link ConnectionPool} so that a connection is not validated with a round
+ * trip to the database each time it is borrowed.
+ * <p>
+ * A connection is trusted as long as it was successfully used less than
+ * {@code validationIntervalMillis} ago and no failure happened since. Each
+ * failure starts a new epoch: every connection last used in a previous epoch
+ * is validated again before being handed out.
+ * </p>
+ * <p>
+ * When a connection cannot be opened at all, the database is flagged as
+ * unavailable and the pool fails fast until a background reconnection
+ * succeeds.
+ * </p>
+ * @author julien-beguier
+ * @see {@link ConnectionPool}
+ */
+public class ConnectionLiveness {
+
+	private final long			validationIntervalNanos;
+	private final AtomicLong	failureEpoch = new AtomicLong();
+	private volatile boolean	available = true;
+
+	public ConnectionLiveness(long validationIntervalMillis) {
+		this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+	}
+
+	/**
+	 * This method tells whether or not {@code pc} has to be validated before
+	 * being handed out.
+	 * @param pc as a {@link PooledConnection}
+	 * @return {@code true} if {@code pc} has been idle for too long or if a
+	 * failure happened since its last use, {@code false} otherwise
+	 */
+	public boolean needsValidation(PooledConnection pc) {
+		return pc.getEpoch() != this.failureEpoch.get()
+				|| System.nanoTime() - pc.getLastUsedNanos() > this.validationIntervalNanos;
+	}
+
+	/**
+	 * This method records a successful use or validation of {@code pc}.
+	 * @param pc as a {@link PooledConnection}
+	 */
+	public void markAlive(PooledConnection pc) {
+		pc.setLastUsed(System.nanoTime(), this.failureEpoch.get());
+	}
+
+	/**
+	 * This method records a failure on a connection. Every idle connection
+	 * will be validated before its next use.
+	 */
+	public void markFailure() {
+		this.failureEpoch.incrementAndGet();
+	}
+
+	/**
+	 * This method flags the database as unreachable.
+	 */
+	public void markUnavailable() {
+		markFailure();
+		this.available = false;
+	}
+
+	/**
+	 * This method flags the database as reachable again.
+	 */
+	public void markAvailable() {
+		this.available = true;
+	}
+
+	/**
+	 * @return {@code false} if the last attempt to open a connection failed
+	 * and no reconnection succeeded since, {@code true} otherwise
+	 */
+	public boolean isAvailable() {
+		return this.available;
+	}
+}
@@ -0,0 +1,293 @@
+package fr.fuwuyuan.gameserverapi.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
+
+/**
+ * A bounded pool of JDBC connections.
+ * <p>
+ * At most {@code maxSize} connections are borrowed at the same time, callers
+ * above that limit wait up to {@code borrowTimeoutMillis} for a connection to
+ * be given back. Idle connections are reused last-in first-out so the hot
+ * ones stay warm, while the ones idle for more than {@code idleTimeoutMillis}
+ * are evicted by a background task down to {@code minSize} connections.
+ * </p>
+ * <p>
+ * Connections are only validated with a round trip to the database when
+ * {@link ConnectionLiveness} asks for it. When the database cannot be reached,
+ * the pool fails fast and reconnects from a background task with an
+ * exponential backoff instead of on the request threads.
+ * </p>
+ * @author julien-beguier
+ * @see {@link PooledConnection}
+ * @see {@link ConnectionLiveness}
+ * @see {@link ConnectionPoolMetrics}
+ */
+public class ConnectionPool {
+
+	private final static int						VALIDATION_TIMEOUT_SECONDS = 3;
+	private final static long						RECONNECT_MIN_BACKOFF_MILLIS = 250;
+
+	private final String							url;
+	private final String							user;
+	private final String							password;
+	private final int								minSize;
+	private final int								maxSize;
+	private final long								borrowTimeoutMillis;
+	private final long								idleTimeoutNanos;
+	private final long								reconnectMaxBackoffMillis;
+	private final ConnectionLiveness				liveness;
+
+	private final LinkedBlockingDeque<PooledConnection>	idle = new LinkedBlockingDeque<PooledConnection>();
+	private final Semaphore							permits;
+	private final AtomicInteger						opened = new AtomicInteger();
+	private final AtomicInteger						active = new AtomicInteger();
+	private final AtomicInteger						waiters = new AtomicInteger();
+	private final LongAdder							borrowCount = new LongAdder();
+	private final LongAdder							timeoutCount = new LongAdder();
+	private final LongAdder							waitNanos = new LongAdder();
+	private final AtomicLong						maxWaitNanos = new AtomicLong();
+	private final ScheduledExecutorService			evictor;
+	private final AtomicBoolean						reconnecting = new AtomicBoolean();
+	private volatile boolean						closed = false;
+
+	public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+			long borrowTimeoutMillis, long idleTimeoutMillis, long evictionIntervalMillis,
+			long validationIntervalMillis, long reconnectMaxBackoffMillis) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.maxSize = Math.max(1, maxSize);
+		this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+		this.reconnectMaxBackoffMillis = Math.max(RECONNECT_MIN_BACKOFF_MILLIS, reconnectMaxBackoffMillis);
+		this.liveness = new ConnectionLiveness(validationIntervalMillis);
+		this.permits = new Semaphore(this.maxSize, true);
+
+		this.evictor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("db-pool-evictor"));
+		this.evictor.scheduleWithFixedDelay(this::evictAndFill, 0, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * This method borrows a connection from the pool. An idle connection is
+	 * reused when there is one, otherwise a new one is opened as long as the
+	 * pool is not full. When it is full, the caller waits for a connection to
+	 * be given back.
+	 * @return a {@link PooledConnection} to be closed after use
+	 * @throws SQLTransientConnectionException if the database is unreachable
+	 * and a background reconnection is pending
+	 * @throws SQLTimeoutException if no connection was given back in time
+	 * @throws SQLException if a new connection cannot be opened
+	 */
+	public PooledConnection borrow() throws SQLException {
+		if (this.closed)
+			throw new SQLException("The connection pool is closed");
+		if (!this.liveness.isAvailable())
+			throw new SQLTransientConnectionException("The database is unreachable, reconnecting in background");
+
+		long start = System.nanoTime();
+		boolean acquired;
+		this.waiters.incrementAndGet();
+		try {
+			acquired = this.permits.tryAcquire(this.borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection");
+		} finally {
+			this.waiters.decrementAndGet();
+		}
+		recordWait(System.nanoTime() - start);
+
+		if (!acquired) {
+			this.timeoutCount.increment();
+			throw new SQLTimeoutException("No database connection available after " + this.borrowTimeoutMillis + "ms");
+		}
+
+		try {
+			PooledConnection pc;
+			// Skip the idle connections closed by the server in the meantime,
+			// only the ones not recently used are checked
+			while ((pc = this.idle.pollFirst()) != null && this.liveness.needsValidation(pc) && !isValid(pc))
+				discard(pc);
+			if (pc == null)
+				pc = openOrScheduleReconnect();
+			pc.markBorrowed();
+			this.active.incrementAndGet();
+			this.borrowCount.increment();
+			return pc;
+		} catch (SQLException e) {
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives {@code pc} back to the pool. A broken connection is closed instead
+	 * of being reused.
+	 * @param pc as a {@link PooledConnection}
+	 */
+	void release(PooledConnection pc) {
+		this.active.decrementAndGet();
+		if (pc.isBroken()) {
+			// Other idle connections are likely broken as well
+			this.liveness.markFailure();
+			discard(pc);
+		} else if (this.closed) {
+			discard(pc);
+		} else {
+			this.liveness.markAlive(pc);
+			this.idle.offerFirst(pc);
+		}
+		this.permits.release();
+	}
+
+	/**
+	 * Returns a snapshot of the pool usage.
+	 * @return a {@link ConnectionPoolMetrics}
+	 */
+	public ConnectionPoolMetrics getMetrics() {
+		return new ConnectionPoolMetrics(this.active.get(), this.idle.size(), this.opened.get(),
+				this.maxSize, this.waiters.get(), this.borrowCount.sum(), this.timeoutCount.sum(),
+				TimeUnit.NANOSECONDS.toMillis(this.waitNanos.sum()),
+				TimeUnit.NANOSECONDS.toMillis(this.maxWaitNanos.get()));
+	}
+
+	/**
+	 * Closes every idle connection and stops the eviction task. Borrowed
+	 * connections are closed as soon as they are given back.
+	 */
+	public void close() {
+		this.closed = true;
+		this.evictor.shutdownNow();
+		PooledConnection pc;
+		while ((pc = this.idle.pollFirst()) != null)
+			discard(pc);
+	}
+
+	// ##########################################################################
+
+	private PooledConnection open() throws SQLException {
+		Connection conn = DriverManager.getConnection(this.url, this.user, this.password);
+		this.opened.incrementAndGet();
+		PooledConnection pc = new PooledConnection(this, conn);
+		this.liveness.markAlive(pc);
+		return pc;
+	}
+
+	/**
+	 * Opens a new connection on the calling thread. If it fails, the database
+	 * is flagged as unreachable and a background reconnection is scheduled.
+	 */
+	private PooledConnection openOrScheduleReconnect() throws SQLException {
+		try {
+			return open();
+		} catch (SQLException e) {
+			this.liveness.markUnavailable();
+			scheduleReconnect(RECONNECT_MIN_BACKOFF_MILLIS);
+			throw e;
+		}
+	}
+
+	private void scheduleReconnect(long delayMillis) {
+		if (this.closed || !this.reconnecting.compareAndSet(false, true))
+			return;
+		this.evictor.schedule(() -> reconnect(delayMillis), delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Background task trying to open a connection until the database is
+	 * reachable again, doubling the delay between two attempts up to
+	 * {@code reconnectMaxBackoffMillis}.
+	 */
+	private void reconnect(long delayMillis) {
+		this.reconnecting.set(false);
+		if (this.closed)
+			return;
+		try {
+			PooledConnection pc = open();
+			if (this.permits.tryAcquire()) {
+				this.idle.offerFirst(pc);
+				this.permits.release();
+			} else {
+				discard(pc);
+			}
+			this.liveness.markAvailable();
+			ResponseHandler.info("Connection pool reconnected to the database", true);
+		} catch (SQLException e) {
+			long nextDelayMillis = Math.min(delayMillis * 2, this.reconnectMaxBackoffMillis);
+			ResponseHandler.error("Connection pool cannot reconnect, next attempt in " + nextDelayMillis + "ms: " + e.getMessage(), true);
+			scheduleReconnect(nextDelayMillis);
+		}
+	}
+
+	private boolean isValid(PooledConnection pc) {
+		try {
+			if (pc.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS)) {
+				this.liveness.markAlive(pc);
+				return true;
+			}
+			return false;
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void discard(PooledConnection pc) {
+		this.opened.decrementAndGet();
+		pc.closePhysical();
+	}
+
+	private void recordWait(long nanos) {
+		this.waitNanos.add(nanos);
+		long max;
+		while (nanos > (max = this.maxWaitNanos.get()) && !this.maxWaitNanos.compareAndSet(max, nanos));
+	}
+
+	/**
+	 * Background task closing the connections idle for too long, from the
+	 * least recently used, while keeping at least {@code minSize} of them
+	 * opened, then opening new ones if the pool is under {@code minSize}.
+	 */
+	private void evictAndFill() {
+		try {
+			long now = System.nanoTime();
+			Iterator<PooledConnection> it = this.idle.descendingIterator();
+			while (it.hasNext() && this.opened.get() > this.minSize) {
+				PooledConnection pc = it.next();
+				if (now - pc.getLastUsedNanos() > this.idleTimeoutNanos && this.idle.removeLastOccurrence(pc))
+					discard(pc);
+			}
+
+			// A permit is held while opening so the pool never goes above maxSize
+			while (!this.closed && this.liveness.isAvailable()
+					&& this.opened.get() < this.minSize && this.permits.tryAcquire()) {
+				try {
+					this.idle.offerLast(open());
+				} finally {
+					this.permits.release();
+				}
+			}
+		} catch (SQLException e) {
+			ResponseHandler.error("Connection pool cannot open a connection: " + e.getMessage(), true);
+		} catch (RuntimeException e) {
+			ResponseHandler.error("Connection pool eviction failed: " + e.getMessage(), true);
+		}
+	}
+}
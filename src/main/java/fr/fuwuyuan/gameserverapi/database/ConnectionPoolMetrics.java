@@ -0,0 +1,109 @@
+package fr.fuwuyuan.gameserverapi.database;
+
+/**
+ * An immutable snapshot of the usage of a {@link ConnectionPool}.
+ * @author julien-beguier
+ * @see {@link ConnectionPool#getMetrics}
+ */
+public class ConnectionPoolMetrics {
+
+	private final int	active;
+	private final int	idle;
+	private final int	opened;
+	private final int	maxSize;
+	private final int	waiters;
+	private final long	borrowCount;
+	private final long	timeoutCount;
+	private final long	totalWaitMillis;
+	private final long	maxWaitMillis;
+
+	public ConnectionPoolMetrics(int active, int idle, int opened, int maxSize, int waiters,
+			long borrowCount, long timeoutCount, long totalWaitMillis, long maxWaitMillis) {
+		this.active = active;
+		this.idle = idle;
+		this.opened = opened;
+		this.maxSize = maxSize;
+		this.waiters = waiters;
+		this.borrowCount = borrowCount;
+		this.timeoutCount = timeoutCount;
+		this.totalWaitMillis = totalWaitMillis;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * The number of connections currently borrowed.
+	 */
+	public int getActive() {
+		return active;
+	}
+
+	/**
+	 * The number of connections opened and waiting to be borrowed.
+	 */
+	public int getIdle() {
+		return idle;
+	}
+
+	/**
+	 * The number of physical connections currently opened.
+	 */
+	public int getOpened() {
+		return opened;
+	}
+
+	/**
+	 * The maximum number of connections of the pool.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * The number of callers currently waiting for a connection.
+	 */
+	public int getWaiters() {
+		return waiters;
+	}
+
+	/**
+	 * The number of connections borrowed since the pool was created.
+	 */
+	public long getBorrowCount() {
+		return borrowCount;
+	}
+
+	/**
+	 * The number of callers that gave up waiting for a connection.
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount;
+	}
+
+	/**
+	 * The time spent by all callers waiting for a connection, in milliseconds.
+	 */
+	public long getTotalWaitMillis() {
+		return totalWaitMillis;
+	}
+
+	/**
+	 * The longest time a caller waited for a connection, in milliseconds.
+	 */
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("active=").append(this.active);
+		sb.append(", idle=").append(this.idle);
+		sb.append(", opened=").append(this.opened).append('/').append(this.maxSize);
+		sb.append(", waiters=").append(this.waiters);
+		sb.append(", borrows=").append(this.borrowCount);
+		sb.append(", timeouts=").append(this.timeoutCount);
+		sb.append(", totalWait=").append(this.totalWaitMillis).append("ms");
+		sb.append(", maxWait=").append(this.maxWaitMillis).append("ms");
+		return sb.toString();
+	}
+}
@@ -1,22 +1,20 @@
 package fr.fuwuyuan.gameserverapi.database;
 
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Properties;
 
 import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.metrics.Metrics;
 import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
 
 /**
  * This is a singleton class design to manipulate the MySQL Database.
- * It allow connection as well as executing INSERT, SELECT, UPDATE and DELETE
- * queries.
+ * It holds a {@link ConnectionPool} from which connections are borrowed to
+ * execute INSERT, SELECT, UPDATE and DELETE queries.
  * @author julien-beguier
- * @see {@link DriverManager}
+ * @see {@link ConnectionPool}
+ * @see {@link PooledConnection}
  * @see {@link ApplicationPropertiesUtils}
  */
 public class DatabaseSession {
@@ -26,6 +24,13 @@ public class DatabaseSession {
 	private final String			SQL_DATABASE = "SQL_DATABASE";
 	private final String			SQL_USER = "SQL_USER";
 	private final String			SQL_PASSWORD = "SQL_PASSWORD";
+	private final String			SQL_POOL_MIN_SIZE = "SQL_POOL_MIN_SIZE";
+	private final String			SQL_POOL_MAX_SIZE = "SQL_POOL_MAX_SIZE";
+	private final String			SQL_POOL_BORROW_TIMEOUT = "SQL_POOL_BORROW_TIMEOUT";
+	private final String			SQL_POOL_IDLE_TIMEOUT = "SQL_POOL_IDLE_TIMEOUT";
+	private final String			SQL_POOL_EVICTION_INTERVAL = "SQL_POOL_EVICTION_INTERVAL";
+	private final String			SQL_POOL_VALIDATION_INTERVAL = "SQL_POOL_VALIDATION_INTERVAL";
+	private final String			SQL_POOL_RECONNECT_MAX_BACKOFF = "SQL_POOL_RECONNECT_MAX_BACKOFF";
 
 	private String					databaseAddress = null;
 	private String					databasePort = null;
@@ -33,17 +38,33 @@ public class DatabaseSession {
 	private String					databaseUser = null;
 	private String					databasePassword = null;
 	private String					databaseConnectionInfos = null;
-	private Connection				conn = null;
+	private ConnectionPool			pool = null;
 
-	private static DatabaseSession	instance = null;
+	private static volatile boolean	initialized = false;
 
-	public static DatabaseSession getInstance() {
-		if (instance == null) {
-			instance = new DatabaseSession();
-		} else if (instance != null && !instance.isConnected()) {
-			instance.reconnect();
+	/**
+	 * Lazy and thread safe holder of the singleton, the JVM guarantees the
+	 * instance is created only once, on the first call to
+	 * {@link DatabaseSession#getInstance}.
+	 */
+	private static class InstanceHolder {
+		private static final DatabaseSession INSTANCE = new DatabaseSession();
+
+		static {
+			initialized = true;
 		}
-		return instance;
+	}
+
+	public static DatabaseSession getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Unlike {@link #getInstance()}, does not open the pool.
+	 * @return {@code true} once the singleton is created
+	 */
+	public static boolean isInitialized() {
+		return initialized;
 	}
 
 	private DatabaseSession() {
@@ -63,7 +84,7 @@ public class DatabaseSession {
 					this.databasePassword = properties.getProperty(SQL_PASSWORD);
 					this.databaseConnectionInfos = databaseAddress + ":" + databasePort;
 
-					connect();
+					connect(properties);
 				}
 			}
 		} catch (IOException e) {
@@ -72,11 +93,12 @@ public class DatabaseSession {
 	}
 
 	/**
-	 * This method simply initialize the {@link Connection} object and
-	 * connect to the database specified.
-	 * @see {@link DriverManager#getConnection}
+	 * This method simply initialize the {@link ConnectionPool} object to the
+	 * database specified. The connections themselves are opened by the pool.
+	 * @param properties as the loaded {@code application.properties}
+	 * @see {@link ConnectionPool}
 	 */
-	private void connect() {
+	private void connect(Properties properties) {
 		if (databaseAddress == null || databasePort == null ||
 			databaseUser == null || databasePassword == null) {
 			ResponseHandler.fatal("Database connection credentials not set. Abort connect()", true);
@@ -84,110 +106,63 @@ public class DatabaseSession {
 		}
 		try {
 			Class.forName("com.mysql.cj.jdbc.Driver");
-			this.conn = DriverManager.getConnection("jdbc:mysql://"
-			+ databaseConnectionInfos + "/" + databaseDB,
-				databaseUser, databasePassword);
-
-			ResponseHandler.info("Connected to database on : "
+			// Prepared statements are cached by the connections, let the server
+			// parse and plan them once
+			this.pool = new ConnectionPool("jdbc:mysql://" + databaseConnectionInfos + "/" + databaseDB
+					+ "?useServerPrepStmts=true",
+					databaseUser, databasePassword,
+					ApplicationPropertiesUtils.getIntProperty(properties, SQL_POOL_MIN_SIZE, 2),
+					ApplicationPropertiesUtils.getIntProperty(properties, SQL_POOL_MAX_SIZE, 10),
+					ApplicationPropertiesUtils.getLongProperty(properties, SQL_POOL_BORROW_TIMEOUT, 5000),
+					ApplicationPropertiesUtils.getLongProperty(properties, SQL_POOL_IDLE_TIMEOUT, 300000),
+					ApplicationPropertiesUtils.getLongProperty(properties, SQL_POOL_EVICTION_INTERVAL, 30000),
+					ApplicationPropertiesUtils.getLongProperty(properties, SQL_POOL_VALIDATION_INTERVAL, 30000),
+					ApplicationPropertiesUtils.getLongProperty(properties, SQL_POOL_RECONNECT_MAX_BACKOFF, 30000));
+
+			ResponseHandler.info("Connection pool created to database on : "
 			+ databaseConnectionInfos + "/" + databaseDB, true);
-		} catch (SQLException sqlException) {
-			ResponseHandler.fatal("SQLException: " + sqlException.getCause(), true);
 		} catch (ClassNotFoundException e) {
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * This method checks and return whether or not the {@link Connection} object
-	 * is in fact connected to the database.
-	 * @return {@code true} if this class is connected to the database,
-	 * {@code false} otherwise
-	 * @see {@link Connection#isValid}
+	 * This method borrows a connection from the {@link ConnectionPool}. The
+	 * returned connection must be closed, which gives it back to the pool.
+	 * @return a {@link PooledConnection} connected to the database or
+	 * {@code null} if no connection can be established
+	 * @see {@link ConnectionPool#borrow}
 	 */
-	public boolean isConnected() {
+	public PooledConnection getConnection() {
+		if (this.pool == null)
+			return null;
+		long start = System.nanoTime();
 		try {
-			return (this.conn != null && this.conn.isValid(3000));
+			return this.pool.borrow();
 		} catch (SQLException sqlException) {
 			ResponseHandler.fatal("SQLException: " + sqlException.getMessage(), true);
-			return false;
-		}
-	}
-
-	/**
-	 * This method is used to reconnect the {@link Connection} object when it is
-	 * no longer connected to the database.
-	 * @see {@link Connection#close}
-	 * @see {@link DatabaseSession#connect}
-	 */
-	private void reconnect() {
-		try {
-			if (this.conn != null)
-				this.conn.close();
-			this.conn = null;
-
-			connect();
-		} catch (SQLException sqlException) {
-			ResponseHandler.fatal("SQLException: " + sqlException.getCause(), true);
-		}
-	}
-
-	/**
-	 * This method executes the given SQL query and returns the
-	 * {@link ResultSet}.</br>
-	 * Used primarily for SELECT.
-	 * @param sql as a String
-	 * @return a {@link ResultSet} if no error occurs, throws an
-	 * {@link SQLException} otherwise
-	 * @throws SQLException
-	 * @see {@link ResultSet}
-	 */
-	public ResultSet executeQuery(String sql) throws SQLException {
-		try {
-			Statement statement = this.conn.createStatement();
-			return statement.executeQuery(sql);
-		} catch (SQLException e) {
-			throw e;
+			return null;
+		} finally {
+			Metrics.getInstance().step(Metrics.Step.CONNECTION_BORROW).recordSince(start);
 		}
 	}
 
 	/**
-	 * This method prepares a {@link Statement} by executing the given SQL query
-	 * and returns the {@link ResultSet}.</br>
-	 * @param sql as a String
-	 * @return a {@link ResultSet} if no error occurs, throws an
-	 * {@link SQLException} otherwise
-	 * @throws SQLException
-	 * @see {@link Statement}
-	 * @see {@link ResultSet}
+	 * This method returns a snapshot of the usage of the {@link ConnectionPool}.
+	 * @return a {@link ConnectionPoolMetrics} or {@code null} if the pool
+	 * cannot be created
+	 * @see {@link ConnectionPool#getMetrics}
 	 */
-	public ResultSet prepareInserting(String sqlForInsert) throws SQLException {
-		try {
-			Statement statement = this.conn.createStatement(ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_UPDATABLE);
-			return statement.executeQuery(sqlForInsert);
-		} catch (SQLException e) {
-			throw e;
-		}
+	public ConnectionPoolMetrics getPoolMetrics() {
+		return this.pool == null ? null : this.pool.getMetrics();
 	}
 
 	/**
-	 * This method executes the given SQL query and returns an int value
-	 * corresponding to the number of row affected.<br>
-	 * Used primarily for UPDATE & DELETE.
-	 * @param sql as a String
-	 * @return an int value if no error occurs, throws an
-	 * {@link SQLException} otherwise
-	 * @throws SQLException
-	 * @see {@link ResultSet}
+	 * This method closes the {@link ConnectionPool} and all its connections.
+	 * @see {@link ConnectionPool#close}
 	 */
-	public int executeUpdate(String sql) throws SQLException {
-		try {
-			Statement statement = this.conn.createStatement();
-			int result = statement.executeUpdate(sql);
-
-			statement.close();
-			return result;
-		} catch (SQLException e) {
-			throw e;
-		}
+	public void close() {
+		if (this.pool != null)
+			this.pool.close();
 	}
 }
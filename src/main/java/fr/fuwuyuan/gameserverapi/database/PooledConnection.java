@@ -0,0 +1,355 @@
+package fr.fuwuyuan.gameserverapi.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.metrics.Metrics;
+
+/**
+ * A physical {@link Connection} owned by a {@link ConnectionPool}.
+ * It is borrowed with {@link DatabaseSession#getConnection} and must be
+ * closed once done with it, which gives it back to the pool instead of
+ * closing the underlying connection:
+ * <pre>
+ * try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+ *     ResultSet resultSet = conn.query(SQLRequest.SELECT_SERVER_BY_ID, serverId);
+ *     ...
+ * }</pre>
+ * Each {@link SQLRequest} is prepared the first time it is used on this
+ * connection and the {@link PreparedStatement} is kept for the lifetime of the
+ * physical connection, so that repeated requests skip parsing and planning.
+ * A pooled connection is not thread safe, it must only be used by the thread
+ * that borrowed it.
+ * @author julien-beguier
+ * @see {@link ConnectionPool}
+ */
+public class PooledConnection implements AutoCloseable {
+
+	/**
+	 * SQLState class of the connection exceptions, a connection raising one of
+	 * those is considered broken and will not be given back to the pool.
+	 */
+	private final static String SQL_STATE_CONNECTION_EXCEPTION = "08";
+
+	/**
+	 * Fetch size telling the MySQL driver to stream the rows one by one from
+	 * the server instead of reading the whole result in memory.
+	 */
+	private final static int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
+	private final ConnectionPool	pool;
+	private final Connection		conn;
+	private final List<Statement>	statements = new ArrayList<Statement>();
+	private final List<ResultSet>	resultSets = new ArrayList<ResultSet>();
+	private final Map<SQLRequest, PreparedStatement>	preparedStatements =
+			new EnumMap<SQLRequest, PreparedStatement>(SQLRequest.class);
+	private long					lastUsedNanos;
+	private long					epoch;
+	private boolean					broken = false;
+	private boolean					borrowed = false;
+	private boolean					inTransaction = false;
+
+	PooledConnection(ConnectionPool pool, Connection conn) {
+		this.pool = pool;
+		this.conn = conn;
+		this.lastUsedNanos = System.nanoTime();
+		this.epoch = 0;
+	}
+
+	/**
+	 * This method executes the given SQL query and returns the
+	 * {@link ResultSet}.</br>
+	 * Used primarily for SELECT.
+	 * @param sql as a String
+	 * @return a {@link ResultSet} if no error occurs, throws an
+	 * {@link SQLException} otherwise
+	 * @throws SQLException
+	 * @see {@link ResultSet}
+	 */
+	public ResultSet executeQuery(String sql) throws SQLException {
+		try {
+			Statement statement = track(this.conn.createStatement());
+			return statement.executeQuery(sql);
+		} catch (SQLException e) {
+			throw checkBroken(e);
+		}
+	}
+
+	/**
+	 * This method executes the given {@link SQLRequest} with {@code params}
+	 * bound to its placeholders, in order, and returns the
+	 * {@link ResultSet}.</br>
+	 * Used primarily for SELECT. The {@link ResultSet} must be closed, not its
+	 * statement which belongs to the cache of this connection.
+	 * @param sqlId as a {@link SQLRequest}
+	 * @param params as the values of the placeholders
+	 * @return a {@link ResultSet} if no error occurs, throws an
+	 * {@link SQLException} otherwise
+	 * @throws SQLException
+	 * @see {@link PreparedStatement#executeQuery}
+	 */
+	public ResultSet query(SQLRequest sqlId, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		try {
+			ResultSet resultSet = prepare(sqlId, params).executeQuery();
+			this.resultSets.add(resultSet);
+			return resultSet;
+		} catch (SQLException e) {
+			throw checkBroken(e);
+		} finally {
+			Metrics.getInstance().sql(sqlId).recordSince(start);
+		}
+	}
+
+	/**
+	 * This method executes the given {@link SQLRequest} with {@code params}
+	 * bound to its placeholders, in order, and returns a {@link ResultSet}
+	 * streaming its rows: they are read from the database as the cursor moves
+	 * forward, so memory does not grow with the number of rows.</br>
+	 * Until the {@link ResultSet} is closed, no other request can be executed
+	 * on this connection. The statement is not cached, it is closed along
+	 * with the {@link ResultSet} when the connection is given back.
+	 * @param sqlId as a {@link SQLRequest}
+	 * @param params as the values of the placeholders
+	 * @return a forward only {@link ResultSet} if no error occurs, throws an
+	 * {@link SQLException} otherwise
+	 * @throws SQLException
+	 * @see {@link PreparedStatement#setFetchSize}
+	 */
+	public ResultSet stream(SQLRequest sqlId, Object... params) throws SQLException {
+		// Only until the first rows are read, the others are read by the caller
+		long start = System.nanoTime();
+		try {
+			PreparedStatement ps = this.conn.prepareStatement(sqlId.getSql(),
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			track(ps);
+			ps.setFetchSize(STREAMING_FETCH_SIZE);
+			for (int i = 0; i < params.length; i++)
+				ps.setObject(i + 1, params[i]);
+			ResultSet resultSet = ps.executeQuery();
+			this.resultSets.add(resultSet);
+			return resultSet;
+		} catch (SQLException e) {
+			throw checkBroken(e);
+		} finally {
+			Metrics.getInstance().sql(sqlId).recordSince(start);
+		}
+	}
+
+	/**
+	 * This method executes the given {@link SQLRequest} with {@code params}
+	 * bound to its placeholders, in order, and returns an int value
+	 * corresponding to the number of row affected.</br>
+	 * Used primarily for INSERT, UPDATE & DELETE.
+	 * @param sqlId as a {@link SQLRequest}
+	 * @param params as the values of the placeholders
+	 * @return an int value if no error occurs, throws an
+	 * {@link SQLException} otherwise
+	 * @throws SQLException
+	 * @see {@link PreparedStatement#executeUpdate}
+	 */
+	public int update(SQLRequest sqlId, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		try {
+			return prepare(sqlId, params).executeUpdate();
+		} catch (SQLException e) {
+			throw checkBroken(e);
+		} finally {
+			Metrics.getInstance().sql(sqlId).recordSince(start);
+		}
+	}
+
+	/**
+	 * This method executes the given SQL query and returns an int value
+	 * corresponding to the number of row affected.<br>
+	 * Used primarily for UPDATE & DELETE.
+	 * @param sql as a String
+	 * @return an int value if no error occurs, throws an
+	 * {@link SQLException} otherwise
+	 * @throws SQLException
+	 * @see {@link ResultSet}
+	 */
+	public int executeUpdate(String sql) throws SQLException {
+		try (Statement statement = this.conn.createStatement()) {
+			return statement.executeUpdate(sql);
+		} catch (SQLException e) {
+			throw checkBroken(e);
+		}
+	}
+
+	/**
+	 * This method starts a transaction: the requests executed next are only
+	 * committed by {@link #commit}. The locks they take are held until then.
+	 * A transaction left open is rolled back when the connection is given
+	 * back to the pool.
+	 * @throws SQLException
+	 * @see {@link Connection#setAutoCommit}
+	 */
+	public void begin() throws SQLException {
+		try {
+			this.conn.setAutoCommit(false);
+			this.inTransaction = true;
+		} catch (SQLException e) {
+			throw checkBroken(e);
+		}
+	}
+
+	/**
+	 * This method commits the transaction started by {@link #begin}.
+	 * @throws SQLException
+	 * @see {@link Connection#commit}
+	 */
+	public void commit() throws SQLException {
+		try {
+			this.conn.commit();
+			endTransaction();
+		} catch (SQLException e) {
+			throw checkBroken(e);
+		}
+	}
+
+	/**
+	 * This method rolls back the transaction started by {@link #begin}.
+	 * @throws SQLException
+	 * @see {@link Connection#rollback}
+	 */
+	public void rollback() throws SQLException {
+		try {
+			this.conn.rollback();
+			endTransaction();
+		} catch (SQLException e) {
+			throw checkBroken(e);
+		}
+	}
+
+	/**
+	 * Gives this connection back to its pool. Any result set or statement left
+	 * open by the caller is closed beforehand, cached prepared statements are
+	 * kept. A transaction left open is rolled back.
+	 * @see {@link ConnectionPool#release}
+	 */
+	@Override
+	public void close() {
+		if (!this.borrowed)
+			return;
+		this.borrowed = false;
+		closeStatements();
+		if (this.inTransaction) {
+			try {
+				rollback();
+			} catch (SQLException e) {
+				this.broken = true;
+			}
+		}
+		this.pool.release(this);
+	}
+
+	// ##########################################################################
+
+	/**
+	 * Returns the cached {@link PreparedStatement} of {@code sqlId}, preparing
+	 * it first if needed, with {@code params} bound to its placeholders.
+	 */
+	private PreparedStatement prepare(SQLRequest sqlId, Object... params) throws SQLException {
+		PreparedStatement ps = this.preparedStatements.get(sqlId);
+		if (ps == null) {
+			ps = this.conn.prepareStatement(sqlId.getSql());
+			this.preparedStatements.put(sqlId, ps);
+		} else {
+			ps.clearParameters();
+		}
+		for (int i = 0; i < params.length; i++)
+			ps.setObject(i + 1, params[i]);
+		return ps;
+	}
+
+	/**
+	 * Keeps track of {@code statement} so it can be closed when the connection
+	 * is given back to the pool.
+	 */
+	private Statement track(Statement statement) {
+		this.statements.add(statement);
+		return statement;
+	}
+
+	private void endTransaction() throws SQLException {
+		this.inTransaction = false;
+		this.conn.setAutoCommit(true);
+	}
+
+	private void closeStatements() {
+		for (ResultSet resultSet : this.resultSets) {
+			try {
+				resultSet.close();
+			} catch (SQLException e) {
+				this.broken = true;
+			}
+		}
+		this.resultSets.clear();
+		for (Statement statement : this.statements) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				this.broken = true;
+			}
+		}
+		this.statements.clear();
+	}
+
+	/**
+	 * Flags this connection as broken if {@code e} is a connection exception.
+	 * @param e as a {@link SQLException}
+	 * @return {@code e} to be rethrown
+	 */
+	private SQLException checkBroken(SQLException e) {
+		String sqlState = e.getSQLState();
+		if (sqlState != null && sqlState.startsWith(SQL_STATE_CONNECTION_EXCEPTION))
+			this.broken = true;
+		return e;
+	}
+
+	void markBorrowed() {
+		this.borrowed = true;
+	}
+
+	boolean isBroken() {
+		return this.broken;
+	}
+
+	long getLastUsedNanos() {
+		return this.lastUsedNanos;
+	}
+
+	long getEpoch() {
+		return this.epoch;
+	}
+
+	void setLastUsed(long lastUsedNanos, long epoch) {
+		this.lastUsedNanos = lastUsedNanos;
+		this.epoch = epoch;
+	}
+
+	Connection getConnection() {
+		return this.conn;
+	}
+
+	/**
+	 * Closes the underlying physical connection, along with its cached
+	 * prepared statements.
+	 */
+	void closePhysical() {
+		try {
+			this.conn.close();
+		} catch (SQLException e) {
+			ResponseHandler.error("SQLException while closing a pooled connection: " + e.getMessage(), true);
+		}
+	}
+}
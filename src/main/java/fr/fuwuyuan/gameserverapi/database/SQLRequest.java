@@ -0,0 +1,152 @@
+package fr.fuwuyuan.gameserverapi.database;
+
+/**
+ * This enumeration holds every SQL request executed by the services. Values
+ * are never concatenated into the SQL: they are given as parameters to
+ * {@link PooledConnection#query} or {@link PooledConnection#update} and bound
+ * to the {@code ?} placeholders of a {@link java.sql.PreparedStatement}.</br>
+ * Each request is prepared once per connection and kept in its cache.
+ * @author julien-beguier
+ * @see {@link PooledConnection#query}
+ * @see {@link PooledConnection#update}
+ */
+public enum SQLRequest {
+
+	// ############### SETTINGS
+	SELECT_HEADER_AUTH_KEY("SELECT `settings`.`setting_value` FROM `settings` "
+			+ "WHERE `settings`.`setting_key` = 'header_auth_key'"),
+
+	// ############### SERVERS
+	SELECT_SERVERS_SLIM("SELECT `server_id`, `ip`, `port`, `name`, `description`, "
+			+ "`game`, `game_version`, `n_max_players`, `n_players` "
+			+ "FROM `servers`"),
+	SELECT_SERVERS_SLIM_BY_GAME_AND_VERSION("SELECT `server_id`, `ip`, `port`, `name`, `description`, "
+			+ "`game`, `game_version`, `n_max_players`, `n_players` "
+			+ "FROM `servers` "
+			+ "WHERE `servers`.`game` = ? AND `servers`.`game_version` = ?"),
+	// Keyset pages: server_id > after, the last parameters are the free slots
+	// only flag (0 or 1) and the limit
+	SELECT_SERVERS_SLIM_PAGE("SELECT `server_id`, `ip`, `port`, `name`, `description`, "
+			+ "`game`, `game_version`, `n_max_players`, `n_players` "
+			+ "FROM `servers` "
+			+ "WHERE `servers`.`server_id` > ? "
+			+ "AND (? = 0 OR `servers`.`n_max_players` = 0 OR `servers`.`n_players` < `servers`.`n_max_players`) "
+			+ "ORDER BY `servers`.`server_id` LIMIT ?"),
+	SELECT_SERVERS_SLIM_PAGE_BY_GAME("SELECT `server_id`, `ip`, `port`, `name`, `description`, "
+			+ "`game`, `game_version`, `n_max_players`, `n_players` "
+			+ "FROM `servers` "
+			+ "WHERE `servers`.`game` = ? AND `servers`.`server_id` > ? "
+			+ "AND (? = 0 OR `servers`.`n_max_players` = 0 OR `servers`.`n_players` < `servers`.`n_max_players`) "
+			+ "ORDER BY `servers`.`server_id` LIMIT ?"),
+	SELECT_SERVERS_SLIM_PAGE_BY_GAME_AND_VERSION("SELECT `server_id`, `ip`, `port`, `name`, `description`, "
+			+ "`game`, `game_version`, `n_max_players`, `n_players` "
+			+ "FROM `servers` "
+			+ "WHERE `servers`.`game` = ? AND `servers`.`game_version` = ? AND `servers`.`server_id` > ? "
+			+ "AND (? = 0 OR `servers`.`n_max_players` = 0 OR `servers`.`n_players` < `servers`.`n_max_players`) "
+			+ "ORDER BY `servers`.`server_id` LIMIT ?"),
+	SELECT_SERVER_BY_ID("SELECT `server_id`, `ip`, `port`, `name`, `description`, "
+			+ "`game`, `game_version`, `n_max_players`, `n_players`, `opened_on`, `ready_for_shutdown`, "
+			+ "`load`, `last_heartbeat`, `dead` "
+			+ "FROM `servers` "
+			+ "WHERE `servers`.`server_id` = ?"),
+	INSERT_SERVER("INSERT INTO `servers` (`server_id`, `ip`, `port`, `name`, `description`, "
+			+ "`game`, `game_version`, `n_max_players`) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?)"),
+	DELETE_SERVER_BY_ID("DELETE FROM `servers` WHERE `servers`.`server_id` = ?"),
+	// Batches of HEARTBEAT_BATCH_SIZE rooms: the (server_id, n_players) pairs,
+	// the (server_id, load) pairs then the server_id, a null load keeps the
+	// current one. Only the rows of the batch are read and locked, by primary
+	// key. A room beating is alive again, and idle since its last player left
+	UPDATE_SERVERS_HEARTBEATS("UPDATE `servers` "
+			+ "SET `servers`.`n_players` = CASE `servers`.`server_id` "
+			+ repeat("WHEN ? THEN ?", "WHEN ? THEN ?", " ", SQLRequest.HEARTBEAT_BATCH_SIZE) + " END, "
+			+ "`servers`.`idle_since` = IF(`servers`.`n_players` = 0, "
+			+ "COALESCE(`servers`.`idle_since`, NOW()), NULL), "
+			+ "`servers`.`load` = COALESCE(CASE `servers`.`server_id` "
+			+ repeat("WHEN ? THEN ?", "WHEN ? THEN ?", " ", SQLRequest.HEARTBEAT_BATCH_SIZE) + " END, `servers`.`load`), "
+			+ "`servers`.`last_heartbeat` = NOW(), `servers`.`dead` = 0 "
+			+ "WHERE `servers`.`server_id` IN (" + repeat("?", "?", ", ", SQLRequest.HEARTBEAT_BATCH_SIZE) + ")"),
+	// Batches of HEARTBEAT_BATCH_SIZE server_id
+	UPDATE_SERVERS_DEAD("UPDATE `servers` SET `servers`.`dead` = 1 "
+			+ "WHERE `servers`.`server_id` IN (" + repeat("?", "?", ", ", SQLRequest.HEARTBEAT_BATCH_SIZE) + ")"),
+	// The rooms to shutdown: ready for it, dead for longer than the given
+	// seconds, or idle for longer than the given seconds when the flag is 1.
+	// A consistent read, the rows are locked by SELECT_SERVERS_REAPABLE_FOR_UPDATE
+	SELECT_SERVERS_REAPABLE("SELECT `server_id` FROM `servers` "
+			+ "WHERE " + SQLRequest.REAPABLE + " "
+			+ "ORDER BY `servers`.`server_id` LIMIT " + SQLRequest.REAPER_BATCH_SIZE),
+	// Batches of REAPER_BATCH_SIZE server_id, then the parameters of
+	// SELECT_SERVERS_REAPABLE. Only the rows of the batch are locked, by
+	// primary key, until the transaction deleting them commits
+	SELECT_SERVERS_REAPABLE_FOR_UPDATE("SELECT `server_id`, `ip`, `port` FROM `servers` "
+			+ "WHERE `servers`.`server_id` IN (" + repeat("?", "?", ", ", SQLRequest.REAPER_BATCH_SIZE) + ") "
+			+ "AND " + SQLRequest.REAPABLE + " "
+			+ "FOR UPDATE"),
+	// Batches of REAPER_BATCH_SIZE server_id
+	DELETE_SERVERS_BY_IDS("DELETE FROM `servers` "
+			+ "WHERE `servers`.`server_id` IN (" + repeat("?", "?", ", ", SQLRequest.REAPER_BATCH_SIZE) + ")"),
+
+	// ############### SEQUENCES
+	// Atomically moves the sequence forward by the given block size, the new
+	// value is then read with SELECT_LAST_INSERT_ID on the same connection
+	RESERVE_SEQUENCE_BLOCK("UPDATE `sequences` "
+			+ "SET `sequences`.`next_value` = LAST_INSERT_ID(`sequences`.`next_value` + ?) "
+			+ "WHERE `sequences`.`name` = ?"),
+	SELECT_LAST_INSERT_ID("SELECT LAST_INSERT_ID()"),
+
+	// ############### PORTS
+	SELECT_PORTS_BY_IP("SELECT `ports`.`used`, `ports`.`available`, `ports`.`version` FROM `ports` "
+			+ "WHERE `ports`.`public_ip` = ?"),
+	// Compare-and-set: the last parameter is the version read or written
+	// last, no row is updated if another api node wrote it since
+	UPDATE_PORTS_BY_IP("UPDATE `ports` SET `ports`.`used` = ?, `ports`.`available` = ?, "
+			+ "`ports`.`version` = `ports`.`version` + 1 "
+			+ "WHERE `ports`.`public_ip` = ? AND `ports`.`version` = ?"),
+	SELECT_SERVERS_PORTS_BY_IP("SELECT `servers`.`port` FROM `servers` "
+			+ "WHERE `servers`.`ip` = ?"),
+	SELECT_PORTS_ENABLED_IPS("SELECT `ports`.`public_ip` FROM `ports` "
+			+ "WHERE `ports`.`enabled` = 1 ORDER BY `ports`.`public_ip`");
+
+	/**
+	 * The number of rooms written by one {@link #UPDATE_SERVERS_HEARTBEATS}
+	 * or {@link #UPDATE_SERVERS_DEAD}. A smaller batch is completed by
+	 * repeating its last room, so that a single statement is prepared.
+	 */
+	public final static int HEARTBEAT_BATCH_SIZE = 100;
+
+	/**
+	 * The number of rooms shutdown by one {@link #DELETE_SERVERS_BY_IDS},
+	 * completed the same way.
+	 */
+	public final static int REAPER_BATCH_SIZE = 50;
+
+	/**
+	 * The condition of the rooms to shutdown, its parameters are the seconds
+	 * a room stays dead, the idle flag (0 or 1) and the seconds a room stays
+	 * idle.
+	 */
+	private final static String REAPABLE = "(`servers`.`ready_for_shutdown` = 1 "
+			+ "OR (`servers`.`dead` = 1 AND `servers`.`last_heartbeat` < NOW() - INTERVAL ? SECOND) "
+			+ "OR (? = 1 AND `servers`.`idle_since` < NOW() - INTERVAL ? SECOND))";
+
+	private String sql;
+
+	SQLRequest(String sql) {
+		this.sql = sql;
+	}
+
+	public String getSql() {
+		return this.sql;
+	}
+
+	/**
+	 * @return {@code first} followed by {@code count - 1} times {@code next},
+	 * joined by {@code separator}
+	 */
+	private static String repeat(String first, String next, String separator, int count) {
+		StringBuilder sb = new StringBuilder(first);
+		for (int i = 1; i < count; i++)
+			sb.append(separator).append(next);
+		return sb.toString();
+	}
+}
@@ -23,8 +23,12 @@ public class GameServerDTO {
 		Game("game"),
 		GameVersion("game_version"),
 		NMaxPlayers("n_max_players"),
+		NPlayers("n_players"),
 		OpenedOn("opened_on"),
-		ReadyForShutdown("ready_for_shutdown");
+		ReadyForShutdown("ready_for_shutdown"),
+		Load("load"),
+		LastHeartbeat("last_heartbeat"),
+		Dead("dead");
 
 		private String fieldName;
 
@@ -77,6 +81,11 @@ public class GameServerDTO {
 	 */
 	private int nMaxPlayers;
 
+	/**
+	 * The number of players currently on the game server.
+	 */
+	private int nPlayers;
+
 	/**
 	 * The date the game server was opened.
 	 */
@@ -87,6 +96,22 @@ public class GameServerDTO {
 	 */
 	private boolean readyForShutdown;
 
+	/**
+	 * The load of the game server, as last reported by its heartbeat.
+	 */
+	private float load;
+
+	/**
+	 * The date of the last heartbeat of the game server, null if it never
+	 * sent one.
+	 */
+	private String lastHeartbeat;
+
+	/**
+	 * Show whether or not the game server stopped sending heartbeats.
+	 */
+	private boolean dead;
+
 	public GameServerDTO() {
 		this.serverId = null;
 		this.ip = null;
@@ -96,8 +121,12 @@ public class GameServerDTO {
 		this.game = null;
 		this.gameVersion = null;
 		this.nMaxPlayers = 0;
+		this.nPlayers = 0;
 		this.openedOn = null;
 		this.readyForShutdown = false;
+		this.load = 0;
+		this.lastHeartbeat = null;
+		this.dead = false;
 	}
 
 	public GameServerDTO(String serverId, String ip, int port, String serverName, String serverDesc,
@@ -111,8 +140,12 @@ public class GameServerDTO {
 		this.game = gameName;
 		this.gameVersion = gameVersion;
 		this.nMaxPlayers = nMaxPlayers;
+		this.nPlayers = 0;
 		this.openedOn = openedOn;
 		this.readyForShutdown = readyForShutdown;
+		this.load = 0;
+		this.lastHeartbeat = null;
+		this.dead = false;
 	}
 
 	/**
@@ -260,6 +293,21 @@ public class GameServerDTO {
 		this.nMaxPlayers = nMaxPlayers;
 	}
 
+	/**
+	 * The number of players currently on the game server.
+	 */
+	@JsonbProperty("n_players")
+	public int getNPlayers() {
+		return nPlayers;
+	}
+
+	/**
+	 * The number of players currently on the game server.
+	 */
+	public void setNPlayers(int nPlayers) {
+		this.nPlayers = nPlayers;
+	}
+
 	/**
 	 * The date the game server was created.
 	 */
@@ -290,6 +338,53 @@ public class GameServerDTO {
 		this.readyForShutdown = readyForShutdown;
 	}
 
+	/**
+	 * The load of the game server, as last reported by its heartbeat.
+	 */
+	@JsonbProperty("load")
+	public float getLoad() {
+		return load;
+	}
+
+	/**
+	 * The load of the game server, as last reported by its heartbeat.
+	 */
+	public void setLoad(float load) {
+		this.load = load;
+	}
+
+	/**
+	 * The date of the last heartbeat of the game server, null if it never
+	 * sent one.
+	 */
+	@JsonbProperty("last_heartbeat")
+	public String getLastHeartbeat() {
+		return lastHeartbeat;
+	}
+
+	/**
+	 * The date of the last heartbeat of the game server, null if it never
+	 * sent one.
+	 */
+	public void setLastHeartbeat(String lastHeartbeat) {
+		this.lastHeartbeat = lastHeartbeat;
+	}
+
+	/**
+	 * Show whether or not the game server stopped sending heartbeats.
+	 */
+	@JsonbProperty("dead")
+	public boolean getDead() {
+		return dead;
+	}
+
+	/**
+	 * Show whether or not the game server stopped sending heartbeats.
+	 */
+	public void setDead(boolean dead) {
+		this.dead = dead;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -314,11 +409,23 @@ public class GameServerDTO {
 		sb.append("nMaxPlayers=");
 		sb.append(((this.nMaxPlayers == 0) ? "0=unlimited" : this.nMaxPlayers));
 		sb.append(", ");
+		sb.append("nPlayers=");
+		sb.append(this.nPlayers);
+		sb.append(", ");
 		sb.append("openedOn=");
 		sb.append(((this.openedOn == null) ? "<null>" : this.openedOn));
 		sb.append(", ");
 		sb.append("readyForShutdown=");
 		sb.append(this.readyForShutdown);
+		sb.append(", ");
+		sb.append("load=");
+		sb.append(this.load);
+		sb.append(", ");
+		sb.append("lastHeartbeat=");
+		sb.append(((this.lastHeartbeat == null) ? "<null>" : this.lastHeartbeat));
+		sb.append(", ");
+		sb.append("dead=");
+		sb.append(this.dead);
 		sb.append(']');
 
 		return sb.toString();
@@ -335,8 +442,12 @@ public class GameServerDTO {
 		result = ((result * 31) + ((this.game == null) ? 0 : this.game.hashCode()));
 		result = ((result * 31) + ((this.gameVersion == null) ? 0 : this.gameVersion.hashCode()));
 		result = (result * 17) + this.nMaxPlayers;
+		result = (result * 17) + this.nPlayers;
 		result = ((result * 31) + ((this.openedOn == null) ? 0 : this.openedOn.hashCode()));
 		result += Boolean.hashCode(this.readyForShutdown);
+		result = (result * 17) + Float.hashCode(this.load);
+		result = ((result * 31) + ((this.lastHeartbeat == null) ? 0 : this.lastHeartbeat.hashCode()));
+		result += Boolean.hashCode(this.dead);
 		return result;
 	}
 
@@ -356,7 +467,11 @@ public class GameServerDTO {
 				&& ((this.game == s.game) || ((this.game != null) && this.game.equals(s.game)))
 				&& ((this.gameVersion == s.gameVersion) || ((this.gameVersion != null) && this.gameVersion.equals(s.gameVersion)))
 				&& (this.nMaxPlayers == s.nMaxPlayers)
+				&& (this.nPlayers == s.nPlayers)
 				&& ((this.openedOn == s.openedOn) || ((this.openedOn != null) && this.openedOn.equals(s.openedOn)))
-				&& (this.readyForShutdown == s.readyForShutdown);
+				&& (this.readyForShutdown == s.readyForShutdown)
+				&& (Float.compare(this.load, s.load) == 0)
+				&& ((this.lastHeartbeat == s.lastHeartbeat) || ((this.lastHeartbeat != null) && this.lastHeartbeat.equals(s.lastHeartbeat)))
+				&& (this.dead == s.dead);
 	}
 }
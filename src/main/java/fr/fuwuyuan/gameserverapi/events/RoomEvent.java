@@ -0,0 +1,76 @@
+package fr.fuwuyuan.gameserverapi.events;
+
+/**
+ * An immutable event of the lifecycle of a room, as sent by the
+ * {@link RoomEventFeed}.</br>
+ * The data is serialized once, when the event is published, and shared by
+ * all the subscribers.
+ * @author julien-beguier
+ * @see {@link RoomEventFeed}
+ */
+public class RoomEvent {
+
+	/**
+	 * The possible types of a {@link RoomEvent}, used as the SSE event name.
+	 * @author julien-beguier
+	 */
+	public enum Type {
+		CREATED("created"),
+		UPDATED("updated"),
+		DEAD("dead"),
+		SHUTDOWN("shutdown");
+
+		private String eventName;
+
+		Type(String eventName) {
+			this.eventName = eventName;
+		}
+
+		public String getEventName() {
+			return this.eventName;
+		}
+	}
+
+	private final long		sequence;
+	private final String	id;
+	private final Type		type;
+	private final String	json;
+
+	public RoomEvent(long sequence, String id, Type type, String json) {
+		this.sequence = sequence;
+		this.id = id;
+		this.type = type;
+		this.json = json;
+	}
+
+	/**
+	 * The position of the event in the feed, starting at 1.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * The SSE event id, sent back by the clients in the
+	 * {@code Last-Event-ID} header when they reconnect.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * The json data of the event.
+	 */
+	public String getJson() {
+		return json;
+	}
+
+	@Override
+	public String toString() {
+		return this.id + " " + this.type.getEventName() + " " + this.json;
+	}
+}
@@ -0,0 +1,412 @@
+package fr.fuwuyuan.gameserverapi.events;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+
+import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
+
+/**
+ * This is a singleton class pushing the lifecycle events of the rooms
+ * ({@code created}, {@code updated}, {@code dead} and {@code shutdown}) to
+ * the clients subscribed to the {@code GET /room/events} Server-Sent Events
+ * feed.
+ * <p>
+ * The last published events are kept in a bounded replay ring. A client
+ * reconnecting with the {@code Last-Event-ID} header receives the events it
+ * missed, if they are still in the ring. Otherwise it receives a
+ * {@code reset} event: its copy of the room list cannot be updated anymore
+ * and must be fetched again with {@code GET /room}. Event ids are prefixed
+ * with an id unique to this feed, so that an id from another api node or
+ * deployment always triggers a reset.
+ * </p>
+ * <p>
+ * All the events are dispatched by a single background thread, in order: a
+ * publisher never waits for the clients, and a subscriber receives its
+ * replay before any live event. Each subscriber has its own queue of
+ * {@code ROOM_EVENTS_SUBSCRIBER_QUEUE_SIZE} events. The queues are written to
+ * the connections by a pool of {@code ROOM_EVENTS_WRITER_THREADS} threads,
+ * whatever the number of subscribers: a thread drains one queue at a time,
+ * at most {@code WRITE_BATCH_SIZE} events before giving the other queues a
+ * turn. A subscriber whose queue is full has fallen behind and is
+ * disconnected, it reconnects with its {@code Last-Event-ID}. A comment is
+ * queued periodically to detect the clients gone.
+ * </p>
+ * @author julien-beguier
+ * @see {@link RoomEvent}
+ */
+public class RoomEventFeed {
+
+	private final static String		ROOM_EVENTS_REPLAY_SIZE = "ROOM_EVENTS_REPLAY_SIZE";
+	private final static String		ROOM_EVENTS_KEEP_ALIVE_INTERVAL = "ROOM_EVENTS_KEEP_ALIVE_INTERVAL";
+	private final static String		ROOM_EVENTS_SUBSCRIBER_QUEUE_SIZE = "ROOM_EVENTS_SUBSCRIBER_QUEUE_SIZE";
+	private final static String		ROOM_EVENTS_WRITER_THREADS = "ROOM_EVENTS_WRITER_THREADS";
+	private final static String		RESET_EVENT_NAME = "reset";
+	/**
+	 * Events written to a subscriber before the writer thread moves on.
+	 */
+	private final static int		WRITE_BATCH_SIZE = 16;
+
+	/**
+	 * Jsonb instances are thread safe and expensive to create.
+	 */
+	private final static Jsonb		JSONB = JsonbBuilder.create();
+
+	private final String			instanceId = Long.toHexString(UUID.randomUUID().getMostSignificantBits());
+	private final RoomEvent[]		ring;
+	/**
+	 * The sequence of the last published event, guarded by {@code ring}.
+	 */
+	private long					lastSequence = 0;
+	private final int				queueSize;
+	private final CopyOnWriteArrayList<Subscriber>	subscribers = new CopyOnWriteArrayList<Subscriber>();
+	private final ScheduledExecutorService			sender;
+	/**
+	 * Holds at most one task per subscriber, writing its queue.
+	 */
+	private final ThreadPoolExecutor				writers;
+	private final LongAdder			disconnected = new LongAdder();
+	private volatile Sse			sse = null;
+
+	/**
+	 * A subscribed client, its queue of events to write and the sequence of
+	 * the last event queued for it, only used by the sender thread.
+	 */
+	private static class Subscriber {
+		private final SseEventSink	sink;
+		private final ArrayBlockingQueue<OutboundSseEvent>	queue;
+		/**
+		 * {@code true} while a writer thread drains the queue.
+		 */
+		private final AtomicBoolean	writing = new AtomicBoolean();
+		private long				lastQueuedSequence;
+
+		private Subscriber(SseEventSink sink, int queueSize, long lastQueuedSequence) {
+			this.sink = sink;
+			this.queue = new ArrayBlockingQueue<OutboundSseEvent>(queueSize);
+			this.lastQueuedSequence = lastQueuedSequence;
+		}
+	}
+
+	private static volatile boolean	initialized = false;
+
+	/**
+	 * Lazy and thread safe holder of the singleton.
+	 */
+	private static class InstanceHolder {
+		private static final RoomEventFeed INSTANCE = new RoomEventFeed();
+
+		static {
+			initialized = true;
+		}
+	}
+
+	public static RoomEventFeed getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Unlike {@link #getInstance()}, does not start the keep-alive thread.
+	 * @return {@code true} once the singleton is created
+	 */
+	public static boolean isInitialized() {
+		return initialized;
+	}
+
+	private RoomEventFeed() {
+		Properties properties = null;
+		try {
+			properties = ApplicationPropertiesUtils.readPropertiesFile();
+		} catch (IOException e) {
+			ResponseHandler.error("application.properties file cannot be closed: " + e.getMessage(), true);
+		}
+		int replaySize = ApplicationPropertiesUtils.getIntProperty(properties, ROOM_EVENTS_REPLAY_SIZE, 1024);
+		long keepAliveMillis = ApplicationPropertiesUtils.getLongProperty(properties,
+				ROOM_EVENTS_KEEP_ALIVE_INTERVAL, 30000);
+
+		this.ring = new RoomEvent[Math.max(1, replaySize)];
+		this.queueSize = Math.max(1, ApplicationPropertiesUtils.getIntProperty(properties,
+				ROOM_EVENTS_SUBSCRIBER_QUEUE_SIZE, 256));
+		int writerThreads = Math.max(1, ApplicationPropertiesUtils.getIntProperty(properties,
+				ROOM_EVENTS_WRITER_THREADS, 8));
+		this.writers = new ThreadPoolExecutor(writerThreads, writerThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("room-events-writer"));
+		this.writers.allowCoreThreadTimeOut(true);
+		this.sender = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("room-events"));
+		this.sender.scheduleWithFixedDelay(this::keepAlive, keepAliveMillis, keepAliveMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * This method publishes a {@code created} event with the room
+	 * {@code gss}.
+	 * @param gss as a {@link GameServerSlim}
+	 */
+	public void publishCreated(GameServerSlim gss) {
+		publish(RoomEvent.Type.CREATED, JSONB.toJson(gss));
+	}
+
+	/**
+	 * This method publishes an {@code updated} event with the new state of
+	 * the room {@code gss}.
+	 * @param gss as a {@link GameServerSlim}
+	 */
+	public void publishUpdated(GameServerSlim gss) {
+		publish(RoomEvent.Type.UPDATED, JSONB.toJson(gss));
+	}
+
+	/**
+	 * This method publishes a {@code dead} event with the {@code server_id}
+	 * of a room which stopped sending heartbeats. An {@code updated} event
+	 * follows if it sends one again.
+	 * @param serverId as a String
+	 */
+	public void publishDead(String serverId) {
+		publish(RoomEvent.Type.DEAD, Json.createObjectBuilder().add("server_id", serverId).build().toString());
+	}
+
+	/**
+	 * This method publishes a {@code shutdown} event with the
+	 * {@code server_id} of the room.
+	 * @param serverId as a String
+	 */
+	public void publishShutdown(String serverId) {
+		publish(RoomEvent.Type.SHUTDOWN, Json.createObjectBuilder().add("server_id", serverId).build().toString());
+	}
+
+	/**
+	 * This method subscribes the client of {@code sink} to the feed. The
+	 * events published after {@code lastEventId} are sent first, or a
+	 * {@code reset} event if some of them are not in the replay ring anymore
+	 * or do not fit in its queue.
+	 * @param sse as the {@link Sse} of the request
+	 * @param sink as the {@link SseEventSink} of the request
+	 * @param lastEventId as a String, the {@code Last-Event-ID} header, can be
+	 * null for a new client
+	 */
+	public void subscribe(Sse sse, SseEventSink sink, String lastEventId) {
+		this.sse = sse;
+		try {
+			this.sender.execute(() -> {
+				long resumeFrom;
+				List<RoomEvent> replay = null;
+				synchronized (this.ring) {
+					resumeFrom = this.lastSequence;
+					if (lastEventId != null) {
+						long sequence = parseSequence(lastEventId);
+						long oldest = Math.max(1, this.lastSequence - this.ring.length + 1);
+						if (sequence >= oldest - 1 && sequence <= this.lastSequence
+								&& this.lastSequence - sequence <= this.queueSize) {
+							replay = new ArrayList<RoomEvent>();
+							for (long s = sequence + 1; s <= this.lastSequence; s++)
+								replay.add(this.ring[(int) (s % this.ring.length)]);
+						}
+					}
+				}
+
+				Subscriber subscriber = new Subscriber(sink, this.queueSize, resumeFrom);
+				this.subscribers.add(subscriber);
+				if (lastEventId != null && replay == null) {
+					send(subscriber, sse.newEventBuilder().name(RESET_EVENT_NAME).data(String.class, "{}").build());
+				} else if (replay != null) {
+					for (RoomEvent event : replay)
+						send(subscriber, toOutboundEvent(sse, event));
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The feed is shut down
+			sink.close();
+		}
+	}
+
+	/**
+	 * This method closes the connection of all the subscribers and stops the
+	 * feed, the events published afterwards are dropped. Called when the api
+	 * is undeployed.
+	 */
+	public void shutdown() {
+		this.sender.shutdownNow();
+		for (Subscriber subscriber : this.subscribers)
+			unsubscribe(subscriber);
+		this.writers.shutdownNow();
+	}
+
+	/**
+	 * @return the number of clients subscribed to the feed
+	 */
+	public int getSubscriberCount() {
+		return this.subscribers.size();
+	}
+
+	/**
+	 * @return the number of subscribers disconnected for falling behind
+	 */
+	public long getDisconnectedCount() {
+		return this.disconnected.sum();
+	}
+
+	// ##########################################################################
+
+	private void publish(RoomEvent.Type type, String json) {
+		RoomEvent event;
+		synchronized (this.ring) {
+			long sequence = ++this.lastSequence;
+			event = new RoomEvent(sequence, this.instanceId + "-" + sequence, type, json);
+			this.ring[(int) (sequence % this.ring.length)] = event;
+		}
+		// Always queued, even without subscriber: one may be subscribing
+		try {
+			this.sender.execute(() -> broadcast(event));
+		} catch (RejectedExecutionException e) {
+			// The feed is shut down
+		}
+	}
+
+	/**
+	 * Sends {@code event} to the subscribers which did not already receive it
+	 * in their replay. Runs on the sender thread.
+	 */
+	private void broadcast(RoomEvent event) {
+		Sse sse = this.sse;
+		if (sse == null)
+			return;
+		OutboundSseEvent outbound = toOutboundEvent(sse, event);
+		for (Subscriber subscriber : this.subscribers) {
+			if (subscriber.lastQueuedSequence < event.getSequence()) {
+				subscriber.lastQueuedSequence = event.getSequence();
+				send(subscriber, outbound);
+			}
+		}
+	}
+
+	/**
+	 * Queues a comment for all the subscribers, which also removes those
+	 * whose connection is closed. Runs on the sender thread.
+	 */
+	private void keepAlive() {
+		Sse sse = this.sse;
+		if (sse == null || this.subscribers.isEmpty())
+			return;
+		OutboundSseEvent comment = sse.newEventBuilder().comment("keep-alive").build();
+		for (Subscriber subscriber : this.subscribers)
+			send(subscriber, comment);
+	}
+
+	/**
+	 * Queues {@code event} for {@code subscriber} and wakes its writer up.
+	 * Runs on the sender thread.
+	 */
+	private void send(Subscriber subscriber, OutboundSseEvent event) {
+		if (subscriber.sink.isClosed()) {
+			this.subscribers.remove(subscriber);
+			return;
+		}
+		if (!subscriber.queue.offer(event)) {
+			// Its writer is stuck on a client not reading anymore
+			this.disconnected.increment();
+			unsubscribe(subscriber);
+			return;
+		}
+		if (subscriber.writing.compareAndSet(false, true))
+			startWriting(subscriber);
+	}
+
+	/**
+	 * Queues the writing of {@code subscriber}, flagged as writing, behind the
+	 * other subscribers.
+	 */
+	private void startWriting(Subscriber subscriber) {
+		try {
+			this.writers.execute(() -> write(subscriber));
+		} catch (RejectedExecutionException e) {
+			unsubscribe(subscriber);
+		}
+	}
+
+	/**
+	 * Writes the queue of {@code subscriber} to its connection until it is
+	 * empty, or {@code WRITE_BATCH_SIZE} events are written. Runs on a writer
+	 * thread, one at most per subscriber, so that the events are written in
+	 * order.
+	 */
+	private void write(Subscriber subscriber) {
+		int written = 0;
+		do {
+			OutboundSseEvent event;
+			while ((event = subscriber.queue.poll()) != null) {
+				if (subscriber.sink.isClosed()) {
+					subscriber.queue.clear();
+					break;
+				}
+				try {
+					// Blocks this thread only until the client reads it
+					subscriber.sink.send(event).toCompletableFuture().join();
+				} catch (RuntimeException e) {
+					subscriber.queue.clear();
+					unsubscribe(subscriber);
+					break;
+				}
+				if (++written >= WRITE_BATCH_SIZE && !subscriber.queue.isEmpty()) {
+					// Still flagged as writing, the rest is written on its next turn
+					startWriting(subscriber);
+					return;
+				}
+			}
+			subscriber.writing.set(false);
+			// An event queued after the last poll, but before the flag was reset
+		} while (!subscriber.queue.isEmpty() && subscriber.writing.compareAndSet(false, true));
+	}
+
+	private void unsubscribe(Subscriber subscriber) {
+		this.subscribers.remove(subscriber);
+		try {
+			subscriber.sink.close();
+		} catch (RuntimeException e) {
+			// The client is already gone
+		}
+	}
+
+	private static OutboundSseEvent toOutboundEvent(Sse sse, RoomEvent event) {
+		return sse.newEventBuilder()
+				.id(event.getId())
+				.name(event.getType().getEventName())
+				.data(String.class, event.getJson())
+				.build();
+	}
+
+	/**
+	 * @return the sequence of {@code eventId} or {@code -1} if it was not sent
+	 * by this feed
+	 */
+	private long parseSequence(String eventId) {
+		String prefix = this.instanceId + "-";
+		if (!eventId.startsWith(prefix))
+			return -1;
+		try {
+			return Long.parseLong(eventId.substring(prefix.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package fr.fuwuyuan.gameserverapi.heartbeat;
+
+/**
+ * An immutable heartbeat of a game server, as buffered by the
+ * {@link HeartbeatSupervisor} until it is written to the database.
+ * @author julien-beguier
+ * @see {@link HeartbeatSupervisor}
+ */
+public class Heartbeat {
+
+	private final int		serverId;
+	private final int		nPlayers;
+	/**
+	 * {@code null} when the game server did not report it.
+	 */
+	private final Float		load;
+
+	public Heartbeat(int serverId, int nPlayers, Float load) {
+		this.serverId = serverId;
+		this.nPlayers = nPlayers;
+		this.load = load;
+	}
+
+	public int getServerId() {
+		return serverId;
+	}
+
+	public int getNPlayers() {
+		return nPlayers;
+	}
+
+	public Float getLoad() {
+		return load;
+	}
+
+	@Override
+	public String toString() {
+		return this.serverId + " " + this.nPlayers + " player(s), load " + (this.load == null ? "<null>" : this.load);
+	}
+}
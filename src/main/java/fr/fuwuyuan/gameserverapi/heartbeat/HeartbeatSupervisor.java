@@ -0,0 +1,335 @@
+package fr.fuwuyuan.gameserverapi.heartbeat;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.fuwuyuan.gameserverapi.cache.RoomDirectory;
+import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
+import fr.fuwuyuan.gameserverapi.database.DatabaseSession;
+import fr.fuwuyuan.gameserverapi.database.PooledConnection;
+import fr.fuwuyuan.gameserverapi.database.SQLRequest;
+import fr.fuwuyuan.gameserverapi.events.RoomEventFeed;
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.metrics.Metrics;
+import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
+
+/**
+ * This is a singleton class receiving the {@link Heartbeat} of the game
+ * servers and telling which of them stopped sending any.
+ * <p>
+ * A heartbeat is only kept in memory, replacing the previous one of its
+ * room: the buffer never holds more than one heartbeat per room. Every
+ * {@code HEARTBEAT_FLUSH_INTERVAL}, a background thread writes the buffered
+ * heartbeats to the {@code 'servers'} table with one
+ * {@link SQLRequest#UPDATE_SERVERS_HEARTBEATS} per
+ * {@link SQLRequest#HEARTBEAT_BATCH_SIZE} rooms, whatever the number of
+ * heartbeats received meanwhile. The new number of players is then set in
+ * the {@link RoomDirectory} and published as an {@code updated} event. A
+ * heartbeat which cannot be written is kept for the next flush, unless a
+ * newer one was received.
+ * </p>
+ * <p>
+ * A room is supervised from its first heartbeat received by this api. When
+ * it sent none for {@code HEARTBEAT_MISSED_BEATS} times
+ * {@code HEARTBEAT_INTERVAL}, the interval at which the game servers send
+ * them, it is flagged {@code dead} in the {@code 'servers'} table and a
+ * {@code dead} event is published. It is alive again with its next
+ * heartbeat.
+ * </p>
+ * @author julien-beguier
+ * @see {@link Heartbeat}
+ */
+public class HeartbeatSupervisor {
+
+	private final static String		HEARTBEAT_INTERVAL = "HEARTBEAT_INTERVAL";
+	private final static String		HEARTBEAT_MISSED_BEATS = "HEARTBEAT_MISSED_BEATS";
+	private final static String		HEARTBEAT_FLUSH_INTERVAL = "HEARTBEAT_FLUSH_INTERVAL";
+
+	/**
+	 * Waited for the flush in progress on shutdown.
+	 */
+	private final static long		SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+	private final long				timeoutMillis;
+	/**
+	 * The last heartbeat of each room not written yet, by {@code server_id}.
+	 */
+	private final ConcurrentHashMap<Integer, Heartbeat>	pending = new ConcurrentHashMap<Integer, Heartbeat>();
+	/**
+	 * The time of the last heartbeat of each supervised room, by
+	 * {@code server_id}.
+	 */
+	private final ConcurrentHashMap<Integer, Long>		lastBeats = new ConcurrentHashMap<Integer, Long>();
+	private final Set<Integer>		dead = ConcurrentHashMap.newKeySet();
+	private final LongAdder			received = new LongAdder();
+	private final LongAdder			flushedRows = new LongAdder();
+	private final LongAdder			batches = new LongAdder();
+	private final LongAdder			deadFlagged = new LongAdder();
+	private final ScheduledExecutorService	flusher;
+
+	private static volatile boolean	initialized = false;
+
+	/**
+	 * Lazy and thread safe holder of the singleton.
+	 */
+	private static class InstanceHolder {
+		private static final HeartbeatSupervisor INSTANCE = new HeartbeatSupervisor();
+
+		static {
+			initialized = true;
+		}
+	}
+
+	public static HeartbeatSupervisor getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Unlike {@link #getInstance()}, does not start the flusher.
+	 * @return {@code true} once the singleton is created
+	 */
+	public static boolean isInitialized() {
+		return initialized;
+	}
+
+	private HeartbeatSupervisor() {
+		Properties properties = null;
+		try {
+			properties = ApplicationPropertiesUtils.readPropertiesFile();
+		} catch (IOException e) {
+			ResponseHandler.error("application.properties file cannot be closed: " + e.getMessage(), true);
+		}
+		long intervalMillis = ApplicationPropertiesUtils.getLongProperty(properties, HEARTBEAT_INTERVAL, 1000);
+		int missedBeats = Math.max(1, ApplicationPropertiesUtils.getIntProperty(properties, HEARTBEAT_MISSED_BEATS, 5));
+		long flushIntervalMillis = ApplicationPropertiesUtils.getLongProperty(properties, HEARTBEAT_FLUSH_INTERVAL, 2000);
+
+		this.timeoutMillis = intervalMillis * missedBeats;
+		this.flusher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("heartbeats"));
+		this.flusher.scheduleWithFixedDelay(this::flushAndSupervise, flushIntervalMillis, flushIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * This method buffers {@code heartbeat} until the next flush, replacing
+	 * the previous one of its room.
+	 * @param heartbeat as a {@link Heartbeat}
+	 */
+	public void beat(Heartbeat heartbeat) {
+		Integer serverId = Integer.valueOf(heartbeat.getServerId());
+		this.pending.put(serverId, heartbeat);
+		this.lastBeats.put(serverId, System.currentTimeMillis());
+		this.received.increment();
+	}
+
+	/**
+	 * This method stops the supervision of a room, once it is shutdown.
+	 * @param serverId as a String
+	 */
+	public void forget(String serverId) {
+		Integer id;
+		try {
+			id = Integer.valueOf(serverId);
+		} catch (NumberFormatException e) {
+			return;
+		}
+		this.pending.remove(id);
+		this.lastBeats.remove(id);
+		this.dead.remove(id);
+	}
+
+	/**
+	 * @param serverId as a String
+	 * @return {@code true} if the room is flagged dead
+	 */
+	public boolean isDead(String serverId) {
+		try {
+			return this.dead.contains(Integer.valueOf(serverId));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * This method stops the flusher, then writes the heartbeats still
+	 * buffered. Called when the api is undeployed.
+	 */
+	public void shutdown() {
+		this.flusher.shutdown();
+		try {
+			this.flusher.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+	public long getReceived() {
+		return this.received.sum();
+	}
+
+	/**
+	 * @return the number of heartbeats written to the database
+	 */
+	public long getFlushedRows() {
+		return this.flushedRows.sum();
+	}
+
+	/**
+	 * @return the number of UPDATE executed to write the heartbeats
+	 */
+	public long getBatches() {
+		return this.batches.sum();
+	}
+
+	public long getDeadFlagged() {
+		return this.deadFlagged.sum();
+	}
+
+	public int getPendingCount() {
+		return this.pending.size();
+	}
+
+	public int getSupervisedCount() {
+		return this.lastBeats.size();
+	}
+
+	public int getDeadCount() {
+		return this.dead.size();
+	}
+
+	// ##########################################################################
+
+	/**
+	 * Background task: writes the buffered heartbeats, then flags the rooms
+	 * without any recent heartbeat. Runs on the flusher thread.
+	 */
+	private void flushAndSupervise() {
+		try {
+			flush();
+			supervise();
+		} catch (RuntimeException e) {
+			ResponseHandler.error("Heartbeats cannot be flushed: " + e, true);
+		}
+	}
+
+	private void flush() {
+		if (this.pending.isEmpty())
+			return;
+		List<Heartbeat> beats = new ArrayList<Heartbeat>(this.pending.size());
+		for (Integer serverId : this.pending.keySet()) {
+			Heartbeat beat = this.pending.remove(serverId);
+			if (beat != null)
+				beats.add(beat);
+		}
+
+		long start = System.nanoTime();
+		int written = 0;
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			if (conn != null) {
+				int size = SQLRequest.HEARTBEAT_BATCH_SIZE;
+				Object[] params = new Object[5 * size];
+				while (written < beats.size()) {
+					List<Heartbeat> batch = beats.subList(written,
+							Math.min(beats.size(), written + size));
+					for (int i = 0; i < size; i++) {
+						// The last room is repeated to complete the batch
+						Heartbeat beat = batch.get(Math.min(i, batch.size() - 1));
+						params[2 * i] = beat.getServerId();
+						params[2 * i + 1] = beat.getNPlayers();
+						params[2 * size + 2 * i] = beat.getServerId();
+						params[2 * size + 2 * i + 1] = beat.getLoad();
+						params[4 * size + i] = beat.getServerId();
+					}
+					conn.update(SQLRequest.UPDATE_SERVERS_HEARTBEATS, params);
+					this.batches.increment();
+					this.flushedRows.add(batch.size());
+					for (Heartbeat beat : batch)
+						applied(beat);
+					written += batch.size();
+				}
+			}
+		} catch (SQLException e) {
+			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
+			ResponseHandler.error(errorMessage, true);
+		} finally {
+			Metrics.getInstance().step(Metrics.Step.HEARTBEAT_FLUSH).recordSince(start);
+		}
+
+		// Kept for the next flush, unless a newer one was received
+		for (int i = written; i < beats.size(); i++)
+			this.pending.putIfAbsent(beats.get(i).getServerId(), beats.get(i));
+	}
+
+	/**
+	 * Sets the number of players of a written heartbeat in the directory and
+	 * publishes the change.
+	 */
+	private void applied(Heartbeat beat) {
+		RoomDirectory directory = RoomDirectory.getInstance();
+		GameServerSlim updated = directory.updatePlayers(beat.getServerId(), beat.getNPlayers());
+		if (this.dead.remove(beat.getServerId())) {
+			ResponseHandler.info("Room " + beat.getServerId() + " sends heartbeats again", true);
+			if (updated == null)
+				updated = directory.get(beat.getServerId());
+		}
+		if (updated != null)
+			RoomEventFeed.getInstance().publishUpdated(updated);
+	}
+
+	private void supervise() {
+		RoomDirectory directory = RoomDirectory.getInstance();
+		long deadline = System.currentTimeMillis() - this.timeoutMillis;
+		List<Integer> missing = new ArrayList<Integer>();
+		for (Map.Entry<Integer, Long> entry : this.lastBeats.entrySet()) {
+			if (entry.getValue() >= deadline || !this.lastBeats.remove(entry.getKey(), entry.getValue()))
+				continue;
+			// Not supervised anymore if shutdown meanwhile, by another api
+			if (directory.isLoaded() && directory.get(entry.getKey()) == null)
+				continue;
+			missing.add(entry.getKey());
+		}
+		if (missing.isEmpty())
+			return;
+
+		int flagged = 0;
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			if (conn != null) {
+				Object[] params = new Object[SQLRequest.HEARTBEAT_BATCH_SIZE];
+				while (flagged < missing.size()) {
+					List<Integer> batch = missing.subList(flagged,
+							Math.min(missing.size(), flagged + SQLRequest.HEARTBEAT_BATCH_SIZE));
+					for (int i = 0; i < SQLRequest.HEARTBEAT_BATCH_SIZE; i++)
+						params[i] = batch.get(Math.min(i, batch.size() - 1));
+					conn.update(SQLRequest.UPDATE_SERVERS_DEAD, params);
+					for (Integer serverId : batch) {
+						this.dead.add(serverId);
+						RoomEventFeed.getInstance().publishDead(String.valueOf(serverId));
+					}
+					this.deadFlagged.add(batch.size());
+					flagged += batch.size();
+				}
+			}
+		} catch (SQLException e) {
+			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
+			ResponseHandler.error(errorMessage, true);
+		}
+
+		if (flagged > 0)
+			ResponseHandler.info(flagged + " room(s) flagged dead, no heartbeat for "
+					+ this.timeoutMillis + "ms", true);
+		// Checked again on the next run, unless they sent a heartbeat meanwhile
+		for (int i = flagged; i < missing.size(); i++)
+			this.lastBeats.putIfAbsent(missing.get(i), deadline);
+	}
+}
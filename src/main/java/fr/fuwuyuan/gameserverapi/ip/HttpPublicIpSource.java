@@ -0,0 +1,63 @@
+package fr.fuwuyuan.gameserverapi.ip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+/**
+ * Implements {@link PublicIpSource}
+ * <p>
+ * This source sends a GET request to a public ip webservice, such as
+ * simple-ip-ws (homemade public ip webservice), answering a json object
+ * with an {@code ip} property:
+ * <pre>{"ip": "123.12.3.123"}</pre>
+ * The request is bounded by a connect and a read timeout.
+ * </p>
+ * @author julien-beguier
+ * @see {@link java.net.HttpURLConnection}
+ */
+public class HttpPublicIpSource implements PublicIpSource {
+
+	private final static String JSON_IP = "ip";
+
+	private final String	url;
+	private final int		timeoutMillis;
+
+	public HttpPublicIpSource(String url, int timeoutMillis) {
+		this.url = url;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String fetchPublicIp() throws IOException {
+		HttpURLConnection con = (HttpURLConnection) new URL(this.url).openConnection();
+		try {
+			con.setRequestMethod("GET");
+			con.setConnectTimeout(this.timeoutMillis);
+			con.setReadTimeout(this.timeoutMillis);
+
+			try (InputStream is = con.getInputStream(); JsonReader jsonReader = Json.createReader(is)) {
+				JsonObject ipObject = jsonReader.readObject();
+				return ipObject.getString(JSON_IP);
+			} catch (JsonException | ClassCastException | NullPointerException e) {
+				throw new IOException("Invalid response from " + this.url + ": " + e.getMessage(), e);
+			}
+		} finally {
+			con.disconnect();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return this.url;
+	}
+}
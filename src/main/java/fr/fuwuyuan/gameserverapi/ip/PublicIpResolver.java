@@ -0,0 +1,197 @@
+package fr.fuwuyuan.gameserverapi.ip;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Enumeration;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
+
+/**
+ * This is a singleton class resolving the public ip of the host, from which
+ * the game servers are reachable.
+ * <p>
+ * The ip is fetched from a {@link PublicIpSource}, by default an
+ * {@link HttpPublicIpSource} querying {@code PUBLIC_IP_SOURCE_URL}, on a
+ * background thread every {@code PUBLIC_IP_REFRESH_INTERVAL}. Reads only
+ * return the cached ip and never wait for the source.</br>
+ * When the source stops answering, the last ip it answered is kept: it is
+ * the one registered in the {@code 'ports'} table and advertised by the
+ * rooms, and an error is logged once it is older than
+ * {@code PUBLIC_IP_TTL}. Only until the source first answers does the
+ * resolver fall back, in order, to:
+ * <ul>
+ * <li>the static ip {@code PUBLIC_IP_FALLBACK}, if set</li>
+ * <li>the first public IPv4 address of the network interfaces of the host,
+ * looked up once by the background thread</li>
+ * </ul>
+ * </p>
+ * @author julien-beguier
+ * @see {@link PublicIpSource}
+ */
+public class PublicIpResolver {
+
+	private final static String		PUBLIC_IP_SOURCE_URL = "PUBLIC_IP_SOURCE_URL";
+	private final static String		PUBLIC_IP_HTTP_TIMEOUT = "PUBLIC_IP_HTTP_TIMEOUT";
+	private final static String		PUBLIC_IP_TTL = "PUBLIC_IP_TTL";
+	private final static String		PUBLIC_IP_REFRESH_INTERVAL = "PUBLIC_IP_REFRESH_INTERVAL";
+	private final static String		PUBLIC_IP_FALLBACK = "PUBLIC_IP_FALLBACK";
+
+	private final static String		DEFAULT_SOURCE_URL = "http://julienbeguier.fr:7380/";
+
+	private volatile PublicIpSource	source;
+	private final long				ttlMillis;
+	private final String			fallbackIp;
+	private volatile String			cachedIp = null;
+	private volatile long			fetchedAtMillis = 0;
+	/**
+	 * Only used by the refresher thread.
+	 */
+	private boolean					staleReported = false;
+	private volatile String			interfaceIp = null;
+	private boolean					interfaceIpLookedUp = false;
+	private final ScheduledExecutorService	refresher;
+
+	private static volatile boolean	initialized = false;
+
+	/**
+	 * Lazy and thread safe holder of the singleton.
+	 */
+	private static class InstanceHolder {
+		private static final PublicIpResolver INSTANCE = new PublicIpResolver();
+
+		static {
+			initialized = true;
+		}
+	}
+
+	public static PublicIpResolver getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Unlike {@link #getInstance()}, does not start fetching the ip.
+	 * @return {@code true} once the singleton is created
+	 */
+	public static boolean isInitialized() {
+		return initialized;
+	}
+
+	private PublicIpResolver() {
+		Properties properties = null;
+		try {
+			properties = ApplicationPropertiesUtils.readPropertiesFile();
+		} catch (IOException e) {
+			ResponseHandler.error("application.properties file cannot be closed: " + e.getMessage(), true);
+		}
+		String url = properties == null ? null : properties.getProperty(PUBLIC_IP_SOURCE_URL);
+		String fallbackIp = properties == null ? null : properties.getProperty(PUBLIC_IP_FALLBACK);
+		int timeoutMillis = ApplicationPropertiesUtils.getIntProperty(properties, PUBLIC_IP_HTTP_TIMEOUT, 2000);
+		long refreshIntervalMillis = ApplicationPropertiesUtils.getLongProperty(properties,
+				PUBLIC_IP_REFRESH_INTERVAL, 60000);
+
+		this.source = new HttpPublicIpSource(url == null || url.isBlank() ? DEFAULT_SOURCE_URL : url, timeoutMillis);
+		this.ttlMillis = ApplicationPropertiesUtils.getLongProperty(properties, PUBLIC_IP_TTL, 300000);
+		this.fallbackIp = fallbackIp == null || fallbackIp.isBlank() ? null : fallbackIp.trim();
+
+		this.refresher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("public-ip"));
+		this.refresher.scheduleWithFixedDelay(this::refresh, 0, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * This method returns the public ip of the host, without waiting for the
+	 * {@link PublicIpSource} nor listing the network interfaces.
+	 * @return the public ip as a String, even if stale, or {@code null} if it
+	 * has never been fetched and there is no fallback
+	 */
+	public String getPublicIp() {
+		String ip = this.cachedIp;
+		if (ip != null)
+			return ip;
+		if (this.fallbackIp != null)
+			return this.fallbackIp;
+		return this.interfaceIp;
+	}
+
+	/**
+	 * This method replaces the {@link PublicIpSource} and refreshes the ip
+	 * from it right away, a local stub can be used this way.
+	 * @param source as a {@link PublicIpSource}
+	 */
+	public void setSource(PublicIpSource source) {
+		this.source = source;
+		this.refresher.execute(this::refresh);
+	}
+
+	/**
+	 * This method stops refreshing the ip, the last one fetched is kept.
+	 * Called when the api is undeployed.
+	 */
+	public void shutdown() {
+		this.refresher.shutdownNow();
+	}
+
+	// ##########################################################################
+
+	/**
+	 * Background task fetching the public ip from the source.
+	 */
+	private void refresh() {
+		PublicIpSource source = this.source;
+		try {
+			String ip = source.fetchPublicIp();
+			if (ip == null || ip.isBlank())
+				throw new IOException("Empty public ip");
+			if (!ip.equals(this.cachedIp))
+				ResponseHandler.info("Public ip resolved to " + ip + " from " + source, true);
+			this.cachedIp = ip;
+			this.fetchedAtMillis = System.currentTimeMillis();
+			this.staleReported = false;
+		} catch (IOException | RuntimeException e) {
+			ResponseHandler.error("The public ip cannot be fetched from " + source + ": " + e.getMessage(), true);
+			String ip = this.cachedIp;
+			if (ip == null && this.fallbackIp == null && !this.interfaceIpLookedUp) {
+				this.interfaceIp = findInterfaceIp();
+				this.interfaceIpLookedUp = true;
+			} else if (ip != null && !this.staleReported
+					&& System.currentTimeMillis() - this.fetchedAtMillis > this.ttlMillis) {
+				ResponseHandler.error("The public ip " + ip + " is stale, it is kept until " + source + " answers", true);
+				this.staleReported = true;
+			}
+		}
+	}
+
+	/**
+	 * @return the first IPv4 address of the network interfaces up which is
+	 * neither a loopback, link local nor private address, or {@code null}
+	 */
+	private static String findInterfaceIp() {
+		try {
+			Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+			while (interfaces != null && interfaces.hasMoreElements()) {
+				NetworkInterface ni = interfaces.nextElement();
+				if (!ni.isUp() || ni.isLoopback() || ni.isVirtual())
+					continue;
+				Enumeration<InetAddress> addresses = ni.getInetAddresses();
+				while (addresses.hasMoreElements()) {
+					InetAddress address = addresses.nextElement();
+					if (address instanceof Inet4Address && !address.isLoopbackAddress()
+							&& !address.isLinkLocalAddress() && !address.isSiteLocalAddress()
+							&& !address.isAnyLocalAddress())
+						return address.getHostAddress();
+				}
+			}
+		} catch (SocketException e) {
+			ResponseHandler.error("The network interfaces cannot be listed: " + e.getMessage(), true);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,21 @@
+package fr.fuwuyuan.gameserverapi.ip;
+
+import java.io.IOException;
+
+/**
+ * A source of the public ip of the host, queried by the
+ * {@link PublicIpResolver} in the background.
+ * @author julien-beguier
+ * @see {@link HttpPublicIpSource}
+ */
+@FunctionalInterface
+public interface PublicIpSource {
+
+	/**
+	 * This method fetches the public ip of the host.
+	 * @return the public ip as a String
+	 * @throws IOException if the source cannot be reached or answers an
+	 * invalid response
+	 */
+	public String fetchPublicIp() throws IOException;
+}
@@ -0,0 +1,514 @@
+package fr.fuwuyuan.gameserverapi.launcher;
+
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import javax.json.Json;
+
+import fr.fuwuyuan.gameserverapi.database.dto.GameServerDTO;
+import fr.fuwuyuan.gameserverapi.ip.PublicIpResolver;
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.services.PortService;
+import fr.fuwuyuan.gameserverapi.services.PortServiceInterface;
+import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
+
+/**
+ * This is a singleton class launching the game server processes on this
+ * host, ahead of the rooms that will run them.
+ * <p>
+ * For each game, game version and public ip, a {@link ProcessPool} keeps up
+ * to {@code LAUNCHER_POOL_SIZE} idle processes, started with
+ * {@code LAUNCHER_COMMAND} and listening to their port already. A room
+ * creation claims one of them in O(1), see {@link #claim}, and the pool is
+ * refilled in the background by {@code LAUNCHER_THREADS} threads. Only when
+ * the pool is empty is a process started on the request thread.
+ * </p>
+ * <p>
+ * {@code LAUNCHER_COMMAND} is split on whitespaces, where {@code {port}},
+ * {@code {ip}}, {@code {game}} and {@code {game_version}} are replaced, for
+ * instance:
+ * <pre>/opt/games/{game}/{game_version}/server --port {port}</pre>
+ * Only the games and game versions made of letters, digits, {@code .},
+ * {@code _} and {@code -}, not starting with one of the last three, are
+ * launched: they cannot change the path nor the options of the command.
+ * A process is ready once a TCP connection to its port on the loopback
+ * address succeeds, within {@code LAUNCHER_READY_TIMEOUT}. When its room is
+ * created, the room is written as a json line on its standard input. When
+ * the room is shut down, the process is terminated, then killed after
+ * {@code LAUNCHER_STOP_TIMEOUT}.
+ * </p>
+ * <p>
+ * The pools of {@code LAUNCHER_POOL_GAMES}, comma separated
+ * {@code game:game_version}, are filled as soon as the launcher starts, the
+ * others on their first room. Every {@code LAUNCHER_CHECK_INTERVAL}, the idle
+ * processes which exited are removed and the pools refilled: a command
+ * failing is retried at this pace. The other pools are dropped, their idle
+ * processes stopped, once no room has claimed a process from them for
+ * {@code LAUNCHER_POOL_IDLE_TTL}. The launcher is disabled when
+ * {@code LAUNCHER_COMMAND} is not set, the rooms are then created without
+ * process.
+ * </p>
+ * <p>
+ * The ports of the idle processes are claimed in memory only. They are
+ * given back, and the idle processes terminated, when the api shuts down;
+ * the processes running a room are left running.
+ * </p>
+ * @author julien-beguier
+ * @see {@link GameServerProcess}
+ */
+public class GameServerLauncher {
+
+	private final static String		LAUNCHER_COMMAND = "LAUNCHER_COMMAND";
+	private final static String		LAUNCHER_POOL_SIZE = "LAUNCHER_POOL_SIZE";
+	private final static String		LAUNCHER_POOL_GAMES = "LAUNCHER_POOL_GAMES";
+	private final static String		LAUNCHER_THREADS = "LAUNCHER_THREADS";
+	private final static String		LAUNCHER_READY_TIMEOUT = "LAUNCHER_READY_TIMEOUT";
+	private final static String		LAUNCHER_STOP_TIMEOUT = "LAUNCHER_STOP_TIMEOUT";
+	private final static String		LAUNCHER_CHECK_INTERVAL = "LAUNCHER_CHECK_INTERVAL";
+	private final static String		LAUNCHER_POOL_IDLE_TTL = "LAUNCHER_POOL_IDLE_TTL";
+
+	/**
+	 * A game or game version substituted in {@code LAUNCHER_COMMAND}.
+	 */
+	private final static Pattern	NAME_PATTERN = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]*");
+
+	private final static int		READY_PROBE_TIMEOUT_MILLIS = 200;
+	private final static long		READY_PROBE_INTERVAL_MILLIS = 50;
+
+	private final String[]			command;
+	private final int				poolSize;
+	private final List<String[]>	pooledGames = new ArrayList<String[]>();
+	private final long				readyTimeoutMillis;
+	private final long				stopTimeoutMillis;
+	private final long				poolIdleTtlMillis;
+	private final PortServiceInterface	portService = new PortService();
+	private final ConcurrentHashMap<String, ProcessPool>	pools = new ConcurrentHashMap<String, ProcessPool>();
+	/**
+	 * The processes running a room, by {@code server_id}.
+	 */
+	private final ConcurrentHashMap<String, GameServerProcess>	running = new ConcurrentHashMap<String, GameServerProcess>();
+	private final LongAdder			coldStarts = new LongAdder();
+	private final LongAdder			launchFailures = new LongAdder();
+	private final ThreadPoolExecutor	starter;
+	private final ScheduledExecutorService	checker;
+	private final AtomicBoolean		shutDown = new AtomicBoolean();
+	/**
+	 * Removed when shut down earlier, so that the api can be undeployed.
+	 */
+	private final Thread			shutdownHook = new Thread(this::shutdown, "launcher-shutdown");
+
+	private static volatile boolean	initialized = false;
+
+	/**
+	 * Lazy and thread safe holder of the singleton.
+	 */
+	private static class InstanceHolder {
+		private static final GameServerLauncher INSTANCE = new GameServerLauncher();
+
+		static {
+			initialized = true;
+		}
+	}
+
+	public static GameServerLauncher getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Unlike {@link #getInstance()}, does not start the launcher nor its
+	 * game servers.
+	 * @return {@code true} once the singleton is created
+	 */
+	public static boolean isInitialized() {
+		return initialized;
+	}
+
+	private GameServerLauncher() {
+		Properties properties = null;
+		try {
+			properties = ApplicationPropertiesUtils.readPropertiesFile();
+		} catch (IOException e) {
+			ResponseHandler.error("application.properties file cannot be closed: " + e.getMessage(), true);
+		}
+		String command = properties == null ? null : properties.getProperty(LAUNCHER_COMMAND);
+		String games = properties == null ? null : properties.getProperty(LAUNCHER_POOL_GAMES);
+		int threads = Math.max(1, ApplicationPropertiesUtils.getIntProperty(properties, LAUNCHER_THREADS, 2));
+		long checkIntervalMillis = ApplicationPropertiesUtils.getLongProperty(properties, LAUNCHER_CHECK_INTERVAL, 5000);
+
+		this.command = command == null || command.isBlank() ? null : command.trim().split("\\s+");
+		this.poolSize = Math.max(0, ApplicationPropertiesUtils.getIntProperty(properties, LAUNCHER_POOL_SIZE, 2));
+		this.readyTimeoutMillis = ApplicationPropertiesUtils.getLongProperty(properties, LAUNCHER_READY_TIMEOUT, 10000);
+		this.stopTimeoutMillis = ApplicationPropertiesUtils.getLongProperty(properties, LAUNCHER_STOP_TIMEOUT, 2000);
+		this.poolIdleTtlMillis = ApplicationPropertiesUtils.getLongProperty(properties, LAUNCHER_POOL_IDLE_TTL, 300000);
+		if (games != null && !games.isBlank()) {
+			for (String game : games.trim().split("\\s*,\\s*")) {
+				int separator = game.lastIndexOf(':');
+				if (separator <= 0 || separator == game.length() - 1
+						|| !isValidName(game.substring(0, separator)) || !isValidName(game.substring(separator + 1)))
+					ResponseHandler.error("Property " + LAUNCHER_POOL_GAMES + ": '" + game
+							+ "' is not a valid game:game_version, ignored", true);
+				else
+					this.pooledGames.add(new String[] { game.substring(0, separator), game.substring(separator + 1) });
+			}
+		}
+
+		// The queue is bounded by the size of the pools: a start is queued
+		// only once reserved
+		this.starter = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("launcher"));
+		this.starter.allowCoreThreadTimeOut(true);
+		this.checker = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("launcher-check"));
+		if (isEnabled()) {
+			this.checker.scheduleWithFixedDelay(this::check, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+			Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+		}
+	}
+
+	/**
+	 * @return {@code true} if {@code LAUNCHER_COMMAND} is set
+	 */
+	public boolean isEnabled() {
+		return this.command != null;
+	}
+
+	/**
+	 * @param name as a String, a game or a game version
+	 * @return {@code true} if {@code name} can be substituted in
+	 * {@code LAUNCHER_COMMAND}
+	 */
+	public static boolean isValidName(final String name) {
+		return name != null && NAME_PATTERN.matcher(name).matches();
+	}
+
+	/**
+	 * This method claims an idle process of {@code game} in
+	 * {@code gameVersion} on {@code ip}, its port is claimed along with it,
+	 * and refills the pool in the background. If the pool is empty, a
+	 * process is started and waited for on the calling thread.
+	 * @param game as a String
+	 * @param gameVersion as a String
+	 * @param ip as a String, the public ip of this host
+	 * @return a {@link GameServerProcess} listening to its port, or
+	 * {@code null} if none can be started
+	 * @see {@link #isValidName}
+	 */
+	public GameServerProcess claim(final String game, final String gameVersion, final String ip) {
+		if (!isValidName(game) || !isValidName(gameVersion)) {
+			this.launchFailures.increment();
+			ResponseHandler.error("The game server '" + game + "' '" + gameVersion + "' is not launched, "
+					+ "its name is not valid", true);
+			return null;
+		}
+		ProcessPool pool = pool(game, gameVersion, ip);
+		pool.claimed();
+		GameServerProcess process;
+		while ((process = pool.poll()) != null) {
+			if (process.isAlive())
+				break;
+			// Exited while idle, its port is free again
+			this.portService.freeUsedPort(ip, process.getPort());
+		}
+		refill(pool);
+		if (process != null)
+			return process;
+
+		this.coldStarts.increment();
+		return start(game, gameVersion, ip);
+	}
+
+	/**
+	 * This method hands a claimed process over to its room, once the room is
+	 * saved: the room is written on the input of the process.
+	 * @param process as a {@link GameServerProcess}, returned by
+	 * {@link #claim}
+	 * @param gs as a {@link GameServerDTO}, the room
+	 */
+	public void assign(final GameServerProcess process, final GameServerDTO gs) {
+		process.setServerId(gs.getServerId());
+		this.running.put(gs.getServerId(), process);
+		try {
+			process.send(Json.createObjectBuilder()
+					.add(GameServerDTO.Fields.ServerId.getFieldName(), gs.getServerId())
+					.add(GameServerDTO.Fields.Name.getFieldName(), gs.getName())
+					.add(GameServerDTO.Fields.Game.getFieldName(), gs.getGame())
+					.add(GameServerDTO.Fields.GameVersion.getFieldName(), gs.getGameVersion())
+					.add(GameServerDTO.Fields.NMaxPlayers.getFieldName(), gs.getNMaxPlayers())
+					.build().toString());
+		} catch (IOException e) {
+			ResponseHandler.error("The room " + gs.getServerId() + " cannot be sent to " + process + ": "
+					+ e.getMessage(), true);
+		}
+	}
+
+	/**
+	 * This method terminates a claimed process whose room could not be
+	 * created. Its port is left to the caller.
+	 * @param process as a {@link GameServerProcess}, returned by
+	 * {@link #claim}
+	 */
+	public void discard(final GameServerProcess process) {
+		terminate(process);
+	}
+
+	/**
+	 * This method terminates the process of a room, and waits for it to
+	 * exit so that its port can be reused.
+	 * @param serverId as a String
+	 * @return {@code true} if the room had a process, {@code false} if it was
+	 * created without or before the api started
+	 */
+	public boolean stop(final String serverId) {
+		GameServerProcess process = this.running.remove(serverId);
+		if (process == null)
+			return false;
+		terminate(process);
+		return true;
+	}
+
+	/**
+	 * This method terminates the idle processes of all the pools and gives
+	 * their ports back, the processes running a room are left running. Called
+	 * when the api is undeployed or the JVM exits, only the first call does
+	 * something.
+	 */
+	public void shutdown() {
+		if (!this.shutDown.compareAndSet(false, true))
+			return;
+		if (isEnabled() && Thread.currentThread() != this.shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+			} catch (IllegalStateException e) {
+				// The JVM is already exiting
+			}
+		}
+		this.checker.shutdownNow();
+		// The processes being started are waited for, then stopped
+		this.starter.shutdown();
+		try {
+			this.starter.awaitTermination(this.readyTimeoutMillis + this.stopTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (ProcessPool pool : this.pools.values())
+			stopIdle(pool);
+		// Their ports are written now, not in the background
+		PortService.persistAll();
+	}
+
+	/**
+	 * @return the number of idle processes, in all the pools
+	 */
+	public int getIdleCount() {
+		int count = 0;
+		for (ProcessPool pool : this.pools.values())
+			count += pool.getIdleCount();
+		return count;
+	}
+
+	/**
+	 * @return the number of processes running a room
+	 */
+	public int getRunningCount() {
+		return this.running.size();
+	}
+
+	/**
+	 * @return the number of processes started on a request, the pool being
+	 * empty
+	 */
+	public long getColdStarts() {
+		return this.coldStarts.sum();
+	}
+
+	/**
+	 * @return the number of processes which could not be started
+	 */
+	public long getLaunchFailures() {
+		return this.launchFailures.sum();
+	}
+
+	// ##########################################################################
+
+	private ProcessPool pool(String game, String gameVersion, String ip) {
+		String key = ProcessPool.key(game, gameVersion, ip);
+		ProcessPool pool = this.pools.get(key);
+		return pool != null ? pool : this.pools.computeIfAbsent(key, k -> new ProcessPool(game, gameVersion, ip));
+	}
+
+	private void refill(ProcessPool pool) {
+		while (!this.shutDown.get() && pool.reserveStart(this.poolSize)) {
+			try {
+				this.starter.execute(() -> {
+					GameServerProcess process = start(pool.getGame(), pool.getGameVersion(), pool.getIp());
+					if (process == null) {
+						pool.startFailed();
+					} else if (this.shutDown.get()
+							|| this.pools.get(ProcessPool.key(pool.getGame(), pool.getGameVersion(), pool.getIp())) != pool) {
+						// The pool has been dropped, or the launcher shut down, meanwhile
+						pool.startFailed();
+						terminate(process);
+						this.portService.freeUsedPort(pool.getIp(), process.getPort());
+					} else {
+						pool.started(process);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// Shut down meanwhile
+				pool.startFailed();
+			}
+		}
+	}
+
+	/**
+	 * Starts a process on an available port of {@code ip} and waits for it to
+	 * listen.
+	 * @return the process, or {@code null} if it cannot be started
+	 */
+	private GameServerProcess start(String game, String gameVersion, String ip) {
+		int port = this.portService.getAvailablePort(ip);
+		if (port < 0) {
+			this.launchFailures.increment();
+			ResponseHandler.error("No port available on " + ip + " to start " + game + " " + gameVersion, true);
+			return null;
+		}
+
+		List<String> arguments = new ArrayList<String>(this.command.length);
+		for (String argument : this.command)
+			arguments.add(argument.replace("{port}", String.valueOf(port)).replace("{ip}", ip)
+					.replace("{game}", game).replace("{game_version}", gameVersion));
+		Process process;
+		try {
+			process = new ProcessBuilder(arguments).redirectOutput(Redirect.DISCARD)
+					.redirectError(Redirect.INHERIT).start();
+		} catch (IOException | RuntimeException e) {
+			this.launchFailures.increment();
+			ResponseHandler.error("The game server " + game + " " + gameVersion + " cannot be started: "
+					+ e.getMessage(), true);
+			this.portService.freeUsedPort(ip, port);
+			return null;
+		}
+
+		GameServerProcess gsp = new GameServerProcess(game, gameVersion, ip, port, process);
+		if (!awaitReady(gsp)) {
+			this.launchFailures.increment();
+			ResponseHandler.error("The game server " + gsp + " is not listening after "
+					+ this.readyTimeoutMillis + "ms, it is stopped", true);
+			terminate(gsp);
+			this.portService.freeUsedPort(ip, port);
+			return null;
+		}
+		return gsp;
+	}
+
+	/**
+	 * @return {@code true} once the port of the process accepts a
+	 * connection, {@code false} if it exits or the timeout is reached first
+	 */
+	private boolean awaitReady(GameServerProcess gsp) {
+		long deadline = System.currentTimeMillis() + this.readyTimeoutMillis;
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), gsp.getPort());
+		while (gsp.isAlive() && System.currentTimeMillis() < deadline) {
+			try (Socket socket = new Socket()) {
+				socket.connect(address, READY_PROBE_TIMEOUT_MILLIS);
+				return true;
+			} catch (IOException e) {
+				// Not listening yet
+			}
+			try {
+				Thread.sleep(READY_PROBE_INTERVAL_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private void terminate(GameServerProcess gsp) {
+		Process process = gsp.getProcess();
+		process.destroy();
+		try {
+			if (!process.waitFor(this.stopTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				ResponseHandler.error("The game server " + gsp + " is still running after "
+						+ this.stopTimeoutMillis + "ms, it is killed", true);
+				process.destroyForcibly().waitFor(this.stopTimeoutMillis, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			process.destroyForcibly();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Background task removing the idle processes which exited, dropping the
+	 * pools of a former public ip and the ones unused, then refilling the
+	 * others.
+	 */
+	private void check() {
+		try {
+			String ip = PublicIpResolver.getInstance().getPublicIp();
+			if (ip != null)
+				for (String[] game : this.pooledGames)
+					pool(game[0], game[1], ip);
+
+			for (ProcessPool pool : this.pools.values()) {
+				for (GameServerProcess process : pool.getIdle())
+					if (!process.isAlive() && pool.remove(process)) {
+						ResponseHandler.error("The idle game server " + process + " exited with code "
+								+ process.getProcess().exitValue(), true);
+						this.portService.freeUsedPort(pool.getIp(), process.getPort());
+					}
+
+				if (ip != null && !ip.equals(pool.getIp())) {
+					// This host is not reachable at this ip anymore
+					this.pools.remove(ProcessPool.key(pool.getGame(), pool.getGameVersion(), pool.getIp()));
+					stopIdle(pool);
+				} else if (!isPooledGame(pool) && pool.getIdleMillis() > this.poolIdleTtlMillis) {
+					// Not claimed for a while, its processes and ports are given back
+					this.pools.remove(ProcessPool.key(pool.getGame(), pool.getGameVersion(), pool.getIp()));
+					stopIdle(pool);
+				} else {
+					refill(pool);
+				}
+			}
+		} catch (RuntimeException e) {
+			ResponseHandler.error("The game server pools cannot be checked: " + e.getMessage(), true);
+		}
+	}
+
+	/**
+	 * @return {@code true} if the game of {@code pool} is one of
+	 * {@code LAUNCHER_POOL_GAMES}
+	 */
+	private boolean isPooledGame(ProcessPool pool) {
+		for (String[] game : this.pooledGames)
+			if (game[0].equals(pool.getGame()) && game[1].equals(pool.getGameVersion()))
+				return true;
+		return false;
+	}
+
+	private void stopIdle(ProcessPool pool) {
+		GameServerProcess process;
+		while ((process = pool.poll()) != null) {
+			terminate(process);
+			this.portService.freeUsedPort(pool.getIp(), process.getPort());
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package fr.fuwuyuan.gameserverapi.launcher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A game server process started by the {@link GameServerLauncher}, listening
+ * to its port. It is idle in a {@link ProcessPool} until a room claims it.
+ * @author julien-beguier
+ * @see {@link GameServerLauncher}
+ */
+public class GameServerProcess {
+
+	private final String			game;
+	private final String			gameVersion;
+	private final String			ip;
+	private final int				port;
+	private final Process			process;
+	private final long				startedAtMillis;
+	/**
+	 * The id of the room the process runs, {@code null} while idle.
+	 */
+	private volatile String			serverId = null;
+
+	GameServerProcess(String game, String gameVersion, String ip, int port, Process process) {
+		this.game = game;
+		this.gameVersion = gameVersion;
+		this.ip = ip;
+		this.port = port;
+		this.process = process;
+		this.startedAtMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * This method sends a line to the standard input of the process, the way
+	 * it is told which room it runs.
+	 * @param line as a String, without line separator
+	 * @throws IOException if the process does not read its input anymore
+	 */
+	void send(String line) throws IOException {
+		OutputStream os = this.process.getOutputStream();
+		os.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+		os.flush();
+	}
+
+	public String getGame() {
+		return game;
+	}
+
+	public String getGameVersion() {
+		return gameVersion;
+	}
+
+	public String getIp() {
+		return ip;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	Process getProcess() {
+		return process;
+	}
+
+	public long getPid() {
+		return process.pid();
+	}
+
+	public boolean isAlive() {
+		return process.isAlive();
+	}
+
+	public long getStartedAtMillis() {
+		return startedAtMillis;
+	}
+
+	public String getServerId() {
+		return serverId;
+	}
+
+	void setServerId(String serverId) {
+		this.serverId = serverId;
+	}
+
+	@Override
+	public String toString() {
+		return this.game + " " + this.gameVersion + " on " + this.ip + ":" + this.port + " (pid " + getPid() + ")";
+	}
+}
@@ -0,0 +1,121 @@
+package fr.fuwuyuan.gameserverapi.launcher;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The idle {@link GameServerProcess} of one game, game version and ip.
+ * <p>
+ * Claiming a process is a poll of a lock-free queue. The {@code size}
+ * counts the idle processes and the ones being started, so that concurrent
+ * refills never start more than the size of the pool. The time of the last
+ * claim tells the pools no room uses anymore.
+ * </p>
+ * @author julien-beguier
+ * @see {@link GameServerLauncher}
+ */
+class ProcessPool {
+
+	private final String			game;
+	private final String			gameVersion;
+	private final String			ip;
+	private final ConcurrentLinkedQueue<GameServerProcess>	idle = new ConcurrentLinkedQueue<GameServerProcess>();
+	private final AtomicInteger		size = new AtomicInteger();
+	private volatile long			lastClaimMillis = System.currentTimeMillis();
+
+	ProcessPool(String game, String gameVersion, String ip) {
+		this.game = game;
+		this.gameVersion = gameVersion;
+		this.ip = ip;
+	}
+
+	/**
+	 * @return an idle process, alive or not, or {@code null} if there is
+	 * none
+	 */
+	GameServerProcess poll() {
+		GameServerProcess process = this.idle.poll();
+		if (process != null)
+			this.size.decrementAndGet();
+		return process;
+	}
+
+	/**
+	 * Records that a room claims a process of this pool.
+	 */
+	void claimed() {
+		this.lastClaimMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the milliseconds since a room last claimed a process of this
+	 * pool, or since it was created
+	 */
+	long getIdleMillis() {
+		return System.currentTimeMillis() - this.lastClaimMillis;
+	}
+
+	/**
+	 * This method reserves the start of a process, if the pool is not full.
+	 * The reservation ends with {@link #started} or {@link #startFailed()}.
+	 * @param capacity as an int value, the size of the pool
+	 * @return {@code true} if a process can be started
+	 */
+	boolean reserveStart(int capacity) {
+		int current;
+		do {
+			current = this.size.get();
+			if (current >= capacity)
+				return false;
+		} while (!this.size.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	void started(GameServerProcess process) {
+		this.idle.add(process);
+	}
+
+	void startFailed() {
+		this.size.decrementAndGet();
+	}
+
+	/**
+	 * This method removes an idle process which exited on its own.
+	 * @param process as a {@link GameServerProcess}
+	 * @return {@code true} if it was idle in this pool
+	 */
+	boolean remove(GameServerProcess process) {
+		if (!this.idle.remove(process))
+			return false;
+		this.size.decrementAndGet();
+		return true;
+	}
+
+	Iterable<GameServerProcess> getIdle() {
+		return this.idle;
+	}
+
+	int getIdleCount() {
+		return this.idle.size();
+	}
+
+	String getGame() {
+		return game;
+	}
+
+	String getGameVersion() {
+		return gameVersion;
+	}
+
+	String getIp() {
+		return ip;
+	}
+
+	/**
+	 * @return the key of the pool of {@code game}, {@code gameVersion} and
+	 * {@code ip}
+	 */
+	static String key(String game, String gameVersion, String ip) {
+		return game + '\u0000' + gameVersion + '\u0000' + ip;
+	}
+}
@@ -0,0 +1,215 @@
+package fr.fuwuyuan.gameserverapi.logs;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.json.JsonValue;
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import javax.ws.rs.core.StreamingOutput;
+
+import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
+
+/**
+ * This is a singleton class deciding which request and response bodies are
+ * logged by the {@link ResponseHandler}, and how much of them.
+ * <p>
+ * <ul>
+ * <li>{@code LOG_BODY_MAX_SIZE}: a body longer than this number of
+ * characters is truncated, a marker is logged instead of the rest. A json
+ * entity is not even serialized past it</li>
+ * <li>{@code LOG_BODY_SAMPLE_RATE}: the body of 1 in N successful (10X to
+ * 30X) responses is logged, {@code 1} logs them all and {@code 0} none.
+ * Error bodies (40X & 50X) are always logged</li>
+ * <li>{@code LOG_BODY_DISABLED_ROUTES}: comma separated names of the routes
+ * whose bodies are never logged, for instance {@code getGameServers}</li>
+ * </ul>
+ * The lines themselves are always logged, with the status code when the
+ * body is not.
+ * </p>
+ * @author julien-beguier
+ * @see {@link ResponseHandler}
+ */
+public class BodyLogPolicy {
+
+	private final static String		LOG_BODY_MAX_SIZE = "LOG_BODY_MAX_SIZE";
+	private final static String		LOG_BODY_SAMPLE_RATE = "LOG_BODY_SAMPLE_RATE";
+	private final static String		LOG_BODY_DISABLED_ROUTES = "LOG_BODY_DISABLED_ROUTES";
+
+	/**
+	 * Jsonb instances are thread safe and expensive to create.
+	 */
+	private final static Jsonb		JSONB = JsonbBuilder.create();
+
+	private final int				maxSize;
+	private final int				sampleRate;
+	private final Set<String>		disabledRoutes;
+
+	/**
+	 * Lazy and thread safe holder of the singleton.
+	 */
+	private static class InstanceHolder {
+		private static final BodyLogPolicy INSTANCE = new BodyLogPolicy();
+	}
+
+	public static BodyLogPolicy getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	private BodyLogPolicy() {
+		Properties properties = null;
+		try {
+			properties = ApplicationPropertiesUtils.readPropertiesFile();
+		} catch (IOException e) {
+			ResponseHandler.error("application.properties file cannot be closed: " + e.getMessage(), true);
+		}
+		String routes = properties == null ? null : properties.getProperty(LOG_BODY_DISABLED_ROUTES);
+
+		this.maxSize = Math.max(0, ApplicationPropertiesUtils.getIntProperty(properties, LOG_BODY_MAX_SIZE, 2048));
+		this.sampleRate = Math.max(0, ApplicationPropertiesUtils.getIntProperty(properties, LOG_BODY_SAMPLE_RATE, 1));
+		this.disabledRoutes = routes == null || routes.isBlank() ? Set.of()
+				: Set.copyOf(Arrays.asList(routes.trim().split("\\s*,\\s*")));
+	}
+
+	/**
+	 * @param route as a String, the name of the route, can be null
+	 * @return {@code true} if the bodies of {@code route} can be logged
+	 */
+	public boolean isRouteEnabled(String route) {
+		return route == null || !this.disabledRoutes.contains(route);
+	}
+
+	/**
+	 * This method decides, for one response, if its body is logged.
+	 * @param route as a String, the name of the route, can be null
+	 * @param status as an int value, the http status code of the response
+	 * @return {@code true} if the body of the response is logged
+	 */
+	public boolean isResponseBodyLogged(String route, int status) {
+		if (!isRouteEnabled(route))
+			return false;
+		if (status >= 400)
+			return true;
+		return this.sampleRate == 1
+				|| (this.sampleRate > 1 && ThreadLocalRandom.current().nextInt(this.sampleRate) == 0);
+	}
+
+	/**
+	 * This method converts {@code body} to the text logged, truncated to
+	 * {@code LOG_BODY_MAX_SIZE} characters. A {@code byte[]} is read as UTF-8
+	 * json, a {@link StreamingOutput} is not read, any other object is
+	 * serialized as json.
+	 * @param body as an Object, can be null
+	 * @return the text to log
+	 */
+	public String toLoggedText(Object body) {
+		if (body == null)
+			return "null";
+		if (body instanceof byte[]) {
+			byte[] bytes = (byte[]) body;
+			if (bytes.length <= this.maxSize)
+				return new String(bytes, StandardCharsets.UTF_8);
+			// Not in the middle of a character: back to its first byte
+			int end = this.maxSize;
+			while (end > 0 && (bytes[end] & 0xC0) == 0x80)
+				end--;
+			return new String(bytes, 0, end, StandardCharsets.UTF_8)
+					+ truncationMarker(bytes.length + " bytes");
+		}
+		if (body instanceof StreamingOutput)
+			return "<streamed " + body.getClass().getSimpleName() + ">";
+		if (body instanceof String || body instanceof JsonValue)
+			return truncate(body.toString());
+
+		BoundedWriter writer = new BoundedWriter(this.maxSize);
+		try {
+			JSONB.toJson(body, writer);
+		} catch (RuntimeException e) {
+			// The BodySizeReached of the writer, wrapped by the json-b provider:
+			// the serialization stops there
+			if (!writer.isFull())
+				throw e;
+			return writer.toString() + truncationMarker(null);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * @param text as a String
+	 * @return {@code text} truncated to {@code LOG_BODY_MAX_SIZE} characters
+	 */
+	public String truncate(String text) {
+		if (text.length() <= this.maxSize)
+			return text;
+		int end = this.maxSize;
+		if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1)))
+			end--;
+		return text.substring(0, end) + truncationMarker(text.length() + " chars");
+	}
+
+	// ##########################################################################
+
+	private static String truncationMarker(String totalSize) {
+		return totalSize == null ? "... <truncated>" : "... <truncated, " + totalSize + ">";
+	}
+
+	/**
+	 * Thrown by the {@link BoundedWriter} once full.
+	 */
+	private static class BodySizeReached extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private BodySizeReached() {
+			super("Log body size reached", null);
+		}
+	}
+
+	/**
+	 * A {@link Writer} keeping up to {@code capacity} characters, which stops
+	 * the serialization going past them.
+	 */
+	private static class BoundedWriter extends Writer {
+		private final StringBuilder	sb = new StringBuilder();
+		private final int			capacity;
+		private boolean				full = false;
+
+		private BoundedWriter(int capacity) {
+			this.capacity = capacity;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws BodySizeReached {
+			int room = this.capacity - this.sb.length();
+			if (len > room) {
+				if (room > 0 && Character.isHighSurrogate(cbuf[off + room - 1]))
+					room--;
+				this.sb.append(cbuf, off, room);
+				this.full = true;
+				throw new BodySizeReached();
+			}
+			this.sb.append(cbuf, off, len);
+		}
+
+		private boolean isFull() {
+			return this.full;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public String toString() {
+			return this.sb.toString();
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package fr.fuwuyuan.gameserverapi.logs;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
+
+/**
+ * This is a singleton class writing the log messages of the
+ * {@link ResponseHandler} on {@link System#out} and {@link System#err} from a
+ * background thread, so that a request never waits for the console.
+ * <p>
+ * The messages are queued in a bounded ring of {@code LOG_BUFFER_SIZE}
+ * slots, without any lock: a slot is claimed by a compare-and-set of the
+ * tail. When the ring is full, the message is dropped and counted, the count
+ * is logged as soon as there is room again. The writer thread prints the
+ * messages in batches and sleeps when the ring is empty.
+ * </p>
+ * <p>
+ * Messages below {@code LOG_LEVEL} ({@code INFO}, {@code ERROR},
+ * {@code FATAL} or {@code OFF}) are discarded before they are even formatted,
+ * see {@link #isEnabled(Level)}. The messages still queued are printed when
+ * the JVM exits.
+ * </p>
+ * @author julien-beguier
+ * @see {@link ResponseHandler}
+ */
+public class LogWriter {
+
+	private final static String		LOG_LEVEL = "LOG_LEVEL";
+	private final static String		LOG_BUFFER_SIZE = "LOG_BUFFER_SIZE";
+
+	/**
+	 * Longest sleep of the writer thread when it is not woken up.
+	 */
+	private final static long		MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * The levels of the messages, in increasing order of severity.
+	 * @author julien-beguier
+	 */
+	public enum Level {
+		INFO("[INFO]"),
+		ERROR("[ERROR]"),
+		FATAL("[FATAL]"),
+		OFF(null);
+
+		private String prefix;
+
+		Level(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public String getPrefix() {
+			return this.prefix;
+		}
+	}
+
+	private final Level				minLevel;
+	private final int				mask;
+	private final AtomicReferenceArray<String>	messages;
+	/**
+	 * Written before the message of the same slot, read after it.
+	 */
+	private final Level[]			levels;
+	private final boolean[]			formats;
+	private final AtomicLong		tail = new AtomicLong();
+	/**
+	 * Only moved by {@link #drain()}, under the lock of this object.
+	 */
+	private final AtomicLong		head = new AtomicLong();
+	private final LongAdder			dropped = new LongAdder();
+	private long					reportedDropped = 0;
+	private final Thread			writerThread;
+	private volatile boolean		writerIdle = false;
+	/**
+	 * Once set, the messages are printed on the calling thread.
+	 */
+	private volatile boolean		stopped = false;
+	private final Thread			shutdownHook = new Thread(this::drain, "log-writer-shutdown");
+
+	/**
+	 * Lazy and thread safe holder of the singleton.
+	 */
+	private static class InstanceHolder {
+		private static final LogWriter INSTANCE = new LogWriter();
+	}
+
+	/**
+	 * @return the instance, or {@code null} while it is being created, if
+	 * reading its properties logs a message
+	 */
+	public static LogWriter getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	private LogWriter() {
+		Properties properties = null;
+		try {
+			properties = ApplicationPropertiesUtils.readPropertiesFile();
+		} catch (IOException e) {
+			print(Level.ERROR, true, "application.properties file cannot be closed: " + e.getMessage());
+		}
+		Level minLevel = Level.INFO;
+		String level = properties == null ? null : properties.getProperty(LOG_LEVEL);
+		if (level != null && !level.isBlank()) {
+			try {
+				minLevel = Level.valueOf(level.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				print(Level.ERROR, true, "Property " + LOG_LEVEL + " is not a valid level: '" + level + "', using INFO");
+			}
+		}
+		int size = Math.max(2, ApplicationPropertiesUtils.getIntProperty(properties, LOG_BUFFER_SIZE, 8192));
+		// Rounded up to a power of two, the slot of a sequence is then a mask
+		int capacity = Integer.highestOneBit(size - 1) << 1;
+
+		this.minLevel = minLevel;
+		this.mask = capacity - 1;
+		this.messages = new AtomicReferenceArray<String>(capacity);
+		this.levels = new Level[capacity];
+		this.formats = new boolean[capacity];
+
+		this.writerThread = new NamedThreadFactory("log-writer").newThread(this::writeLoop);
+		this.writerThread.start();
+		Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+	}
+
+	/**
+	 * @param level as a {@link Level}
+	 * @return {@code true} if the messages of {@code level} are logged
+	 */
+	public boolean isEnabled(Level level) {
+		return level != Level.OFF && level.compareTo(this.minLevel) >= 0;
+	}
+
+	/**
+	 * This method queues {@code message} to be printed. It never blocks: the
+	 * message is dropped if the ring is full.
+	 * @param level as a {@link Level}, {@code INFO} is printed on
+	 * {@link System#out}, the others on {@link System#err}
+	 * @param format as a boolean, {@code true} to print the level before the
+	 * message
+	 * @param message as a String
+	 * @return {@code false} if the message has been dropped
+	 */
+	public boolean offer(Level level, boolean format, String message) {
+		if (this.stopped) {
+			print(level, format, message);
+			return true;
+		}
+		long sequence;
+		do {
+			sequence = this.tail.get();
+			if (sequence - this.head.get() > this.mask) {
+				this.dropped.increment();
+				return false;
+			}
+		} while (!this.tail.compareAndSet(sequence, sequence + 1));
+
+		int slot = (int) (sequence & this.mask);
+		this.levels[slot] = level;
+		this.formats[slot] = format;
+		// Publishes the slot to the writer thread
+		this.messages.set(slot, message);
+		if (this.writerIdle)
+			LockSupport.unpark(this.writerThread);
+		return true;
+	}
+
+	/**
+	 * This method prints the queued messages and stops the writer thread, the
+	 * next messages are printed on the calling thread. Called when the api is
+	 * undeployed.
+	 */
+	public void shutdown() {
+		this.stopped = true;
+		LockSupport.unpark(this.writerThread);
+		try {
+			this.writerThread.join(TimeUnit.NANOSECONDS.toMillis(MAX_IDLE_NANOS) + 1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		drain();
+		try {
+			Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+		} catch (IllegalStateException e) {
+			// The JVM is already exiting
+		}
+	}
+
+	/**
+	 * @return the number of messages dropped because the ring was full
+	 */
+	public long getDroppedCount() {
+		return this.dropped.sum();
+	}
+
+	/**
+	 * This method prints {@code message} right away on the calling thread,
+	 * when the messages cannot be queued.
+	 * @param level as a {@link Level}
+	 * @param format as a boolean
+	 * @param message as a String
+	 */
+	static void print(Level level, boolean format, String message) {
+		PrintStream stream = level == Level.INFO ? System.out : System.err;
+		stream.println(format ? level.getPrefix() + " " + message : message);
+	}
+
+	// ##########################################################################
+
+	private void writeLoop() {
+		while (!this.stopped) {
+			if (drain() == 0) {
+				this.writerIdle = true;
+				// Checked again: a message may have been queued before the flag was set
+				if (this.messages.get((int) (this.head.get() & this.mask)) == null)
+					LockSupport.parkNanos(MAX_IDLE_NANOS);
+				this.writerIdle = false;
+			}
+		}
+	}
+
+	/**
+	 * Prints the queued messages, in order, until a slot is not published
+	 * yet. Called by the writer thread and on shutdown.
+	 * @return the number of messages printed
+	 */
+	private synchronized int drain() {
+		StringBuilder out = new StringBuilder();
+		StringBuilder err = new StringBuilder();
+		int count = 0;
+		long sequence = this.head.get();
+		String message;
+		while ((message = this.messages.get((int) (sequence & this.mask))) != null) {
+			int slot = (int) (sequence & this.mask);
+			Level level = this.levels[slot];
+			StringBuilder sb = level == Level.INFO ? out : err;
+			if (this.formats[slot])
+				sb.append(level.getPrefix()).append(' ');
+			sb.append(message).append(System.lineSeparator());
+			this.messages.set(slot, null);
+			this.head.set(++sequence);
+			count++;
+		}
+
+		long dropped = this.dropped.sum();
+		if (dropped != this.reportedDropped) {
+			err.append(Level.ERROR.getPrefix()).append(' ').append(dropped - this.reportedDropped)
+					.append(" log messages dropped, the log buffer was full").append(System.lineSeparator());
+			this.reportedDropped = dropped;
+		}
+
+		if (out.length() > 0) {
+			System.out.print(out);
+			System.out.flush();
+		}
+		if (err.length() > 0) {
+			System.err.print(err);
+			System.err.flush();
+		}
+		return count;
+	}
+}
@@ -1,22 +1,25 @@
 package fr.fuwuyuan.gameserverapi.logs;
 
-import javax.json.bind.Jsonb;
-import javax.json.bind.JsonbBuilder;
 import javax.ws.rs.core.Response;
 
 /**
  * This a simple logger like class only used to print the incoming &
- * outgoing messages. 20X messages are printed on {@link System#out}
- * while errors (40X & 50X) are printed on {@link System#err}.
+ * outgoing messages. 10X to 30X messages, such as a {@code 304 Not Modified},
+ * are printed on {@link System#out} while errors (40X & 50X) are printed on
+ * {@link System#err}.</br>
+ * The messages are printed asynchronously by the {@link LogWriter}, nothing
+ * is formatted or serialized for a level not logged. Which bodies are
+ * logged, and how much of them, is decided by the {@link BodyLogPolicy}.
  * @author julien-beguier
+ * @see {@link LogWriter}
+ * @see {@link BodyLogPolicy}
  */
 public class ResponseHandler {
 
 	private final String INCOMING_PREFIX = " >> ";
 	private final String OUTGOING_PREFIX = " << ";
-	private final static String INFO_LEVEL_PREFIX = "[INFO]";
-	private final static String ERROR_LEVEL_PREFIX = "[ERROR]";
-	private final static String FATAL_LEVEL_PREFIX = "[FATAL]";
+	private final static String INFO_LEVEL_PREFIX = LogWriter.Level.INFO.getPrefix();
+	private final static String ERROR_LEVEL_PREFIX = LogWriter.Level.ERROR.getPrefix();
 
 	/**
 	 * Simply print on {@link System#out} the message formatted as follows:</br>
@@ -25,23 +28,67 @@ public class ResponseHandler {
 	 * @param message as a String
 	 */
 	public void incoming(final String callerIp, final String message) {
-		info("[" + callerIp + "] " + INFO_LEVEL_PREFIX + INCOMING_PREFIX + message, false);
+		if (isEnabled(LogWriter.Level.INFO))
+			info("[" + callerIp + "] " + INFO_LEVEL_PREFIX + INCOMING_PREFIX + message, false);
 	}
 
 	/**
-	 * Simply print on {@link System#out} 20X messages and on {@link System#err}
-	 * 40X & 50X messages. Print format is as follows:</br>
+	 * Same as {@link #incoming(String, String)} with the request
+	 * {@code body} of {@code route}, formatted as follows:</br>
+	 * <pre>[***.***.***.***] [INFO] >> message : body</pre>
+	 * The body is only converted if the message is logged, and truncated.
+	 * @param callerIp as a String
+	 * @param message as a String
+	 * @param route as a String, the name of the route
+	 * @param body as an Object
+	 * @see {@link BodyLogPolicy}
+	 */
+	public void incoming(final String callerIp, final String message, final String route, final Object body) {
+		if (!isEnabled(LogWriter.Level.INFO))
+			return;
+		BodyLogPolicy policy = BodyLogPolicy.getInstance();
+		String text = policy.isRouteEnabled(route) ? policy.toLoggedText(body) : "<body not logged>";
+		info("[" + callerIp + "] " + INFO_LEVEL_PREFIX + INCOMING_PREFIX + message + " : " + text, false);
+	}
+
+	/**
+	 * Simply print on {@link System#out} 10X to 30X messages and on
+	 * {@link System#err} 40X & 50X messages. Print format is as follows:</br>
 	 * <pre>[***.***.***.***] [INFO]/[ERROR]>> message</pre>
+	 * An entity already serialized as json bytes is printed as is, a streamed
+	 * entity is not printed since it is only written once sent.
 	 * @param callerIp as a String
 	 * @param response as a {@link Response}
 	 * @return the unmodified response object
 	 */
 	public Response outgoing(final String callerIp, final Response response) {
-		Jsonb jsonB = JsonbBuilder.create();
-		String sJson = jsonB.toJson(response.getEntity());
+		return outgoing(callerIp, null, response);
+	}
 
-		// If the response status code is 20X (not an error)
-		if (response.getStatus() / 100 == 2)
+	/**
+	 * Same as {@link #outgoing(String, Response)} for a response of
+	 * {@code route}: the body is only printed if the {@link BodyLogPolicy}
+	 * samples it, and truncated. Otherwise only the status code is printed.
+	 * @param callerIp as a String
+	 * @param route as a String, the name of the route, can be null
+	 * @param response as a {@link Response}
+	 * @return the unmodified response object
+	 * @see {@link BodyLogPolicy}
+	 */
+	public Response outgoing(final String callerIp, final String route, final Response response) {
+		// If the response status code is below 400 (not an error)
+		boolean success = response.getStatus() < 400;
+		if (!isEnabled(success ? LogWriter.Level.INFO : LogWriter.Level.ERROR))
+			return response;
+
+		BodyLogPolicy policy = BodyLogPolicy.getInstance();
+		String sJson;
+		if (policy.isResponseBodyLogged(route, response.getStatus()))
+			sJson = policy.toLoggedText(response.getEntity());
+		else
+			sJson = "<" + response.getStatus() + ", body not logged>";
+
+		if (success)
 			info("[" + callerIp + "] " + INFO_LEVEL_PREFIX + OUTGOING_PREFIX + sJson, false);
 		else
 			error("[" + callerIp + "] " + ERROR_LEVEL_PREFIX + OUTGOING_PREFIX + sJson, false);
@@ -59,11 +106,7 @@ public class ResponseHandler {
 	 * @param format as a boolean
 	 */
 	public static void info(final String message, final boolean format) {
-		if (format) {
-			System.out.println(INFO_LEVEL_PREFIX + " " + message);
-		} else {
-			System.out.println(message);
-		}
+		log(LogWriter.Level.INFO, format, message);
 	}
 
 	/**
@@ -77,28 +120,41 @@ public class ResponseHandler {
 	 * @param format as a boolean
 	 */
 	public static void error(final String message, final boolean format) {
-		if (format) {
-			System.err.println(ERROR_LEVEL_PREFIX + " " + message);
-		} else {
-			System.err.println(message);
-		}
+		log(LogWriter.Level.ERROR, format, message);
 	}
 
 	/**
 	 * Log {@code message} on {@link System#err}.
 	 * If {@code format} is {@code true}, this method will print with level before
 	 * the message as follows:
-	 * <pre>[ERROR] message</pre>
+	 * <pre>[FATAL] message</pre>
 	 * Otherwise if {@code format} id {@code false}:
 	 * <pre>message</pre>
 	 * @param message as a String
 	 * @param format as a boolean
 	 */
 	public static void fatal(final String message, final boolean format) {
-		if (format) {
-			System.err.println(FATAL_LEVEL_PREFIX + " " + message);
-		} else {
-			System.err.println(message);
-		}
+		log(LogWriter.Level.FATAL, format, message);
+	}
+
+	/**
+	 * @param level as a {@link LogWriter.Level}
+	 * @return {@code true} if the messages of {@code level} are logged, to be
+	 * checked before building an expensive message
+	 */
+	public static boolean isEnabled(final LogWriter.Level level) {
+		LogWriter writer = LogWriter.getInstance();
+		return writer == null || writer.isEnabled(level);
+	}
+
+	// ##########################################################################
+
+	private static void log(final LogWriter.Level level, final boolean format, final String message) {
+		LogWriter writer = LogWriter.getInstance();
+		// Only null if the LogWriter logs while it is being created
+		if (writer == null)
+			LogWriter.print(level, format, message);
+		else if (writer.isEnabled(level))
+			writer.offer(level, format, message);
 	}
 }
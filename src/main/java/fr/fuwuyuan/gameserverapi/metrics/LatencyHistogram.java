@@ -0,0 +1,141 @@
+package fr.fuwuyuan.gameserverapi.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a latency histogram with log-linear buckets, in the manner
+ * of an HDR histogram: each power of two of nanoseconds is split into
+ * {@code 16} buckets, so that a recorded value is known within about 6%
+ * whatever its magnitude.
+ * <p>
+ * Recording is lock-free: it increments one bucket, the count and the sum,
+ * and raises the maximum by compare-and-set only when it is exceeded.
+ * Values above about 18 minutes are recorded in the last bucket, the maximum
+ * stays exact.
+ * </p>
+ * @author julien-beguier
+ * @see {@link Metrics}
+ */
+public class LatencyHistogram {
+
+	private final static int		SUB_BUCKET_BITS = 4;
+	private final static int		SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/**
+	 * 2^40 nanoseconds, about 18 minutes.
+	 */
+	private final static int		MAX_EXPONENT = 40;
+	private final static int		BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray	buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder			count = new LongAdder();
+	private final LongAdder			sum = new LongAdder();
+	private final AtomicLong		max = new AtomicLong();
+
+	/**
+	 * This method records a duration.
+	 * @param nanos as a long value, negative values are recorded as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		this.buckets.incrementAndGet(bucketOf(value));
+		this.count.increment();
+		this.sum.add(value);
+		long current;
+		while (value > (current = this.max.get()))
+			if (this.max.compareAndSet(current, value))
+				break;
+	}
+
+	/**
+	 * This method records the time elapsed since {@code startNanos}.
+	 * @param startNanos as a long value, read from {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @return a consistent enough copy of the histogram: the recordings
+	 * running meanwhile may or may not be part of it
+	 */
+	public Snapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = this.buckets.get(i);
+			total += counts[i];
+		}
+		return new Snapshot(counts, total, this.sum.sum(), this.max.get());
+	}
+
+	/**
+	 * An immutable copy of a {@link LatencyHistogram}.
+	 * @author julien-beguier
+	 */
+	public static class Snapshot {
+		private final long[]	counts;
+		private final long		count;
+		private final long		sumNanos;
+		private final long		maxNanos;
+
+		private Snapshot(long[] counts, long count, long sumNanos, long maxNanos) {
+			this.counts = counts;
+			this.count = count;
+			this.sumNanos = sumNanos;
+			this.maxNanos = maxNanos;
+		}
+
+		/**
+		 * @param quantile as a double value between 0 and 1
+		 * @return the value at {@code quantile} in nanoseconds, the middle of
+		 * its bucket and never above the maximum, or 0 if nothing was recorded
+		 */
+		public long getValueAtQuantile(double quantile) {
+			if (this.count == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(quantile * this.count));
+			long seen = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				seen += this.counts[i];
+				if (seen >= rank)
+					return Math.min(this.maxNanos, middleOf(i));
+			}
+			return this.maxNanos;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getSumNanos() {
+			return sumNanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+	}
+
+	// ##########################################################################
+
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+		if (exponent == MAX_EXPONENT)
+			subBucket = SUB_BUCKETS - 1;
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long middleOf(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + ((1L << shift) >>> 1);
+	}
+}
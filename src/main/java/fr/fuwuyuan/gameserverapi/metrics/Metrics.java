@@ -0,0 +1,179 @@
+package fr.fuwuyuan.gameserverapi.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.fuwuyuan.gameserverapi.database.SQLRequest;
+
+/**
+ * This is a singleton class holding the in-process measures of the api: the
+ * latency of each route, of each {@link SQLRequest} and of the steps of a
+ * room creation, the requests in flight per route, the responses per route
+ * and status, and the errors per error code.</br>
+ * Everything is recorded without lock, see {@link LatencyHistogram}. The
+ * measures are exposed by the {@link PrometheusExporter}.
+ * @author julien-beguier
+ * @see {@link PrometheusExporter}
+ */
+public class Metrics {
+
+	/**
+	 * The measured steps, outside of a route or of a single SQL request.
+	 * @author julien-beguier
+	 */
+	public enum Step {
+		CONNECTION_BORROW("connection_borrow"),
+		ID_ALLOCATION("id_allocation"),
+		IP_RESOLUTION("ip_resolution"),
+		PLACEMENT("placement"),
+		PORT_ALLOCATION("port_allocation"),
+		PORT_PERSIST("port_persist"),
+		PROCESS_CLAIM("process_claim"),
+		HEARTBEAT_FLUSH("heartbeat_flush"),
+		REAPER_BATCH("reaper_batch");
+
+		private String label;
+
+		Step(String label) {
+			this.label = label;
+		}
+
+		public String getLabel() {
+			return this.label;
+		}
+	}
+
+	/**
+	 * The measures of a route.
+	 * @author julien-beguier
+	 */
+	public static class RouteMetrics {
+		private final LatencyHistogram	latency = new LatencyHistogram();
+		private final AtomicInteger		inFlight = new AtomicInteger();
+		private final ConcurrentSkipListMap<Integer, LongAdder>	responses = new ConcurrentSkipListMap<Integer, LongAdder>();
+
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		/**
+		 * @return the number of responses per http status code
+		 */
+		public Map<Integer, LongAdder> getResponses() {
+			return responses;
+		}
+	}
+
+	private final ConcurrentHashMap<String, RouteMetrics>	routes = new ConcurrentHashMap<String, RouteMetrics>();
+	private final EnumMap<SQLRequest, LatencyHistogram>		sqlRequests = new EnumMap<SQLRequest, LatencyHistogram>(SQLRequest.class);
+	private final EnumMap<Step, LatencyHistogram>			steps = new EnumMap<Step, LatencyHistogram>(Step.class);
+	/**
+	 * The errors per type (the name of the error enumeration) and code.
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, LongAdder>>	errors = new ConcurrentHashMap<String, ConcurrentHashMap<String, LongAdder>>();
+
+	/**
+	 * Lazy and thread safe holder of the singleton.
+	 */
+	private static class InstanceHolder {
+		private static final Metrics INSTANCE = new Metrics();
+	}
+
+	public static Metrics getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	private Metrics() {
+		// Filled once: the maps are only read afterwards
+		for (SQLRequest sqlId : SQLRequest.values())
+			this.sqlRequests.put(sqlId, new LatencyHistogram());
+		for (Step step : Step.values())
+			this.steps.put(step, new LatencyHistogram());
+	}
+
+	/**
+	 * This method counts a request of {@code route} as in flight.
+	 * @param route as a String, the name of the route
+	 * @return the time the request started at, to give to
+	 * {@link #requestEnded}
+	 */
+	public long requestStarted(String route) {
+		route(route).inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	/**
+	 * This method records the end of a request of {@code route}, started by
+	 * {@link #requestStarted}.
+	 * @param route as a String, the name of the route
+	 * @param startNanos as a long value, returned by {@link #requestStarted}
+	 * @param status as an int value, the http status code of the response
+	 */
+	public void requestEnded(String route, long startNanos, int status) {
+		RouteMetrics rm = route(route);
+		rm.latency.recordSince(startNanos);
+		rm.inFlight.decrementAndGet();
+		rm.responses.computeIfAbsent(status, s -> new LongAdder()).increment();
+	}
+
+	/**
+	 * @param sqlId as a {@link SQLRequest}
+	 * @return the {@link LatencyHistogram} of {@code sqlId}
+	 */
+	public LatencyHistogram sql(SQLRequest sqlId) {
+		return this.sqlRequests.get(sqlId);
+	}
+
+	/**
+	 * @param step as a {@link Step}
+	 * @return the {@link LatencyHistogram} of {@code step}
+	 */
+	public LatencyHistogram step(Step step) {
+		return this.steps.get(step);
+	}
+
+	/**
+	 * This method counts an error, by the name of its enumeration, for
+	 * instance {@code GameServerError}, and its own name.
+	 * @param error as an {@link Enum}
+	 */
+	public void countError(Enum<?> error) {
+		this.errors.computeIfAbsent(error.getDeclaringClass().getSimpleName(),
+				t -> new ConcurrentHashMap<String, LongAdder>())
+				.computeIfAbsent(error.name(), c -> new LongAdder()).increment();
+	}
+
+	public Map<String, RouteMetrics> getRoutes() {
+		return this.routes;
+	}
+
+	public Map<SQLRequest, LatencyHistogram> getSqlRequests() {
+		return this.sqlRequests;
+	}
+
+	public Map<Step, LatencyHistogram> getSteps() {
+		return this.steps;
+	}
+
+	/**
+	 * @return the errors per type, then per code
+	 */
+	public Map<String, ConcurrentHashMap<String, LongAdder>> getErrors() {
+		return this.errors;
+	}
+
+	// ##########################################################################
+
+	private RouteMetrics route(String route) {
+		RouteMetrics rm = this.routes.get(route);
+		return rm != null ? rm : this.routes.computeIfAbsent(route, r -> new RouteMetrics());
+	}
+}
@@ -0,0 +1,234 @@
+package fr.fuwuyuan.gameserverapi.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.fuwuyuan.gameserverapi.cache.FreeSlotIndex;
+import fr.fuwuyuan.gameserverapi.cache.RoomDirectory;
+import fr.fuwuyuan.gameserverapi.cache.RoomDirectoryMetrics;
+import fr.fuwuyuan.gameserverapi.database.ConnectionPoolMetrics;
+import fr.fuwuyuan.gameserverapi.database.DatabaseSession;
+import fr.fuwuyuan.gameserverapi.database.SQLRequest;
+import fr.fuwuyuan.gameserverapi.events.RoomEventFeed;
+import fr.fuwuyuan.gameserverapi.heartbeat.HeartbeatSupervisor;
+import fr.fuwuyuan.gameserverapi.launcher.GameServerLauncher;
+import fr.fuwuyuan.gameserverapi.logs.LogWriter;
+import fr.fuwuyuan.gameserverapi.placement.Host;
+import fr.fuwuyuan.gameserverapi.placement.PlacementScheduler;
+import fr.fuwuyuan.gameserverapi.reaper.RoomReaper;
+
+/**
+ * This utility class writes the {@link Metrics}, along with the usage of the
+ * connection pool, of the room directory, of the room events feed, of the
+ * quick joins, of the heartbeats, of the reaper, of the game server
+ * processes, of the hosts and of the logs, in the Prometheus text format
+ * (version {@code 0.0.4}).</br>
+ * Latencies are summaries in seconds with the {@code 0.5}, {@code 0.95} and
+ * {@code 0.99} quantiles, completed by a {@code _max} gauge.</br>
+ * A scrape does not start anything: the subsystems not created yet
+ * (connection pool, room directory, reaper, heartbeats, events feed,
+ * launcher, placement) are skipped.
+ * @author julien-beguier
+ * @see {@link Metrics}
+ */
+public class PrometheusExporter {
+
+	public final static String		CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final static String		PREFIX = "gameserver_";
+	private final static double[]	QUANTILES = { 0.5, 0.95, 0.99 };
+	private final static double		NANOS_PER_SECOND = 1e9;
+
+	/**
+	 * @return all the metrics in the Prometheus text format
+	 */
+	public static String export() {
+		Metrics metrics = Metrics.getInstance();
+		StringBuilder sb = new StringBuilder(8192);
+
+		// ####################### ROUTES
+		header(sb, "route_duration_seconds", "summary", "Time to answer a request, queueing included");
+		for (Map.Entry<String, Metrics.RouteMetrics> e : metrics.getRoutes().entrySet())
+			summary(sb, "route_duration_seconds", "route=\"" + e.getKey() + "\"", e.getValue().getLatency().snapshot());
+		header(sb, "route_duration_seconds_max", "gauge", "Longest time to answer a request");
+		for (Map.Entry<String, Metrics.RouteMetrics> e : metrics.getRoutes().entrySet())
+			max(sb, "route_duration_seconds", "route=\"" + e.getKey() + "\"", e.getValue().getLatency().snapshot());
+		header(sb, "route_in_flight", "gauge", "Requests being answered");
+		for (Map.Entry<String, Metrics.RouteMetrics> e : metrics.getRoutes().entrySet())
+			sample(sb, "route_in_flight", "route=\"" + e.getKey() + "\"", e.getValue().getInFlight());
+		header(sb, "route_responses_total", "counter", "Responses per http status code");
+		for (Map.Entry<String, Metrics.RouteMetrics> e : metrics.getRoutes().entrySet())
+			for (Map.Entry<Integer, LongAdder> r : e.getValue().getResponses().entrySet())
+				sample(sb, "route_responses_total", "route=\"" + e.getKey() + "\",status=\"" + r.getKey() + "\"",
+						r.getValue().sum());
+
+		// ####################### SQL REQUESTS & STEPS
+		header(sb, "sql_duration_seconds", "summary", "Time to execute a SQL request");
+		for (Map.Entry<SQLRequest, LatencyHistogram> e : metrics.getSqlRequests().entrySet())
+			summary(sb, "sql_duration_seconds", "statement=\"" + e.getKey().name() + "\"", e.getValue().snapshot());
+		header(sb, "sql_duration_seconds_max", "gauge", "Longest time to execute a SQL request");
+		for (Map.Entry<SQLRequest, LatencyHistogram> e : metrics.getSqlRequests().entrySet())
+			max(sb, "sql_duration_seconds", "statement=\"" + e.getKey().name() + "\"", e.getValue().snapshot());
+		header(sb, "step_duration_seconds", "summary", "Time spent in a step of a request");
+		for (Map.Entry<Metrics.Step, LatencyHistogram> e : metrics.getSteps().entrySet())
+			summary(sb, "step_duration_seconds", "step=\"" + e.getKey().getLabel() + "\"", e.getValue().snapshot());
+		header(sb, "step_duration_seconds_max", "gauge", "Longest time spent in a step of a request");
+		for (Map.Entry<Metrics.Step, LatencyHistogram> e : metrics.getSteps().entrySet())
+			max(sb, "step_duration_seconds", "step=\"" + e.getKey().getLabel() + "\"", e.getValue().snapshot());
+
+		// ####################### ERRORS
+		header(sb, "errors_total", "counter", "Errors per error code");
+		for (Map.Entry<String, ConcurrentHashMap<String, LongAdder>> e : metrics.getErrors().entrySet())
+			for (Map.Entry<String, LongAdder> c : e.getValue().entrySet())
+				sample(sb, "errors_total", "type=\"" + e.getKey() + "\",code=\"" + c.getKey() + "\"", c.getValue().sum());
+
+		// ####################### CONNECTION POOL
+		ConnectionPoolMetrics pool = DatabaseSession.isInitialized()
+				? DatabaseSession.getInstance().getPoolMetrics() : null;
+		if (pool != null) {
+			gauge(sb, "db_pool_active_connections", "Connections borrowed", pool.getActive());
+			gauge(sb, "db_pool_idle_connections", "Connections ready to be borrowed", pool.getIdle());
+			gauge(sb, "db_pool_max_connections", "Maximum number of connections", pool.getMaxSize());
+			gauge(sb, "db_pool_waiters", "Threads waiting for a connection", pool.getWaiters());
+			gauge(sb, "db_pool_open_connections", "Connections open, borrowed or idle", pool.getOpened());
+			counter(sb, "db_pool_borrows_total", "Connections borrowed", pool.getBorrowCount());
+			counter(sb, "db_pool_timeouts_total", "Borrows given up after the timeout", pool.getTimeoutCount());
+			counter(sb, "db_pool_wait_seconds_total", "Time spent waiting for a connection",
+					pool.getTotalWaitMillis() / 1000.0);
+			gauge(sb, "db_pool_wait_seconds_max", "Longest wait for a connection", pool.getMaxWaitMillis() / 1000.0);
+		}
+
+		// ####################### ROOM DIRECTORY & EVENTS
+		if (RoomDirectory.isInitialized()) {
+			RoomDirectoryMetrics directory = RoomDirectory.getInstance().getMetrics();
+			gauge(sb, "room_directory_rooms", "Rooms in the directory", directory.getSize());
+			gauge(sb, "room_directory_version", "Version of the directory", directory.getVersion());
+			counter(sb, "room_directory_hits_total", "Reads answered by the directory", directory.getHits());
+			counter(sb, "room_directory_misses_total", "Reads answered by the database", directory.getMisses());
+			counter(sb, "room_directory_drift_corrections_total", "Rooms corrected by a reconciliation",
+					directory.getDriftCorrections());
+			counter(sb, "room_directory_snapshot_rebuilds_total", "Room lists serialized again",
+					directory.getSnapshotRebuilds());
+			gauge(sb, "room_directory_staleness_seconds", "Time since the last reconciliation, -1 if not loaded",
+					directory.getStalenessMillis() < 0 ? -1 : directory.getStalenessMillis() / 1000.0);
+		}
+		if (RoomEventFeed.isInitialized()) {
+			gauge(sb, "room_events_subscribers", "Clients subscribed to the room events",
+					RoomEventFeed.getInstance().getSubscriberCount());
+			counter(sb, "room_events_disconnected_total", "Clients of the room events disconnected for falling behind",
+					RoomEventFeed.getInstance().getDisconnectedCount());
+		}
+
+		// ####################### QUICK JOIN
+		if (RoomDirectory.isInitialized()) {
+			FreeSlotIndex freeSlots = RoomDirectory.getInstance().getFreeSlots();
+			counter(sb, "quickjoin_reservations_total", "Slots reserved by a quick join", freeSlots.getReservations());
+			gauge(sb, "quickjoin_active_reservations", "Slots reserved, not expired yet",
+					freeSlots.getActiveReservations());
+			counter(sb, "quickjoin_misses_total", "Quick joins without any room to join", freeSlots.getMisses());
+		}
+
+		// ####################### HEARTBEATS
+		if (HeartbeatSupervisor.isInitialized()) {
+			HeartbeatSupervisor supervisor = HeartbeatSupervisor.getInstance();
+			counter(sb, "heartbeats_received_total", "Heartbeats received from the game servers", supervisor.getReceived());
+			counter(sb, "heartbeats_flushed_total", "Heartbeats written to the database", supervisor.getFlushedRows());
+			counter(sb, "heartbeat_batches_total", "UPDATE executed to write the heartbeats", supervisor.getBatches());
+			gauge(sb, "heartbeats_pending", "Heartbeats waiting for the next flush", supervisor.getPendingCount());
+			gauge(sb, "heartbeat_supervised_rooms", "Rooms sending heartbeats", supervisor.getSupervisedCount());
+			gauge(sb, "heartbeat_dead_rooms", "Rooms flagged dead", supervisor.getDeadCount());
+			counter(sb, "heartbeat_dead_flagged_total", "Rooms flagged dead after missed heartbeats",
+					supervisor.getDeadFlagged());
+		}
+
+		// ####################### REAPER
+		if (RoomReaper.isInitialized()) {
+			RoomReaper reaper = RoomReaper.getInstance();
+			counter(sb, "reaper_rooms_total", "Rooms shut down by the reaper", reaper.getReaped());
+			counter(sb, "reaper_batches_total", "Batches of rooms shut down by the reaper", reaper.getBatches());
+			counter(sb, "reaper_failures_total", "Reaper runs delayed after a database failure", reaper.getFailures());
+		}
+
+		// ####################### GAME SERVER PROCESSES
+		GameServerLauncher launcher = GameServerLauncher.isInitialized() ? GameServerLauncher.getInstance() : null;
+		if (launcher != null && launcher.isEnabled()) {
+			gauge(sb, "launcher_idle_processes", "Game servers started ahead, waiting for a room", launcher.getIdleCount());
+			gauge(sb, "launcher_running_processes", "Game servers running a room", launcher.getRunningCount());
+			counter(sb, "launcher_cold_starts_total", "Game servers started on a request, the pool being empty",
+					launcher.getColdStarts());
+			counter(sb, "launcher_failures_total", "Game servers which could not be started",
+					launcher.getLaunchFailures());
+		}
+
+		// ####################### HOSTS
+		PlacementScheduler placement = PlacementScheduler.isInitialized() ? PlacementScheduler.getInstance() : null;
+		if (placement != null && placement.isEnabled()) {
+			List<Host> hosts = placement.getHosts();
+			header(sb, "host_used_ports", "gauge", "Ports used on a registered host");
+			for (Host host : hosts)
+				sample(sb, "host_used_ports", "ip=\"" + host.getIp() + "\"", host.getUsedPorts());
+			header(sb, "host_free_ports", "gauge", "Ports available on a registered host");
+			for (Host host : hosts)
+				sample(sb, "host_free_ports", "ip=\"" + host.getIp() + "\"", host.getFreePorts());
+			header(sb, "host_rooms", "gauge", "Rooms running on a registered host");
+			for (Host host : hosts)
+				sample(sb, "host_rooms", "ip=\"" + host.getIp() + "\"", host.getRooms());
+			counter(sb, "placements_total", "Rooms placed on a registered host", placement.getPlacements());
+			counter(sb, "placement_full_total", "Rooms not placed, no registered host having an available port",
+					placement.getFullPlacements());
+			counter(sb, "placement_local_total", "Rooms placed on this host, no host being registered yet",
+					placement.getLocalPlacements());
+		}
+
+		// ####################### LOGS
+		LogWriter logWriter = LogWriter.getInstance();
+		if (logWriter != null)
+			counter(sb, "log_dropped_messages_total", "Log messages dropped, the buffer was full",
+					logWriter.getDroppedCount());
+
+		return sb.toString();
+	}
+
+	// ##########################################################################
+
+	private static void header(StringBuilder sb, String name, String type, String help) {
+		sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder sb, String name, String labels, double value) {
+		sb.append(PREFIX).append(name);
+		if (labels != null)
+			sb.append('{').append(labels).append('}');
+		sb.append(' ');
+		if (value == Math.rint(value) && !Double.isInfinite(value))
+			sb.append((long) value);
+		else
+			sb.append(value);
+		sb.append('\n');
+	}
+
+	private static void gauge(StringBuilder sb, String name, String help, double value) {
+		header(sb, name, "gauge", help);
+		sample(sb, name, null, value);
+	}
+
+	private static void counter(StringBuilder sb, String name, String help, double value) {
+		header(sb, name, "counter", help);
+		sample(sb, name, null, value);
+	}
+
+	private static void summary(StringBuilder sb, String name, String labels, LatencyHistogram.Snapshot snapshot) {
+		for (double quantile : QUANTILES)
+			sample(sb, name, labels + ",quantile=\"" + quantile + "\"",
+					snapshot.getValueAtQuantile(quantile) / NANOS_PER_SECOND);
+		sample(sb, name + "_sum", labels, snapshot.getSumNanos() / NANOS_PER_SECOND);
+		sample(sb, name + "_count", labels, snapshot.getCount());
+	}
+
+	private static void max(StringBuilder sb, String name, String labels, LatencyHistogram.Snapshot snapshot) {
+		sample(sb, name + "_max", labels, snapshot.getMaxNanos() / NANOS_PER_SECOND);
+	}
+}
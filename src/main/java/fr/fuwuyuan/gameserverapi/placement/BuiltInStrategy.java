@@ -0,0 +1,67 @@
+package fr.fuwuyuan.gameserverapi.placement;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This enumeration holds the {@link PlacementStrategy} selected by name with
+ * {@code PLACEMENT_STRATEGY}. Each one chooses the first host of an order,
+ * the ties being broken by ip, see {@link PlacementStrategy#choose}.
+ * <ul>
+ * <li>{@code least_loaded}: the host with the smallest share of its ports
+ * used, filling all the hosts evenly</li>
+ * <li>{@code bin_packing}: the host with the greatest share of its ports
+ * used, filling a host before the next one so that the others can be
+ * stopped</li>
+ * <li>{@code spread}: the host with the fewest rooms of the game and game
+ * version, then the least loaded, so that a host lost loses few rooms of a
+ * game</li>
+ * <li>{@code game_affinity}: the host with the most rooms of the game and
+ * game version, then the least loaded, so that the rooms of a game share
+ * the binaries and caches of their host</li>
+ * </ul>
+ * @author julien-beguier
+ * @see {@link PlacementScheduler}
+ */
+public enum BuiltInStrategy implements PlacementStrategy {
+	LEAST_LOADED("least_loaded", Host::compareLoadTo),
+	BIN_PACKING("bin_packing", (a, b) -> b.compareLoadTo(a)),
+	SPREAD("spread", Comparator.comparingInt(Host::getRooms).thenComparing(Host::compareLoadTo)),
+	GAME_AFFINITY("game_affinity", Comparator.comparingInt(Host::getRooms).reversed().thenComparing(Host::compareLoadTo));
+
+	private String				name;
+	private Comparator<Host>	order;
+
+	BuiltInStrategy(String name, Comparator<Host> order) {
+		this.name = name;
+		this.order = order;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Host choose(List<Host> hosts) {
+		Host chosen = hosts.get(0);
+		// The hosts are ordered by ip, the first one wins a tie
+		for (int i = 1; i < hosts.size(); i++)
+			if (this.order.compare(hosts.get(i), chosen) < 0)
+				chosen = hosts.get(i);
+		return chosen;
+	}
+
+	/**
+	 * @param name as a String, case insensitive
+	 * @return the {@link BuiltInStrategy} named {@code name} or {@code null}
+	 */
+	public static BuiltInStrategy forName(String name) {
+		for (BuiltInStrategy strategy : values())
+			if (strategy.name.equalsIgnoreCase(name))
+				return strategy;
+		return null;
+	}
+}
@@ -0,0 +1,60 @@
+package fr.fuwuyuan.gameserverapi.placement;
+
+/**
+ * An immutable view of a registered host, as seen by a
+ * {@link PlacementStrategy} when a room is placed.
+ * @author julien-beguier
+ * @see {@link PlacementScheduler}
+ */
+public class Host {
+
+	private final String	ip;
+	private final int		usedPorts;
+	private final int		freePorts;
+	/**
+	 * The rooms of the game and game version being placed which run on the
+	 * host, or all its rooms outside of a placement.
+	 */
+	private final int		rooms;
+
+	public Host(String ip, int usedPorts, int freePorts, int rooms) {
+		this.ip = ip;
+		this.usedPorts = usedPorts;
+		this.freePorts = freePorts;
+		this.rooms = rooms;
+	}
+
+	public String getIp() {
+		return ip;
+	}
+
+	public int getUsedPorts() {
+		return usedPorts;
+	}
+
+	public int getFreePorts() {
+		return freePorts;
+	}
+
+	public int getRooms() {
+		return rooms;
+	}
+
+	/**
+	 * @param other as a {@link Host}
+	 * @return a negative int value if this host has a smaller share of its
+	 * ports used than {@code other}, a positive one if it has a greater share
+	 * and {@code 0} otherwise
+	 */
+	public int compareLoadTo(Host other) {
+		long total = (long) this.usedPorts + this.freePorts;
+		long otherTotal = (long) other.usedPorts + other.freePorts;
+		return Long.compare(this.usedPorts * otherTotal, other.usedPorts * total);
+	}
+
+	@Override
+	public String toString() {
+		return this.ip + " " + this.usedPorts + " used port(s), " + this.freePorts + " free, "
+				+ this.rooms + " room(s)";
+	}
+}
@@ -0,0 +1,309 @@
+package fr.fuwuyuan.gameserverapi.placement;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.fuwuyuan.gameserverapi.cache.PortAllocator;
+import fr.fuwuyuan.gameserverapi.cache.RoomDirectory;
+import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
+import fr.fuwuyuan.gameserverapi.database.DatabaseSession;
+import fr.fuwuyuan.gameserverapi.database.PooledConnection;
+import fr.fuwuyuan.gameserverapi.database.SQLRequest;
+import fr.fuwuyuan.gameserverapi.ip.PublicIpResolver;
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.services.PortService;
+import fr.fuwuyuan.gameserverapi.services.PortServiceInterface;
+import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
+
+/**
+ * This is a singleton class choosing the public ip, among the registered
+ * hosts, a new room is launched on.
+ * <p>
+ * A host is registered by its row of the {@code 'ports'} table, and
+ * drained by setting its {@code enabled} column to {@code 0}: it gets no
+ * new room, its rooms run until they are shut down. Every
+ * {@code PLACEMENT_REFRESH_INTERVAL}, a background thread reads the enabled
+ * hosts and loads their ports into the {@link PortAllocator} of the
+ * {@link PortService}.
+ * </p>
+ * <p>
+ * A placement never queries the database nor waits for a lock: the used and
+ * available ports of each host are read from its allocator, the rooms of
+ * the game from the {@link RoomDirectory}, and the host is chosen among the
+ * ones with an available port by the {@link PlacementStrategy} named
+ * {@code PLACEMENT_STRATEGY}, see {@link BuiltInStrategy}. With the default
+ * {@code local}, the scheduler is disabled and the rooms are launched on the
+ * public ip of this host, as resolved by the {@link PublicIpResolver}. Until
+ * a host is registered, the rooms are launched there too.
+ * </p>
+ * @author julien-beguier
+ * @see {@link BuiltInStrategy}
+ */
+public class PlacementScheduler {
+
+	private final static String		PLACEMENT_STRATEGY = "PLACEMENT_STRATEGY";
+	private final static String		PLACEMENT_REFRESH_INTERVAL = "PLACEMENT_REFRESH_INTERVAL";
+
+	private final static String		LOCAL_STRATEGY = "local";
+
+	private final long				refreshIntervalMillis;
+	/**
+	 * {@code null} when the scheduler is disabled.
+	 */
+	private volatile PlacementStrategy	strategy;
+	/**
+	 * The enabled hosts ordered by ip, replaced as a whole on each refresh.
+	 */
+	private volatile List<RegisteredHost>	hosts = new ArrayList<RegisteredHost>();
+	private boolean					refreshScheduled = false;
+	private final PortServiceInterface	portService = new PortService();
+	private final LongAdder			placements = new LongAdder();
+	private final LongAdder			fullPlacements = new LongAdder();
+	private final LongAdder			localPlacements = new LongAdder();
+	private final ScheduledExecutorService	refresher;
+
+	private static class RegisteredHost {
+		private final String		ip;
+		private final PortAllocator	allocator;
+
+		private RegisteredHost(String ip, PortAllocator allocator) {
+			this.ip = ip;
+			this.allocator = allocator;
+		}
+	}
+
+	private static volatile boolean	initialized = false;
+
+	/**
+	 * Lazy and thread safe holder of the singleton.
+	 */
+	private static class InstanceHolder {
+		private static final PlacementScheduler INSTANCE = new PlacementScheduler();
+
+		static {
+			initialized = true;
+		}
+	}
+
+	public static PlacementScheduler getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Unlike {@link #getInstance()}, does not start reading the hosts.
+	 * @return {@code true} once the singleton is created
+	 */
+	public static boolean isInitialized() {
+		return initialized;
+	}
+
+	private PlacementScheduler() {
+		Properties properties = null;
+		try {
+			properties = ApplicationPropertiesUtils.readPropertiesFile();
+		} catch (IOException e) {
+			ResponseHandler.error("application.properties file cannot be closed: " + e.getMessage(), true);
+		}
+		String name = properties == null ? null : properties.getProperty(PLACEMENT_STRATEGY);
+		this.refreshIntervalMillis = Math.max(1,
+				ApplicationPropertiesUtils.getLongProperty(properties, PLACEMENT_REFRESH_INTERVAL, 30000));
+
+		this.refresher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("placement"));
+		if (name == null || name.isBlank() || name.trim().equalsIgnoreCase(LOCAL_STRATEGY))
+			return;
+		BuiltInStrategy strategy = BuiltInStrategy.forName(name.trim());
+		if (strategy == null) {
+			ResponseHandler.error("Unknown " + PLACEMENT_STRATEGY + " " + name + ", the rooms are launched locally", true);
+			return;
+		}
+		setStrategy(strategy);
+	}
+
+	/**
+	 * @return {@code true} if the rooms are placed on the registered hosts
+	 * by a {@link PlacementStrategy}
+	 */
+	public boolean isEnabled() {
+		return this.strategy != null;
+	}
+
+	/**
+	 * This method replaces the {@link PlacementStrategy}, a custom one can be
+	 * used this way. The scheduler is enabled, and starts reading the hosts,
+	 * if it was not.
+	 * @param strategy as a {@link PlacementStrategy}
+	 */
+	public synchronized void setStrategy(PlacementStrategy strategy) {
+		this.strategy = strategy;
+		if (this.refreshScheduled)
+			return;
+		this.refreshScheduled = true;
+		this.refresher.scheduleWithFixedDelay(this::refresh, 0, this.refreshIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * This method chooses the host a new room of the version
+	 * {@code gameVersion} of the game {@code gameName} is launched on. Its
+	 * port is not claimed: a concurrent placement may choose the same host.
+	 * @param gameName as a String, case sensitive
+	 * @param gameVersion as a String
+	 * @return the public ip of the host, the public ip of this host if no
+	 * host is registered yet, or {@code null} if no registered host has an
+	 * available port
+	 */
+	public String place(String gameName, String gameVersion) {
+		List<RegisteredHost> registered = this.hosts;
+		PlacementStrategy strategy = this.strategy;
+		if (strategy == null || registered.isEmpty()) {
+			this.localPlacements.increment();
+			return PublicIpResolver.getInstance().getPublicIp();
+		}
+
+		Map<String, Integer> rooms = countRoomsByIp(
+				RoomDirectory.getInstance().listByGameAndGameVersion(gameName, gameVersion));
+		List<Host> candidates = new ArrayList<Host>(registered.size());
+		for (RegisteredHost host : registered) {
+			int free = host.allocator.getFreeCount();
+			if (free > 0)
+				candidates.add(new Host(host.ip, host.allocator.getUsedCount(), free,
+						rooms.getOrDefault(host.ip, 0)));
+		}
+		if (candidates.isEmpty()) {
+			this.fullPlacements.increment();
+			return null;
+		}
+		this.placements.increment();
+		return strategy.choose(candidates).getIp();
+	}
+
+	/**
+	 * This method stops reading the hosts, the last ones read are kept.
+	 * Called when the api is undeployed.
+	 */
+	public void shutdown() {
+		this.refresher.shutdownNow();
+	}
+
+	/**
+	 * @return the enabled hosts ordered by ip, with all their rooms
+	 */
+	public List<Host> getHosts() {
+		List<RegisteredHost> registered = this.hosts;
+		List<Host> hosts = new ArrayList<Host>(registered.size());
+		if (registered.isEmpty())
+			return hosts;
+		Map<String, Integer> rooms = countRoomsByIp(RoomDirectory.getInstance().list());
+		for (RegisteredHost host : registered)
+			hosts.add(new Host(host.ip, host.allocator.getUsedCount(), host.allocator.getFreeCount(),
+					rooms.getOrDefault(host.ip, 0)));
+		return hosts;
+	}
+
+	/**
+	 * @return the number of enabled hosts
+	 */
+	public int getHostCount() {
+		return this.hosts.size();
+	}
+
+	/**
+	 * @return the number of rooms placed on a registered host
+	 */
+	public long getPlacements() {
+		return this.placements.sum();
+	}
+
+	/**
+	 * @return the number of rooms not placed, no registered host having an
+	 * available port
+	 */
+	public long getFullPlacements() {
+		return this.fullPlacements.sum();
+	}
+
+	/**
+	 * @return the number of rooms placed on this host, no host being
+	 * registered yet
+	 */
+	public long getLocalPlacements() {
+		return this.localPlacements.sum();
+	}
+
+	// ##########################################################################
+
+	/**
+	 * Background task: reads the enabled hosts and loads their ports. Runs on
+	 * the refresher thread.
+	 */
+	private void refresh() {
+		try {
+			List<String> ips = fetchEnabledIps();
+			if (ips == null)
+				return;
+			List<RegisteredHost> hosts = new ArrayList<RegisteredHost>(ips.size());
+			for (String ip : ips) {
+				PortAllocator allocator = this.portService.getPortAllocator(ip);
+				if (allocator != null)
+					hosts.add(new RegisteredHost(ip, allocator));
+			}
+			if (!sameIps(hosts, this.hosts))
+				ResponseHandler.info(hosts.size() + " host(s) registered for the placement", true);
+			this.hosts = hosts;
+		} catch (RuntimeException e) {
+			ResponseHandler.error("The hosts cannot be refreshed: " + e, true);
+		}
+	}
+
+	/**
+	 * @return the public ip of the enabled hosts or {@code null} if they
+	 * cannot be read, the previous ones are kept then
+	 */
+	private List<String> fetchEnabledIps() {
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			if (conn == null)
+				return null;
+			List<String> ips = new ArrayList<String>();
+			ResultSet resultSet = conn.query(SQLRequest.SELECT_PORTS_ENABLED_IPS);
+			while (resultSet.next())
+				ips.add(resultSet.getString(1));
+			resultSet.close();
+			return ips;
+		} catch (SQLException e) {
+			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
+			ResponseHandler.error(errorMessage, true);
+			return null;
+		}
+	}
+
+	private static boolean sameIps(List<RegisteredHost> a, List<RegisteredHost> b) {
+		if (a.size() != b.size())
+			return false;
+		for (int i = 0; i < a.size(); i++)
+			if (!a.get(i).ip.equals(b.get(i).ip))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @param rooms as a list of {@link GameServerSlim}, can be null when the
+	 * directory is not loaded yet
+	 */
+	private static Map<String, Integer> countRoomsByIp(List<GameServerSlim> rooms) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		if (rooms != null)
+			for (GameServerSlim gss : rooms)
+				counts.merge(gss.getIp(), 1, Integer::sum);
+		return counts;
+	}
+}
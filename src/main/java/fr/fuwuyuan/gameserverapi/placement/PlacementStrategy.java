@@ -0,0 +1,21 @@
+package fr.fuwuyuan.gameserverapi.placement;
+
+import java.util.List;
+
+/**
+ * A strategy choosing the host a new room is launched on, called by the
+ * {@link PlacementScheduler} on the request thread. It must not block.
+ * @author julien-beguier
+ * @see {@link BuiltInStrategy}
+ */
+@FunctionalInterface
+public interface PlacementStrategy {
+
+	/**
+	 * This method chooses the host of a new room.
+	 * @param hosts as a list of {@link Host}, the enabled hosts with at least
+	 * one available port ordered by ip, never empty
+	 * @return one of the {@code hosts}
+	 */
+	public Host choose(List<Host> hosts);
+}
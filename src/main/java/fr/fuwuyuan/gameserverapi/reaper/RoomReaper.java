@@ -0,0 +1,369 @@
+package fr.fuwuyuan.gameserverapi.reaper;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.fuwuyuan.gameserverapi.cache.RoomDirectory;
+import fr.fuwuyuan.gameserverapi.database.DatabaseSession;
+import fr.fuwuyuan.gameserverapi.database.PooledConnection;
+import fr.fuwuyuan.gameserverapi.database.SQLRequest;
+import fr.fuwuyuan.gameserverapi.events.RoomEventFeed;
+import fr.fuwuyuan.gameserverapi.heartbeat.HeartbeatSupervisor;
+import fr.fuwuyuan.gameserverapi.launcher.GameServerLauncher;
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.metrics.Metrics;
+import fr.fuwuyuan.gameserverapi.services.PortService;
+import fr.fuwuyuan.gameserverapi.services.PortServiceInterface;
+import fr.fuwuyuan.gameserverapi.services.ServiceInterface;
+import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
+
+/**
+ * This is a singleton class shutting down, in background, the rooms nobody
+ * shuts down with an explicit {@code DELETE}: the rooms flagged
+ * {@code ready_for_shutdown}, the rooms flagged {@code dead} by the
+ * {@link HeartbeatSupervisor} for longer than {@code REAPER_DEAD_TTL} and,
+ * when {@code REAPER_IDLE_TTL} is set, the rooms without any player for
+ * longer than it.
+ * <p>
+ * Every {@code REAPER_INTERVAL}, the rooms are shut down by batches of
+ * {@link SQLRequest#REAPER_BATCH_SIZE}: their rows are locked then deleted
+ * in one transaction, so that a concurrent {@code DELETE} of the same room
+ * finds no row and does not free its port twice. Their game server
+ * processes are then stopped, by at most {@code REAPER_THREADS} at once, and
+ * the ports of each ip are freed with a single write.
+ * </p>
+ * <p>
+ * A mass expiry is spread over several runs: a run shuts down at most
+ * {@code REAPER_MAX_BATCHES} batches, and waits between two of them for at
+ * least {@code REAPER_BATCH_PAUSE} or the duration of the last batch,
+ * whichever is longer. When the database fails, the next run is delayed
+ * twice as long each time, up to {@code REAPER_MAX_BACKOFF}.
+ * </p>
+ * @author julien-beguier
+ * @see {@link SQLRequest#SELECT_SERVERS_REAPABLE}
+ * @see {@link PortServiceInterface#freeUsedPorts}
+ */
+public class RoomReaper {
+
+	private final static String		REAPER_INTERVAL = "REAPER_INTERVAL";
+	private final static String		REAPER_DEAD_TTL = "REAPER_DEAD_TTL";
+	private final static String		REAPER_IDLE_TTL = "REAPER_IDLE_TTL";
+	private final static String		REAPER_MAX_BATCHES = "REAPER_MAX_BATCHES";
+	private final static String		REAPER_BATCH_PAUSE = "REAPER_BATCH_PAUSE";
+	private final static String		REAPER_THREADS = "REAPER_THREADS";
+	private final static String		REAPER_MAX_BACKOFF = "REAPER_MAX_BACKOFF";
+
+	/**
+	 * Waited for the run in progress, then for the rooms it stops, on
+	 * shutdown.
+	 */
+	private final static long		SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+	private final long				intervalMillis;
+	private final long				deadTtlSeconds;
+	/**
+	 * {@code 0} when the idle rooms are kept.
+	 */
+	private final long				idleTtlSeconds;
+	private final int				maxBatches;
+	private final long				batchPauseMillis;
+	private final long				maxBackoffMillis;
+	private long					backoffMillis;
+	private final PortServiceInterface	portService = new PortService();
+	private final GameServerLauncher	launcher = GameServerLauncher.getInstance();
+	private final LongAdder			reaped = new LongAdder();
+	private final LongAdder			batches = new LongAdder();
+	private final LongAdder			failures = new LongAdder();
+	private final ScheduledExecutorService	scheduler;
+	private final ThreadPoolExecutor	stopper;
+	private volatile ScheduledFuture<?>	nextRun;
+	private volatile boolean		shutDown = false;
+
+	/**
+	 * A room deleted by the reaper, whose process and port are still to be
+	 * freed.
+	 */
+	private static class ReapedRoom {
+		private final String	serverId;
+		private final String	ip;
+		private final int		port;
+
+		private ReapedRoom(String serverId, String ip, int port) {
+			this.serverId = serverId;
+			this.ip = ip;
+			this.port = port;
+		}
+	}
+
+	private static volatile boolean	initialized = false;
+
+	/**
+	 * Lazy and thread safe holder of the singleton.
+	 */
+	private static class InstanceHolder {
+		private static final RoomReaper INSTANCE = new RoomReaper();
+
+		static {
+			initialized = true;
+		}
+	}
+
+	public static RoomReaper getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Unlike {@link #getInstance()}, does not start the reaper.
+	 * @return {@code true} once the singleton is created
+	 */
+	public static boolean isInitialized() {
+		return initialized;
+	}
+
+	private RoomReaper() {
+		Properties properties = null;
+		try {
+			properties = ApplicationPropertiesUtils.readPropertiesFile();
+		} catch (IOException e) {
+			ResponseHandler.error("application.properties file cannot be closed: " + e.getMessage(), true);
+		}
+		long deadTtlMillis = ApplicationPropertiesUtils.getLongProperty(properties, REAPER_DEAD_TTL, 60000);
+		long idleTtlMillis = ApplicationPropertiesUtils.getLongProperty(properties, REAPER_IDLE_TTL, 0);
+		int threads = Math.max(1, ApplicationPropertiesUtils.getIntProperty(properties, REAPER_THREADS, 2));
+
+		this.intervalMillis = Math.max(1, ApplicationPropertiesUtils.getLongProperty(properties, REAPER_INTERVAL, 10000));
+		// Rounded up, the rooms are compared to the database clock in seconds
+		this.deadTtlSeconds = (Math.max(0, deadTtlMillis) + 999) / 1000;
+		this.idleTtlSeconds = (Math.max(0, idleTtlMillis) + 999) / 1000;
+		this.maxBatches = Math.max(1, ApplicationPropertiesUtils.getIntProperty(properties, REAPER_MAX_BATCHES, 20));
+		this.batchPauseMillis = Math.max(0, ApplicationPropertiesUtils.getLongProperty(properties, REAPER_BATCH_PAUSE, 200));
+		this.maxBackoffMillis = Math.max(this.intervalMillis,
+				ApplicationPropertiesUtils.getLongProperty(properties, REAPER_MAX_BACKOFF, 300000));
+		this.backoffMillis = this.intervalMillis;
+
+		this.stopper = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("reaper-stop"));
+		this.stopper.allowCoreThreadTimeOut(true);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("reaper"));
+		this.nextRun = this.scheduler.schedule(this::run, this.intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * This method stops the reaper. A run in progress stops after its batch,
+	 * the processes and ports of the rooms already deleted are freed before it
+	 * returns. Called when the api is undeployed.
+	 */
+	public void shutdown() {
+		this.shutDown = true;
+		ScheduledFuture<?> nextRun = this.nextRun;
+		if (nextRun != null)
+			nextRun.cancel(false);
+		this.scheduler.shutdown();
+		try {
+			this.scheduler.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			this.stopper.shutdown();
+			this.stopper.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the number of rooms shut down
+	 */
+	public long getReaped() {
+		return this.reaped.sum();
+	}
+
+	/**
+	 * @return the number of batches of rooms shut down
+	 */
+	public long getBatches() {
+		return this.batches.sum();
+	}
+
+	/**
+	 * @return the number of runs which failed, each delaying the next one
+	 */
+	public long getFailures() {
+		return this.failures.sum();
+	}
+
+	// ##########################################################################
+
+	/**
+	 * Background task: shuts down the rooms to reap, then schedules the next
+	 * run, later if the database failed. Runs on the scheduler thread.
+	 */
+	private void run() {
+		boolean succeeded = false;
+		try {
+			succeeded = reap();
+		} catch (RuntimeException e) {
+			ResponseHandler.error("Rooms cannot be reaped: " + e, true);
+		}
+
+		long delay;
+		if (succeeded) {
+			this.backoffMillis = this.intervalMillis;
+			delay = this.intervalMillis;
+		} else {
+			this.failures.increment();
+			this.backoffMillis = Math.min(this.maxBackoffMillis, this.backoffMillis * 2);
+			delay = this.backoffMillis;
+			ResponseHandler.error("Rooms cannot be reaped, next try in " + delay + "ms", true);
+		}
+		if (!this.shutDown)
+			this.nextRun = this.scheduler.schedule(this::run, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Shuts down at most {@code REAPER_MAX_BATCHES} batches of rooms.
+	 * @return {@code false} if the database failed
+	 */
+	private boolean reap() {
+		int total = 0;
+		try {
+			for (int i = 0; i < this.maxBatches && !this.shutDown; i++) {
+				long start = System.nanoTime();
+				List<Integer> candidates = new ArrayList<Integer>(SQLRequest.REAPER_BATCH_SIZE);
+				List<ReapedRoom> rooms = new ArrayList<ReapedRoom>(SQLRequest.REAPER_BATCH_SIZE);
+				if (!deleteBatch(candidates, rooms))
+					return false;
+				if (!rooms.isEmpty()) {
+					release(rooms);
+					this.batches.increment();
+					this.reaped.add(rooms.size());
+					total += rooms.size();
+					Metrics.getInstance().step(Metrics.Step.REAPER_BATCH).recordSince(start);
+				}
+				// Rooms skipped once locked are left for the next run
+				if (candidates.size() < SQLRequest.REAPER_BATCH_SIZE)
+					break;
+
+				// Leaves the database at least as long as the batch used it
+				long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				Thread.sleep(Math.max(this.batchPauseMillis, elapsedMillis));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (total > 0)
+				ResponseHandler.info(total + " room(s) reaped", true);
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes the next batch of rooms to reap, in one transaction.
+	 * @param candidates as a List, filled with the rooms to reap found
+	 * @param rooms as a List, filled with the rooms deleted
+	 * @return {@code false} if the database failed
+	 */
+	private boolean deleteBatch(List<Integer> candidates, List<ReapedRoom> rooms) {
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			if (conn == null)
+				return false;
+
+			int idle = this.idleTtlSeconds > 0 ? 1 : 0;
+			// A consistent read, which locks nothing
+			ResultSet resultSet = conn.query(SQLRequest.SELECT_SERVERS_REAPABLE,
+					this.deadTtlSeconds, idle, this.idleTtlSeconds);
+			while (resultSet.next())
+				candidates.add(resultSet.getInt(1));
+			resultSet.close();
+			if (candidates.isEmpty())
+				return true;
+
+			int size = SQLRequest.REAPER_BATCH_SIZE;
+			Object[] params = new Object[size + 3];
+			for (int i = 0; i < size; i++)
+				// The last room is repeated to complete the batch
+				params[i] = candidates.get(Math.min(i, candidates.size() - 1));
+			params[size] = this.deadTtlSeconds;
+			params[size + 1] = idle;
+			params[size + 2] = this.idleTtlSeconds;
+
+			conn.begin();
+			// Checked again once locked: a room may have been shut down or be
+			// alive again meanwhile
+			resultSet = conn.query(SQLRequest.SELECT_SERVERS_REAPABLE_FOR_UPDATE, params);
+			while (resultSet.next())
+				rooms.add(new ReapedRoom(resultSet.getString(1), resultSet.getString(2), resultSet.getInt(3)));
+			resultSet.close();
+			if (rooms.isEmpty()) {
+				conn.commit();
+				return true;
+			}
+
+			Object[] ids = new Object[size];
+			for (int i = 0; i < size; i++)
+				ids[i] = rooms.get(Math.min(i, rooms.size() - 1)).serverId;
+			conn.update(SQLRequest.DELETE_SERVERS_BY_IDS, ids);
+			conn.commit();
+			return true;
+		} catch (SQLException e) {
+			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
+			ResponseHandler.error(errorMessage, true);
+			// The rows deleted, if any, were rolled back
+			rooms.clear();
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the deleted rooms from the directory, stops their processes
+	 * then frees their ports, with one write per ip.
+	 */
+	private void release(List<ReapedRoom> rooms) {
+		RoomDirectory directory = RoomDirectory.getInstance();
+		HeartbeatSupervisor supervisor = HeartbeatSupervisor.getInstance();
+		List<Future<Boolean>> stops = new ArrayList<Future<Boolean>>(rooms.size());
+		Map<String, List<Integer>> portsByIp = new LinkedHashMap<String, List<Integer>>();
+		for (ReapedRoom room : rooms) {
+			directory.remove(room.serverId);
+			supervisor.forget(room.serverId);
+			RoomEventFeed.getInstance().publishShutdown(room.serverId);
+			if (this.launcher.isEnabled())
+				stops.add(this.stopper.submit(() -> this.launcher.stop(room.serverId)));
+			portsByIp.computeIfAbsent(room.ip, ip -> new ArrayList<Integer>()).add(room.port);
+		}
+
+		// ####################### SHUTDOWN THE SERVER BINARIES
+		// Waits for them to exit, their ports are then free
+		for (Future<Boolean> stop : stops) {
+			try {
+				stop.get();
+			} catch (ExecutionException e) {
+				ResponseHandler.error("A reaped room cannot be stopped: " + e.getCause(), true);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// ############### SQL ### FREE USED PORTS TO DB
+		for (Map.Entry<String, List<Integer>> entry : portsByIp.entrySet()) {
+			int[] ports = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+			int ret = this.portService.freeUsedPorts(entry.getKey(), ports);
+			if (ret != ServiceInterface.RET_OK)
+				ResponseHandler.error("The ports " + entry.getValue() + " of " + entry.getKey()
+						+ " cannot be freed, error " + ret, true);
+		}
+	}
+}
@@ -11,8 +11,9 @@ import fr.fuwuyuan.gameserverapi.services.GameServerService;
  * This class is the response to the {@link GameServerService.getGameServeById}
  * method when no error occurs. It contains a {@link GameServerDTO} and contains
  * all properties, 'server_id', 'ip', 'port', 'name', 'description', 'game',
- * 'game_version', 'n_max_players', 'opened_on' and 'ready_for_shutdown'. The
- * status is set by the constructor to {@link Response.Status#OK}.
+ * 'game_version', 'n_max_players', 'n_players', 'opened_on',
+ * 'ready_for_shutdown', 'load', 'last_heartbeat' and 'dead'. The status is set
+ * by the constructor to {@link Response.Status#OK}.
  * </p>
  * @author julien-beguier
  * @see {@link fr.fuwuyuan.gameserverapi.services.GameServerService#getGameServeById GameServerService.getGameServeById}
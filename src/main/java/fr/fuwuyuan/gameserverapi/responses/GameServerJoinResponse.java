@@ -0,0 +1,35 @@
+package fr.fuwuyuan.gameserverapi.responses;
+
+import javax.ws.rs.core.Response;
+
+import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
+
+/**
+ * Extends {@link GameServerApiResponse}
+ * <p>
+ * This class is the response to the {@link GameServerService.quickJoin}
+ * method when a room with a free slot is found. It contains a
+ * {@link GameServerSlim} to avoid sending unwanted informations, only
+ * 'server_id', 'ip', 'port', 'name', 'description', 'game', 'game_version',
+ * 'n_max_players' and 'n_players' and the status is set by the constructor
+ * to {@link Response.Status#OK}.
+ * </p>
+ * @author julien-beguier
+ * @see {@link fr.fuwuyuan.gameserverapi.services.GameServerService#quickJoin GameServerService.quickJoin}
+ * @see {@link GameServerApiResponse}
+ * @see {@link GameServerSlim}
+ */
+public class GameServerJoinResponse extends GameServerApiResponse {
+
+	public GameServerJoinResponse(GameServerSlim data) {
+		super(Response.Status.OK, data);
+	}
+
+	public GameServerSlim getData() {
+		return (GameServerSlim) data;
+	}
+
+	public void setData(GameServerSlim data) {
+		this.data = data;
+	}
+}
@@ -0,0 +1,104 @@
+package fr.fuwuyuan.gameserverapi.responses;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
+import fr.fuwuyuan.gameserverapi.database.PooledConnection;
+import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.utils.ResultSetUtils;
+
+/**
+ * Implements {@link StreamingOutput} and {@link AutoCloseable}
+ * <p>
+ * This class is the streamed equivalent of a {@link GameServerListResponse}:
+ * each row of the {@link ResultSet} is written as a {@link GameServerSlim}
+ * to the response output stream as soon as it is read, so that memory does
+ * not grow with the number of game servers. The json written is the same as
+ * the one of a {@link GameServerListResponse}.</br></br>
+ * It owns the {@link PooledConnection} the {@link ResultSet} comes from and
+ * gives it back to the pool once the response is written, on the thread
+ * writing the response, or when closed if the response is never written.
+ * </p>
+ * @author julien-beguier
+ * @see {@link PooledConnection#stream}
+ * @see {@link GameServerListResponse}
+ */
+public class GameServerListStream implements StreamingOutput, AutoCloseable {
+
+	/**
+	 * Generator factories are thread safe, generators are not.
+	 */
+	private final static JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(Collections.emptyMap());
+
+	private final PooledConnection	conn;
+	private final ResultSet			resultSet;
+
+	public GameServerListStream(PooledConnection conn, ResultSet resultSet) {
+		this.conn = conn;
+		this.resultSet = resultSet;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException {
+		try {
+			JsonGenerator generator = GENERATOR_FACTORY.createGenerator(output);
+			generator.writeStartObject();
+			generator.write("statusCode", Response.Status.OK.getStatusCode());
+			generator.write("statusReason", Response.Status.OK.getReasonPhrase());
+			generator.writeStartArray("data");
+			while (this.resultSet.next())
+				writeGameServerSlim(generator, ResultSetUtils.toGameServerSlim(this.resultSet));
+			generator.writeEnd();
+			generator.writeEnd();
+			generator.flush();
+		} catch (SQLException e) {
+			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
+			ResponseHandler.error(errorMessage, true);
+			// The status is already sent, the only way left to signal the
+			// error is to abort the response
+			throw new IOException("The game server list cannot be streamed", e);
+		} finally {
+			this.conn.close();
+		}
+	}
+
+	/**
+	 * Gives the connection back to the pool without writing the response, the
+	 * request having been answered in the meantime. Does nothing once written.
+	 */
+	@Override
+	public void close() {
+		this.conn.close();
+	}
+
+	/**
+	 * Writes {@code gss} as a json object with the same properties, in the
+	 * same order, as JSON-B does. A null description is omitted.
+	 * @param generator as a {@link JsonGenerator}
+	 * @param gss as a {@link GameServerSlim}
+	 */
+	private static void writeGameServerSlim(JsonGenerator generator, GameServerSlim gss) {
+		generator.writeStartObject();
+		if (gss.getDescription() != null)
+			generator.write("description", gss.getDescription());
+		generator.write("game", gss.getGame());
+		generator.write("game_version", gss.getGameVersion());
+		generator.write("ip", gss.getIp());
+		generator.write("n_max_players", gss.getNMaxPlayers());
+		generator.write("n_players", gss.getNPlayers());
+		generator.write("name", gss.getName());
+		generator.write("port", gss.getPort());
+		generator.write("server_id", gss.getServerId());
+		generator.writeEnd();
+	}
+}
@@ -0,0 +1,42 @@
+package fr.fuwuyuan.gameserverapi.responses;
+
+import java.util.List;
+
+import javax.json.bind.annotation.JsonbProperty;
+import javax.ws.rs.core.Response;
+
+import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
+
+/**
+ * Extends {@link GameServerListResponse}
+ * <p>
+ * This class is the response to the {@link GameServerService.getGameServersPage}
+ * method when no error occurs. It contains a page of {@link GameServerSlim}
+ * ordered by 'server_id' and the {@code next} cursor: the value to give to the
+ * {@code after} query parameter to fetch the next page, or {@code null} when
+ * this page is the last one. The status is set by the constructor to
+ * {@link Response.Status#OK}.
+ * </p>
+ * @author julien-beguier
+ * @see {@link fr.fuwuyuan.gameserverapi.services.GameServerService#getGameServersPage GameServerService.getGameServersPage}
+ * @see {@link GameServerListResponse}
+ * @see {@link GameServerSlim}
+ */
+public class GameServerPageResponse extends GameServerListResponse {
+
+	private String next;
+
+	public GameServerPageResponse(List<GameServerSlim> data, String next) {
+		super(data);
+		this.next = next;
+	}
+
+	@JsonbProperty(value = "next", nillable = true)
+	public String getNext() {
+		return next;
+	}
+
+	public void setNext(String next) {
+		this.next = next;
+	}
+}
@@ -4,11 +4,18 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import javax.json.JsonObject;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
 
 import fr.fuwuyuan.gameserverapi.database.DatabaseSession;
+import fr.fuwuyuan.gameserverapi.database.PooledConnection;
+import fr.fuwuyuan.gameserverapi.database.SQLRequest;
 import fr.fuwuyuan.gameserverapi.database.dto.GameServerDTO;
 import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.metrics.Metrics;
 import fr.fuwuyuan.gameserverapi.responses.ErrorResponse;
 import fr.fuwuyuan.gameserverapi.services.GameServerServiceInterface.GameServerError;
 
@@ -18,7 +25,9 @@ import fr.fuwuyuan.gameserverapi.services.GameServerServiceInterface.GameServerE
  * This is the abstract game server service class from which the service extends.
  * It contains a method to check if the {@code auth_key} is correct which means
  * that the request received from the outside is authorized as well as methods
- * to build a {@link Response} object in any case of an error happening.
+ * to build a {@link Response} object in any case of an error happening.</br>
+ * Services hold no state between two requests, one instance is shared by all
+ * of them.
  * </p>
  * @author julien-beguier
  * @see {@link AbstractGameServerService#initHeaderAuthKey}
@@ -26,17 +35,11 @@ import fr.fuwuyuan.gameserverapi.services.GameServerServiceInterface.GameServerE
  */
 public abstract class AbstractGameServerService implements GameServerServiceInterface {
 
-	private static String headerAuthKey = null;
-
-	protected GameServerDTO gameServer = null;
-
 	/**
-	 * This method is used to reset the current {@link GameServerDTO} object in order to
-	 * be fetch again by another request.
+	 * Shared by all the instances, read without lock: concurrent first
+	 * requests may all fetch it, they all set the same value.
 	 */
-	protected void resetGameServerObj() {
-		this.gameServer = null;
-	}
+	private static volatile String headerAuthKey = null;
 
 	/**
 	 * This method is called the first time {@link AbstractGameServerService#isAuthorized isAuthorized()}
@@ -46,22 +49,18 @@ public abstract class AbstractGameServerService implements GameServerServiceInte
 	 * fails
 	 */
 	private int initHeaderAuthKey() {
-		String sql = "SELECT `settings`.`setting_value` FROM `settings` "
-					+ "WHERE `settings`.`setting_key` = 'header_auth_key'";
-
-		try {
-			DatabaseSession dbSession = DatabaseSession.getInstance();
-			// Check if the database session is indeed connected to the database
-			if (!dbSession.isConnected()) {
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			// Check if a connection to the database has been borrowed
+			if (conn == null) {
 				return AuthKeyError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorCode();
 			} else {
-				// The Database session is connected, executing the query
-				ResultSet resultSet = dbSession.executeQuery(sql);
+				// The connection is borrowed, executing the query
+				ResultSet resultSet = conn.query(SQLRequest.SELECT_HEADER_AUTH_KEY);
 
 				resultSet.next();
 				// Authentication key is set
 				headerAuthKey = resultSet.getString(1);
-				resultSet.getStatement().close();
+				resultSet.close();
 
 				return RET_OK;
 			}
@@ -89,7 +88,8 @@ public abstract class AbstractGameServerService implements GameServerServiceInte
 				return ret;
 		}
 
-		if (authKey == null || headerAuthKey == null || !authKey.equals(headerAuthKey))
+		String expectedAuthKey = headerAuthKey;
+		if (authKey == null || expectedAuthKey == null || !authKey.equals(expectedAuthKey))
 			return AuthKeyError.AUTH_KEY_MISMATCH_WITH_PROVIDED.getErrorCode();
 		return RET_OK;
 	}
@@ -109,6 +109,10 @@ public abstract class AbstractGameServerService implements GameServerServiceInte
 		String errorMessage;
 		ErrorResponse er = new ErrorResponse();
 
+		for (AuthKeyError ake : AuthKeyError.values())
+			if (ake.getErrorCode() == errorCode)
+				Metrics.getInstance().countError(ake);
+
 		if (errorCode == AuthKeyError.AUTH_KEY_MISMATCH_WITH_PROVIDED.getErrorCode()) {
 			return unauthorizedResponse();
 		} else if (errorCode == AuthKeyError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorCode()) {
@@ -138,6 +142,23 @@ public abstract class AbstractGameServerService implements GameServerServiceInte
 		return Response.status(Response.Status.UNAUTHORIZED).entity(er).build();
 	}
 
+	/**
+	 * This method evaluates the {@code If-None-Match} header of {@code request}
+	 * against {@code entityTag} and build the response with the http code 304
+	 * Not Modified when they match, meaning the client's copy is up to date.
+	 * @param request as a {@link Request}, can be null
+	 * @param entityTag as an {@link EntityTag}
+	 * @return a Response object with no entity and the {@code ETag} header set
+	 * if the client's copy is up to date, {@code null} otherwise
+	 * @see {@link javax.ws.rs.core.Request#evaluatePreconditions(EntityTag)}
+	 */
+	protected Response notModifiedResponse(Request request, EntityTag entityTag) {
+		if (request == null)
+			return null;
+		Response.ResponseBuilder rb = request.evaluatePreconditions(entityTag);
+		return rb == null ? null : rb.tag(entityTag).build();
+	}
+
 	/**
 	 * This method build the response with the http code 400 Bad Request when no
 	 * or an empty input was sent to the api.
@@ -190,6 +211,23 @@ public abstract class AbstractGameServerService implements GameServerServiceInte
 		return Response.status(Response.Status.BAD_REQUEST).entity(er).build();
 	}
 
+	/**
+	 * This method build the response with the http code 400 Bad Request when
+	 * the query parameter {@code name} has an invalid value.
+	 * @param name as a String, the name of the query parameter
+	 * @param expected as a String, a description of the expected value
+	 * @return a Response object with an {@code error} field and the http code set
+	 * accordingly
+	 * @see {@link javax.ws.rs.core.Response#status}
+	 * @see {@link javax.ws.rs.core.Response.ResponseBuilder#entity}
+	 * @see {@link javax.ws.rs.core.Response.ResponseBuilder#build}
+	 */
+	protected Response badRequestInvalidQueryParamResponse(String name, String expected) {
+		String errorMessage = "Query parameter '" + name + "' is invalid: " + expected;
+		ErrorResponse er = new ErrorResponse(Response.Status.BAD_REQUEST, errorMessage);
+		return Response.status(Response.Status.BAD_REQUEST).entity(er).build();
+	}
+
 	/**
 	 * This method build the response according to the {@code errorCode} which
 	 * correspond to an error that has occurred while fetching or manipulating a
@@ -207,6 +245,10 @@ public abstract class AbstractGameServerService implements GameServerServiceInte
 		String errorMessage;
 		ErrorResponse er = new ErrorResponse();
 
+		for (GameServerError gse : GameServerError.values())
+			if (gse.getErrorCode() == errorCode)
+				Metrics.getInstance().countError(gse);
+
 		if (errorCode == GameServerError.NO_GAMESERVER_CORRESPONDING_TO_GIVEN_ID.getErrorCode()) {
 			errorMessage = "No game server with given id found";
 			er.setError(errorMessage);
@@ -222,6 +264,22 @@ public abstract class AbstractGameServerService implements GameServerServiceInte
 			er.setError(errorMessage);
 			er.setStatus(Response.Status.INTERNAL_SERVER_ERROR);
 			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(er).build();
+		} else if (errorCode == GameServerError.GAMESERVER_CANNOT_BE_LAUNCHED.getErrorCode()) {
+			errorMessage = "The game server cannot be launched";
+			er.setError(errorMessage);
+			er.setStatus(Response.Status.SERVICE_UNAVAILABLE);
+			return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(er).build();
+		} else if (errorCode == GameServerError.REQUEST_ALREADY_ANSWERED.getErrorCode()) {
+			// Never sent, the request has timed out
+			errorMessage = "The game server has not been created in time";
+			er.setError(errorMessage);
+			er.setStatus(Response.Status.GATEWAY_TIMEOUT);
+			return Response.status(Response.Status.GATEWAY_TIMEOUT).entity(er).build();
+		} else if (errorCode == GameServerError.ROOM_BEING_CREATED.getErrorCode()) {
+			errorMessage = "A room is still being created, try again";
+			er.setError(errorMessage);
+			er.setStatus(Response.Status.SERVICE_UNAVAILABLE);
+			return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(er).build();
 		} else {
 			errorMessage = "The game server cannot be fetched";
 			er.setError(errorMessage);
@@ -231,8 +289,13 @@ public abstract class AbstractGameServerService implements GameServerServiceInte
 	}
 
 	public abstract Response createGameServer(String authKey, JsonObject postInput);
-	public abstract Response getGameServers(String authKey);
+	public abstract Response getGameServers(String authKey, Request request);
+	public abstract Response getGameServersPage(String authKey, Request request, String after, String limit,
+			String gameName, String gameVersion, boolean freeSlotsOnly);
 	public abstract Response getGameServerById(String authKey, String serverId);
-	public abstract Response getGameServerByGameNameAndGameVersion(String authKey,String gameName, String gameVersion);
+	public abstract Response getGameServerByGameNameAndGameVersion(String authKey, Request request, String gameName, String gameVersion);
 	public abstract Response shutdownGameServer(String authKey, String serverId);
+	public abstract Response heartbeat(String authKey, String serverId, JsonObject postInput);
+	public abstract Response quickJoin(String authKey, JsonObject postInput);
+	public abstract Response subscribeToRoomEvents(String authKey, Sse sse, SseEventSink sink, String lastEventId);
 }
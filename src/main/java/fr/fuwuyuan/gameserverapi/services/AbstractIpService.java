@@ -17,7 +17,7 @@ public abstract class AbstractIpService implements IpServiceInterface {
 
 	/**
 	 * This method is called if the public ip cannot be determined because the
-	 * api cannot communicate with the simple-ip-ws.
+	 * api cannot communicate with the simple-ip-ws and has no fallback.
 	 * @return a Response object with an {@code error} field and the http code set
 	 * to 500 Internal Server Error
 	 * @see {@link javax.ws.rs.core.Response#status}
@@ -1,8 +1,8 @@
 package fr.fuwuyuan.gameserverapi.services;
 
-import javax.json.JsonArray;
 import javax.ws.rs.core.Response;
 
+import fr.fuwuyuan.gameserverapi.metrics.Metrics;
 import fr.fuwuyuan.gameserverapi.responses.ErrorResponse;
 
 /**
@@ -16,22 +16,10 @@ import fr.fuwuyuan.gameserverapi.responses.ErrorResponse;
  */
 public abstract class AbstractPortService implements PortServiceInterface {
 
-	protected JsonArray portsUsed = null;
-	protected JsonArray portsAvailable = null;
-
-	/**
-	 * This method is used to reset the current {@link javax.json.JsonArray} objects in order to
-	 * be fetch again by another request.
-	 */
-	protected void resetPortsArrays() {
-		this.portsUsed = null;
-		this.portsAvailable = null;
-	}
-
 	/**
 	 * This method build the response according to the {@code portErrorCode}
 	 * which correspond to an error that has occurred while fetching or manipulating
-	 * a {@link javax.json.JsonArray}.</br>
+	 * the ports of an ip.</br>
 	 * The http code will either be 404 Not Found, 503 Service Unavailable or 500
 	 * Internal Server Error if the SQL fails.
 	 * @param portErrorCode correspond to a {@link PortError}
@@ -46,6 +34,10 @@ public abstract class AbstractPortService implements PortServiceInterface {
 		ErrorResponse er = new ErrorResponse();
 		Response response = null;
 
+		for (PortError pe : PortError.values())
+			if (pe.getErrorCode() == portErrorCode)
+				Metrics.getInstance().countError(pe);
+
 		if (portErrorCode == PortError.NO_PORT_CORRESPONDING_TO_GIVEN_IP.getErrorCode()) {
 			errorMessage = "The given ip is not registered";
 			er.setError(errorMessage);
@@ -2,6 +2,7 @@ package fr.fuwuyuan.gameserverapi.services;
 
 import javax.ws.rs.core.Response;
 
+import fr.fuwuyuan.gameserverapi.metrics.Metrics;
 import fr.fuwuyuan.gameserverapi.responses.ErrorResponse;
 
 /**
@@ -30,6 +31,10 @@ public abstract class AbstractServerIdService implements ServerIdServiceInterfac
 		String errorMessage;
 		ErrorResponse er = new ErrorResponse();
 
+		for (ServerIdError sie : ServerIdError.values())
+			if (sie.getErrorString().equals(errorString))
+				Metrics.getInstance().countError(sie);
+
 		if (errorString.equals(ServerIdError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorString())) {
 			errorMessage = "A session to the database cannot be established";
 			er.setError(errorMessage);
@@ -1,22 +1,53 @@
 package fr.fuwuyuan.gameserverapi.services;
 
+import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+import javax.json.Json;
 import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+
+import fr.fuwuyuan.gameserverapi.cache.FreeSlotIndex;
+import fr.fuwuyuan.gameserverapi.cache.PortAllocator;
+import fr.fuwuyuan.gameserverapi.cache.RoomDirectory;
+import fr.fuwuyuan.gameserverapi.cache.RoomListSnapshot;
+import fr.fuwuyuan.gameserverapi.controllers.RequestExecutor;
 import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
 import fr.fuwuyuan.gameserverapi.database.DatabaseSession;
+import fr.fuwuyuan.gameserverapi.database.PooledConnection;
+import fr.fuwuyuan.gameserverapi.database.SQLRequest;
 import fr.fuwuyuan.gameserverapi.database.dto.GameServerDTO;
+import fr.fuwuyuan.gameserverapi.events.RoomEventFeed;
+import fr.fuwuyuan.gameserverapi.heartbeat.Heartbeat;
+import fr.fuwuyuan.gameserverapi.heartbeat.HeartbeatSupervisor;
+import fr.fuwuyuan.gameserverapi.launcher.GameServerLauncher;
+import fr.fuwuyuan.gameserverapi.launcher.GameServerProcess;
 import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.metrics.Metrics;
+import fr.fuwuyuan.gameserverapi.placement.PlacementScheduler;
+import fr.fuwuyuan.gameserverapi.reaper.RoomReaper;
 import fr.fuwuyuan.gameserverapi.responses.GameServerApiResponse;
 import fr.fuwuyuan.gameserverapi.responses.GameServerCreatedResponse;
 import fr.fuwuyuan.gameserverapi.responses.GameServerDTOResponse;
+import fr.fuwuyuan.gameserverapi.responses.GameServerJoinResponse;
 import fr.fuwuyuan.gameserverapi.responses.GameServerListResponse;
+import fr.fuwuyuan.gameserverapi.responses.GameServerListStream;
+import fr.fuwuyuan.gameserverapi.responses.GameServerPageResponse;
+import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
+import fr.fuwuyuan.gameserverapi.utils.ResultSetUtils;
 
 /**
  * Extends {@link AbstractGameServerService}
@@ -29,22 +60,73 @@ import fr.fuwuyuan.gameserverapi.responses.GameServerListResponse;
  * extended class of it
  * ({@link fr.fuwuyuan.gameserverapi.responses.ErrorResponse ErrorResponse},
  * {@link GameServerCreatedResponse}, {@link GameServerDTOResponse} or
- * {@link GameServerListResponse}).
+ * {@link GameServerListResponse} or {@link GameServerPageResponse}), or
+ * with a {@link GameServerListStream} when a full list is read from the
+ * database.</br></br>
+ * Room lists are served from the {@link RoomDirectory}, which is kept up to
+ * date write-through on creation and shutdown. Both are also published to
+ * the {@link RoomEventFeed}.</br></br>
+ * When enabled, the {@link GameServerLauncher} gives each new room a game
+ * server process started ahead, and stops it on shutdown. The heartbeats
+ * of the game servers are handed to the {@link HeartbeatSupervisor}.
+ * The rooms ready for shutdown, dead or idle are shut down in background by
+ * the {@link RoomReaper}, started along with this service.</br></br>
+ * A quick join reserves a slot in a room of the {@link FreeSlotIndex} and
+ * only creates a room when none can be joined.</br></br>
+ * When enabled, the {@link PlacementScheduler} chooses the host a new room
+ * is launched on among the registered ones. Only the rooms of this host are
+ * given a process by the launcher.
  * </p>
  * @author julien-beguier
  * @see {@link IpService#getPublicIp}
+ * @see {@link PlacementScheduler#place}
  * @see {@link PortService#getAvailablePort}
  * @see {@link PortService#addNewPortToUsedPorts}
  * @see {@link PortService#freeUsedPort}
- * @see {@link DatabaseSession#prepareInserting}
- * @see {@link DatabaseSession#executeQuery}
- * @see {@link DatabaseSession#executeUpdate}
+ * @see {@link PooledConnection#query}
+ * @see {@link PooledConnection#update}
  */
 public class GameServerService extends AbstractGameServerService {
 
-	public ServerIdServiceInterface idService = new ServerIdService();
-	public IpServiceInterface ipService = new IpService();
-	public PortServiceInterface portService = new PortService();
+	private final static int DEFAULT_PAGE_LIMIT = 20;
+	private final static int MAX_PAGE_LIMIT = 200;
+	/**
+	 * The largest {@code n_players} of the {@code 'servers'} table.
+	 */
+	private final static int MAX_N_PLAYERS = 65535;
+	/**
+	 * The {@code n_max_players} of a room created by a quick join without it.
+	 */
+	private final static int DEFAULT_QUICKJOIN_N_MAX_PLAYERS = 8;
+	private final static String QUICKJOIN_CREATION_WAIT = "QUICKJOIN_CREATION_WAIT";
+	/**
+	 * How often a quick join waiting for a room being created looks for a
+	 * free slot again, in milliseconds.
+	 */
+	private final static long QUICKJOIN_POLL_INTERVAL_MILLIS = 50;
+	/**
+	 * The MySQL & MariaDB error of a duplicate key.
+	 */
+	private final static int SQL_DUPLICATE_ENTRY = 1062;
+
+	private final ServerIdServiceInterface idService = new ServerIdService();
+	private final IpServiceInterface ipService = new IpService();
+	private final PortServiceInterface portService = new PortService();
+	private final GameServerLauncher launcher = GameServerLauncher.getInstance();
+	private final PlacementScheduler placement = PlacementScheduler.getInstance();
+	private final HeartbeatSupervisor supervisor = HeartbeatSupervisor.getInstance();
+	private final RoomReaper reaper = RoomReaper.getInstance();
+	/**
+	 * The locks of the quick joins creating a room, by game and game version.
+	 * A lock is removed once released with no quick join waiting for it.
+	 */
+	private final ConcurrentHashMap<Map.Entry<String, String>, ReentrantLock> quickJoinCreationLocks =
+			new ConcurrentHashMap<Map.Entry<String, String>, ReentrantLock>();
+	/**
+	 * How long a quick join waits for the room created by another one before
+	 * giving up, in milliseconds.
+	 */
+	private final long quickJoinCreationWaitMillis = readQuickJoinCreationWait();
 
 	/**
 	 * Note: CGSI = CreateGameServerInput
@@ -53,13 +135,15 @@ public class GameServerService extends AbstractGameServerService {
 	 * fields and if they are of the right type ('name'=String, 'game'=String,
 	 * 'game_version'=String and 'n_max_players'=Number). Also checks for the
 	 * optional field 'description'=String.</br>
+	 * Package-private, like {@link #hasCGSIAnyMandatoryPropertyInvalid}, to
+	 * be measured by the benchmarks.
 	 * </p>
 	 * @param postInput as a {@link javax.json.JsonObject}
 	 * @return {@code null} if the json is well formed and the first missing
 	 * property or of invalid type as a {@link GameServerDTO.Fields} otherwise
 	 * @see {@link GameServerDTO#Fields}
 	 */
-	private GameServerDTO.Fields isCGSIIntegrityOK(final JsonObject postInput) {
+	GameServerDTO.Fields isCGSIIntegrityOK(final JsonObject postInput) {
 		String n = GameServerDTO.Fields.Name.getFieldName();
 		String gn = GameServerDTO.Fields.Game.getFieldName();
 		String gv = GameServerDTO.Fields.GameVersion.getFieldName();
@@ -101,7 +185,7 @@ public class GameServerService extends AbstractGameServerService {
 	 * property ('n_max_players') is a negative value and {@code 0} otherwise
 	 * @see {@link GameServerDTO#Fields}
 	 */
-	private int hasCGSIAnyMandatoryPropertyInvalid(final JsonObject postInput) {
+	int hasCGSIAnyMandatoryPropertyInvalid(final JsonObject postInput) {
 		String sn = postInput.getString(GameServerDTO.Fields.Name.getFieldName());
 		String gn = postInput.getString(GameServerDTO.Fields.Game.getFieldName());
 		String gv = postInput.getString(GameServerDTO.Fields.GameVersion.getFieldName());
@@ -115,6 +199,40 @@ public class GameServerService extends AbstractGameServerService {
 		return p1 + p2 + p3 + p4;
 	}
 
+	/**
+	 * Note: QJI = QuickJoinInput
+	 * <p>
+	 * This method checks if the json received as input contains all mandatory
+	 * fields and if they are of the right type ('game'=String and
+	 * 'game_version'=String). Also checks for the optional fields used to
+	 * create a room when none can be joined ('name'=String,
+	 * 'description'=String and 'n_max_players'=Number).
+	 * </p>
+	 * @param postInput as a {@link javax.json.JsonObject}
+	 * @return {@code null} if the json is well formed and the first missing
+	 * property or of invalid type as a {@link GameServerDTO.Fields} otherwise
+	 * @see {@link GameServerDTO#Fields}
+	 */
+	GameServerDTO.Fields isQJIIntegrityOK(final JsonObject postInput) {
+		GameServerDTO.Fields[] mandatory = { GameServerDTO.Fields.Game, GameServerDTO.Fields.GameVersion };
+		GameServerDTO.Fields[] optional = { GameServerDTO.Fields.Name, GameServerDTO.Fields.Description };
+
+		for (GameServerDTO.Fields f : mandatory)
+			if (!postInput.containsKey(f.getFieldName())
+					|| postInput.get(f.getFieldName()).getValueType() != JsonValue.ValueType.STRING)
+				return f;
+		for (GameServerDTO.Fields f : optional)
+			if (postInput.containsKey(f.getFieldName())
+					&& postInput.get(f.getFieldName()).getValueType() != JsonValue.ValueType.STRING)
+				return f;
+		String nmp = GameServerDTO.Fields.NMaxPlayers.getFieldName();
+		if (postInput.containsKey(nmp) && postInput.get(nmp).getValueType() != JsonValue.ValueType.NUMBER)
+			return GameServerDTO.Fields.NMaxPlayers;
+
+		// If fields exists & is of the right type
+		return null;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -140,6 +258,14 @@ public class GameServerService extends AbstractGameServerService {
 		if (n != 0)
 			return badRequestMandatoryPropertyInvalidResponse(n);
 
+		// Substituted in the command of the launcher: neither a path nor an option
+		if (launcher.isEnabled()) {
+			n = GameServerLauncher.isValidName(postInput.getString(GameServerDTO.Fields.Game.getFieldName())) ? 0 : 1;
+			n += GameServerLauncher.isValidName(postInput.getString(GameServerDTO.Fields.GameVersion.getFieldName())) ? 0 : 1;
+			if (n != 0)
+				return badRequestMandatoryPropertyInvalidResponse(n);
+		}
+
 		// Get the description if present
 		String optionalDescription = null;
 		if (postInput.containsKey(GameServerDTO.Fields.Description.getFieldName()))
@@ -154,7 +280,9 @@ public class GameServerService extends AbstractGameServerService {
 				postInput.getInt(GameServerDTO.Fields.NMaxPlayers.getFieldName()));
 
 		// ####################### DETERMINE SERVER ID
+		long stepStart = System.nanoTime();
 		String serverId = idService.getNextServerId();
+		Metrics.getInstance().step(Metrics.Step.ID_ALLOCATION).recordSince(stepStart);
 		if (serverId.equals(ServerIdServiceInterface.ServerIdError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorString())
 				|| serverId.equals(ServerIdServiceInterface.ServerIdError.SQL_ERROR_FETCH_LOG_AND_DO_NOTHING.getErrorString()))
 			return ((AbstractServerIdService) idService).nextIdCannotBeDeterminedResponse(serverId);
@@ -163,68 +291,103 @@ public class GameServerService extends AbstractGameServerService {
 
 		// ####################### DETERMINE IP
 		// Determine public IP from which (physical) server to launch
-		String ip = ipService.getPublicIp();
+		stepStart = System.nanoTime();
+		String localIp = ipService.getPublicIp();
+		Metrics.getInstance().step(Metrics.Step.IP_RESOLUTION).recordSince(stepStart);
+		String ip = localIp;
+		if (placement.isEnabled()) {
+			// Chosen among the registered hosts
+			stepStart = System.nanoTime();
+			ip = placement.place(gs.getGame(), gs.getGameVersion());
+			Metrics.getInstance().step(Metrics.Step.PLACEMENT).recordSince(stepStart);
+			if (ip == null && placement.getHostCount() > 0)
+				return ((AbstractPortService) portService).portCannotBeDeterminedUpdatedOrChangedResponse(
+						PortServiceInterface.PortError.NO_AVAILABLE_PORT_LEFT_ON_GIVEN_IP.getErrorCode());
+		}
 		if (ip == null)
 			return ((AbstractIpService) ipService).ipCannotBeDeterminedResponse();
 
 		gs.setIp(ip);
 
-		// ####################### DETERMINE PORT
-		// Determine which available port it can use
-		int port = portService.getAvailablePort(ip);
-		if (port < 0)
-			return ((AbstractPortService) portService).portCannotBeDeterminedUpdatedOrChangedResponse(port);
+		// Timed out while waiting, nothing is claimed for nobody
+		if (RequestExecutor.isAnswered())
+			return gameServerCannotBeFetchOrChangedResponse(GameServerError.REQUEST_ALREADY_ANSWERED.getErrorCode());
+
+		// ####################### DETERMINE PORT & LAUNCH THE SERVER BINARY
+		GameServerProcess process = null;
+		int port;
+		// The processes are only launched on this host
+		if (launcher.isEnabled() && ip.equals(localIp)) {
+			// A server of the game already started is claimed, with its port
+			stepStart = System.nanoTime();
+			process = launcher.claim(gs.getGame(), gs.getGameVersion(), ip);
+			Metrics.getInstance().step(Metrics.Step.PROCESS_CLAIM).recordSince(stepStart);
+			if (process == null)
+				return gameServerCannotBeFetchOrChangedResponse(GameServerError.GAMESERVER_CANNOT_BE_LAUNCHED.getErrorCode());
+			port = process.getPort();
+		} else {
+			// Determine which available port it can use
+			stepStart = System.nanoTime();
+			port = portService.getAvailablePort(ip);
+			Metrics.getInstance().step(Metrics.Step.PORT_ALLOCATION).recordSince(stepStart);
+			if (port < 0)
+				return ((AbstractPortService) portService).portCannotBeDeterminedUpdatedOrChangedResponse(port);
+		}
 
 		gs.setPort(port);
 
-		// ####################### LAUNCH THE SERVER BINARY
-		boolean newServerLaunched = true; // TODO
-		// Check if the new game server has launched
-		if (!newServerLaunched)
-			return Response.status(Response.Status.NOT_IMPLEMENTED).entity("This is still a Work-In-Progress feature").build();
-
 		// ############### SQL ### UPDATE USED PORT TO DB
+		stepStart = System.nanoTime();
 		int updateIsDone = portService.addNewPortToUsedPorts(ip, port);
-		if (updateIsDone != RET_OK)
+		Metrics.getInstance().step(Metrics.Step.PORT_PERSIST).recordSince(stepStart);
+		if (updateIsDone != RET_OK) {
+			if (process != null)
+				launcher.discard(process);
 			return ((AbstractPortService) portService).portCannotBeDeterminedUpdatedOrChangedResponse(updateIsDone);
+		}
 
 		// ############### SQL ### SAVE GS TO DB
 		// SQL - Saving the game server to DB
-		String insertSql = "SELECT `server_id`, `ip`, `port`, `name`, `description`, "
-						+ "`game`, `game_version`, `n_max_players`, `opened_on`, `ready_for_shutdown` "
-						+ "FROM `servers`";
-
-		try {
-			DatabaseSession dbSession = DatabaseSession.getInstance();
-			// Check if the database session is indeed connected to the database
-			if (!dbSession.isConnected()) {
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			// Check if a connection to the database has been borrowed
+			if (conn == null) {
+				releaseGameServer(ip, port, process);
 				return gameServerCannotBeFetchOrChangedResponse(GameServerError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorCode());
+			} else if (RequestExecutor.isAnswered()) {
+				// Timed out while waiting for the connection
+				releaseGameServer(ip, port, process);
+				return gameServerCannotBeFetchOrChangedResponse(GameServerError.REQUEST_ALREADY_ANSWERED.getErrorCode());
 			} else {
-				// The Database session is connected, executing the query
-				ResultSet resultSet = dbSession.prepareInserting(insertSql);
-
-				// ############### SQL ### PREPARE THE INSERT
-				resultSet.moveToInsertRow();
-				resultSet.updateString(GameServerDTO.Fields.ServerId.getFieldName(), gs.getServerId());
-				resultSet.updateString(GameServerDTO.Fields.Ip.getFieldName(), gs.getIp());
-				resultSet.updateInt(GameServerDTO.Fields.Port.getFieldName(), gs.getPort());
-				resultSet.updateString(GameServerDTO.Fields.Name.getFieldName(), gs.getName());
-				resultSet.updateString(GameServerDTO.Fields.Description.getFieldName(), gs.getDescription());
-				resultSet.updateString(GameServerDTO.Fields.Game.getFieldName(), gs.getGame());
-				resultSet.updateString(GameServerDTO.Fields.GameVersion.getFieldName(), gs.getGameVersion());
-				resultSet.updateInt(GameServerDTO.Fields.NMaxPlayers.getFieldName(), gs.getNMaxPlayers());
-				resultSet.insertRow();
-
-				resultSet.getStatement().close();
+				// The connection is borrowed, executing the query
+				// ############### SQL ### INSERT
+				conn.update(SQLRequest.INSERT_SERVER, gs.getServerId(), gs.getIp(), gs.getPort(),
+						gs.getName(), gs.getDescription(), gs.getGame(), gs.getGameVersion(),
+						gs.getNMaxPlayers());
+
+				if (process != null)
+					launcher.assign(process, gs);
 
 				// ####################### RETURN THE CREATED GAME SERVER (SLIM)
 				GameServerSlim gss = new GameServerSlim(gs);
+				RoomDirectory.getInstance().put(gss);
+				RoomEventFeed.getInstance().publishCreated(gss);
 				GameServerCreatedResponse gscr = new GameServerCreatedResponse(gss);
 				return Response.status(Response.Status.CREATED).entity(gscr).build();
 			}
 		} catch (SQLException e) {
 			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
 			ResponseHandler.error(errorMessage, true);
+			// The game server is not saved, its port is not used, unless
+			// another api node claimed it meanwhile for one of its rooms
+			if (isPortTaken(e)) {
+				if (process != null)
+					launcher.discard(process);
+				PortAllocator allocator = portService.getPortAllocator(ip);
+				if (allocator != null)
+					allocator.markTaken(port);
+			} else {
+				releaseGameServer(ip, port, process);
+			}
 			return gameServerCannotBeFetchOrChangedResponse(GameServerError.SQL_ERROR_CREATED_LOG_AND_DO_NOTHING.getErrorCode());
 		}
 	}
@@ -233,47 +396,107 @@ public class GameServerService extends AbstractGameServerService {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public Response getGameServers(final String authKey) {
+	public Response getGameServers(final String authKey, final Request request) {
 		// Check the auth_key
 		int authKeyRet = isAuthorized(authKey);
 		if (authKeyRet != RET_OK)
 			return authKeyComparisonErrorResponse(authKeyRet);
 
+		// ####################### CHECK IF THE CLIENT'S COPY IS UP TO DATE
+		RoomDirectory directory = RoomDirectory.getInstance();
+		if (directory.isLoaded()) {
+			Response notModified = notModifiedResponse(request, directory.getEntityTag(directory.getVersion()));
+			if (notModified != null)
+				return notModified;
+		}
+
+		// ####################### RETURN THE SERIALIZED GAME SERVERS FROM MEMORY
+		// The bytes are written as is to the output stream, without serialization
+		RoomListSnapshot snapshot = directory.getSnapshot();
+		if (snapshot != null)
+			return Response.status(Response.Status.OK).entity(snapshot.getJson())
+					.tag(directory.getEntityTag(snapshot.getVersion())).build();
+
 		// ############### SQL ### FETCH ALL GAME SERVERS
-		String selectSql = "SELECT `server_id`, `ip`, `port`, `name`, `description`, "
-						+ "`game`, `game_version`, `n_max_players`"
-						+ "FROM `servers`";
+		// The room directory is not loaded yet
+		return streamGameServers(SQLRequest.SELECT_SERVERS_SLIM);
+	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Response getGameServersPage(final String authKey, final Request request, final String after,
+			final String limit, final String gameName, final String gameVersion, final boolean freeSlotsOnly) {
+		// Check the auth_key
+		int authKeyRet = isAuthorized(authKey);
+		if (authKeyRet != RET_OK)
+			return authKeyComparisonErrorResponse(authKeyRet);
+
+		// ####################### CHECK THE QUERY PARAMETERS
+		int pageLimit = DEFAULT_PAGE_LIMIT;
+		int afterId = -1;
+		try {
+			if (limit != null)
+				pageLimit = Integer.parseInt(limit);
+		} catch (NumberFormatException e) {
+			pageLimit = -1;
+		}
+		if (pageLimit < 1 || pageLimit > MAX_PAGE_LIMIT)
+			return badRequestInvalidQueryParamResponse("limit", "expected a number between 1 and " + MAX_PAGE_LIMIT);
 		try {
-			DatabaseSession dbSession = DatabaseSession.getInstance();
-			// Check if the database session is indeed connected to the database
-			if (!dbSession.isConnected()) {
+			if (after != null)
+				afterId = Integer.parseInt(after);
+		} catch (NumberFormatException e) {
+			return badRequestInvalidQueryParamResponse("after", "expected the 'next' value of the previous page");
+		}
+		if (gameVersion != null && gameName == null)
+			return badRequestInvalidQueryParamResponse("game_version", "requires the 'game' query parameter");
+
+		// ####################### CHECK IF THE CLIENT'S COPY IS UP TO DATE
+		RoomDirectory directory = RoomDirectory.getInstance();
+		// The version is read before the rooms: the page can only be newer than its tag
+		long version = directory.getVersion();
+		if (directory.isLoaded()) {
+			Response notModified = notModifiedResponse(request, directory.getEntityTag(version));
+			if (notModified != null)
+				return notModified;
+		}
+
+		// ####################### FETCH THE PAGE FROM MEMORY
+		// One more game server is fetched to know if there is a next page
+		List<GameServerSlim> cachedServers = directory.page(afterId, pageLimit + 1, gameName, gameVersion, freeSlotsOnly);
+		if (cachedServers != null)
+			return Response.status(Response.Status.OK).entity(buildPageResponse(cachedServers, pageLimit))
+					.tag(directory.getEntityTag(version)).build();
+
+		// ############### SQL ### FETCH THE PAGE
+		// The room directory is not loaded yet
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			// Check if a connection to the database has been borrowed
+			if (conn == null) {
 				return gameServerCannotBeFetchOrChangedResponse(GameServerError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorCode());
 			} else {
-				// The Database session is connected, executing the query
-				ResultSet resultSet = dbSession.executeQuery(selectSql);
-
-				// ####################### BUILD THE GAME SERVER LIST
-				GameServerSlim gss = null;
+				// The connection is borrowed, executing the query
+				int freeSlots = freeSlotsOnly ? 1 : 0;
+				ResultSet resultSet;
+				if (gameName != null && gameVersion != null)
+					resultSet = conn.query(SQLRequest.SELECT_SERVERS_SLIM_PAGE_BY_GAME_AND_VERSION, gameName, gameVersion,
+							afterId, freeSlots, pageLimit + 1);
+				else if (gameName != null)
+					resultSet = conn.query(SQLRequest.SELECT_SERVERS_SLIM_PAGE_BY_GAME, gameName, afterId, freeSlots,
+							pageLimit + 1);
+				else
+					resultSet = conn.query(SQLRequest.SELECT_SERVERS_SLIM_PAGE, afterId, freeSlots, pageLimit + 1);
+
+				// ####################### BUILD THE GAME SERVER PAGE
 				List<GameServerSlim> servers = new ArrayList<GameServerSlim>();
-				while (resultSet.next()) {
-					gss = new GameServerSlim();
-					gss.setServerId(resultSet.getString(GameServerDTO.Fields.ServerId.getFieldName()));
-					gss.setIp(resultSet.getString(GameServerDTO.Fields.Ip.getFieldName()));
-					gss.setPort(resultSet.getInt(GameServerDTO.Fields.Port.getFieldName()));
-					gss.serName(resultSet.getString(GameServerDTO.Fields.Name.getFieldName()));
-					gss.setDescription(resultSet.getString(GameServerDTO.Fields.Description.getFieldName()));
-					gss.setGame(resultSet.getString(GameServerDTO.Fields.Game.getFieldName()));
-					gss.setGameVersion(resultSet.getString(GameServerDTO.Fields.GameVersion.getFieldName()));
-					gss.setNMaxPlayers(resultSet.getInt(GameServerDTO.Fields.NMaxPlayers.getFieldName()));
-
-					servers.add(gss);
-				}
-				resultSet.getStatement().close();
+				while (resultSet.next())
+					servers.add(ResultSetUtils.toGameServerSlim(resultSet));
+				resultSet.close();
 
 				// ####################### RETURN GAME SERVERS (SLIM)
-				GameServerListResponse gslr = new GameServerListResponse(servers);
-				return Response.status(Response.Status.OK).entity(gslr).build();
+				return Response.status(Response.Status.OK).entity(buildPageResponse(servers, pageLimit)).build();
 			}
 		} catch (SQLException e) {
 			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
@@ -293,18 +516,14 @@ public class GameServerService extends AbstractGameServerService {
 			return authKeyComparisonErrorResponse(authKeyRet);
 
 		// ############### SQL ### FETCH GAME SERVER BY ITS ID
-		if (null == this.gameServer) {
-			int ret = fetchGameServerById(serverId);
-			if (ret != RET_OK)
-				return gameServerCannotBeFetchOrChangedResponse(ret);
-			return getGameServerById(authKey, serverId);
-		} else {
-			// ####################### RETURN GAME SERVER (FULL)
-			GameServerDTOResponse gsr = new GameServerDTOResponse(this.gameServer);
-			Response response = Response.status(Response.Status.OK).entity(gsr).build();
-			resetGameServerObj();
-			return response;
-		}
+		GameServerDTO gs = new GameServerDTO();
+		int ret = fetchGameServerById(serverId, gs);
+		if (ret != RET_OK)
+			return gameServerCannotBeFetchOrChangedResponse(ret);
+
+		// ####################### RETURN GAME SERVER (FULL)
+		GameServerDTOResponse gsr = new GameServerDTOResponse(gs);
+		return Response.status(Response.Status.OK).entity(gsr).build();
 	}
 
 	/**
@@ -312,142 +531,355 @@ public class GameServerService extends AbstractGameServerService {
 	 */
 	@Override
 	public Response getGameServerByGameNameAndGameVersion(final String authKey,
-			final String gameName, final String gameVersion) {
+			final Request request, final String gameName, final String gameVersion) {
 		// Check the auth_key
 		int authKeyRet = isAuthorized(authKey);
 		if (authKeyRet != RET_OK)
 			return authKeyComparisonErrorResponse(authKeyRet);
 
+		// ####################### CHECK IF THE CLIENT'S COPY IS UP TO DATE
+		RoomDirectory directory = RoomDirectory.getInstance();
+		// The version is read before the rooms: the list can only be newer than its tag
+		long version = directory.getVersion();
+		if (directory.isLoaded()) {
+			Response notModified = notModifiedResponse(request, directory.getEntityTag(version));
+			if (notModified != null)
+				return notModified;
+		}
+
+		// ####################### FETCH GAME SERVER BY GAMENAME & GAMEVERSION FROM MEMORY
+		List<GameServerSlim> cachedServers = directory.listByGameAndGameVersion(gameName, gameVersion);
+		if (cachedServers != null)
+			return Response.status(Response.Status.OK).entity(new GameServerListResponse(cachedServers))
+					.tag(directory.getEntityTag(version)).build();
+
 		// ############### SQL ### FETCH GAME SERVER BY GAMENAME & GAMEVERSION
-		String selectSql = "SELECT `server_id`, `ip`, `port`, `name`, `description`, "
-						+ "`game`, `game_version`, `n_max_players`"
-						+ "FROM `servers` "
-						+ "WHERE `servers`.`game` LIKE '" + gameName + "' AND `servers`.`game_version` = '" + gameVersion + "'";
+		// The room directory is not loaded yet
+		return streamGameServers(SQLRequest.SELECT_SERVERS_SLIM_BY_GAME_AND_VERSION, gameName, gameVersion);
+	}
 
-		try {
-			DatabaseSession dbSession = DatabaseSession.getInstance();
-			// Check if the database session is indeed connected to the database
-			if (!dbSession.isConnected()) {
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Response shutdownGameServer(final String authKey, final String serverId) {
+		// Check the auth_key
+		int authKeyRet = isAuthorized(authKey);
+		if (authKeyRet != RET_OK)
+			return authKeyComparisonErrorResponse(authKeyRet);
+
+		// ############### SQL ### FETCH GAME SERVER BY ITS ID
+		GameServerDTO gs = new GameServerDTO();
+		int ret = fetchGameServerById(serverId, gs);
+		if (ret != RET_OK)
+			return gameServerCannotBeFetchOrChangedResponse(ret);
+
+		// ############### SQL ### DELETE GAME SERVER RECORD FROM DB
+		// Before the port is freed: a room created meanwhile could be given
+		// the port while this record still holds it
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			// Check if a connection to the database has been borrowed
+			if (conn == null) {
 				return gameServerCannotBeFetchOrChangedResponse(GameServerError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorCode());
 			} else {
-				// The Database session is connected, executing the query
-				ResultSet resultSet = dbSession.executeQuery(selectSql);
+				// The connection is borrowed, executing the query
+				int requestResult = conn.update(SQLRequest.DELETE_SERVER_BY_ID, serverId);
 
-				// ####################### BUILD THE GAME SERVER LIST
-				GameServerSlim gss = null;
-				List<GameServerSlim> servers = new ArrayList<GameServerSlim>();
-				while (resultSet.next()) {
-					gss = new GameServerSlim();
-					gss.setServerId(resultSet.getString(GameServerDTO.Fields.ServerId.getFieldName()));
-					gss.setIp(resultSet.getString(GameServerDTO.Fields.Ip.getFieldName()));
-					gss.setPort(resultSet.getInt(GameServerDTO.Fields.Port.getFieldName()));
-					gss.serName(resultSet.getString(GameServerDTO.Fields.Name.getFieldName()));
-					gss.setDescription(resultSet.getString(GameServerDTO.Fields.Description.getFieldName()));
-					gss.setGame(resultSet.getString(GameServerDTO.Fields.Game.getFieldName()));
-					gss.setGameVersion(resultSet.getString(GameServerDTO.Fields.GameVersion.getFieldName()));
-					gss.setNMaxPlayers(resultSet.getInt(GameServerDTO.Fields.NMaxPlayers.getFieldName()));
-
-					servers.add(gss);
-				}
-				resultSet.getStatement().close();
+				if (requestResult == 0) // Check to see if the game server exists
+					return gameServerCannotBeFetchOrChangedResponse(GameServerError.NO_GAMESERVER_CORRESPONDING_TO_GIVEN_ID.getErrorCode());
 
-				// ####################### RETURN GAME SERVERS (SLIM)
-				GameServerListResponse gslr = new GameServerListResponse(servers);
-				return Response.status(Response.Status.OK).entity(gslr).build();
+				RoomDirectory.getInstance().remove(serverId);
+				supervisor.forget(serverId);
+				RoomEventFeed.getInstance().publishShutdown(serverId);
 			}
 		} catch (SQLException e) {
 			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
 			ResponseHandler.error(errorMessage, true);
 			return gameServerCannotBeFetchOrChangedResponse(GameServerError.SQL_ERROR_FETCH_LOG_AND_DO_NOTHING.getErrorCode());
 		}
+
+		// ####################### SHUTDOWN THE SERVER BINARY
+		// Waits for it to exit, its port is then free
+		launcher.stop(serverId);
+
+		// ############### SQL ### FREE USED PORT TO DB
+		int portFreedReturnCode = portService.freeUsedPort(gs.getIp(), gs.getPort());
+		if (portFreedReturnCode != RET_OK)
+			return ((AbstractPortService) portService).portCannotBeDeterminedUpdatedOrChangedResponse(portFreedReturnCode);
+
+		GameServerApiResponse gsaResponse = new GameServerApiResponse(Response.Status.OK, JsonValue.EMPTY_JSON_OBJECT);
+		return Response.status(Response.Status.OK).entity(gsaResponse).build();
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public Response shutdownGameServer(final String authKey, final String serverId) {
+	public Response heartbeat(final String authKey, final String serverId, final JsonObject postInput) {
+		// ####################### BASIC ERROR CHECKS
 		// Check the auth_key
 		int authKeyRet = isAuthorized(authKey);
 		if (authKeyRet != RET_OK)
 			return authKeyComparisonErrorResponse(authKeyRet);
 
-		// ############### SQL ### FETCH GAME SERVER BY ITS ID
-		if (null == this.gameServer) {
-			int ret = fetchGameServerById(serverId);
-			if (ret != RET_OK)
-				return gameServerCannotBeFetchOrChangedResponse(ret);
-			return shutdownGameServer(authKey, serverId);
-		} else {
-			// ####################### SHUTDOWN THE SERVER BINARY
-			// TODO
-			// ############### SQL ### FREE USED PORT TO DB
-			int portFreedReturnCode = portService.freeUsedPort(this.gameServer.getIp(), this.gameServer.getPort());
-			if (portFreedReturnCode != RET_OK)
-				return ((AbstractPortService) portService).portCannotBeDeterminedUpdatedOrChangedResponse(portFreedReturnCode);
-			// ############### SQL ### DELETE GAME SERVER RECORD FROM DB
-			Response response;
-			String deleteServerSql = "DELETE FROM `servers` WHERE `servers`.`server_id`= '" + serverId + "'";
-
-			try {
-				DatabaseSession dbSession = DatabaseSession.getInstance();
-				// Check if the database session is indeed connected to the database
-				if (!dbSession.isConnected()) {
-					response = gameServerCannotBeFetchOrChangedResponse(GameServerError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorCode());
-				} else {
-					// The Database session is connected, executing the query
-					int requestResult = dbSession.executeUpdate(deleteServerSql);
-
-					if (requestResult == 0) { // Check to see if the game server exists
-						response = gameServerCannotBeFetchOrChangedResponse(GameServerError.NO_GAMESERVER_CORRESPONDING_TO_GIVEN_ID.getErrorCode());
-					} else {
-						GameServerApiResponse gsaResponse = new GameServerApiResponse(Response.Status.OK, JsonValue.EMPTY_JSON_OBJECT);
-						response = Response.status(Response.Status.OK).entity(gsaResponse).build();
-					}
+		// Check the postInput (Json properties)
+		if (postInput == null)
+			return badRequestEmptyInputResponse();
+
+		String np = GameServerDTO.Fields.NPlayers.getFieldName();
+		String l = GameServerDTO.Fields.Load.getFieldName();
+		if (!postInput.containsKey(np) || postInput.get(np).getValueType() != JsonValue.ValueType.NUMBER)
+			return badRequestMalformedInputResponse(GameServerDTO.Fields.NPlayers);
+		if (postInput.containsKey(l) && postInput.get(l).getValueType() != JsonValue.ValueType.NUMBER)
+			return badRequestMalformedInputResponse(GameServerDTO.Fields.Load);
+
+		int nPlayers = postInput.getJsonNumber(np).intValue();
+		Float load = postInput.containsKey(l) ? Float.valueOf((float) postInput.getJsonNumber(l).doubleValue()) : null;
+		int n = (nPlayers < 0 || nPlayers > MAX_N_PLAYERS) ? 1 : 0;
+		if (load != null && (load < 0 || load.isInfinite()))
+			n++;
+		if (n != 0)
+			return badRequestMandatoryPropertyInvalidResponse(n);
+
+		// ####################### CHECK THE GAME SERVER EXISTS IN MEMORY
+		int id;
+		try {
+			id = Integer.parseInt(serverId);
+		} catch (NumberFormatException e) {
+			return gameServerCannotBeFetchOrChangedResponse(GameServerError.NO_GAMESERVER_CORRESPONDING_TO_GIVEN_ID.getErrorCode());
+		}
+		// Until the directory is loaded, a heartbeat of an unknown game server
+		// is written to no row
+		RoomDirectory directory = RoomDirectory.getInstance();
+		if (directory.isLoaded() && directory.get(id) == null)
+			return gameServerCannotBeFetchOrChangedResponse(GameServerError.NO_GAMESERVER_CORRESPONDING_TO_GIVEN_ID.getErrorCode());
+
+		// ####################### BUFFER THE HEARTBEAT
+		supervisor.beat(new Heartbeat(id, nPlayers, load));
+
+		GameServerApiResponse gsaResponse = new GameServerApiResponse(Response.Status.ACCEPTED, JsonValue.EMPTY_JSON_OBJECT);
+		return Response.status(Response.Status.ACCEPTED).entity(gsaResponse).build();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Response quickJoin(final String authKey, final JsonObject postInput) {
+		// ####################### BASIC ERROR CHECKS
+		// Check the auth_key
+		int authKeyRet = isAuthorized(authKey);
+		if (authKeyRet != RET_OK)
+			return authKeyComparisonErrorResponse(authKeyRet);
+
+		// Check the postInput (Json properties)
+		if (postInput == null)
+			return badRequestEmptyInputResponse();
+
+		GameServerDTO.Fields f = isQJIIntegrityOK(postInput);
+		if (f != null)
+			return badRequestMalformedInputResponse(f);
+
+		String gameName = postInput.getString(GameServerDTO.Fields.Game.getFieldName());
+		String gameVersion = postInput.getString(GameServerDTO.Fields.GameVersion.getFieldName());
+		String nmp = GameServerDTO.Fields.NMaxPlayers.getFieldName();
+		int nMaxPlayers = postInput.containsKey(nmp) ? postInput.getInt(nmp) : DEFAULT_QUICKJOIN_N_MAX_PLAYERS;
+		int n = gameName.isBlank() ? 1 : 0;
+		n += gameVersion.isBlank() ? 1 : 0;
+		n += nMaxPlayers < 0 ? 1 : 0;
+		if (n != 0)
+			return badRequestMandatoryPropertyInvalidResponse(n);
+
+		// ####################### RESERVE A SLOT IN THE FULLEST ROOM
+		FreeSlotIndex freeSlots = RoomDirectory.getInstance().getFreeSlots();
+		GameServerSlim gss = freeSlots.reserve(gameName, gameVersion, this::isJoinable);
+		if (gss != null)
+			return Response.status(Response.Status.OK).entity(new GameServerJoinResponse(gss)).build();
+
+		// ####################### CREATE A ROOM
+		// One room created at a time per game and game version: the requests
+		// waiting meanwhile join it as soon as it is in the index, or give up
+		// after QUICKJOIN_CREATION_WAIT rather than hold their executor thread
+		Map.Entry<String, String> key = Map.entry(gameName, gameVersion);
+		ReentrantLock creationLock;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(quickJoinCreationWaitMillis);
+		try {
+			while (true) {
+				creationLock = quickJoinCreationLocks.computeIfAbsent(key, k -> new ReentrantLock());
+				if (creationLock.tryLock(QUICKJOIN_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+					// Checked under the same bin lock as the removal: a lock
+					// removed meanwhile is released for the one now in the map
+					if (quickJoinCreationLocks.computeIfPresent(key, (k, l) -> l) == creationLock)
+						break;
+					creationLock.unlock();
+					continue;
 				}
-			} catch (SQLException e) {
-				String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
-				ResponseHandler.error(errorMessage, true);
-				response = gameServerCannotBeFetchOrChangedResponse(GameServerError.SQL_ERROR_FETCH_LOG_AND_DO_NOTHING.getErrorCode());
-			} finally {
-				resetGameServerObj();
+				gss = freeSlots.reserve(gameName, gameVersion, this::isJoinable);
+				if (gss != null)
+					return Response.status(Response.Status.OK).entity(new GameServerJoinResponse(gss)).build();
+				if (System.nanoTime() - deadline >= 0 || RequestExecutor.isAnswered())
+					return gameServerCannotBeFetchOrChangedResponse(GameServerError.ROOM_BEING_CREATED.getErrorCode());
 			}
-			return response;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return gameServerCannotBeFetchOrChangedResponse(GameServerError.ROOM_BEING_CREATED.getErrorCode());
+		}
+		try {
+			gss = freeSlots.reserve(gameName, gameVersion, this::isJoinable);
+			if (gss != null)
+				return Response.status(Response.Status.OK).entity(new GameServerJoinResponse(gss)).build();
+
+			String name = GameServerDTO.Fields.Name.getFieldName();
+			String d = GameServerDTO.Fields.Description.getFieldName();
+			JsonObjectBuilder createInput = Json.createObjectBuilder()
+					.add(name, postInput.containsKey(name) ? postInput.getString(name) : gameName)
+					.add(GameServerDTO.Fields.Game.getFieldName(), gameName)
+					.add(GameServerDTO.Fields.GameVersion.getFieldName(), gameVersion)
+					.add(nmp, nMaxPlayers);
+			if (postInput.containsKey(d))
+				createInput.add(d, postInput.getString(d));
+			Response created = createGameServer(authKey, createInput.build());
+
+			// The slot of the player who asked for it
+			if (created.getEntity() instanceof GameServerCreatedResponse)
+				freeSlots.reserve(((GameServerCreatedResponse) created.getEntity()).getData());
+			return created;
+		} finally {
+			creationLock.unlock();
+			// The game and game version are given by the clients, the locks
+			// nobody waits for are not kept
+			final ReentrantLock released = creationLock;
+			quickJoinCreationLocks.computeIfPresent(key,
+					(k, l) -> l == released && !l.isLocked() && !l.hasQueuedThreads() ? null : l);
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Response subscribeToRoomEvents(final String authKey, final Sse sse, final SseEventSink sink,
+			final String lastEventId) {
+		// Check the auth_key
+		int authKeyRet = isAuthorized(authKey);
+		if (authKeyRet != RET_OK)
+			return authKeyComparisonErrorResponse(authKeyRet);
+
+		// ####################### SUBSCRIBE TO THE ROOM EVENTS
+		RoomEventFeed.getInstance().subscribe(sse, sink, lastEventId);
+		return null;
+	}
+
 	// ##########################################################################
 
 	/**
-	 * This method fetch a {@link GameServerDTO} by its {@code serverId} and
-	 * save it as a member of the {@link AbstractGameServerService} class for
-	 * manipulation.
+	 * This method executes {@code sqlId} and builds a response streaming the
+	 * game servers to the client as they are read from the database, instead
+	 * of building the whole list in memory first.</br>
+	 * On success, the borrowed connection is owned by the
+	 * {@link GameServerListStream} and given back once the response is
+	 * written.
+	 * @param sqlId as a {@link SQLRequest} selecting game servers (slim)
+	 * @param params as the values of the placeholders
+	 * @return a Response object with a {@link GameServerListStream} entity or
+	 * an {@link fr.fuwuyuan.gameserverapi.responses.ErrorResponse ErrorResponse}
+	 * if the query cannot be executed
+	 * @see {@link PooledConnection#stream}
+	 */
+	private Response streamGameServers(SQLRequest sqlId, Object... params) {
+		PooledConnection conn = DatabaseSession.getInstance().getConnection();
+		// Check if a connection to the database has been borrowed
+		if (conn == null)
+			return gameServerCannotBeFetchOrChangedResponse(GameServerError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorCode());
+
+		try {
+			// The connection is borrowed, executing the query
+			ResultSet resultSet = conn.stream(sqlId, params);
+
+			// ####################### RETURN GAME SERVERS (SLIM) AS THEY ARE READ
+			GameServerListStream gsls = new GameServerListStream(conn, resultSet);
+			return Response.status(Response.Status.OK).entity(gsls).build();
+		} catch (SQLException e) {
+			conn.close();
+			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
+			ResponseHandler.error(errorMessage, true);
+			return gameServerCannotBeFetchOrChangedResponse(GameServerError.SQL_ERROR_FETCH_LOG_AND_DO_NOTHING.getErrorCode());
+		}
+	}
+
+	/**
+	 * This method gives back what a room not created was given: its process,
+	 * if any, then its port.
+	 * @param ip as a String
+	 * @param port as an int value
+	 * @param process as a {@link GameServerProcess}, {@code null} when the
+	 * launcher is disabled
+	 */
+	private void releaseGameServer(String ip, int port, GameServerProcess process) {
+		if (process != null)
+			launcher.discard(process);
+		portService.freeUsedPort(ip, port);
+	}
+
+	/**
+	 * @return {@code true} if {@code e} is the rejection of a room whose ip
+	 * & port are already those of another room, by the {@code ip_port}
+	 * unique key
+	 */
+	private static boolean isPortTaken(SQLException e) {
+		return e.getErrorCode() == SQL_DUPLICATE_ENTRY && e.getMessage() != null
+				&& e.getMessage().contains("ip_port");
+	}
+
+	/**
+	 * @return {@code false} if no player should be sent to the room
+	 * {@code gss}, its game server being dead
+	 */
+	private boolean isJoinable(GameServerSlim gss) {
+		return !supervisor.isDead(gss.getServerId());
+	}
+
+	/**
+	 * This method builds a page from {@code servers}, fetched with one more
+	 * game server than {@code limit}: when this extra game server is present,
+	 * it is dropped and the {@code next} cursor is set to the last
+	 * {@code server_id} of the page.
+	 * @param servers as a mutable list of {@link GameServerSlim}
+	 * @param limit as an int value
+	 * @return a {@link GameServerPageResponse}
+	 */
+	private GameServerPageResponse buildPageResponse(List<GameServerSlim> servers, int limit) {
+		String next = null;
+		if (servers.size() > limit) {
+			servers.remove(servers.size() - 1);
+			next = servers.get(servers.size() - 1).getServerId();
+		}
+		return new GameServerPageResponse(servers, next);
+	}
+
+	/**
+	 * This method fetch a game server by its {@code serverId} and fills
+	 * {@code gs} with it for manipulation. Nothing is kept between two calls,
+	 * the service can be used concurrently.
 	 * @param serverId as a String
+	 * @param gs as the {@link GameServerDTO} to fill
 	 * @return {@code RET_OK} if successful, a {@link GameServerError} otherwise
-	 * @see {@link AbstractGameServerService#gameServer}
 	 * @see {@link ServiceInterface#RET_OK}
 	 * @see {@link GameServerError}
 	 */
-	private int fetchGameServerById(final String serverId) {
-		String selectSql = "SELECT `server_id`, `ip`, `port`, `name`, `description`, "
-						+ "`game`, `game_version`, `n_max_players`, `opened_on`, `ready_for_shutdown` "
-						+ "FROM `servers` "
-						+ "WHERE `servers`.`server_id` = '" + serverId + "'";
-
-		try {
-			DatabaseSession dbSession = DatabaseSession.getInstance();
-			// Check if the database session is indeed connected to the database
-			if (!dbSession.isConnected()) {
+	private int fetchGameServerById(final String serverId, final GameServerDTO gs) {
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			// Check if a connection to the database has been borrowed
+			if (conn == null) {
 				return GameServerError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorCode();
 			} else {
-				// The Database session is connected, executing the query
-				ResultSet resultSet = dbSession.executeQuery(selectSql);
+				// The connection is borrowed, executing the query
+				ResultSet resultSet = conn.query(SQLRequest.SELECT_SERVER_BY_ID, serverId);
 
 				if (!resultSet.next()) { // Check to see if the game server exists
 					return GameServerError.NO_GAMESERVER_CORRESPONDING_TO_GIVEN_ID.getErrorCode();
 				}
 
-				GameServerDTO gs = new GameServerDTO();
 				gs.setServerId(resultSet.getString(GameServerDTO.Fields.ServerId.getFieldName()));
 				gs.setIp(resultSet.getString(GameServerDTO.Fields.Ip.getFieldName()));
 				gs.setPort(resultSet.getInt(GameServerDTO.Fields.Port.getFieldName()));
@@ -456,12 +888,15 @@ public class GameServerService extends AbstractGameServerService {
 				gs.setGame(resultSet.getString(GameServerDTO.Fields.Game.getFieldName()));
 				gs.setGameVersion(resultSet.getString(GameServerDTO.Fields.GameVersion.getFieldName()));
 				gs.setNMaxPlayers(resultSet.getInt(GameServerDTO.Fields.NMaxPlayers.getFieldName()));
+				gs.setNPlayers(resultSet.getInt(GameServerDTO.Fields.NPlayers.getFieldName()));
 				gs.setOpenedOn(resultSet.getString(GameServerDTO.Fields.OpenedOn.getFieldName()));
 				int rfs = resultSet.getInt(GameServerDTO.Fields.ReadyForShutdown.getFieldName());
 				gs.setReadyForShutdown(rfs == 1 ? true : false);
+				gs.setLoad(resultSet.getFloat(GameServerDTO.Fields.Load.getFieldName()));
+				gs.setLastHeartbeat(resultSet.getString(GameServerDTO.Fields.LastHeartbeat.getFieldName()));
+				gs.setDead(resultSet.getInt(GameServerDTO.Fields.Dead.getFieldName()) == 1);
 
-				resultSet.getStatement().close();
-				this.gameServer = gs;
+				resultSet.close();
 				return RET_OK;
 			}
 		} catch (SQLException e) {
@@ -470,4 +905,14 @@ public class GameServerService extends AbstractGameServerService {
 			return GameServerError.SQL_ERROR_FETCH_LOG_AND_DO_NOTHING.getErrorCode();
 		}
 	}
+
+	private static long readQuickJoinCreationWait() {
+		Properties properties = null;
+		try {
+			properties = ApplicationPropertiesUtils.readPropertiesFile();
+		} catch (IOException e) {
+			ResponseHandler.error("application.properties file cannot be closed: " + e.getMessage(), true);
+		}
+		return Math.max(0, ApplicationPropertiesUtils.getLongProperty(properties, QUICKJOIN_CREATION_WAIT, 2000));
+	}
 }
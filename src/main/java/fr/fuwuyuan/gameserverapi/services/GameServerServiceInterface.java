@@ -1,7 +1,10 @@
 package fr.fuwuyuan.gameserverapi.services;
 
 import javax.json.JsonObject;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
 
 import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
 import fr.fuwuyuan.gameserverapi.database.DatabaseSession;
@@ -20,9 +23,13 @@ import fr.fuwuyuan.gameserverapi.responses.GameServerApiResponse;
  * @see {@link GameServerError}
  * @see {@link GameServerServiceInterface#createGameServer}
  * @see {@link GameServerServiceInterface#getGameServers}
+ * @see {@link GameServerServiceInterface#getGameServersPage}
  * @see {@link GameServerServiceInterface#getGameServerById}
  * @see {@link GameServerServiceInterface#getGameServerByGameNameAndGameVersion}
  * @see {@link GameServerServiceInterface#shutdownGameServer}
+ * @see {@link GameServerServiceInterface#heartbeat}
+ * @see {@link GameServerServiceInterface#quickJoin}
+ * @see {@link GameServerServiceInterface#subscribeToRoomEvents}
  */
 public interface GameServerServiceInterface extends ServiceInterface {
 
@@ -36,6 +43,9 @@ public interface GameServerServiceInterface extends ServiceInterface {
 		SQL_DATABASE_SESSION_NOT_CONNECTED(-101),
 		SQL_ERROR_FETCH_LOG_AND_DO_NOTHING(-102),
 		SQL_ERROR_CREATED_LOG_AND_DO_NOTHING(-103),
+		GAMESERVER_CANNOT_BE_LAUNCHED(-104),
+		REQUEST_ALREADY_ANSWERED(-105),
+		ROOM_BEING_CREATED(-106),
 		NO_GAMESERVER_CORRESPONDING_TO_GIVEN_ID(-111);
 
 		private int errorCode;
@@ -97,9 +107,14 @@ public interface GameServerServiceInterface extends ServiceInterface {
 
 	/**
 	 * This method is called by the controller to build a list of all game
-	 * server saved in the {@code 'servers'} table.
+	 * server saved in the {@code 'servers'} table.</br>
+	 * The response carries an {@code ETag} header and is a 304 Not Modified
+	 * without entity if the {@code If-None-Match} header of the request matches
+	 * it.
 	 * @param authKey as a String to be compared with the one in the database to see
 	 * if the caller is not unknown
+	 * @param request as a {@link Request} to evaluate the {@code If-None-Match}
+	 * header
 	 * @return a json object containing a list of {@link GameServerSlim}
 	 * (to avoid sending unwanted informations, only 'server_id', 'ip', 'port',
 	 * 'name', 'description', 'game', 'game_version' and 'n_max_players') otherwise
@@ -110,7 +125,41 @@ public interface GameServerServiceInterface extends ServiceInterface {
 	 * @see {@link fr.fuwuyuan.gameserverapi.data.GameServerSlim GameServerSlim}
 	 * @see {@link fr.fuwuyuan.gameserverapi.responses.ErrorResponse ErrorResponse}
 	 */
-	public Response getGameServers(String authKey);
+	public Response getGameServers(String authKey, Request request);
+
+	/**
+	 * This method is called by the controller to build a page of the game
+	 * servers saved in the {@code 'servers'} table, ordered by
+	 * {@code server_id}, optionally filtered by game, game version and free
+	 * slots.</br>
+	 * Pages are keyset paginated: the {@code next} cursor of a page is the
+	 * {@code after} of the following one, it is {@code null} on the last page.
+	 * The response carries an {@code ETag} header and is a 304 Not Modified
+	 * without entity if the {@code If-None-Match} header of the request matches
+	 * it.
+	 * @param authKey as a String to be compared with the one in the database to see
+	 * if the caller is not unknown
+	 * @param request as a {@link Request} to evaluate the {@code If-None-Match}
+	 * header
+	 * @param after as a String, the {@code server_id} after which the page
+	 * starts, null for the first page
+	 * @param limit as a String, the maximum number of game servers of the page,
+	 * null for the default
+	 * @param gameName as a String, case sensitive, null for all games
+	 * @param gameVersion as a String, null for all versions, requires
+	 * {@code gameName}
+	 * @param freeSlotsOnly {@code true} to only return the game servers a
+	 * player can still join
+	 * @return a json object containing a list of {@link GameServerSlim} and the
+	 * {@code next} cursor otherwise the response will contain an
+	 * {@link ErrorResponse} with status code and error set accordingly
+	 * @see {@link fr.fuwuyuan.gameserverapi.services.AbstractGameServerService#isAuthorized AbstractGameServerService.isAuthorized}
+	 * @see {@link fr.fuwuyuan.gameserverapi.cache.RoomDirectory#page RoomDirectory.page}
+	 * @see {@link fr.fuwuyuan.gameserverapi.responses.GameServerPageResponse GameServerPageResponse}
+	 * @see {@link fr.fuwuyuan.gameserverapi.responses.ErrorResponse ErrorResponse}
+	 */
+	public Response getGameServersPage(String authKey, Request request, String after, String limit,
+			String gameName, String gameVersion, boolean freeSlotsOnly);
 
 	/**
 	 * This method is called by the controller to fetch a game server by its
@@ -132,9 +181,14 @@ public interface GameServerServiceInterface extends ServiceInterface {
 	/**
 	 * This method is called by the controller to build a list of game server
 	 * filtered by the {@code gameName} and the {@code gameVersion} saved in
-	 * the {@code 'servers'} table.
+	 * the {@code 'servers'} table.</br>
+	 * The response carries an {@code ETag} header and is a 304 Not Modified
+	 * without entity if the {@code If-None-Match} header of the request matches
+	 * it.
 	 * @param authKey as a String to be compared with the one in the database to see
 	 * if the caller is not unknown
+	 * @param request as a {@link Request} to evaluate the {@code If-None-Match}
+	 * header
 	 * @param gameName as a String for the SQL request
 	 * @param gameVersion as a String for the SQL request
 	 * @return a json object containing a list of {@link GameServerSlim} (to
@@ -148,7 +202,7 @@ public interface GameServerServiceInterface extends ServiceInterface {
 	 * @see {@link fr.fuwuyuan.gameserverapi.responses.ErrorResponse ErrorResponse}
 	 */
 	public Response getGameServerByGameNameAndGameVersion(String authKey,
-			String gameName, String gameVersion);
+			Request request, String gameName, String gameVersion);
 
 	/**
 	 * This method is called by the controller to shutdown a running game server.
@@ -171,4 +225,65 @@ public interface GameServerServiceInterface extends ServiceInterface {
 	 * @see {@link fr.fuwuyuan.gameserverapi.responses.ErrorResponse ErrorResponse}
 	 */
 	public Response shutdownGameServer(String authKey, String serverId);
+
+	/**
+	 * This method is called by the controller when a running game server
+	 * reports its number of players and, optionally, its load. The heartbeat
+	 * is buffered in memory and written to the {@code 'servers'} table with
+	 * the others received meanwhile.
+	 * @param authKey as a String to be compared with the one in the database to
+	 * see if the caller is not unknown
+	 * @param serverId as a String, the id of the game server
+	 * @param postInput as a {@link javax.json.JsonObject} with the mandatory
+	 * 'n_players' and the optional 'load'
+	 * @return a {@link GameServerApiResponse} with status code {@code 202}
+	 * once buffered or an {@link ErrorResponse} with status code and error set
+	 * accordingly
+	 * @see {@link fr.fuwuyuan.gameserverapi.services.AbstractGameServerService#isAuthorized AbstractGameServerService.isAuthorized}
+	 * @see {@link fr.fuwuyuan.gameserverapi.heartbeat.HeartbeatSupervisor HeartbeatSupervisor}
+	 * @see {@link fr.fuwuyuan.gameserverapi.responses.ErrorResponse ErrorResponse}
+	 */
+	public Response heartbeat(String authKey, String serverId, JsonObject postInput);
+
+	/**
+	 * This method is called by the controller to find a room a player can
+	 * join, running the given game and game version. A slot is reserved in
+	 * the fullest room with a free slot, read from memory. When there is
+	 * none, a room is created as with {@link #createGameServer}, named after
+	 * the game unless a name is given. A single room is created at a time per
+	 * game and game version: the others wait for it for
+	 * {@code QUICKJOIN_CREATION_WAIT} at most.
+	 * @param authKey as a String to be compared with the one in the database to
+	 * see if the caller is not unknown
+	 * @param postInput as a {@link javax.json.JsonObject} with the mandatory
+	 * 'game' and 'game_version' and the optional 'name', 'description' and
+	 * 'n_max_players' of the room to create
+	 * @return a {@link GameServerSlim} with status code {@code 200} when a room
+	 * is joined, {@code 201} when it is created, otherwise the response will
+	 * contain an {@link ErrorResponse} with status code and error set
+	 * accordingly
+	 * @see {@link fr.fuwuyuan.gameserverapi.services.AbstractGameServerService#isAuthorized AbstractGameServerService.isAuthorized}
+	 * @see {@link fr.fuwuyuan.gameserverapi.cache.FreeSlotIndex FreeSlotIndex}
+	 * @see {@link fr.fuwuyuan.gameserverapi.responses.GameServerJoinResponse GameServerJoinResponse}
+	 * @see {@link fr.fuwuyuan.gameserverapi.responses.ErrorResponse ErrorResponse}
+	 */
+	public Response quickJoin(String authKey, JsonObject postInput);
+
+	/**
+	 * This method is called by the controller to subscribe a client to the
+	 * Server-Sent Events feed of the rooms lifecycle: {@code created},
+	 * {@code updated}, {@code dead} and {@code shutdown} events are pushed to
+	 * it as they happen.
+	 * @param authKey as a String to be compared with the one in the database to
+	 * see if the caller is not unknown
+	 * @param sse as the {@link Sse} of the request
+	 * @param sink as the {@link SseEventSink} of the request
+	 * @param lastEventId as a String, the {@code Last-Event-ID} header sent by a
+	 * reconnecting client, can be null
+	 * @return {@code null} once subscribed, otherwise an {@link ErrorResponse}
+	 * with status code and error set accordingly
+	 * @see {@link fr.fuwuyuan.gameserverapi.services.AbstractGameServerService#isAuthorized AbstractGameServerService.isAuthorized}
+	 * @see {@link fr.fuwuyuan.gameserverapi.events.RoomEventFeed RoomEventFeed}
+	 */
+	public Response subscribeToRoomEvents(String authKey, Sse sse, SseEventSink sink, String lastEventId);
 }
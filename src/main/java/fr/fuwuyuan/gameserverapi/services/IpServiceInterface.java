@@ -3,8 +3,8 @@ package fr.fuwuyuan.gameserverapi.services;
 /**
  * Extends {@link ServiceInterface}
  * <p>
- * This is the ip service interface that describes a method to query a
- * homemade public ip webservice.
+ * This is the ip service interface that describes a method to get the
+ * public ip of the host, resolved with a homemade public ip webservice.
  * </p>
  * @author julien-beguier
  * @see {@link IpServiceInterface#getPublicIp}
@@ -12,9 +12,11 @@ package fr.fuwuyuan.gameserverapi.services;
 public interface IpServiceInterface extends ServiceInterface {
 
 	/**
-	 * This method send a GET request to simple-ip-ws (homemade public ip webservice)
-	 * @return the public IP to connect to the server as a String or null if it fails
-	 * @see {@link java.net.HttpURLConnection}
+	 * This method returns the public ip of the host, as last fetched from
+	 * simple-ip-ws (homemade public ip webservice) or from a fallback
+	 * @return the public IP to connect to the server as a String or null if it
+	 * cannot be determined
+	 * @see {@link fr.fuwuyuan.gameserverapi.ip.PublicIpResolver PublicIpResolver}
 	 */
 	public String getPublicIp();
 }
@@ -1,55 +1,84 @@
 package fr.fuwuyuan.gameserverapi.services;
 
-import java.io.StringReader;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import javax.json.Json;
-import javax.json.JsonReader;
+import javax.json.JsonException;
 
+import fr.fuwuyuan.gameserverapi.cache.PortAllocator;
 import fr.fuwuyuan.gameserverapi.database.DatabaseSession;
+import fr.fuwuyuan.gameserverapi.database.PooledConnection;
+import fr.fuwuyuan.gameserverapi.database.SQLRequest;
 import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
 import fr.fuwuyuan.gameserverapi.services.PortServiceInterface.PortError;
-import fr.fuwuyuan.gameserverapi.utils.JsonUtils;
+import fr.fuwuyuan.gameserverapi.utils.NamedThreadFactory;
 
 /**
  * Extends {@link AbstractPortService}
  * <p>
  * This is the port service class which implements the methods to
- * manipulate used & available ports. It uses the {@link JsonUtils}
- * class to do the json manipulation and {@link DatabaseSession} to
- * query the database.
+ * manipulate used & available ports. The ports of each ip are loaded once
+ * from the {@code 'ports'} table into a {@link PortAllocator} which
+ * allocates them in memory. The changes are written back to the database
+ * using {@link DatabaseSession} by the {@code ports} background thread,
+ * the changes made meanwhile by the same write, and a write which failed is
+ * retried every {@code SYNC_INTERVAL_MILLIS}. A request never waits for the
+ * database to claim or release a port.</br>
+ * The {@code 'servers'} table stays the reference: the ports of its rooms
+ * are marked as used when the ports of their ip are loaded, even if the
+ * last changes were not written before the api stopped.</br>
+ * The allocators are shared by all the instances of the service. Several
+ * api nodes can allocate the ports of the same ip: a row is only written if
+ * its {@code version} has not changed since it was read, otherwise the
+ * changes are applied over the row read again, see
+ * {@link PortAllocator#persist}. The rows written by the other nodes are
+ * read again every {@code SYNC_INTERVAL_MILLIS}. Until then, a node can
+ * claim a port another node just claimed: the {@code ip_port} unique key
+ * of the {@code 'servers'} table rejects the second room, see
+ * {@link GameServerService}.
  * </p>
  * @author julien-beguier
- * @see {@link DatabaseSession#executeQuery}
- * @see {@link DatabaseSession#executeUpdate}
- * @see {@link JsonUtils#addIntToJsonArray}
- * @see {@link JsonUtils#removeIntFromJsonArray}
+ * @see {@link PortAllocator}
+ * @see {@link PooledConnection#query}
+ * @see {@link PooledConnection#update}
  */
 public class PortService extends AbstractPortService {
 
+	private static final long SYNC_INTERVAL_MILLIS = 5000;
+
+	private static final ConcurrentHashMap<String, PortAllocator> allocators =
+			new ConcurrentHashMap<String, PortAllocator>();
+	private static final ScheduledExecutorService persister =
+			Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ports"));
+
+	static {
+		persister.scheduleWithFixedDelay(PortService::sync, SYNC_INTERVAL_MILLIS,
+				SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public int getAvailablePort(final String ip) {
-
-		if (null == this.portsUsed || null == this.portsAvailable) {
-			int ret = fetchPortsArrays(ip);
+		PortAllocator allocator = allocators.get(ip);
+		if (allocator == null) {
+			int ret = fetchPortAllocator(ip);
 			if (ret != RET_OK)
 				return ret;
+			allocator = allocators.get(ip);
 		}
 
-		int returnCode = 0;
-
-		// Check to is there is available ports to use
-		if (this.portsAvailable.isEmpty())
-			returnCode = PortError.NO_AVAILABLE_PORT_LEFT_ON_GIVEN_IP.getErrorCode();
-
-		// Return the first available port
-		returnCode = this.portsAvailable.getInt(0);
-		resetPortsArrays();
-		return returnCode;
+		// Claim the first available port
+		int port = allocator.claim();
+		if (port < 0)
+			return PortError.NO_AVAILABLE_PORT_LEFT_ON_GIVEN_IP.getErrorCode();
+		return port;
 	}
 
 	/**
@@ -57,21 +86,20 @@ public class PortService extends AbstractPortService {
 	 */
 	@Override
 	public int addNewPortToUsedPorts(final String ip, final int port) {
-
-		if (null == this.portsUsed || null == this.portsAvailable) {
-			int ret = fetchPortsArrays(ip);
+		PortAllocator allocator = allocators.get(ip);
+		if (allocator == null) {
+			int ret = fetchPortAllocator(ip);
 			if (ret != RET_OK)
 				return ret;
-			return addNewPortToUsedPorts(ip, port);
-		} else {
+			allocator = allocators.get(ip);
+		}
 
-			// Add the port to the portsUsed array to save it to DB
-			this.portsUsed = JsonUtils.addIntToJsonArray(this.portsUsed, port);
-			// Remove the port from the portsAvailable array to save it to DB
-			this.portsAvailable = JsonUtils.removeIntFromJsonArray(this.portsAvailable, port);
+		// Mark the port as used, it already is if claimed by getAvailablePort
+		if (!allocator.claim(port))
+			return PortError.NO_PORT_CORRESPONDING_TO_GIVEN_IP.getErrorCode();
 
-			return updatePortsArrays(ip);
-		}
+		persistLater(ip, allocator);
+		return RET_OK;
 	}
 
 	/**
@@ -79,71 +107,149 @@ public class PortService extends AbstractPortService {
 	 */
 	@Override
 	public int freeUsedPort(final String ip, final int port) {
+		PortAllocator allocator = allocators.get(ip);
+		if (allocator == null) {
+			int ret = fetchPortAllocator(ip);
+			if (ret != RET_OK)
+				return ret;
+			allocator = allocators.get(ip);
+		}
+
+		// Mark the port as available
+		if (!allocator.release(port))
+			return PortError.NO_PORT_CORRESPONDING_TO_GIVEN_IP.getErrorCode();
 
-		if (null == this.portsUsed || null == this.portsAvailable) {
-			int ret = fetchPortsArrays(ip);
+		persistLater(ip, allocator);
+		return RET_OK;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int freeUsedPorts(final String ip, final int[] ports) {
+		PortAllocator allocator = allocators.get(ip);
+		if (allocator == null) {
+			int ret = fetchPortAllocator(ip);
 			if (ret != RET_OK)
 				return ret;
-			return freeUsedPort(ip, port);
-		} else {
+			allocator = allocators.get(ip);
+		}
 
-			// Remove the port from the portsUsed array to save it to DB
-			this.portsUsed = JsonUtils.removeIntFromJsonArray(this.portsUsed, port);
-			// Add the freed port to the portsAvailable array to save it to DB
-			this.portsAvailable = JsonUtils.addIntToJsonArray(this.portsAvailable, port);
+		// Mark the ports as available, then write them all at once
+		boolean allReleased = true;
+		for (int port : ports)
+			allReleased &= allocator.release(port);
+
+		persistLater(ip, allocator);
+		if (!allReleased)
+			return PortError.NO_PORT_CORRESPONDING_TO_GIVEN_IP.getErrorCode();
+		return RET_OK;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PortAllocator getPortAllocator(final String ip) {
+		PortAllocator allocator = allocators.get(ip);
+		if (allocator == null && fetchPortAllocator(ip) == RET_OK)
+			allocator = allocators.get(ip);
+		return allocator;
+	}
 
-			return updatePortsArrays(ip);
+	/**
+	 * This method writes the changes of the ports of all the ips not written
+	 * yet, on the calling thread, for instance before the api stops.
+	 * @return {@code true} if all of them are written
+	 */
+	public static boolean persistAll() {
+		boolean persisted = true;
+		for (Map.Entry<String, PortAllocator> entry : allocators.entrySet()) {
+			String ip = entry.getKey();
+			persisted &= entry.getValue().persist(new PortStore(ip)) == RET_OK;
 		}
+		return persisted;
+	}
+
+	/**
+	 * This method stops the background writes, then writes the changes left.
+	 * Called when the api is undeployed.
+	 * @return {@code true} if all of them are written
+	 */
+	public static boolean shutdown() {
+		persister.shutdownNow();
+		try {
+			persister.awaitTermination(SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return persistAll();
 	}
 
 	// ##########################################################################
 
+	private static void persistLater(final String ip, final PortAllocator allocator) {
+		allocator.persistLater(persister, new PortStore(ip));
+	}
+
+	/**
+	 * Background task: writes again the changes whose write failed, and
+	 * reads the rows written by the other api nodes.
+	 */
+	private static void sync() {
+		for (Map.Entry<String, PortAllocator> entry : allocators.entrySet())
+			entry.getValue().refresh(new PortStore(entry.getKey()));
+	}
+
 	/**
 	 * This method fetch a record of the {@code 'ports'} table using the
-	 * given {@code ip} and save it as a member of the
-	 * {@link AbstractPortService} class for manipulation.
+	 * given {@code ip} and builds its {@link PortAllocator}, unless another
+	 * request did it first.
 	 * @param ip as a String
 	 * @return {@code RET_OK} if successful, a {@link PortError} otherwise
-	 * @see {@link AbstractPortService#portsUsed}
-	 * @see {@link AbstractPortService#portsAvailable}
+	 * @see {@link PortService#allocators}
 	 * @see {@link ServiceInterface#RET_OK}
 	 * @see {@link PortError}
 	 */
-	private int fetchPortsArrays(final String ip) {
-		// SQL - Get the two arrays of ports to check & save them to later build value for the update
-		//       -> This prevent to redo the same select later
-		String selectSql = "SELECT `ports`.`used`, `ports`.`available` FROM `ports` "
-						+ "WHERE `ports`.`public_ip` = '" + ip + "'";
-
-		try {
-			DatabaseSession dbSession = DatabaseSession.getInstance();
-			// Check if the database session is indeed connected to the database
-			if (!dbSession.isConnected()) {
+	private int fetchPortAllocator(final String ip) {
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			// Check if a connection to the database has been borrowed
+			if (conn == null) {
 				return PortError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorCode();
 			} else {
-				// The Database session is connected, executing the query
-				ResultSet resultSet = dbSession.executeQuery(selectSql);
+				// The connection is borrowed, executing the query
+				ResultSet resultSet = conn.query(SQLRequest.SELECT_PORTS_BY_IP, ip);
 
 				// Check to see if the server machine is registered
 				if (!resultSet.next())
 					return PortError.NO_PORT_CORRESPONDING_TO_GIVEN_IP.getErrorCode();
 
-				// Read both arrays to use them later - prevent the same SQL request to be executed
-				JsonReader jsonReader = Json.createReader(new StringReader(resultSet.getString(1)));
-				this.portsUsed = jsonReader.readArray();
-				jsonReader.close();
+				PortAllocator allocator = new PortAllocator(resultSet.getString(1), resultSet.getString(2),
+						resultSet.getLong(3));
+				resultSet.close();
 
-				jsonReader = Json.createReader(new StringReader(resultSet.getString(2)));
-				this.portsAvailable = jsonReader.readArray();
-				jsonReader.close();
+				// The ports of the rooms are used, whatever was last written
+				int freeCount = allocator.getFreeCount();
+				resultSet = conn.query(SQLRequest.SELECT_SERVERS_PORTS_BY_IP, ip);
+				while (resultSet.next())
+					allocator.claim(resultSet.getInt(1));
+				resultSet.close();
+				boolean reconciled = allocator.getFreeCount() != freeCount;
 
-				resultSet.getStatement().close();
+				// Only the first allocator built is kept, the others may already
+				// have allocated ports
+				if (allocators.putIfAbsent(ip, allocator) == null && reconciled)
+					persistLater(ip, allocator);
 				return RET_OK; // Fetch has succeeded
 			}
 		} catch (SQLException e) {
 			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
 			ResponseHandler.error(errorMessage, true);
 			return PortError.SQL_ERROR_FETCH_LOG_AND_DO_NOTHING.getErrorCode();
+		} catch (JsonException | IllegalArgumentException e) {
+			ResponseHandler.error("The ports of " + ip + " are invalid: " + e.getMessage(), true);
+			return PortError.SQL_ERROR_FETCH_LOG_AND_DO_NOTHING.getErrorCode();
 		}
 	}
 
@@ -151,39 +257,91 @@ public class PortService extends AbstractPortService {
 	 * This method update a record of the {@code 'ports'} table using the
 	 * given {@code ip}.
 	 * @param ip as a String
-	 * @return {@code RET_OK} if successful, a {@link PortError} otherwise
-	 * @see {@link AbstractPortService#resetPortsArrays}
+	 * @param used as a json range list String
+	 * @param available as a json range list String
+	 * @param version as the long value of the record last read or written
+	 * @return {@code RET_OK} if successful, {@link PortAllocator#CONFLICT} if
+	 * the record has been written since {@code version}, a {@link PortError}
+	 * otherwise
+	 * @see {@link PortAllocator#persist}
 	 * @see {@link ServiceInterface#RET_OK}
 	 * @see {@link PortError}
 	 */
-	private int updatePortsArrays(final String ip) {
-		int returnCode = 0;
-		String updateSql = "UPDATE `ports` SET "
-						+ "`ports`.`used` = '" + this.portsUsed.toString() + "', "
-						+ "`ports`.`available` = '" + this.portsAvailable.toString() + "' "
-						+ "WHERE `ports`.`public_ip` = '" + ip + "'";
-
-		try {
-			DatabaseSession dbSession = DatabaseSession.getInstance();
-			// Check if the database session is indeed connected to the database
-			if (!dbSession.isConnected()) {
-				returnCode = PortError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorCode();
+	private static int updatePorts(final String ip, final String used, final String available,
+			final long version) {
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			// Check if a connection to the database has been borrowed
+			if (conn == null) {
+				return PortError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorCode();
 			} else {
-				// The Database session is connected, executing the query
-				int requestResult = dbSession.executeUpdate(updateSql);
+				// The connection is borrowed, executing the query
+				int requestResult = conn.update(SQLRequest.UPDATE_PORTS_BY_IP, used, available, ip, version);
 
-				if (requestResult == 0) // Check to see if the record exists
-					returnCode = PortError.NO_PORT_CORRESPONDING_TO_GIVEN_IP.getErrorCode();
+				// Either the record does not exist anymore or another api node
+				// wrote it, reading it again tells which
+				if (requestResult == 0)
+					return PortAllocator.CONFLICT;
 
-				returnCode = RET_OK; // Update has succeeded
+				return RET_OK; // Update has succeeded
 			}
 		} catch (SQLException e) {
 			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
 			ResponseHandler.error(errorMessage, true);
-			returnCode = PortError.SQL_ERROR_UPDATE_LOG_AND_DO_NOTHING.getErrorCode();
-		} finally {
-			resetPortsArrays();
+			return PortError.SQL_ERROR_UPDATE_LOG_AND_DO_NOTHING.getErrorCode();
+		}
+	}
+
+	/**
+	 * This method fetch a record of the {@code 'ports'} table using the
+	 * given {@code ip}, as it is now.
+	 * @param ip as a String
+	 * @return the record, or {@code null} if it does not exist or cannot be
+	 * fetched
+	 * @see {@link PortAllocator#persist}
+	 * @see {@link PortAllocator#refresh}
+	 */
+	private static PortAllocator.Row fetchPorts(final String ip) {
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			// Check if a connection to the database has been borrowed
+			if (conn == null)
+				return null;
+			// The connection is borrowed, executing the query
+			ResultSet resultSet = conn.query(SQLRequest.SELECT_PORTS_BY_IP, ip);
+			if (!resultSet.next()) {
+				ResponseHandler.error("The ports of " + ip + " do not exist anymore", true);
+				return null;
+			}
+			PortAllocator.Row row = new PortAllocator.Row(resultSet.getString(1), resultSet.getString(2),
+					resultSet.getLong(3));
+			resultSet.close();
+			return row;
+		} catch (SQLException e) {
+			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
+			ResponseHandler.error(errorMessage, true);
+			return null;
+		}
+	}
+
+	/**
+	 * The {@code 'ports'} record of an ip, as written and read by its
+	 * {@link PortAllocator}.
+	 * @author julien-beguier
+	 */
+	private static class PortStore implements PortAllocator.Store {
+		private final String ip;
+
+		private PortStore(final String ip) {
+			this.ip = ip;
+		}
+
+		@Override
+		public int write(String used, String available, long version) {
+			return updatePorts(this.ip, used, available, version);
+		}
+
+		@Override
+		public PortAllocator.Row read() {
+			return fetchPorts(this.ip);
 		}
-		return returnCode;
 	}
 }
@@ -1,5 +1,7 @@
 package fr.fuwuyuan.gameserverapi.services;
 
+import fr.fuwuyuan.gameserverapi.cache.PortAllocator;
+
 /**
  * Extends {@link ServiceInterface}
  * <p>
@@ -12,12 +14,14 @@ package fr.fuwuyuan.gameserverapi.services;
  * @see {@link PortServiceInterface#getAvailablePort}
  * @see {@link PortServiceInterface#addNewPortToUsedPorts}
  * @see {@link PortServiceInterface#freeUsedPort}
+ * @see {@link PortServiceInterface#freeUsedPorts}
+ * @see {@link PortServiceInterface#getPortAllocator}
  */
 public interface PortServiceInterface extends ServiceInterface {
 
 	/**
 	 * This enumeration represents the possible cases that can happen while
-	 * manipulating JsonArrays, contained in the {@code 'ports'} table, during
+	 * manipulating the ports, contained in the {@code 'ports'} table, during
 	 * SQL requests.
 	 * @author julien-beguier
 	 */
@@ -40,52 +44,81 @@ public interface PortServiceInterface extends ServiceInterface {
 	}
 
 	/**
-	 * This method will try to find the first available port on the given
-	 * {@code ip}. It will do so by fetching, if necessary, the
-	 * {@link javax.json.JsonArray} from the {@code 'ports'} table.
+	 * This method will try to find an available port on the given
+	 * {@code ip} and claim it: it will not be returned again until freed,
+	 * even to a concurrent request. It will do so by fetching, if necessary,
+	 * the ports from the {@code 'ports'} table.
 	 * @param ip as a String for the SQL request
-	 * @return the first available port found or a {@link PortError} otherwise
-	 * @see {@link PortService#fetchPortsArrays}
-	 * @see {@link PortService#resetPortsArrays}
+	 * @return the port claimed or a {@link PortError} otherwise
+	 * @see {@link PortService#fetchPortAllocator}
+	 * @see {@link fr.fuwuyuan.gameserverapi.cache.PortAllocator#claim() PortAllocator.claim}
 	 * @see {@link PortError}
 	 */
 	public int getAvailablePort(final String ip);
 
 	/**
-	 * This method adds {@code port} to {@code used_ports}
-	 * {@link javax.json.JsonArray} and removes {@code port} from
-	 * {@code available_ports} {@link javax.json.JsonArray} and then update the
-	 * record in the database using the {@code ip}.</br>
-	 * It will do so by fetching, if necessary, the {@link javax.json.JsonArray} from
-	 * the {@code 'ports'} table.
+	 * This method marks {@code port} as used, the {@code used} and
+	 * {@code available} ports of the record in the database are then updated
+	 * in the background using the {@code ip}. The room using the port being
+	 * saved in the {@code 'servers'} table, the port stays used even if the
+	 * update is lost.</br>
+	 * It will do so by fetching, if necessary, the ports from the
+	 * {@code 'ports'} table.
 	 * @param ip as a String for the SQL request
 	 * @param port as an int value for the SQL request
 	 * @return {@code RET_OK} if successful, a {@link PortError} otherwise
-	 * @see {@link PortService#fetchPortsArrays}
-	 * @see {@link PortService#updatePortsArrays}
-	 * @see {@link fr.fuwuyuan.gameserverapi.utils.JsonUtils#removeIntFromJsonArray JsonUtils.removeIntFromJsonArray}
-	 * @see {@link fr.fuwuyuan.gameserverapi.utils.JsonUtils#addIntToJsonArray JsonUtils.addIntToJsonArray}
+	 * @see {@link PortService#fetchPortAllocator}
+	 * @see {@link PortService#updatePorts}
+	 * @see {@link fr.fuwuyuan.gameserverapi.cache.PortAllocator#persistLater PortAllocator.persistLater}
 	 * @see {@link ServiceInterface#RET_OK}
 	 * @see {@link PortError}
 	 */
 	public int addNewPortToUsedPorts(final String ip, final int port);
 
 	/**
-	 * This method removes {@code port} from {@code used_ports}
-	 * {@link javax.json.JsonArray} and adds {@code port} to
-	 * {@code available_ports} {@link javax.json.JsonArray} and then update the
-	 * record in the database using the {@code ip}.</br>
-	 * It will do so by fetching, if necessary, the {@link javax.json.JsonArray} from
-	 * the {@code 'ports'} table.
+	 * This method marks {@code port} as available, the {@code used} and
+	 * {@code available} ports of the record in the database are then updated
+	 * in the background using the {@code ip}.</br>
+	 * It will do so by fetching, if necessary, the ports from the
+	 * {@code 'ports'} table.
 	 * @param ip as a String for the SQL request
 	 * @param port as an int value for the SQL request
 	 * @return {@code RET_OK} if successful, a {@link PortError} otherwise
-	 * @see {@link PortService#fetchPortsArrays}
-	 * @see {@link PortService#updatePortsArrays}
-	 * @see {@link fr.fuwuyuan.gameserverapi.utils.JsonUtils#removeIntFromJsonArray JsonUtils.removeIntFromJsonArray}
-	 * @see {@link fr.fuwuyuan.gameserverapi.utils.JsonUtils#addIntToJsonArray JsonUtils.addIntToJsonArray}
+	 * @see {@link PortService#fetchPortAllocator}
+	 * @see {@link PortService#updatePorts}
+	 * @see {@link fr.fuwuyuan.gameserverapi.cache.PortAllocator#release PortAllocator.release}
 	 * @see {@link ServiceInterface#RET_OK}
 	 * @see {@link PortError}
 	 */
 	public int freeUsedPort(final String ip, final int port);
+
+	/**
+	 * This method marks all the {@code ports} as available, the {@code used}
+	 * and {@code available} ports of the record in the database are then
+	 * updated once in the background, using the {@code ip}.</br>
+	 * It will do so by fetching, if necessary, the ports from the
+	 * {@code 'ports'} table.
+	 * @param ip as a String for the SQL request
+	 * @param ports as an int array
+	 * @return {@code RET_OK} if successful, a {@link PortError} otherwise,
+	 * {@link PortError#NO_PORT_CORRESPONDING_TO_GIVEN_IP} if any of the ports
+	 * was not used, the others being freed
+	 * @see {@link PortService#fetchPortAllocator}
+	 * @see {@link PortService#updatePorts}
+	 * @see {@link fr.fuwuyuan.gameserverapi.cache.PortAllocator#release PortAllocator.release}
+	 * @see {@link ServiceInterface#RET_OK}
+	 * @see {@link PortError}
+	 */
+	public int freeUsedPorts(final String ip, final int[] ports);
+
+	/**
+	 * This method returns the {@link PortAllocator} holding the ports of
+	 * {@code ip}, to read how many of them are used. It will do so by
+	 * fetching, if necessary, the ports from the {@code 'ports'} table.
+	 * @param ip as a String for the SQL request
+	 * @return the {@link PortAllocator} or {@code null} if the ports of the
+	 * ip cannot be fetched
+	 * @see {@link PortService#fetchPortAllocator}
+	 */
+	public PortAllocator getPortAllocator(final String ip);
 }
@@ -1,56 +1,120 @@
 package fr.fuwuyuan.gameserverapi.services;
 
+import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import fr.fuwuyuan.gameserverapi.database.DatabaseSession;
-import fr.fuwuyuan.gameserverapi.database.dto.GameServerDTO;
+import fr.fuwuyuan.gameserverapi.database.PooledConnection;
+import fr.fuwuyuan.gameserverapi.database.SQLRequest;
 import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
+import fr.fuwuyuan.gameserverapi.utils.ApplicationPropertiesUtils;
 
 /**
  * Extends {@link AbstractServerIdService}
  * <p>
  * This is the server id service class which implements a method to
  * determine the next available server id. It uses {@link DatabaseSession}
- * to query the database.
+ * to query the database.</br></br>
+ * Server ids are reserved by blocks of {@code SERVER_ID_BLOCK_SIZE} from the
+ * {@code 'server_id'} row of the {@code 'sequences'} table, with a single
+ * atomic UPDATE, and then handed out from memory. Each api node reserves
+ * its own blocks, no id is ever given twice. The ids left in a block when
+ * the api stops are never used.
  * </p>
  * @author julien-beguier
- * @see {@link DatabaseSession#executeQuery}
+ * @see {@link PooledConnection#update}
+ * @see {@link PooledConnection#query}
  */
 public class ServerIdService extends AbstractServerIdService {
 
+	private final static String		SERVER_ID_BLOCK_SIZE = "SERVER_ID_BLOCK_SIZE";
+	private final static String		SERVER_ID_SEQUENCE = "server_id";
+
+	private static final int		blockSize = readBlockSize();
+	/**
+	 * The block ids are handed out from, shared by all the instances of the
+	 * service. Starts empty.
+	 */
+	private static volatile Block	block = new Block(0, 0);
+	/**
+	 * Held across the UPDATE of the sequence.
+	 */
+	private static final ReentrantLock	reserveLock = new ReentrantLock();
+
+	/**
+	 * A block of reserved ids: from the next id to hand out, included, to
+	 * {@code end}, excluded.
+	 */
+	private static class Block {
+		private final AtomicLong	next;
+		private final long			end;
+
+		private Block(long first, long end) {
+			this.next = new AtomicLong(first);
+			this.end = end;
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public String getNextServerId() {
-		// SQL - Select the maximum value for the server_id field
-		String selectSql = "SELECT MAX(`servers`.`server_id`) as `server_id` FROM `servers`";
+		while (true) {
+			Block current = block;
+			long serverId = current.next.getAndIncrement();
+			if (serverId < current.end)
+				return Long.toString(serverId);
 
-		try {
-			DatabaseSession dbSession = DatabaseSession.getInstance();
-			// Check if the database session is indeed connected to the database
-			if (!dbSession.isConnected()) {
+			// The block is exhausted, only one thread reserves the next one
+			reserveLock.lock();
+			try {
+				if (block == current) {
+					String ret = reserveBlock();
+					if (ret != null)
+						return ret;
+				}
+			} finally {
+				reserveLock.unlock();
+			}
+		}
+	}
+
+	// ##########################################################################
+
+	/**
+	 * This method reserves the next block of ids from the
+	 * {@code 'sequences'} table and makes it the current block.
+	 * @return {@code null} if successful, a {@link ServerIdError} otherwise
+	 * @see {@link ServerIdService#block}
+	 */
+	private String reserveBlock() {
+		try (PooledConnection conn = DatabaseSession.getInstance().getConnection()) {
+			// Check if a connection to the database has been borrowed
+			if (conn == null) {
 				return ServerIdError.SQL_DATABASE_SESSION_NOT_CONNECTED.getErrorString();
 			} else {
-				// The Database session is connected, executing the query
-				ResultSet resultSet = dbSession.executeQuery(selectSql);
-
-				String serverId = null;
-				
-				// Check to see if there is a result
-				if (resultSet.next()) {
-					Integer maxServerIdInt = resultSet.getInt(GameServerDTO.Fields.ServerId.getFieldName());
-					// Increment server id by 1
-					maxServerIdInt += 1;
-					serverId = maxServerIdInt.toString();
-				} else {
-					// There is no running game server
-					serverId =  "1";
+				// The connection is borrowed, executing the query
+				int requestResult = conn.update(SQLRequest.RESERVE_SEQUENCE_BLOCK, blockSize, SERVER_ID_SEQUENCE);
+
+				// Check to see if the sequence exists
+				if (requestResult == 0) {
+					ResponseHandler.error("The '" + SERVER_ID_SEQUENCE + "' row of the 'sequences' table is missing", true);
+					return ServerIdError.SQL_ERROR_FETCH_LOG_AND_DO_NOTHING.getErrorString();
 				}
 
-				resultSet.getStatement().close();
-				return serverId; // Query has succeeded
+				// The new value of the sequence, the block ends right before it
+				ResultSet resultSet = conn.query(SQLRequest.SELECT_LAST_INSERT_ID);
+				resultSet.next();
+				long end = resultSet.getLong(1);
+				resultSet.close();
+
+				block = new Block(end - blockSize, end);
+				return null; // Reservation has succeeded
 			}
 		} catch (SQLException e) {
 			String errorMessage = "ERROR #" + e.getErrorCode() + " " + e.getMessage();
@@ -58,4 +122,14 @@ public class ServerIdService extends AbstractServerIdService {
 			return ServerIdError.SQL_ERROR_FETCH_LOG_AND_DO_NOTHING.getErrorString();
 		}
 	}
+
+	private static int readBlockSize() {
+		Properties properties = null;
+		try {
+			properties = ApplicationPropertiesUtils.readPropertiesFile();
+		} catch (IOException e) {
+			ResponseHandler.error("application.properties file cannot be closed: " + e.getMessage(), true);
+		}
+		return Math.max(1, ApplicationPropertiesUtils.getIntProperty(properties, SERVER_ID_BLOCK_SIZE, 100));
+	}
 }
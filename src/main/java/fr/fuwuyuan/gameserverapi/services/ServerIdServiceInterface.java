@@ -32,9 +32,10 @@ public interface ServerIdServiceInterface extends ServiceInterface {
 	}
 
 	/**
-	 * This method query the database to return the next available server id as
-	 * follows: <pre>MAX(server_id) + 1</pre>
-	 * @return the next available server id
+	 * This method returns the next available server id. Concurrent calls,
+	 * even on different api nodes, never return the same id. The database is
+	 * only queried once every block of ids.
+	 * @return the next available server id or a {@link ServerIdError}
 	 * @see {@link fr.fuwuyuan.gameserverapi.database.DatabaseSession DatabaseSession}
 	 */
 	public String getNextServerId();
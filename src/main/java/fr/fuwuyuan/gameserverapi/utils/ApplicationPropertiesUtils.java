@@ -14,7 +14,7 @@ import fr.fuwuyuan.gameserverapi.logs.ResponseHandler;
  */
 public class ApplicationPropertiesUtils {
 
-	private final static String propertyFile = "/application.properties";
+	private final static String propertyFile = "application.properties";
 
 	/**
 	 * This method reads the {@code application.properties} file located in
@@ -46,4 +46,42 @@ public class ApplicationPropertiesUtils {
 		}
 		return properties;
 	}
+
+	/**
+	 * This method reads the property {@code key} from {@code properties} as an
+	 * int value. If the property is not set or is not a valid number,
+	 * {@code defaultValue} is returned instead.
+	 * @param properties as a {@link Properties}, can be null
+	 * @param key as a String
+	 * @param defaultValue as an int value
+	 * @return the int value of the property or {@code defaultValue}
+	 */
+	public static int getIntProperty(Properties properties, String key, int defaultValue) {
+		return (int) getLongProperty(properties, key, defaultValue);
+	}
+
+	/**
+	 * This method reads the property {@code key} from {@code properties} as a
+	 * long value. If the property is not set or is not a valid number,
+	 * {@code defaultValue} is returned instead.
+	 * @param properties as a {@link Properties}, can be null
+	 * @param key as a String
+	 * @param defaultValue as a long value
+	 * @return the long value of the property or {@code defaultValue}
+	 */
+	public static long getLongProperty(Properties properties, String key, long defaultValue) {
+		if (properties == null)
+			return defaultValue;
+
+		String value = properties.getProperty(key);
+		if (value == null || value.isBlank())
+			return defaultValue;
+
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			ResponseHandler.error("Property " + key + " is not a valid number: '" + value + "', using " + defaultValue, true);
+			return defaultValue;
+		}
+	}
 }
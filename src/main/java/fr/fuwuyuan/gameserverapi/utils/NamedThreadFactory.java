@@ -0,0 +1,30 @@
+package fr.fuwuyuan.gameserverapi.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This utility class is a {@link ThreadFactory} creating daemon threads
+ * named after a given prefix, as follows:
+ * <pre>prefix-1, prefix-2, ...</pre>
+ * Daemon threads are used so that background tasks never prevent the
+ * container from shutting down.
+ * @author julien-beguier
+ * @see {@link ThreadFactory}
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+	private final String prefix;
+	private final AtomicInteger counter = new AtomicInteger();
+
+	public NamedThreadFactory(String prefix) {
+		this.prefix = prefix;
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, this.prefix + "-" + this.counter.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
@@ -0,0 +1,37 @@
+package fr.fuwuyuan.gameserverapi.utils;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import fr.fuwuyuan.gameserverapi.data.GameServerSlim;
+import fr.fuwuyuan.gameserverapi.database.dto.GameServerDTO;
+
+/**
+ * This utility class is used to build objects from the current row of a
+ * {@link ResultSet} of the {@code 'servers'} table.
+ * @author julien-beguier
+ * @see {@link GameServerDTO.Fields}
+ */
+public class ResultSetUtils {
+
+	/**
+	 * This method builds a {@link GameServerSlim} from the current row of
+	 * {@code resultSet}.
+	 * @param resultSet as a {@link ResultSet} positioned on a row
+	 * @return a new {@link GameServerSlim}
+	 * @throws SQLException
+	 */
+	public static GameServerSlim toGameServerSlim(ResultSet resultSet) throws SQLException {
+		GameServerSlim gss = new GameServerSlim();
+		gss.setServerId(resultSet.getString(GameServerDTO.Fields.ServerId.getFieldName()));
+		gss.setIp(resultSet.getString(GameServerDTO.Fields.Ip.getFieldName()));
+		gss.setPort(resultSet.getInt(GameServerDTO.Fields.Port.getFieldName()));
+		gss.serName(resultSet.getString(GameServerDTO.Fields.Name.getFieldName()));
+		gss.setDescription(resultSet.getString(GameServerDTO.Fields.Description.getFieldName()));
+		gss.setGame(resultSet.getString(GameServerDTO.Fields.Game.getFieldName()));
+		gss.setGameVersion(resultSet.getString(GameServerDTO.Fields.GameVersion.getFieldName()));
+		gss.setNMaxPlayers(resultSet.getInt(GameServerDTO.Fields.NMaxPlayers.getFieldName()));
+		gss.setNPlayers(resultSet.getInt(GameServerDTO.Fields.NPlayers.getFieldName()));
+		return gss;
+	}
+}